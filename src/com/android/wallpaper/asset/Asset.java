@@ -43,17 +43,16 @@ import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
+import com.bumptech.glide.request.target.Target;
 
 import java.io.File;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Interface representing an image asset.
  */
 public abstract class Asset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
+    private static final AssetDecodeExecutor sExecutorService = AssetDecodeExecutor.getInstance();
     /**
      * Creates and returns a placeholder Drawable instance sized exactly to the target ImageView and
      * filled completely with pixels of the provided placeholder color.
@@ -247,6 +246,18 @@ public abstract class Asset {
         });
     }
 
+    /**
+     * Starts loading the Drawable that {@link #loadDrawable} shows in an ImageView of the given
+     * size into memory, so that it shows right away once bound. The preload is cancelled by
+     * clearing the returned target with Glide.
+     *
+     * @return the target of the preload, or null if this asset can't be preloaded.
+     */
+    @Nullable
+    public Target<Drawable> preloadDrawable(Context context, int width, int height) {
+        return null;
+    }
+
     /**
      * Loads a Drawable for this asset into the provided ImageView, providing a crossfade transition
      * with the given duration from the Drawable previously set on the ImageView.
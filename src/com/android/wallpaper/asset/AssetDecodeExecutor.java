@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.os.Process;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.VisibleForTesting;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, prioritized executor shared by every {@link Asset} decode, so that a burst of requests
+ * (e.g. fast swiping through previews) queues up instead of spawning a thread per decode, and
+ * requests for what is on screen run ahead of prefetches.
+ *
+ * <p>Tasks of equal priority run in submission order.
+ */
+public final class AssetDecodeExecutor implements Executor {
+
+    @IntDef({PRIORITY_IMMEDIATE, PRIORITY_DEFAULT, PRIORITY_PREFETCH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+
+    /** For decodes of content that is currently visible to the user. */
+    public static final int PRIORITY_IMMEDIATE = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    /** For decodes of content that may be shown soon but isn't yet. */
+    public static final int PRIORITY_PREFETCH = 2;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final int MAX_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static AssetDecodeExecutor sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /** Returns the process-wide decode executor. */
+    public static synchronized AssetDecodeExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new AssetDecodeExecutor(MAX_THREADS);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AssetDecodeExecutor(int maxThreads) {
+        mExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(PRIORITY_DEFAULT, command);
+    }
+
+    /** Queues the given task to run with the given priority. */
+    public void execute(@Priority int priority, Runnable command) {
+        mExecutor.execute(new PrioritizedTask(priority, mSequence.getAndIncrement(), command));
+    }
+
+    /** Returns the maximum number of decodes that may run at the same time. */
+    public int getMaxParallelism() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    private static final class PrioritizedTask implements Runnable,
+            Comparable<PrioritizedTask> {
+        private final int mPriority;
+        private final long mSequence;
+        private final Runnable mDelegate;
+
+        PrioritizedTask(int priority, long sequence, Runnable delegate) {
+            mPriority = priority;
+            mSequence = sequence;
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            mDelegate.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    private static final class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "AssetDecode-" + mCount.incrementAndGet());
+        }
+    }
+}
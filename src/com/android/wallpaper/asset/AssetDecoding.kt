@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.graphics.Rect
+import android.os.CancellationSignal
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.suspendCancellableCoroutine
+
+/**
+ * Priority of a suspending [Asset] decode on the shared [AssetDecodeExecutor]. Duplicate in-flight
+ * requests share the priority of the first caller.
+ */
+enum class DecodePriority(@AssetDecodeExecutor.Priority val value: Int) {
+    IMMEDIATE(AssetDecodeExecutor.PRIORITY_IMMEDIATE),
+    DEFAULT(AssetDecodeExecutor.PRIORITY_DEFAULT),
+    PREFETCH(AssetDecodeExecutor.PRIORITY_PREFETCH),
+}
+
+/**
+ * Decodes a bitmap sized for the destination view's dimensions.
+ *
+ * Cancelling the calling coroutine aborts the decode once no other caller is waiting for the same
+ * asset and size. For [StreamableAsset]s this stops reading the underlying stream; other assets
+ * fall back to their callback based decode and only drop the result.
+ *
+ * @return the decoded bitmap or null if there was an error decoding the bitmap.
+ */
+suspend fun Asset.decodeBitmap(
+    targetWidth: Int,
+    targetHeight: Int,
+    hardwareBitmapAllowed: Boolean,
+    priority: DecodePriority = DecodePriority.DEFAULT,
+): Bitmap? =
+    InFlightDecodes.getOrStart(DecodeKey(this, targetWidth, targetHeight, hardwareBitmapAllowed)) {
+        if (this is StreamableAsset) {
+            runOnDecodeExecutor(priority) { signal ->
+                decodeBitmapBlocking(targetWidth, targetHeight, hardwareBitmapAllowed, signal)
+            }
+        } else {
+            suspendCancellableCoroutine { k: CancellableContinuation<Bitmap?> ->
+                decodeBitmap(targetWidth, targetHeight, hardwareBitmapAllowed) { k.resume(it) }
+            }
+        }
+    }
+
+/**
+ * Decodes and downscales a bitmap region, see [Asset.decodeBitmapRegion].
+ *
+ * @return the decoded bitmap region or null if there was an error decoding it.
+ */
+suspend fun Asset.decodeBitmapRegion(
+    rect: Rect,
+    targetWidth: Int,
+    targetHeight: Int,
+    shouldAdjustForRtl: Boolean,
+    priority: DecodePriority = DecodePriority.DEFAULT,
+): Bitmap? {
+    // Copy the rect since decoding may adjust it in place for RTL and EXIF orientation.
+    val region = Rect(rect)
+    return InFlightDecodes.getOrStart(
+        DecodeKey(this, targetWidth, targetHeight, false, Rect(region), shouldAdjustForRtl)
+    ) {
+        if (this is StreamableAsset) {
+            runOnDecodeExecutor(priority) { signal ->
+                decodeBitmapRegionBlocking(
+                    region,
+                    targetWidth,
+                    targetHeight,
+                    shouldAdjustForRtl,
+                    signal,
+                )
+            }
+        } else {
+            suspendCancellableCoroutine { k: CancellableContinuation<Bitmap?> ->
+                decodeBitmapRegion(region, targetWidth, targetHeight, shouldAdjustForRtl) {
+                    k.resume(it)
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Calculates the raw dimensions of the asset at its original resolution.
+ *
+ * @return the dimensions or null if there was an error decoding them.
+ */
+suspend fun Asset.decodeRawDimensions(
+    priority: DecodePriority = DecodePriority.DEFAULT,
+): Point? =
+    if (this is StreamableAsset) {
+        runOnDecodeExecutor(priority) { calculateRawDimensions() }
+    } else {
+        suspendCancellableCoroutine { k: CancellableContinuation<Point?> ->
+            decodeRawDimensions(null) { k.resume(it) }
+        }
+    }
+
+/**
+ * Runs [block] on the shared [AssetDecodeExecutor]. The [CancellationSignal] handed to the block is
+ * canceled as soon as the calling coroutine is, and the task is skipped entirely if that happens
+ * before it gets a thread.
+ */
+private suspend fun <T> runOnDecodeExecutor(
+    priority: DecodePriority,
+    block: (CancellationSignal) -> T,
+): T = suspendCancellableCoroutine { k ->
+    val signal = CancellationSignal()
+    k.invokeOnCancellation { signal.cancel() }
+    AssetDecodeExecutor.getInstance().execute(priority.value) {
+        if (signal.isCanceled) {
+            return@execute
+        }
+        try {
+            k.resume(block(signal))
+        } catch (t: Throwable) {
+            // Errors too, such as OutOfMemoryError, or the caller would never be resumed.
+            k.resumeWithException(t)
+        }
+    }
+}
+
+private data class DecodeKey(
+    val asset: Asset,
+    val width: Int,
+    val height: Int,
+    val hardwareBitmapAllowed: Boolean,
+    val rect: Rect? = null,
+    val rtl: Boolean = false,
+)
+
+/**
+ * Merges concurrent decodes of the same [DecodeKey] into one. The shared decode is canceled once
+ * every caller waiting for it has been canceled.
+ */
+private object InFlightDecodes {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Unconfined)
+    private val entries = HashMap<DecodeKey, Entry>()
+
+    private class Entry(val deferred: Deferred<Bitmap?>) {
+        var waiters = 0
+    }
+
+    suspend fun getOrStart(key: DecodeKey, decode: suspend () -> Bitmap?): Bitmap? {
+        val entry =
+            synchronized(entries) {
+                entries
+                    .getOrPut(key) { Entry(scope.async(start = CoroutineStart.LAZY) { decode() }) }
+                    .also { it.waiters++ }
+            }
+        // Started outside of the lock since the decode may complete synchronously.
+        entry.deferred.start()
+        try {
+            return entry.deferred.await()
+        } finally {
+            synchronized(entries) {
+                entry.waiters--
+                if (entry.waiters == 0) {
+                    if (entries[key] === entry) {
+                        entries.remove(key)
+                    }
+                    entry.deferred.cancel()
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Process-wide cache of the header information of {@link StreamableAsset} sources (dimensions,
+ * EXIF orientation and MIME type), so that different asset instances pointing at the same
+ * unchanged source don't each re-open and re-parse it.
+ *
+ * <p>Keys are provided by {@link StreamableAsset#getMetadataCacheKey()} and must change whenever
+ * the underlying bytes may have changed (e.g. by including a last modified time or wallpaper id).
+ */
+public final class AssetMetadataCache {
+
+    private static final int MAX_ENTRIES = 512;
+
+    private static final LruCache<String, AssetMetadata> sCache = new LruCache<>(MAX_ENTRIES);
+
+    private AssetMetadataCache() {
+    }
+
+    /** Returns the cached metadata for the given key, or null if there is none. */
+    @Nullable
+    public static AssetMetadata get(String key) {
+        return sCache.get(key);
+    }
+
+    /** Caches the given metadata under the given key. */
+    public static void put(String key, AssetMetadata metadata) {
+        sCache.put(key, metadata);
+    }
+
+    /** Drops every cached entry. */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Header information of an encoded image, as read from the source before any EXIF rotation is
+     * applied. Only created for sources whose bounds could be decoded.
+     */
+    public static final class AssetMetadata {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mExifOrientation;
+        @Nullable
+        private final String mMimeType;
+
+        public AssetMetadata(int width, int height, int exifOrientation,
+                @Nullable String mimeType) {
+            mWidth = width;
+            mHeight = height;
+            mExifOrientation = exifOrientation;
+            mMimeType = mimeType;
+        }
+
+        /** Width of the encoded image. */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /** Height of the encoded image. */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getExifOrientation() {
+            return mExifOrientation;
+        }
+
+        @Nullable
+        public String getMimeType() {
+            return mMimeType;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.app.ActivityManagerCompat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process-wide, byte-bounded cache of decoded {@link Bitmap}s used by {@link BitmapCachingAsset}.
+ *
+ * <p>When the cache is over budget, entries are evicted in least recently used order, whatever
+ * size they were decoded at. A miss for a plain (non region) decode can also be served by
+ * downscaling a larger cached variant of the same asset, which counts as a use of that variant.
+ */
+public class BitmapCache {
+
+    /** Fraction of the app's memory class used as the cache budget on regular devices. */
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+    /** Fraction of the app's memory class used as the cache budget on low ram devices. */
+    private static final int LOW_RAM_MEMORY_CLASS_DIVISOR = 32;
+    /** Hard cap for low ram devices, regardless of what the memory class reports. */
+    private static final int LOW_RAM_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static BitmapCache sInstance;
+
+    /**
+     * Identifies a cached decode. Region decodes carry their crop rect and RTL flag; plain decodes
+     * have a null rect. A (width x height) of (0 x 0) represents the full image.
+     */
+    static final class Key {
+        final Asset mAsset;
+        final int mWidth;
+        final int mHeight;
+        final boolean mRtl;
+        @Nullable final Rect mRect;
+        final boolean mHardwareAllowed;
+
+        Key(Asset asset, int width, int height, boolean hardwareAllowed) {
+            this(asset, width, height, false, null, hardwareAllowed);
+        }
+
+        Key(Asset asset, int width, int height, boolean rtl, @Nullable Rect rect,
+                boolean hardwareAllowed) {
+            mAsset = asset;
+            mWidth = width;
+            mHeight = height;
+            mRtl = rtl;
+            // Copy the rect, callers are free to mutate theirs after the request is made.
+            mRect = rect == null ? null : new Rect(rect);
+            mHardwareAllowed = hardwareAllowed;
+        }
+
+        boolean isFullResolution() {
+            return mWidth == 0 && mHeight == 0;
+        }
+
+        /** Whether a bitmap cached under {@code other} could be downscaled to satisfy this key. */
+        boolean canBeDerivedFrom(Key other) {
+            return mRect == null && other.mRect == null
+                    && mRtl == other.mRtl
+                    && mHardwareAllowed == other.mHardwareAllowed
+                    && Objects.equals(mAsset, other.mAsset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAsset, mWidth, mHeight, mRtl, mRect, mHardwareAllowed);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(mAsset, other.mAsset)
+                    && mWidth == other.mWidth
+                    && mHeight == other.mHeight
+                    && mRtl == other.mRtl
+                    && mHardwareAllowed == other.mHardwareAllowed
+                    && Objects.equals(mRect, other.mRect);
+        }
+    }
+
+    private final int mMaxBytes;
+    /** Cached entries, in access order. */
+    private final LinkedHashMap<Key, Bitmap> mEntries =
+            new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+    private int mSizeBytes;
+
+    private int mHitCount;
+    private int mDerivedHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * Returns the process-wide cache, sizing it from the device's memory class on first use.
+     */
+    public static synchronized BitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager activityManager = (ActivityManager) context.getApplicationContext()
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new BitmapCache(calculateMaxBytes(activityManager.getMemoryClass(),
+                    ActivityManagerCompat.isLowRamDevice(activityManager)));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the cache budget in bytes for a device with the given memory class (in MiB).
+     */
+    @VisibleForTesting
+    static int calculateMaxBytes(int memoryClassMb, boolean isLowRam) {
+        int memoryClassBytes = memoryClassMb * 1024 * 1024;
+        if (isLowRam) {
+            return Math.min(LOW_RAM_MAX_BYTES, memoryClassBytes / LOW_RAM_MEMORY_CLASS_DIVISOR);
+        }
+        return memoryClassBytes / MEMORY_CLASS_DIVISOR;
+    }
+
+    @VisibleForTesting
+    BitmapCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the bitmap cached for the given key, or if none, a bitmap downscaled from a larger
+     * cached variant of the same asset. Returns null on a miss.
+     */
+    @Nullable
+    synchronized Bitmap get(Key key) {
+        Bitmap cached = mEntries.get(key);
+        if (cached != null) {
+            mHitCount++;
+            return cached;
+        }
+        Key sourceKey = findLargerEntry(key);
+        if (sourceKey != null) {
+            mDerivedHitCount++;
+            // Marks the larger entry as used.
+            Bitmap source = mEntries.get(sourceKey);
+            Bitmap derived = downscale(source, key);
+            // Only cache new bitmaps, a bitmap under two keys would count twice against the budget.
+            if (derived != source) {
+                put(key, derived);
+            }
+            return derived;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Adds the given bitmap to the cache, evicting entries as needed. Bitmaps larger than the whole
+     * budget are not cached.
+     */
+    synchronized void put(Key key, Bitmap bitmap) {
+        int size = sizeOf(bitmap);
+        if (size > mMaxBytes) {
+            return;
+        }
+        Bitmap previous = mEntries.put(key, bitmap);
+        if (previous != null) {
+            mSizeBytes -= sizeOf(previous);
+        }
+        mSizeBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /** Drops every cached entry. */
+    public synchronized void evictAll() {
+        trimToSize(-1);
+    }
+
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    /** Number of requests served with an exact cached entry. */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Number of requests served by downscaling a larger cached entry. */
+    public synchronized int getDerivedHitCount() {
+        return mDerivedHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trimToSize(int maxBytes) {
+        Iterator<Map.Entry<Key, Bitmap>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, Bitmap> eldest = iterator.next();
+            iterator.remove();
+            mSizeBytes -= sizeOf(eldest.getValue());
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Returns the key of the smallest cached variant that can be downscaled to satisfy the given
+     * key, so the scale is as cheap as possible, or null if there is none.
+     */
+    @Nullable
+    private Key findLargerEntry(Key key) {
+        if (key.mRect != null || key.isFullResolution()) {
+            return null;
+        }
+        Key bestKey = null;
+        Bitmap best = null;
+        for (Map.Entry<Key, Bitmap> entry : mEntries.entrySet()) {
+            Bitmap candidate = entry.getValue();
+            if (!key.canBeDerivedFrom(entry.getKey()) || candidate.isRecycled()
+                    || candidate.getWidth() < key.mWidth
+                    || candidate.getHeight() < key.mHeight) {
+                continue;
+            }
+            if (best == null || sizeOf(candidate) < sizeOf(best)) {
+                bestKey = entry.getKey();
+                best = candidate;
+            }
+        }
+        return bestKey;
+    }
+
+    /** Downscales the given bitmap to cover the size of the key, or returns it if it's small. */
+    private static Bitmap downscale(Bitmap bitmap, Key key) {
+        // Mirror BitmapUtils#calculateInSampleSize: the result covers the requested size.
+        float scale = Math.max((float) key.mWidth / bitmap.getWidth(),
+                (float) key.mHeight / bitmap.getHeight());
+        if (scale >= 1f) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), /* filter= */ true);
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+}
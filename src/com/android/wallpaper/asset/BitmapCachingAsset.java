@@ -16,101 +16,56 @@
 package com.android.wallpaper.asset;
 
 import android.app.Activity;
-import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.util.LruCache;
 import android.widget.ImageView;
 
 import androidx.annotation.Nullable;
-import androidx.core.app.ActivityManagerCompat;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.wallpaper.module.Injector;
+import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.monitor.PerformanceMonitor;
 
 import java.util.Map;
-import java.util.Objects;
 
 /**
- * Implementation of {@link Asset} that wraps another {@link Asset} but keeps an LRU cache of
- * bitmaps generated by {@link #decodeBitmap(int, int, BitmapReceiver)} to avoid having to decode
- * the same bitmap multiple times.
- * The cache key is the wrapped Asset and the target Width and Height requested, so that we only
- * reuse bitmaps of the same size.
+ * Implementation of {@link Asset} that wraps another {@link Asset} but keeps decoded bitmaps in
+ * the shared {@link BitmapCache} to avoid having to decode the same bitmap multiple times.
+ * The cache key is the wrapped Asset, the target Width and Height requested and, for region
+ * decodes, the crop rect and RTL flag, so that we only reuse bitmaps of the same content.
  */
 public class BitmapCachingAsset extends Asset {
 
-    private static class CacheKey {
-        final Asset mAsset;
-
-        /** a (width x height) of (0 x 0) represents the full image */
-        final int mWidth;
-        final int mHeight;
-        final boolean mRtl;
-        final Rect mRect;
-
-        CacheKey(Asset asset, int width, int height) {
-            this(asset, width, height, false, null);
-        }
-
-        CacheKey(Asset asset, int width, int height, boolean rtl, Rect rect) {
-            mAsset = asset;
-            mWidth = width;
-            mHeight = height;
-            mRtl = rtl;
-            mRect = rect;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(mAsset, mWidth, mHeight);
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            return obj instanceof CacheKey
-                    && (Objects.equals(this.mAsset, ((CacheKey) obj).mAsset))
-                    && ((CacheKey) obj).mWidth == this.mWidth
-                    && ((CacheKey) obj).mHeight == this.mHeight
-                    && ((CacheKey) obj).mRtl == this.mRtl
-                    && (Objects.equals(this.mRect, ((CacheKey) obj).mRect));
-        }
-    }
-
-    private static int cacheSize = 100 * 1024 * 1024; // 100MiB
-    private static LruCache<CacheKey, Bitmap> sCache = new LruCache<CacheKey, Bitmap>(cacheSize) {
-        @Override protected int sizeOf(CacheKey key, Bitmap value) {
-            return value.getByteCount();
-        }
-    };
-
-    private final boolean mIsLowRam;
+    private final BitmapCache mCache;
     private final Asset mOriginalAsset;
 
     public BitmapCachingAsset(Context context, Asset originalAsset) {
+        this(BitmapCache.getInstance(context), originalAsset);
+    }
+
+    @VisibleForTesting
+    BitmapCachingAsset(BitmapCache cache, Asset originalAsset) {
         mOriginalAsset = originalAsset instanceof BitmapCachingAsset
                 ? ((BitmapCachingAsset) originalAsset).mOriginalAsset : originalAsset;
-        mIsLowRam = ActivityManagerCompat.isLowRamDevice(
-                (ActivityManager) context.getApplicationContext().getSystemService(
-                        Context.ACTIVITY_SERVICE));
+        mCache = cache;
     }
 
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
             BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmap(targetWidth, targetHeight, useHardwareBitmapIfPossible,
-                    receiver);
-            return;
-        }
-        CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight);
-        Bitmap cached = sCache.get(key);
+        BitmapCache.Key key = new BitmapCache.Key(mOriginalAsset, targetWidth, targetHeight,
+                useHardwareBitmapIfPossible);
+        Bitmap cached = mCache.get(key);
+        recordLookup(cached != null);
         if (cached != null) {
             receiver.onBitmapDecoded(cached);
         } else {
             BitmapReceiver cachingReceiver = bitmap -> {
                 if (bitmap != null) {
-                    sCache.put(key, bitmap);
+                    mCache.put(key, bitmap);
                 }
                 receiver.onBitmapDecoded(bitmap);
             };
@@ -131,28 +86,31 @@ public class BitmapCachingAsset extends Asset {
     @Override
     public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    receiver);
-            return;
-        }
-        CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight, shouldAdjustForRtl,
-                rect);
-        Bitmap cached = sCache.get(key);
+        BitmapCache.Key key = new BitmapCache.Key(mOriginalAsset, targetWidth, targetHeight,
+                shouldAdjustForRtl, rect, /* hardwareAllowed= */ false);
+        Bitmap cached = mCache.get(key);
+        recordLookup(cached != null);
         if (cached != null) {
             receiver.onBitmapDecoded(cached);
         } else {
             mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
                     bitmap -> {
                         if (bitmap != null) {
-                            sCache.put(key, bitmap);
+                            mCache.put(key, bitmap);
                         }
                         receiver.onBitmapDecoded(bitmap);
                     });
         }
     }
 
+    private static void recordLookup(boolean hit) {
+        Injector injector = InjectorProvider.getInjector();
+        PerformanceMonitor monitor = injector != null ? injector.getPerformanceMonitor() : null;
+        if (monitor != null) {
+            monitor.recordBitmapCacheLookup(hit);
+        }
+    }
+
     @Override
     public void decodeRawDimensions(@Nullable Activity activity, DimensionsReceiver receiver) {
         mOriginalAsset.decodeRawDimensions(activity, receiver);
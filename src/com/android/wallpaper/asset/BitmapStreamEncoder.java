@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.wallpaper.module.Injector;
+import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.monitor.PerformanceMonitor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes bitmaps that have to be handed to WallpaperManager as a stream, without holding the whole
+ * encoded image on the heap.
+ *
+ * <p>The bitmap is compressed in bounded chunks into a temporary file in the app's cache directory,
+ * and the returned stream reads that file back and deletes it when closed. A temporary file, rather
+ * than a pipe, lets a failed compression be detected before anything is handed to the system, so
+ * callers can still fall back to {@code WallpaperManager#setBitmap}. Temporary files left behind by
+ * a process that died before closing its stream are deleted the first time the encoder is used.
+ */
+public final class BitmapStreamEncoder {
+
+    private static final String TAG = "BitmapStreamEncoder";
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+    @VisibleForTesting
+    static final String TEMP_FILE_PREFIX = "wallpaper_encode";
+
+    /** Bytes buffered before each write to the temporary file. */
+    private static final int CHUNK_SIZE = 256 * 1024;
+    /** Quality for re-encoding already lossy sources; visually lossless for photos. */
+    private static final int LOSSY_QUALITY = 95;
+    private static final int LOSSLESS_QUALITY = 100;
+
+    private static boolean sSweptStaleTempFiles;
+
+    // Suppress default constructor for noninstantiability.
+    private BitmapStreamEncoder() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Encodes the given bitmap into a stream of bytes WallpaperManager can decode. Should not be
+     * called from the main thread.
+     *
+     * @param sourceMimeType MIME type of the image the bitmap was decoded from, if known. Opaque
+     *                       bitmaps of JPEG sources are encoded as JPEG, everything else as PNG.
+     * @return a stream of the encoded bitmap, which the caller must close, or null if the bitmap
+     * couldn't be encoded.
+     */
+    @WorkerThread
+    @Nullable
+    public static InputStream encode(Context context, Bitmap bitmap,
+            @Nullable String sourceMimeType) {
+        HeapSampler heapSampler = new HeapSampler();
+        long startTime = SystemClock.elapsedRealtime();
+        CompressFormat format = chooseFormat(bitmap, sourceMimeType);
+        sweepStaleTempFilesOnce(context.getCacheDir());
+
+        File tempFile;
+        try {
+            tempFile = File.createTempFile(TEMP_FILE_PREFIX, null, context.getCacheDir());
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create temporary file to encode wallpaper", e);
+            return null;
+        }
+
+        boolean compressed = false;
+        try (OutputStream out = new BufferedOutputStream(
+                new HeapSamplingOutputStream(new FileOutputStream(tempFile), heapSampler),
+                CHUNK_SIZE)) {
+            compressed = bitmap.compress(format, chooseQuality(format), out);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write encoded wallpaper", e);
+        }
+        heapSampler.sample();
+
+        if (!compressed) {
+            tempFile.delete();
+            return null;
+        }
+        recordEncode(/* reencoded= */ true, SystemClock.elapsedRealtime() - startTime,
+                heapSampler.getPeakGrowthBytes());
+        try {
+            return new DeleteOnCloseFileInputStream(tempFile);
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "Unable to read back encoded wallpaper", e);
+            tempFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Records the cost of streaming an image's original encoded bytes to WallpaperManager, so that
+     * it can be compared with the cost of {@link #encode(Context, Bitmap, String)}.
+     *
+     * @param durationMillis time spent handing the stream to WallpaperManager.
+     * @param heapSampler    sampler created before the stream was opened.
+     */
+    public static void recordStreamThrough(long durationMillis, HeapSampler heapSampler) {
+        heapSampler.sample();
+        recordEncode(/* reencoded= */ false, durationMillis, heapSampler.getPeakGrowthBytes());
+    }
+
+    @VisibleForTesting
+    static CompressFormat chooseFormat(Bitmap bitmap, @Nullable String sourceMimeType) {
+        // PNG keeps transparency and doesn't add loss to lossless or unknown sources, re-encoding
+        // an opaque JPEG photo as PNG only costs time and bytes.
+        if (!bitmap.hasAlpha() && JPEG_MIME_TYPE.equals(sourceMimeType)) {
+            return CompressFormat.JPEG;
+        }
+        return CompressFormat.PNG;
+    }
+
+    @VisibleForTesting
+    static int chooseQuality(CompressFormat format) {
+        return format == CompressFormat.JPEG ? LOSSY_QUALITY : LOSSLESS_QUALITY;
+    }
+
+    /**
+     * Deletes the temporary files of an earlier process, the first time it's called. Every encode
+     * goes through here before creating its own file, so no file of this process is deleted.
+     */
+    private static synchronized void sweepStaleTempFilesOnce(File cacheDir) {
+        if (sSweptStaleTempFiles) {
+            return;
+        }
+        sSweptStaleTempFiles = true;
+        sweepStaleTempFiles(cacheDir);
+    }
+
+    @VisibleForTesting
+    static void sweepStaleTempFiles(File cacheDir) {
+        File[] staleFiles = cacheDir.listFiles(
+                (dir, name) -> name.startsWith(TEMP_FILE_PREFIX));
+        if (staleFiles == null) {
+            return;
+        }
+        for (File staleFile : staleFiles) {
+            if (!staleFile.delete()) {
+                Log.w(TAG, "Unable to delete stale temporary file " + staleFile);
+            }
+        }
+    }
+
+    private static void recordEncode(boolean reencoded, long durationMillis,
+            long peakHeapGrowthBytes) {
+        Injector injector = InjectorProvider.getInjector();
+        PerformanceMonitor monitor = injector != null ? injector.getPerformanceMonitor() : null;
+        if (monitor != null) {
+            monitor.recordSetWallpaperStream(reencoded, durationMillis, peakHeapGrowthBytes);
+        }
+    }
+
+    /**
+     * Tracks the highest combined Java and native heap usage seen across samples. Bitmap pixels
+     * live on the native heap, so both are needed to see the cost of an encode.
+     */
+    public static final class HeapSampler {
+        private final long mBaselineBytes;
+        private long mPeakBytes;
+
+        public HeapSampler() {
+            mBaselineBytes = usedBytes();
+            mPeakBytes = mBaselineBytes;
+        }
+
+        /** Takes a sample of the current heap usage. */
+        public void sample() {
+            mPeakBytes = Math.max(mPeakBytes, usedBytes());
+        }
+
+        /** Returns how much the heap grew beyond the baseline at its highest sample. */
+        public long getPeakGrowthBytes() {
+            return Math.max(0, mPeakBytes - mBaselineBytes);
+        }
+
+        private static long usedBytes() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory()
+                    + Debug.getNativeHeapAllocatedSize();
+        }
+    }
+
+    /** Samples the heap every time a chunk is flushed to the underlying stream. */
+    private static final class HeapSamplingOutputStream extends FilterOutputStream {
+        private final HeapSampler mHeapSampler;
+
+        HeapSamplingOutputStream(OutputStream out, HeapSampler heapSampler) {
+            super(out);
+            mHeapSampler = heapSampler;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mHeapSampler.sample();
+        }
+    }
+
+    private static final class DeleteOnCloseFileInputStream extends FileInputStream {
+        private final File mFile;
+        private boolean mClosed;
+
+        DeleteOnCloseFileInputStream(File file) throws FileNotFoundException {
+            super(file);
+            mFile = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                super.close();
+            } finally {
+                if (!mFile.delete()) {
+                    Log.w(TAG, "Unable to delete temporary file " + mFile);
+                }
+            }
+        }
+    }
+}
@@ -29,6 +29,12 @@ import java.io.InputStream;
  * Collection of static utility methods for decoding and processing Bitmaps.
  */
 public class BitmapUtils {
+    /**
+     * Version of the format of {@link #generateHashCode}. Hash codes saved without it, or with an
+     * older one, can't be compared with newly generated ones and have to be generated again.
+     */
+    public static final int HASH_CODE_VERSION = PerceptualHash.VERSION;
+
     private static final float DEFAULT_CENTER_ALIGNMENT = 0.5f;
 
     // Suppress default constructor for noninstantiability.
@@ -63,31 +69,15 @@ public class BitmapUtils {
     }
 
     /**
-     * Generates a hash code for the given bitmap. Computation starts with a nonzero prime number,
-     * then for the integer values of height, width, and a selection of pixel colors, multiplies the
-     * result by 31 and adds said integer value. Multiply by 31 because it is prime and conveniently 1
-     * less than 32 which is 2 ^ 5, allowing the VM to replace multiplication by a bit shift and
-     * subtraction for performance.
+     * Generates a perceptual hash code for the given bitmap, which is the same for the same image
+     * on any device, including after it was slightly resized or re-encoded. Hash codes should be
+     * saved along with {@link #HASH_CODE_VERSION}.
      * <p>
      * This method should be called off the UI thread.
      */
+    @WorkerThread
     public static long generateHashCode(Bitmap bitmap) {
-        long result = 17;
-
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        result = 31 * result + width;
-        result = 31 * result + height;
-
-        // Traverse pixels exponentially so that hash code generation scales well with large images.
-        for (int x = 0; x < width; x = x * 2 + 1) {
-            for (int y = 0; y < height; y = y * 2 + 1) {
-                result = 31 * result + bitmap.getPixel(x, y);
-            }
-        }
-
-        return result;
+        return PerceptualHash.compute(bitmap);
     }
 
     /**
@@ -33,8 +33,11 @@ import android.os.Looper;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -152,17 +155,26 @@ public final class BuiltInWallpaperAsset extends Asset {
 
     @Override
     public void loadDrawable(Context context, ImageView imageView, int placeholderColor) {
+        createDrawableRequest(context)
+                .placeholder(new ColorDrawable(placeholderColor))
+                .transition(DrawableTransitionOptions.withCrossFade())
+                .into(imageView);
+    }
+
+    @Override
+    public Target<Drawable> preloadDrawable(Context context, int width, int height) {
+        return createDrawableRequest(context).priority(Priority.LOW).preload(width, height);
+    }
+
+    private RequestBuilder<Drawable> createDrawableRequest(Context context) {
         if (mBuiltInWallpaperModel == null) {
             mBuiltInWallpaperModel =
                     new WallpaperModel(context.getApplicationContext(), WallpaperModel.SOURCE_BUILT_IN);
         }
 
-        Glide.with(context)
+        return Glide.with(context)
                 .asDrawable()
                 .load(mBuiltInWallpaperModel)
-                .apply(RequestOptions.centerCropTransform()
-                        .placeholder(new ColorDrawable(placeholderColor)))
-                .transition(DrawableTransitionOptions.withCrossFade())
-                .into(imageView);
+                .apply(RequestOptions.centerCropTransform());
     }
 }
@@ -17,18 +17,25 @@ package com.android.wallpaper.asset;
 
 import android.app.Activity;
 import android.content.Context;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.ImageView;
 
 import androidx.annotation.Nullable;
 
+import com.android.wallpaper.asset.AssetMetadataCache.AssetMetadata;
+
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.MultiTransformation;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
@@ -58,9 +65,14 @@ public final class ContentUriAsset extends StreamableAsset {
     private final Context mContext;
     private final Uri mUri;
     private final RequestOptions mRequestOptions;
+    private final boolean mUncached;
 
     private ExifInterfaceCompat mExifCompat;
     private int mExifOrientation;
+    private String mMimeType;
+    @Nullable
+    private String mMetadataCacheKey;
+    private boolean mMetadataCacheKeyQueried;
 
     /**
      * @param context The application's context.
@@ -75,6 +87,7 @@ public final class ContentUriAsset extends StreamableAsset {
         mExifOrientation = ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN;
         mContext = context.getApplicationContext();
         mUri = uri;
+        mUncached = uncached;
 
         if (uncached) {
             mRequestOptions = requestOptions.apply(RequestOptions
@@ -159,16 +172,22 @@ public final class ContentUriAsset extends StreamableAsset {
      * Returns whether this image is encoded in the JPEG file format.
      */
     public boolean isJpeg() {
-        String mimeType = mContext.getContentResolver().getType(mUri);
-        return mimeType != null && mimeType.equals(JPEG_MIME_TYPE);
+        return JPEG_MIME_TYPE.equals(getMimeType());
     }
 
     /**
      * Returns whether this image is encoded in the PNG file format.
      */
     public boolean isPng() {
-        String mimeType = mContext.getContentResolver().getType(mUri);
-        return mimeType != null && mimeType.equals(PNG_MIME_TYPE);
+        return PNG_MIME_TYPE.equals(getMimeType());
+    }
+
+    @Nullable
+    private String getMimeType() {
+        if (mMimeType == null) {
+            mMimeType = mContext.getContentResolver().getType(mUri);
+        }
+        return mMimeType;
     }
 
     /**
@@ -223,38 +242,83 @@ public final class ContentUriAsset extends StreamableAsset {
             return mExifOrientation;
         }
 
-        mExifOrientation = readExifOrientation();
+        AssetMetadata metadata = getMetadata();
+        if (metadata == null) {
+            Log.w(TAG, "Unable to read EXIF rotation for content URI asset with content URI: "
+                    + mUri);
+            mExifOrientation = ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+        } else {
+            mExifOrientation = metadata.getExifOrientation();
+        }
         return mExifOrientation;
     }
 
+    @Override
+    protected boolean readsExifOrientation() {
+        return true;
+    }
+
     /**
-     * Returns the EXIF rotation for the content URI asset. This method should only be called off
-     * the main UI thread.
+     * Keys the metadata by URI and the last modified time reported by the provider. Content that
+     * doesn't report a last modified time isn't shared, since it may change under the same URI.
+     * The key is only queried once per instance, like the metadata it keys.
      */
-    private int readExifOrientation() {
-        ensureExifInterface();
-        if (mExifCompat == null) {
-            Log.w(TAG, "Unable to read EXIF rotation for content URI asset with content URI: "
-                    + mUri);
-            return ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+    @Override
+    @Nullable
+    protected String getMetadataCacheKey() {
+        if (!mMetadataCacheKeyQueried) {
+            long lastModified = queryLastModified();
+            mMetadataCacheKey = lastModified > 0 ? "uri:" + mUri + "@" + lastModified : null;
+            mMetadataCacheKeyQueried = true;
         }
+        return mMetadataCacheKey;
+    }
 
-        return mExifCompat.getAttributeInt(ExifInterfaceCompat.TAG_ORIENTATION,
-                ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL);
+    private long queryLastModified() {
+        // Only project the one column, since providers may otherwise compute every column they
+        // have for the row.
+        String column = MediaStore.AUTHORITY.equals(mUri.getAuthority())
+                ? MediaStore.MediaColumns.DATE_MODIFIED
+                : DocumentsContract.Document.COLUMN_LAST_MODIFIED;
+        try (Cursor cursor = mContext.getContentResolver().query(mUri, new String[]{column},
+                /* selection= */ null, /* selectionArgs= */ null, /* sortOrder= */ null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return 0;
+            }
+            int index = cursor.getColumnIndex(column);
+            return index < 0 || cursor.isNull(index) ? 0 : cursor.getLong(index);
+        } catch (RuntimeException e) {
+            // Providers may reject queries they don't support, treat it as unknown.
+            Log.w(TAG, "Unable to query last modified time for " + mUri, e);
+            return 0;
+        }
     }
 
     @Override
     public void loadDrawable(Context context, ImageView imageView,
                              int placeholderColor) {
-        Glide.with(context)
-                .asDrawable()
-                .load(mUri)
-                .apply(mRequestOptions
-                        .placeholder(new ColorDrawable(placeholderColor)))
+        createDrawableRequest(context)
+                .placeholder(new ColorDrawable(placeholderColor))
                 .transition(DrawableTransitionOptions.withCrossFade())
                 .into(imageView);
     }
 
+    @Override
+    public Target<Drawable> preloadDrawable(Context context, int width, int height) {
+        if (mUncached) {
+            // Uncached assets skip the memory cache, so a preloaded drawable would never be hit.
+            return null;
+        }
+        return createDrawableRequest(context).priority(Priority.LOW).preload(width, height);
+    }
+
+    private RequestBuilder<Drawable> createDrawableRequest(Context context) {
+        return Glide.with(context)
+                .asDrawable()
+                .load(mUri)
+                .apply(mRequestOptions);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
@@ -24,6 +24,7 @@ import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelFileDescriptor.AutoCloseInputStream;
 import android.util.Log;
@@ -34,12 +35,15 @@ import androidx.annotation.WorkerThread;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.MultiTransformation;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
 import com.bumptech.glide.load.resource.bitmap.FitCenter;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
 
 import java.io.InputStream;
 import java.security.MessageDigest;
@@ -80,6 +84,12 @@ public class CurrentWallpaperAsset extends StreamableAsset {
         return new AutoCloseInputStream(pfd);
     }
 
+    @Override
+    protected String getMetadataCacheKey() {
+        // Wallpaper ids change every time a new wallpaper is set.
+        return "current:" + mWallpaperManagerFlag + "#" + mWallpaperId + (mCropped ? "c" : "");
+    }
+
     @Override
     public int hashCode() {
         int result = 17;
@@ -131,14 +141,23 @@ public class CurrentWallpaperAsset extends StreamableAsset {
     @Override
     public void loadDrawable(Context context, ImageView imageView,
                              int unusedPlaceholderColor) {
-        Glide.with(context)
-                .asDrawable()
-                .load(CurrentWallpaperAsset.this)
-                .apply(RequestOptions.centerCropTransform())
+        createDrawableRequest(context)
                 .transition(DrawableTransitionOptions.withCrossFade())
                 .into(imageView);
     }
 
+    @Override
+    public Target<Drawable> preloadDrawable(Context context, int width, int height) {
+        return createDrawableRequest(context).priority(Priority.LOW).preload(width, height);
+    }
+
+    private RequestBuilder<Drawable> createDrawableRequest(Context context) {
+        return Glide.with(context)
+                .asDrawable()
+                .load(CurrentWallpaperAsset.this)
+                .apply(RequestOptions.centerCropTransform());
+    }
+
     @Override
     protected void adjustCropRect(Context context, Point assetDimensions, Rect cropRect,
             boolean offsetToStart) {
@@ -17,6 +17,8 @@ package com.android.wallpaper.asset;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -46,4 +48,15 @@ public final class FileAsset extends StreamableAsset {
             return null;
         }
     }
+
+    @Override
+    @Nullable
+    protected String getMetadataCacheKey() {
+        // File#length and File#lastModified return 0 if the file doesn't exist.
+        long length = mFile.length();
+        if (length == 0) {
+            return null;
+        }
+        return "file:" + mFile.getAbsolutePath() + "#" + length + "@" + mFile.lastModified();
+    }
 }
@@ -16,6 +16,7 @@
 package com.android.wallpaper.asset;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
@@ -33,12 +34,15 @@ import android.os.Looper;
 import android.util.Log;
 import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.wallpaper.module.DrawableLayerResolver;
 import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.module.LiveWallpaperCatalog;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.MultiTransformation;
 import com.bumptech.glide.load.Transformation;
@@ -47,12 +51,17 @@ import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
 import com.bumptech.glide.load.resource.bitmap.FitCenter;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -61,7 +70,7 @@ import java.util.concurrent.TimeoutException;
  */
 public class LiveWallpaperThumbAsset extends Asset {
     private static final String TAG = "LiveWallpaperThumbAsset";
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
+    private static final AssetDecodeExecutor sExecutorService = AssetDecodeExecutor.getInstance();
     private static final int LOW_RES_THUMB_TIMEOUT_SECONDS = 2;
 
     protected final Context mContext;
@@ -93,63 +102,26 @@ public class LiveWallpaperThumbAsset extends Asset {
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
                              BitmapReceiver receiver) {
         sExecutorService.execute(() -> {
-            Drawable thumb = getThumbnailDrawable();
-
-            // Live wallpaper components may or may not specify a thumbnail drawable.
-            if (thumb instanceof BitmapDrawable) {
-                BitmapDrawable drawableThumb = (BitmapDrawable) thumb;
-                int thumbHeight = drawableThumb.getIntrinsicHeight();
-                int thumbWidth = drawableThumb.getIntrinsicWidth();
-                int height, width;
-                if (thumbHeight > 0 && thumbWidth > 0) {
-                    double ratio = thumbHeight > thumbWidth ? (double) targetHeight / thumbHeight
-                            : (double) targetWidth / thumbWidth;
-                    height = (int) (thumbHeight * ratio);
-                    width =  (int) (thumbWidth * ratio);
-                } else {
-                    height = targetHeight;
-                    width = targetWidth;
-                }
-                decodeBitmapCompleted(receiver,
-                        Bitmap.createScaledBitmap(drawableThumb.getBitmap(), width, height, true));
-                return;
-            } else if (thumb != null) {
-                Bitmap bitmap;
-                if (thumb.getIntrinsicWidth() > 0 && thumb.getIntrinsicHeight() > 0) {
-                    bitmap = Bitmap.createBitmap(thumb.getIntrinsicWidth(),
-                            thumb.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-                } else {
-                    decodeBitmapCompleted(receiver, null);
-                    return;
-                }
-
-                Canvas canvas = new Canvas(bitmap);
-                thumb.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-                thumb.draw(canvas);
-                decodeBitmapCompleted(receiver,
-                        Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true));
+            Bitmap thumb = getThumbnailBitmap(targetWidth, targetHeight);
+            if (thumb == null) {
+                decodeBitmapCompleted(receiver, null);
                 return;
             }
-            decodeBitmapCompleted(receiver, null);
+            int thumbHeight = thumb.getHeight();
+            int thumbWidth = thumb.getWidth();
+            double ratio = thumbHeight > thumbWidth ? (double) targetHeight / thumbHeight
+                    : (double) targetWidth / thumbWidth;
+            int height = (int) (thumbHeight * ratio);
+            int width =  (int) (thumbWidth * ratio);
+            decodeBitmapCompleted(receiver,
+                    Bitmap.createScaledBitmap(thumb, width, height, true));
         });
     }
 
     @Override
     public void decodeBitmap(BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
-            Drawable thumb = getThumbnailDrawable();
-            Bitmap bitmap = null;
-            // Live wallpaper components may or may not specify a thumbnail drawable.
-            if (thumb instanceof BitmapDrawable) {
-                bitmap = ((BitmapDrawable) thumb).getBitmap();
-            } else if (thumb != null) {
-                if (thumb.getIntrinsicWidth() > 0 && thumb.getIntrinsicHeight() > 0) {
-                    bitmap = Bitmap.createBitmap(thumb.getIntrinsicWidth(),
-                            thumb.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-                }
-            }
-            decodeBitmapCompleted(receiver, bitmap);
-        });
+        sExecutorService.execute(() -> decodeBitmapCompleted(receiver,
+                getThumbnailBitmap(/* targetWidth= */ 0, /* targetHeight= */ 0)));
     }
 
     @Override
@@ -160,24 +132,10 @@ public class LiveWallpaperThumbAsset extends Asset {
 
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
-        // TODO(b/277166654): Reuse the logic for all thumb asset decoding
         sExecutorService.execute(() -> {
-            Bitmap result = null;
-            Drawable thumb = mInfo.loadThumbnail(mContext.getPackageManager());
-            if (thumb instanceof BitmapDrawable) {
-                result = ((BitmapDrawable) thumb).getBitmap();
-            } else if (thumb instanceof LayerDrawable) {
-                Drawable layer = mLayerResolver.resolveLayer((LayerDrawable) thumb);
-                if (layer instanceof BitmapDrawable) {
-                    result = ((BitmapDrawable) layer).getBitmap();
-                }
-            }
-            final Bitmap lr = result;
+            Point dimensions = getRawDimensions();
             new Handler(Looper.getMainLooper()).post(
-                    () ->
-                            receiver.onDimensionsDecoded(
-                                    lr == null ? null : new Point(lr.getWidth(), lr.getHeight()))
-            );
+                    () -> receiver.onDimensionsDecoded(dimensions));
         });
     }
 
@@ -208,6 +166,21 @@ public class LiveWallpaperThumbAsset extends Asset {
                 .into(imageView);
     }
 
+    @Override
+    @Nullable
+    public Target<Drawable> preloadDrawable(Context context, int width, int height) {
+        if (mUri != null) {
+            // Thumbnails from a Uri skip the memory cache, see loadDrawable.
+            return null;
+        }
+        return Glide.with(context)
+                .asDrawable()
+                .load(LiveWallpaperThumbAsset.this)
+                .apply(RequestOptions.centerCropTransform())
+                .priority(Priority.LOW)
+                .preload(width, height);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
@@ -258,11 +231,68 @@ public class LiveWallpaperThumbAsset extends Asset {
         return null;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(mInfo.getComponent(), mUri);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        // Equal assets share Glide's memory cache entry.
+        if (object instanceof LiveWallpaperThumbAsset) {
+            LiveWallpaperThumbAsset otherAsset = (LiveWallpaperThumbAsset) object;
+            return otherAsset.getClass() == getClass()
+                    && otherAsset.mInfo.getComponent().equals(mInfo.getComponent())
+                    && Objects.equals(otherAsset.mUri, mUri);
+        }
+        return false;
+    }
+
     /**
-     * Returns a Glide cache key.
+     * Returns a Glide cache key, which changes whenever the thumbnail may have changed.
      */
+    @WorkerThread
     Key getKey() {
-        return new LiveWallpaperThumbKey(mInfo);
+        return new LiveWallpaperThumbKey(mInfo, mUri, getPackageVersion());
+    }
+
+    /**
+     * Opens the encoded thumbnail for Glide to decode, from the thumbnail cache if possible.
+     * Should not be called on the main UI thread.
+     */
+    @WorkerThread
+    @Nullable
+    InputStream openThumbnailStream() throws IOException {
+        if (mUri != null) {
+            try {
+                InputStream stream = mContext.getContentResolver().openInputStream(mUri);
+                if (stream != null) {
+                    return stream;
+                }
+            } catch (IOException | SecurityException e) {
+                Log.w(TAG, "Not found thumbnail from URI.");
+            }
+        }
+        String packageVersion = getPackageVersion();
+        ComponentName component = mInfo.getComponent();
+        LiveWallpaperThumbnailCache cache = LiveWallpaperThumbnailCache.getInstance(mContext);
+        File file = packageVersion != null ? cache.getFile(component, packageVersion) : null;
+        if (file == null) {
+            Drawable thumb = loadThumbnailFromInfo();
+            Bitmap bitmap = toBitmap(thumb);
+            if (bitmap == null) {
+                return null;
+            }
+            file = packageVersion != null
+                    ? cache.put(component, packageVersion, bitmap, getRawDimensions(thumb))
+                    : null;
+            if (file == null) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.PNG, /* quality= */ 100, output);
+                return new ByteArrayInputStream(output.toByteArray());
+            }
+        }
+        return new FileInputStream(file);
     }
 
     /**
@@ -308,14 +338,134 @@ public class LiveWallpaperThumbAsset extends Asset {
         return mInfo.loadThumbnail(mContext.getPackageManager());
     }
 
+    /**
+     * Returns the installed version of the wallpaper's package if the thumbnail comes from it and
+     * may be kept in the thumbnail cache, or null otherwise. Thumbnails from a Uri aren't cached
+     * since their content may change at any time.
+     */
+    @WorkerThread
+    @Nullable
+    private String getPackageVersion() {
+        if (!mShouldCacheThumbnail || mUri != null) {
+            return null;
+        }
+        return LiveWallpaperCatalog.getInstance(mContext).getPackageVersion(
+                mInfo.getPackageName());
+    }
+
+    /**
+     * Returns the thumbnail at least at the given size, or at full size if the target size isn't
+     * positive, from the thumbnail cache if possible.
+     */
+    @WorkerThread
+    @Nullable
+    private Bitmap getThumbnailBitmap(int targetWidth, int targetHeight) {
+        String packageVersion = getPackageVersion();
+        LiveWallpaperThumbnailCache cache = LiveWallpaperThumbnailCache.getInstance(mContext);
+        if (packageVersion != null) {
+            Bitmap bitmap = cache.getBitmap(mInfo.getComponent(), packageVersion, targetWidth,
+                    targetHeight);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        Drawable thumb = getThumbnailDrawable();
+        Bitmap bitmap = toBitmap(thumb);
+        if (packageVersion != null && bitmap != null) {
+            cache.put(mInfo.getComponent(), packageVersion, bitmap, getRawDimensions(thumb));
+        }
+        return bitmap;
+    }
+
+    @WorkerThread
+    @Nullable
+    private Point getRawDimensions() {
+        String packageVersion = getPackageVersion();
+        if (packageVersion != null) {
+            LiveWallpaperThumbnailCache.Entry entry = LiveWallpaperThumbnailCache.getInstance(
+                    mContext).get(mInfo.getComponent(), packageVersion);
+            if (entry != null) {
+                return entry.getRawDimensions();
+            }
+        }
+        if (mUri != null) {
+            try (AssetFileDescriptor assetFileDescriptor =
+                         mContext.getContentResolver().openAssetFileDescriptor(mUri, "r")) {
+                if (assetFileDescriptor != null) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inJustDecodeBounds = true;
+                    BitmapFactory.decodeStream(assetFileDescriptor.createInputStream(), null,
+                            options);
+                    if (options.outWidth > 0 && options.outHeight > 0) {
+                        return new Point(options.outWidth, options.outHeight);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Not found thumbnail from URI.");
+            }
+        }
+        Drawable thumb = loadThumbnailFromInfo();
+        Point dimensions = getRawDimensions(thumb);
+        Bitmap bitmap = packageVersion != null ? toBitmap(thumb) : null;
+        if (bitmap != null) {
+            // Keep the thumbnail too since it is typically shown right after.
+            LiveWallpaperThumbnailCache.getInstance(mContext).put(mInfo.getComponent(),
+                    packageVersion, bitmap, dimensions);
+        }
+        return dimensions;
+    }
+
+    /**
+     * Returns the dimensions of the bitmap backing the given thumbnail, or of its relevant layer
+     * for a {@link LayerDrawable}, or null if it isn't backed by a bitmap.
+     */
+    @Nullable
+    private Point getRawDimensions(@Nullable Drawable thumb) {
+        if (thumb instanceof LayerDrawable) {
+            thumb = mLayerResolver.resolveLayer((LayerDrawable) thumb);
+        }
+        if (thumb instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) thumb).getBitmap();
+            if (bitmap != null) {
+                return new Point(bitmap.getWidth(), bitmap.getHeight());
+            }
+        }
+        return null;
+    }
+
+    /** Returns the given thumbnail drawn at its intrinsic size, or null if it has none. */
+    @Nullable
+    private static Bitmap toBitmap(@Nullable Drawable thumb) {
+        // Live wallpaper components may or may not specify a thumbnail drawable.
+        if (thumb instanceof BitmapDrawable && ((BitmapDrawable) thumb).getBitmap() != null) {
+            return ((BitmapDrawable) thumb).getBitmap();
+        }
+        if (thumb == null || thumb.getIntrinsicWidth() <= 0 || thumb.getIntrinsicHeight() <= 0) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(thumb.getIntrinsicWidth(), thumb.getIntrinsicHeight(),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        thumb.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        thumb.draw(canvas);
+        return bitmap;
+    }
+
     /**
      * Glide caching key for resources from any arbitrary package.
      */
     private static final class LiveWallpaperThumbKey implements Key {
         private android.app.WallpaperInfo mInfo;
+        @Nullable
+        private Uri mUri;
+        @Nullable
+        private String mPackageVersion;
 
-        public LiveWallpaperThumbKey(android.app.WallpaperInfo info) {
+        public LiveWallpaperThumbKey(android.app.WallpaperInfo info, @Nullable Uri uri,
+                @Nullable String packageVersion) {
             mInfo = info;
+            mUri = uri;
+            mPackageVersion = packageVersion;
         }
 
         @Override
@@ -346,12 +496,15 @@ public class LiveWallpaperThumbAsset extends Asset {
         /**
          * Returns an inexpensively calculated {@link String} suitable for use as a disk cache key,
          * based on the live wallpaper's package name and service name, which is enough to uniquely
-         * identify a live wallpaper.
+         * identify a live wallpaper, along with the thumbnail Uri if any and the package version
+         * so that updated thumbnails aren't served from the cache.
          */
         private String getCacheKey() {
             return "LiveWallpaperThumbKey{"
                     + "packageName=" + mInfo.getPackageName() + ","
-                    + "serviceName=" + mInfo.getServiceName()
+                    + "serviceName=" + mInfo.getServiceName() + ","
+                    + "uri=" + mUri + ","
+                    + "packageVersion=" + mPackageVersion
                     + '}';
         }
     }
@@ -15,8 +15,6 @@
  */
 package com.android.wallpaper.asset;
 
-import android.graphics.drawable.Drawable;
-
 import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.Options;
@@ -27,11 +25,15 @@ import com.bumptech.glide.load.model.MultiModelLoaderFactory;
 
 import androidx.annotation.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
- * Glide model loader for live wallpaper thumbnails.
+ * Glide model loader for live wallpaper thumbnails, which loads them encoded so that Glide can keep
+ * decoded and resized thumbnails in its disk cache.
  */
 public class LiveWallpaperThumbAssetLoader implements
-        ModelLoader<LiveWallpaperThumbAsset, Drawable> {
+        ModelLoader<LiveWallpaperThumbAsset, InputStream> {
 
     @Override
     public boolean handles(LiveWallpaperThumbAsset liveWallpaperThumbAsset) {
@@ -40,7 +42,7 @@ public class LiveWallpaperThumbAssetLoader implements
 
     @Nullable
     @Override
-    public LoadData<Drawable> buildLoadData(LiveWallpaperThumbAsset liveWallpaperThumbAsset,
+    public LoadData<InputStream> buildLoadData(LiveWallpaperThumbAsset liveWallpaperThumbAsset,
                                             int unusedWidth, int unusedHeight, Options options) {
         return new LoadData<>(liveWallpaperThumbAsset.getKey(),
                 new LiveWallpaperThumbFetcher(liveWallpaperThumbAsset));
@@ -50,12 +52,12 @@ public class LiveWallpaperThumbAssetLoader implements
      * Factory that constructs {@link LiveWallpaperThumbAssetLoader} instances.
      */
     public static class LiveWallpaperThumbAssetLoaderFactory
-            implements ModelLoaderFactory<LiveWallpaperThumbAsset, Drawable> {
+            implements ModelLoaderFactory<LiveWallpaperThumbAsset, InputStream> {
         public LiveWallpaperThumbAssetLoaderFactory() {
         }
 
         @Override
-        public ModelLoader<LiveWallpaperThumbAsset, Drawable> build(
+        public ModelLoader<LiveWallpaperThumbAsset, InputStream> build(
                 MultiModelLoaderFactory multiFactory) {
             return new LiveWallpaperThumbAssetLoader();
         }
@@ -69,17 +71,31 @@ public class LiveWallpaperThumbAssetLoader implements
     /**
      * Fetcher class for fetching wallpaper image data from a {@link LiveWallpaperThumbAsset}.
      */
-    private static class LiveWallpaperThumbFetcher implements DataFetcher<Drawable> {
+    private static class LiveWallpaperThumbFetcher implements DataFetcher<InputStream> {
 
         private LiveWallpaperThumbAsset mLiveWallpaperThumbAsset;
+        @Nullable
+        private InputStream mStream;
 
         public LiveWallpaperThumbFetcher(LiveWallpaperThumbAsset liveWallpaperThumbAsset) {
             mLiveWallpaperThumbAsset = liveWallpaperThumbAsset;
         }
 
         @Override
-        public void loadData(Priority priority, DataCallback<? super Drawable> callback) {
-            callback.onDataReady(mLiveWallpaperThumbAsset.getThumbnailDrawable());
+        public void loadData(Priority priority, DataCallback<? super InputStream> callback) {
+            InputStream stream;
+            try {
+                stream = mLiveWallpaperThumbAsset.openThumbnailStream();
+            } catch (IOException e) {
+                callback.onLoadFailed(e);
+                return;
+            }
+            if (stream == null) {
+                callback.onLoadFailed(new Exception("Live wallpaper has no thumbnail"));
+                return;
+            }
+            mStream = stream;
+            callback.onDataReady(stream);
         }
 
         @Override
@@ -94,12 +110,18 @@ public class LiveWallpaperThumbAssetLoader implements
 
         @Override
         public void cleanup() {
-            // no-op
+            if (mStream != null) {
+                try {
+                    mStream.close();
+                } catch (IOException e) {
+                    // Ignored.
+                }
+            }
         }
 
         @Override
-        public Class<Drawable> getDataClass() {
-            return Drawable.class;
+        public Class<InputStream> getDataClass() {
+            return InputStream.class;
         }
     }
 }
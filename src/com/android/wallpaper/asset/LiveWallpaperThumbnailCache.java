@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * On-disk cache of live wallpaper thumbnails, so that showing them doesn't load each thumbnail
+ * drawable from its package again.
+ *
+ * <p>Thumbnails are keyed by wallpaper component and stored as PNG at full size, and at half,
+ * quarter and eighth size once requested at those sizes, so that small grid cells don't decode
+ * the full thumbnail. An entry is only returned for the package version it was stored for, see
+ * {@link com.android.wallpaper.module.LiveWallpaperCatalog#getPackageVersion}, and is dropped as
+ * soon as a different version is asked for. Thumbnail files are named after the package version
+ * too, so that a write still pending for a previous version can't be served for the current one.
+ * Thumbnail dimensions are kept in a separate index so they can be read without touching any
+ * thumbnail.
+ */
+public class LiveWallpaperThumbnailCache {
+
+    private static final String TAG = "LiveWallpaperThumbCache";
+    private static final String DIRECTORY_NAME = "live_wallpaper_thumbnails";
+    private static final String INDEX_FILE_NAME = "index";
+    private static final int MAGIC = 0x4c575454; // "LWTT"
+    private static final int VERSION = 2;
+    private static final int MAX_ENTRIES = 200;
+    /** Thumbnails are stored down to 1/2^MAX_BUCKET of their full size. */
+    @VisibleForTesting
+    static final int MAX_BUCKET = 3;
+
+    private static LiveWallpaperThumbnailCache sInstance;
+
+    private final File mDirectory;
+    private final AtomicFile mIndexFile;
+    private final Executor mWriteExecutor;
+    private final Object mLock = new Object();
+
+    /** Entries by flattened component name, least recently used first. */
+    @GuardedBy("mLock")
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+    @GuardedBy("mLock")
+    private boolean mLoaded;
+    @GuardedBy("mLock")
+    private boolean mWriteScheduled;
+
+    /** Returns the process-wide thumbnail cache. */
+    public static synchronized LiveWallpaperThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LiveWallpaperThumbnailCache(
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    LiveWallpaperThumbnailCache(File directory, Executor writeExecutor) {
+        mDirectory = directory;
+        mIndexFile = new AtomicFile(new File(directory, INDEX_FILE_NAME));
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Returns the entry of the given component if it was stored for the given package version, or
+     * null otherwise.
+     */
+    @WorkerThread
+    @Nullable
+    public Entry get(ComponentName component, String packageVersion) {
+        synchronized (mLock) {
+            return getLocked(component.flattenToShortString(), packageVersion);
+        }
+    }
+
+    /**
+     * Returns the stored thumbnail of the given component, in the smallest stored size that is at
+     * least the given target size, or at full size if the target size isn't positive. Returns null
+     * if there is no thumbnail for the given package version.
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap getBitmap(ComponentName component, String packageVersion, int targetWidth,
+            int targetHeight) {
+        Entry entry = get(component, packageVersion);
+        if (entry == null) {
+            return null;
+        }
+        int bucket = getBucket(entry.mWidth, entry.mHeight, targetWidth, targetHeight);
+        File bucketFile = getFile(component, packageVersion, bucket);
+        if (bucketFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(bucketFile.getPath());
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        File fullSizeFile = getFile(component, packageVersion, /* bucket= */ 0);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1 << bucket;
+        Bitmap bitmap = BitmapFactory.decodeFile(fullSizeFile.getPath(), options);
+        if (bitmap == null) {
+            return null;
+        }
+        if (bucket > 0) {
+            // The caller owns the returned bitmap and may recycle it, so a copy is written.
+            Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, /* isMutable= */ false);
+            if (copy != null) {
+                mWriteExecutor.execute(() -> {
+                    writeBitmap(bucketFile, copy);
+                    copy.recycle();
+                });
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the file holding the full size thumbnail of the given component, or null if there
+     * is none for the given package version.
+     */
+    @WorkerThread
+    @Nullable
+    public File getFile(ComponentName component, String packageVersion) {
+        if (get(component, packageVersion) == null) {
+            return null;
+        }
+        File file = getFile(component, packageVersion, /* bucket= */ 0);
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Stores the full size thumbnail of the given component along with the dimensions reported for
+     * it, replacing whatever was stored for it before.
+     *
+     * @return the file holding the thumbnail, or null if it couldn't be written.
+     */
+    @WorkerThread
+    @Nullable
+    public File put(ComponentName component, String packageVersion, Bitmap thumbnail,
+            @Nullable Point rawDimensions) {
+        String key = component.flattenToShortString();
+        synchronized (mLock) {
+            loadLocked();
+            removeLocked(key);
+        }
+        File file = getFile(component, packageVersion, /* bucket= */ 0);
+        if (!writeBitmap(file, thumbnail)) {
+            return null;
+        }
+        synchronized (mLock) {
+            mEntries.put(key, new Entry(packageVersion, thumbnail.getWidth(),
+                    thumbnail.getHeight(), rawDimensions));
+            Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+            while (mEntries.size() > MAX_ENTRIES && iterator.hasNext()) {
+                Map.Entry<String, Entry> evicted = iterator.next();
+                iterator.remove();
+                deleteFiles(evicted.getKey(), evicted.getValue().mPackageVersion);
+            }
+            scheduleWriteLocked();
+        }
+        return file;
+    }
+
+    /**
+     * Returns the bucket to read for the given target size: the largest one, up to
+     * {@link #MAX_BUCKET}, whose dimensions are still at least the target dimensions.
+     */
+    @VisibleForTesting
+    static int getBucket(int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 0;
+        }
+        int bucket = 0;
+        while (bucket < MAX_BUCKET && (width >> (bucket + 1)) >= targetWidth
+                && (height >> (bucket + 1)) >= targetHeight) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    @GuardedBy("mLock")
+    @Nullable
+    private Entry getLocked(String key, String packageVersion) {
+        loadLocked();
+        Entry entry = mEntries.get(key);
+        if (entry != null && !entry.mPackageVersion.equals(packageVersion)) {
+            removeLocked(key);
+            return null;
+        }
+        return entry;
+    }
+
+    @GuardedBy("mLock")
+    private void removeLocked(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            deleteFiles(key, entry.mPackageVersion);
+            scheduleWriteLocked();
+        }
+    }
+
+    private void deleteFiles(String key, String packageVersion) {
+        for (int bucket = 0; bucket <= MAX_BUCKET; bucket++) {
+            new AtomicFile(getFile(key, packageVersion, bucket)).delete();
+        }
+    }
+
+    /** Deletes every file but the index, e.g. thumbnails named by a previous index version. */
+    private void deleteThumbnailFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().startsWith(INDEX_FILE_NAME)) {
+                file.delete();
+            }
+        }
+    }
+
+    private File getFile(ComponentName component, String packageVersion, int bucket) {
+        return getFile(component.flattenToShortString(), packageVersion, bucket);
+    }
+
+    private File getFile(String key, String packageVersion, int bucket) {
+        String name = key + "_" + packageVersion + "_" + bucket;
+        return new File(mDirectory, name.replaceAll("[^\\w.-]", "_") + ".png");
+    }
+
+    private boolean writeBitmap(File file, Bitmap bitmap) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDirectory);
+            return false;
+        }
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = null;
+        try {
+            stream = atomicFile.startWrite();
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, /* quality= */ 100, stream)) {
+                throw new IOException("Unable to compress thumbnail");
+            }
+            atomicFile.finishWrite(stream);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+            if (stream != null) {
+                atomicFile.failWrite(stream);
+            }
+            return false;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void loadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mIndexFile.getBaseFile().exists()) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(mIndexFile.openRead()))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                deleteThumbnailFiles();
+                return;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                String packageVersion = input.readUTF();
+                int width = input.readInt();
+                int height = input.readInt();
+                int rawWidth = input.readInt();
+                int rawHeight = input.readInt();
+                mEntries.put(key, new Entry(packageVersion, width, height,
+                        rawWidth >= 0 ? new Point(rawWidth, rawHeight) : null));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the thumbnail index", e);
+            mEntries.clear();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleWriteLocked() {
+        if (mWriteScheduled) {
+            return;
+        }
+        mWriteScheduled = true;
+        // Writes are coalesced: a single write picks up every change made before it runs.
+        mWriteExecutor.execute(this::writeIndex);
+    }
+
+    private void writeIndex() {
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (mLock) {
+            mWriteScheduled = false;
+            snapshot = new ArrayList<>(mEntries.entrySet());
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        FileOutputStream stream;
+        try {
+            stream = mIndexFile.startWrite();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the thumbnail index", e);
+            return;
+        }
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> indexEntry : snapshot) {
+                Entry entry = indexEntry.getValue();
+                output.writeUTF(indexEntry.getKey());
+                output.writeUTF(entry.mPackageVersion);
+                output.writeInt(entry.mWidth);
+                output.writeInt(entry.mHeight);
+                output.writeInt(entry.mRawDimensions != null ? entry.mRawDimensions.x : -1);
+                output.writeInt(entry.mRawDimensions != null ? entry.mRawDimensions.y : -1);
+            }
+            output.flush();
+            mIndexFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the thumbnail index", e);
+            mIndexFile.failWrite(stream);
+        }
+    }
+
+    /** Index entry of a stored thumbnail. Immutable. */
+    public static final class Entry {
+        private final String mPackageVersion;
+        private final int mWidth;
+        private final int mHeight;
+        @Nullable
+        private final Point mRawDimensions;
+
+        Entry(String packageVersion, int width, int height, @Nullable Point rawDimensions) {
+            mPackageVersion = packageVersion;
+            mWidth = width;
+            mHeight = height;
+            mRawDimensions = rawDimensions;
+        }
+
+        /** Width of the full size thumbnail. */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /** Height of the full size thumbnail. */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** Dimensions reported for the thumbnail's source image, or null if it has none. */
+        @Nullable
+        public Point getRawDimensions() {
+            return mRawDimensions == null ? null : new Point(mRawDimensions);
+        }
+    }
+}
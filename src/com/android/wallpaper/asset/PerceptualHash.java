@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.WorkerThread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the 64-bit perceptual hash behind {@link BitmapUtils#generateHashCode}.
+ *
+ * <p>Hashes are persisted, backed up and restored to other devices, so the format below must not
+ * change without bumping {@link #VERSION}, which is saved next to every hash. The version can't be
+ * told from the hash itself, since hashes of the older format used all 64 bits. Version 1 is laid
+ * out as follows, from the most significant bit:
+ * <ul>
+ *     <li>1 bit: always set, so that no hash is 0, which stands for a missing one.
+ *     <li>7 bits: the mean color of the image, as RGB 2-3-2.
+ *     <li>56 bits: for each row of an 8x8 grid of cells, top to bottom, whether each cell is
+ *     brighter than the one to its left by more than {@link #BRIGHTNESS_DEAD_ZONE}, left to right.
+ * </ul>
+ *
+ * <p>Cell brightness is the mean luma of the pixels sampled in the cell, so the same image
+ * resized or re-encoded hashes the same in nearly all cases. Pixels are read in bulk from a copy
+ * downsampled to at most {@link #MAX_SAMPLE_DIMENSION} pixels on its longer side, in horizontal
+ * bands that run in parallel on the {@link AssetDecodeExecutor} once the copy is large enough.
+ */
+final class PerceptualHash {
+
+    static final int VERSION = 1;
+
+    private static final int GRID_COLUMNS = 8;
+    private static final int GRID_ROWS = 8;
+    private static final int MAX_SAMPLE_DIMENSION = 1024;
+    private static final int BAND_HEIGHT = 128;
+    /** Keeps nearly flat areas from flipping bits on tiny differences in scaling or encoding. */
+    private static final int BRIGHTNESS_DEAD_ZONE = 2;
+
+    // Per cell sums, in this order: red, green, blue, luma and sampled pixel count.
+    private static final int SUM_COUNT = 5;
+    private static final int SUM_RED = 0;
+    private static final int SUM_GREEN = 1;
+    private static final int SUM_BLUE = 2;
+    private static final int SUM_LUMA = 3;
+    private static final int SUM_PIXELS = 4;
+
+    // Suppress default constructor for noninstantiability.
+    private PerceptualHash() {
+        throw new AssertionError();
+    }
+
+    @WorkerThread
+    static long compute(Bitmap bitmap) {
+        Bitmap sample = createSample(bitmap);
+        try {
+            long[] sums = sumCells(sample);
+            return (1L << 63) | ((long) meanColor(sums) << 56) | brightnessGradients(sums);
+        } finally {
+            if (sample != bitmap) {
+                sample.recycle();
+            }
+        }
+    }
+
+    /**
+     * Returns a software bitmap of the given one, downsampled if it's larger than
+     * {@link #MAX_SAMPLE_DIMENSION}, or the given bitmap itself if it can be read as it is.
+     */
+    private static Bitmap createSample(Bitmap bitmap) {
+        Bitmap source = bitmap;
+        if (bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            // Hardware bitmaps can neither be read nor drawn in software.
+            source = bitmap.copy(Bitmap.Config.ARGB_8888, /* isMutable= */ false);
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int longerSide = Math.max(width, height);
+        if (longerSide <= MAX_SAMPLE_DIMENSION) {
+            return source;
+        }
+        float scale = (float) MAX_SAMPLE_DIMENSION / longerSide;
+        Bitmap sample = Bitmap.createScaledBitmap(source,
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)),
+                /* filter= */ true);
+        if (source != bitmap && source != sample) {
+            source.recycle();
+        }
+        return sample;
+    }
+
+    /** Sums every cell of the sample, splitting it in bands that are summed in parallel. */
+    private static long[] sumCells(Bitmap sample) {
+        int bandCount = (sample.getHeight() + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        long[][] bandSums = new long[bandCount][];
+        AtomicInteger nextBand = new AtomicInteger();
+        CountDownLatch bandsDone = new CountDownLatch(bandCount);
+        Runnable worker = () -> {
+            int band;
+            while ((band = nextBand.getAndIncrement()) < bandCount) {
+                try {
+                    bandSums[band] = sumBand(sample, band);
+                } finally {
+                    bandsDone.countDown();
+                }
+            }
+        };
+
+        AssetDecodeExecutor executor = AssetDecodeExecutor.getInstance();
+        int helperCount = Math.min(bandCount, executor.getMaxParallelism()) - 1;
+        for (int i = 0; i < helperCount; i++) {
+            executor.execute(AssetDecodeExecutor.PRIORITY_DEFAULT, worker);
+        }
+        // The calling thread takes bands too, so that it never waits for a helper that hasn't
+        // started, even when it runs on the executor itself.
+        worker.run();
+        try {
+            bandsDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing bitmap", e);
+        }
+
+        // Integer sums add up the same in any order, so the result doesn't depend on scheduling.
+        long[] sums = new long[GRID_COLUMNS * GRID_ROWS * SUM_COUNT];
+        for (long[] band : bandSums) {
+            if (band == null) {
+                throw new IllegalStateException("Couldn't read every band of the bitmap");
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += band[i];
+            }
+        }
+        return sums;
+    }
+
+    private static long[] sumBand(Bitmap sample, int band) {
+        int width = sample.getWidth();
+        int height = sample.getHeight();
+        int top = band * BAND_HEIGHT;
+        int bandHeight = Math.min(BAND_HEIGHT, height - top);
+        int[] pixels = new int[width * bandHeight];
+        sample.getPixels(pixels, 0, width, 0, top, width, bandHeight);
+
+        int[] cellColumns = new int[width];
+        for (int x = 0; x < width; x++) {
+            cellColumns[x] = x * GRID_COLUMNS / width;
+        }
+        long[] sums = new long[GRID_COLUMNS * GRID_ROWS * SUM_COUNT];
+        for (int y = 0; y < bandHeight; y++) {
+            int rowOffset = (top + y) * GRID_ROWS / height * GRID_COLUMNS;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                int red = (pixel >> 16) & 0xff;
+                int green = (pixel >> 8) & 0xff;
+                int blue = pixel & 0xff;
+                int cell = (rowOffset + cellColumns[x]) * SUM_COUNT;
+                sums[cell + SUM_RED] += red;
+                sums[cell + SUM_GREEN] += green;
+                sums[cell + SUM_BLUE] += blue;
+                // BT.601 luma in 8-bit fixed point.
+                sums[cell + SUM_LUMA] += (77 * red + 150 * green + 29 * blue) >> 8;
+                sums[cell + SUM_PIXELS]++;
+            }
+        }
+        return sums;
+    }
+
+    private static int meanColor(long[] sums) {
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        long pixels = 0;
+        for (int cell = 0; cell < GRID_COLUMNS * GRID_ROWS; cell++) {
+            red += sums[cell * SUM_COUNT + SUM_RED];
+            green += sums[cell * SUM_COUNT + SUM_GREEN];
+            blue += sums[cell * SUM_COUNT + SUM_BLUE];
+            pixels += sums[cell * SUM_COUNT + SUM_PIXELS];
+        }
+        if (pixels == 0) {
+            return 0;
+        }
+        return (int) ((red / pixels) >> 6 << 5
+                | (green / pixels) >> 5 << 2
+                | (blue / pixels) >> 6);
+    }
+
+    private static long brightnessGradients(long[] sums) {
+        long bits = 0;
+        for (int row = 0; row < GRID_ROWS; row++) {
+            long left = meanLuma(sums, row * GRID_COLUMNS);
+            for (int column = 1; column < GRID_COLUMNS; column++) {
+                long right = meanLuma(sums, row * GRID_COLUMNS + column);
+                bits <<= 1;
+                if (right - left > BRIGHTNESS_DEAD_ZONE) {
+                    bits |= 1;
+                }
+                left = right;
+            }
+        }
+        return bits;
+    }
+
+    private static long meanLuma(long[] sums, int cell) {
+        long pixels = sums[cell * SUM_COUNT + SUM_PIXELS];
+        return pixels == 0 ? 0 : sums[cell * SUM_COUNT + SUM_LUMA] / pixels;
+    }
+}
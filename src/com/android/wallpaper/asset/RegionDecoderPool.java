@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+
+/**
+ * Small pool of {@link BitmapRegionDecoder}s for a single image source.
+ *
+ * <p>A BitmapRegionDecoder serializes its own {@link BitmapRegionDecoder#decodeRegion} calls, so
+ * tiles of the same image can only be decoded in parallel with separate instances. Instances are
+ * opened lazily, only when every existing one is busy, up to the pool's maximum size; callers
+ * beyond that wait for one to be released.
+ */
+final class RegionDecoderPool {
+
+    /** Opens a new decoder for the source, or returns null if that isn't possible. */
+    interface DecoderFactory {
+        @Nullable
+        BitmapRegionDecoder open();
+    }
+
+    private final int mMaxDecoders;
+    private final DecoderFactory mFactory;
+    private final ArrayDeque<BitmapRegionDecoder> mIdleDecoders = new ArrayDeque<>();
+    private int mOpenedCount;
+    private boolean mRecycled;
+
+    RegionDecoderPool(int maxDecoders, DecoderFactory factory) {
+        mMaxDecoders = Math.max(1, maxDecoders);
+        mFactory = factory;
+    }
+
+    /**
+     * Decodes the given region with the first available decoder, blocking until one is free.
+     *
+     * @return the decoded region, or null if no decoder could be opened or the pool was recycled.
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) {
+        BitmapRegionDecoder decoder = acquire();
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            return decoder.decodeRegion(rect, options);
+        } finally {
+            release(decoder);
+        }
+    }
+
+    /** Recycles every decoder of the pool. Decoders in use are recycled once released. */
+    synchronized void recycle() {
+        mRecycled = true;
+        while (!mIdleDecoders.isEmpty()) {
+            mIdleDecoders.pop().recycle();
+        }
+        notifyAll();
+    }
+
+    @Nullable
+    private BitmapRegionDecoder acquire() {
+        synchronized (this) {
+            while (!mRecycled && mIdleDecoders.isEmpty() && mOpenedCount >= mMaxDecoders) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (mRecycled) {
+                return null;
+            }
+            if (!mIdleDecoders.isEmpty()) {
+                return mIdleDecoders.pop();
+            }
+            mOpenedCount++;
+        }
+        // Opening reads the whole source, so do it outside of the lock.
+        BitmapRegionDecoder decoder = mFactory.open();
+        if (decoder == null) {
+            synchronized (this) {
+                mOpenedCount--;
+                notifyAll();
+            }
+        }
+        return decoder;
+    }
+
+    private synchronized void release(BitmapRegionDecoder decoder) {
+        if (mRecycled) {
+            decoder.recycle();
+            return;
+        }
+        mIdleDecoders.push(decoder);
+        notifyAll();
+    }
+}
@@ -18,12 +18,16 @@ package com.android.wallpaper.asset;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
 
 import java.io.InputStream;
 import java.security.MessageDigest;
@@ -73,15 +77,24 @@ public class ResourceAsset extends StreamableAsset {
     @Override
     public void loadDrawable(Context context, ImageView imageView,
                              int placeholderColor) {
-        Glide.with(context)
-                .asDrawable()
-                .load(ResourceAsset.this)
-                .apply(mRequestOptions
-                        .placeholder(new ColorDrawable(placeholderColor)))
+        createDrawableRequest(context)
+                .placeholder(new ColorDrawable(placeholderColor))
                 .transition(DrawableTransitionOptions.withCrossFade())
                 .into(imageView);
     }
 
+    @Override
+    public Target<Drawable> preloadDrawable(Context context, int width, int height) {
+        return createDrawableRequest(context).priority(Priority.LOW).preload(width, height);
+    }
+
+    private RequestBuilder<Drawable> createDrawableRequest(Context context) {
+        return Glide.with(context)
+                .asDrawable()
+                .load(ResourceAsset.this)
+                .apply(mRequestOptions);
+    }
+
     @Override
     public int hashCode() {
         return getKey().hashCode();
@@ -125,6 +138,11 @@ public class ResourceAsset extends StreamableAsset {
         return mRes.openRawResource(mResId);
     }
 
+    @Override
+    protected String getMetadataCacheKey() {
+        return getKey().toString();
+    }
+
     /**
      * Glide caching key for resources from any arbitrary package.
      */
@@ -24,27 +24,41 @@ import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.media.ExifInterface;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
+import com.android.wallpaper.asset.AssetMetadataCache.AssetMetadata;
+import com.android.wallpaper.module.Injector;
+import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.monitor.PerformanceMonitor;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.InterruptedIOException;
 
 /**
  * Represents Asset types for which bytes can be read directly, allowing for flexible bitmap
  * decoding.
  */
 public abstract class StreamableAsset extends Asset {
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
+    private static final AssetDecodeExecutor sExecutorService = AssetDecodeExecutor.getInstance();
     private static final String TAG = "StreamableAsset";
 
-    private BitmapRegionDecoder mBitmapRegionDecoder;
+    /** Bytes of the stream header buffered so EXIF can be read without re-opening the stream. */
+    private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+    private static final int HEADER_MARK_LIMIT = 256 * 1024;
+
+    private RegionDecoderPool mRegionDecoderPool;
     private Point mDimensions;
+    private AssetMetadata mMetadata;
 
     /**
      * Scales and returns a new Rect from the given Rect by the given scaling factor.
@@ -79,78 +93,116 @@ public abstract class StreamableAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
-            int newTargetWidth = targetWidth;
-            int newTargetHeight = targetHeight;
-            int exifOrientation = getExifOrientation();
-            // Switch target height and width if image is rotated 90 or 270 degrees.
-            if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
-                    || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-                int tempHeight = newTargetHeight;
-                newTargetHeight = newTargetWidth;
-                newTargetWidth = tempHeight;
-            }
-
-            BitmapFactory.Options options = new BitmapFactory.Options();
-
-            Point rawDimensions = calculateRawDimensions();
-            // Raw dimensions may be null if there was an error opening the underlying input stream.
-            if (rawDimensions == null) {
-                decodeBitmapCompleted(receiver, null);
-                return;
-            }
-            options.inSampleSize = BitmapUtils.calculateInSampleSize(
-                    rawDimensions.x, rawDimensions.y, newTargetWidth, newTargetHeight);
-            if (useHardwareBitmapIfPossible) {
-                options.inPreferredConfig = Config.HARDWARE;
-            }
-
-            InputStream inputStream = openInputStream();
-            Bitmap bitmap = null;
-            if (inputStream != null) {
-                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                closeInputStream(
-                        inputStream, "Error closing the input stream used "
-                                + "to decode the full bitmap");
-
-                // Rotate output bitmap if necessary because of EXIF orientation tag.
-                int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                if (matrixRotation > 0) {
-                    Matrix rotateMatrix = new Matrix();
-                    rotateMatrix.setRotate(matrixRotation);
-                    bitmap = Bitmap.createBitmap(
-                            bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
-                            rotateMatrix, false);
-                }
-            }
-            decodeBitmapCompleted(receiver, bitmap);
-        });
+        sExecutorService.execute(() -> decodeBitmapCompleted(receiver,
+                decodeBitmapBlocking(targetWidth, targetHeight, useHardwareBitmapIfPossible,
+                        /* cancellationSignal= */ null)));
     }
 
     @Override
     public void decodeBitmap(BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
-            BitmapFactory.Options options = new BitmapFactory.Options();
+        sExecutorService.execute(() -> decodeBitmapCompleted(receiver,
+                decodeFullBitmapBlocking(/* cancellationSignal= */ null)));
+    }
+
+    /**
+     * Synchronously decodes a bitmap sized for the destination view's dimensions. Should only be
+     * called off the main UI thread.
+     *
+     * @param cancellationSignal If canceled while decoding, reading of the underlying stream is
+     *                           aborted and null is returned.
+     * @see #decodeBitmap(int, int, boolean, BitmapReceiver)
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decodeBitmapBlocking(int targetWidth, int targetHeight,
+            boolean useHardwareBitmapIfPossible, @Nullable CancellationSignal cancellationSignal) {
+        long startTime = SystemClock.elapsedRealtimeNanos();
+        int newTargetWidth = targetWidth;
+        int newTargetHeight = targetHeight;
+        int exifOrientation = getExifOrientation();
+        // Switch target height and width if image is rotated 90 or 270 degrees.
+        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
+                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            int tempHeight = newTargetHeight;
+            newTargetHeight = newTargetWidth;
+            newTargetWidth = tempHeight;
+        }
+
+        Point rawDimensions = calculateRawDimensions();
+        // Raw dimensions may be null if there was an error opening the underlying input stream.
+        if (rawDimensions == null || isCanceled(cancellationSignal)) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = BitmapUtils.calculateInSampleSize(
+                rawDimensions.x, rawDimensions.y, newTargetWidth, newTargetHeight);
+        if (useHardwareBitmapIfPossible) {
             options.inPreferredConfig = Config.HARDWARE;
-            InputStream inputStream = openInputStream();
-            Bitmap bitmap = null;
-            if (inputStream != null) {
-                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                closeInputStream(inputStream,
-                        "Error closing the input stream used to decode the full bitmap");
-
-                // Rotate output bitmap if necessary because of EXIF orientation tag.
-                int exifOrientation = getExifOrientation();
-                int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                if (matrixRotation > 0) {
-                    Matrix rotateMatrix = new Matrix();
-                    rotateMatrix.setRotate(matrixRotation);
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), rotateMatrix, false);
-                }
-            }
-            decodeBitmapCompleted(receiver, bitmap);
-        });
+        }
+        return recordDecode(startTime,
+                decodeStreamAndRotate(options, exifOrientation, cancellationSignal));
+    }
+
+    /**
+     * Synchronously decodes the full bitmap. Should only be called off the main UI thread.
+     *
+     * @see #decodeBitmap(BitmapReceiver)
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decodeFullBitmapBlocking(@Nullable CancellationSignal cancellationSignal) {
+        long startTime = SystemClock.elapsedRealtimeNanos();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Config.HARDWARE;
+        return recordDecode(startTime,
+                decodeStreamAndRotate(options, getExifOrientation(), cancellationSignal));
+    }
+
+    /** Records the time spent since the given start time decoding the given bitmap, if any. */
+    @Nullable
+    private Bitmap recordDecode(long startTimeNanos, @Nullable Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        Injector injector = InjectorProvider.getInjector();
+        PerformanceMonitor monitor = injector != null ? injector.getPerformanceMonitor() : null;
+        if (monitor != null) {
+            monitor.recordAssetDecode(getClass(), bitmap.getWidth(), bitmap.getHeight(),
+                    SystemClock.elapsedRealtimeNanos() - startTimeNanos);
+        }
+        return bitmap;
+    }
+
+    @Nullable
+    private Bitmap decodeStreamAndRotate(BitmapFactory.Options options, int exifOrientation,
+            @Nullable CancellationSignal cancellationSignal) {
+        InputStream inputStream = openInputStream();
+        if (inputStream == null) {
+            return null;
+        }
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(options::requestCancelDecode);
+            inputStream = new CancellableInputStream(inputStream, cancellationSignal);
+        }
+        Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        closeInputStream(inputStream,
+                "Error closing the input stream used to decode the full bitmap");
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(null);
+        }
+        if (bitmap == null || isCanceled(cancellationSignal)) {
+            return null;
+        }
+
+        // Rotate output bitmap if necessary because of EXIF orientation tag.
+        int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
+        if (matrixRotation > 0) {
+            Matrix rotateMatrix = new Matrix();
+            rotateMatrix.setRotate(matrixRotation);
+            bitmap = Bitmap.createBitmap(
+                    bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix, false);
+        }
+        return bitmap;
     }
 
     @Override
@@ -215,63 +267,139 @@ public abstract class StreamableAsset extends Asset {
      */
     public void runDecodeBitmapRegionTask(Rect rect, int targetWidth, int targetHeight,
             boolean isRtl, BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
-            int newTargetWidth = targetWidth;
-            int newTargetHeight = targetHeight;
-            Rect cropRect = rect;
-            int exifOrientation = getExifOrientation();
-            // Switch target height and width if image is rotated 90 or 270 degrees.
-            if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
-                    || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-                int tempHeight = newTargetHeight;
-                newTargetHeight = newTargetWidth;
-                newTargetWidth = tempHeight;
-            }
+        sExecutorService.execute(() -> decodeBitmapCompleted(receiver,
+                decodeBitmapRegionBlocking(rect, targetWidth, targetHeight, isRtl,
+                        /* cancellationSignal= */ null)));
+    }
 
-            // Rotate crop rect if image is rotated more than 0 degrees.
-            Point dimensions = calculateRawDimensions();
-            cropRect = CropRectRotator.rotateCropRectForExifOrientation(
-                    dimensions, cropRect, exifOrientation);
+    /**
+     * Synchronously decodes and downscales a bitmap region. Should only be called off the main UI
+     * thread.
+     *
+     * @param cancellationSignal If canceled before the region decode starts, null is returned.
+     * @see #runDecodeBitmapRegionTask(Rect, int, int, boolean, BitmapReceiver)
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decodeBitmapRegionBlocking(Rect rect, int targetWidth, int targetHeight,
+            boolean isRtl, @Nullable CancellationSignal cancellationSignal) {
+        long startTime = SystemClock.elapsedRealtimeNanos();
+        int newTargetWidth = targetWidth;
+        int newTargetHeight = targetHeight;
+        Rect cropRect = rect;
+        int exifOrientation = getExifOrientation();
+        // Switch target height and width if image is rotated 90 or 270 degrees.
+        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
+                || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            int tempHeight = newTargetHeight;
+            newTargetHeight = newTargetWidth;
+            newTargetWidth = tempHeight;
+        }
 
-            // If we're in RTL mode, center in the rightmost side of the image
-            if (isRtl) {
-                cropRect.set(dimensions.x - cropRect.right, cropRect.top,
-                        dimensions.x - cropRect.left, cropRect.bottom);
-            }
+        // Rotate crop rect if image is rotated more than 0 degrees.
+        Point dimensions = calculateRawDimensions();
+        cropRect = CropRectRotator.rotateCropRectForExifOrientation(
+                dimensions, cropRect, exifOrientation);
 
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inSampleSize = BitmapUtils.calculateInSampleSize(
-                    cropRect.width(), cropRect.height(), newTargetWidth, newTargetHeight);
+        // If we're in RTL mode, center in the rightmost side of the image
+        if (isRtl) {
+            cropRect.set(dimensions.x - cropRect.right, cropRect.top,
+                    dimensions.x - cropRect.left, cropRect.bottom);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = BitmapUtils.calculateInSampleSize(
+                cropRect.width(), cropRect.height(), newTargetWidth, newTargetHeight);
+
+        if (isCanceled(cancellationSignal)) {
+            return null;
+        }
+        return recordDecode(startTime, decodeRegionAndRotate(cropRect, options, exifOrientation));
+    }
+
+    /**
+     * Synchronously decodes a tile of the asset for tiled, zoomable rendering. Tiles may be
+     * decoded in parallel, each with one of the asset's pooled region decoders. Should only be
+     * called off the main UI thread.
+     *
+     * <p>Each tile is decoded into a new bitmap. SubsamplingScaleImageView recycles the tiles it
+     * drops itself, so none are handed back to be reused as {@link BitmapFactory.Options#inBitmap}.
+     *
+     * @param tileRect   Rect of the tile in terms of the (EXIF rotated) image's resolution.
+     * @param sampleSize Subsampling factor to decode the tile with, see
+     *                   {@link BitmapFactory.Options#inSampleSize}.
+     * @return the decoded tile or null if there was an error decoding it.
+     * @see #releaseRegionDecoders()
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decodeTileBlocking(Rect tileRect, int sampleSize) {
+        Point dimensions = calculateRawDimensions();
+        if (dimensions == null) {
+            return null;
+        }
+        int exifOrientation = getExifOrientation();
+        Rect cropRect = CropRectRotator.rotateCropRectForExifOrientation(
+                dimensions, tileRect, exifOrientation);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        return decodeRegionAndRotate(cropRect, options, exifOrientation);
+    }
+
+    /**
+     * Releases the native region decoders opened to decode regions and tiles of this asset, which
+     * otherwise stay open until the asset is garbage collected. Decoders in use are released once
+     * their decode is done. Regions decoded later open new decoders.
+     */
+    public void releaseRegionDecoders() {
+        RegionDecoderPool pool;
+        synchronized (this) {
+            pool = mRegionDecoderPool;
+            mRegionDecoderPool = null;
+        }
+        if (pool != null) {
+            pool.recycle();
+        }
+    }
 
-            if (mBitmapRegionDecoder == null) {
-                mBitmapRegionDecoder = openBitmapRegionDecoder();
+    @Nullable
+    private Bitmap decodeRegionAndRotate(Rect cropRect, BitmapFactory.Options options,
+            int exifOrientation) {
+        try {
+            // Bitmap region decoders may fail to open if there was a problem with the underlying
+            // InputStream, in which case the pool returns null.
+            Bitmap bitmap = getRegionDecoderPool().decodeRegion(cropRect, options);
+            if (bitmap == null) {
+                return null;
             }
 
-            // Bitmap region decoder may have failed to open if there was a problem with the
-            // underlying InputStream.
-            if (mBitmapRegionDecoder != null) {
-                try {
-                    Bitmap bitmap = mBitmapRegionDecoder.decodeRegion(cropRect, options);
-
-                    // Rotate output bitmap if necessary because of EXIF orientation.
-                    int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                    if (matrixRotation > 0) {
-                        Matrix rotateMatrix = new Matrix();
-                        rotateMatrix.setRotate(matrixRotation);
-                        bitmap = Bitmap.createBitmap(
-                                bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix,
-                                false);
-                    }
-                    decodeBitmapCompleted(receiver, bitmap);
-                    return;
-                } catch (OutOfMemoryError e) {
-                    Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
-                } catch (IllegalArgumentException e) {
-                    Log.e(TAG, "Illegal argument for decoding bitmap region", e);
-                }
+            // Rotate output bitmap if necessary because of EXIF orientation.
+            int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
+            if (matrixRotation > 0) {
+                Matrix rotateMatrix = new Matrix();
+                rotateMatrix.setRotate(matrixRotation);
+                bitmap = Bitmap.createBitmap(
+                        bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix,
+                        false);
             }
-            decodeBitmapCompleted(receiver, null);
-        });
+            return bitmap;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Illegal argument for decoding bitmap region", e);
+        }
+        return null;
+    }
+
+    private synchronized RegionDecoderPool getRegionDecoderPool() {
+        if (mRegionDecoderPool == null) {
+            // One decoder per thread that may decode concurrently, opened only when needed.
+            mRegionDecoderPool = new RegionDecoderPool(
+                    AssetDecodeExecutor.getInstance().getMaxParallelism(),
+                    this::openBitmapRegionDecoder);
+        }
+        return mRegionDecoderPool;
     }
 
     /**
@@ -286,29 +414,130 @@ public abstract class StreamableAsset extends Asset {
             return mDimensions;
         }
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        InputStream inputStream = openInputStream();
-        // Input stream may be null if there was an error opening it.
-        if (inputStream == null) {
+        AssetMetadata metadata = getMetadata();
+        // Metadata may be null if there was an error opening or decoding the underlying input
+        // stream.
+        if (metadata == null) {
             return null;
         }
-        BitmapFactory.decodeStream(inputStream, null, options);
-        closeInputStream(inputStream, "There was an error closing the input stream used to calculate "
-                + "the image's raw dimensions");
 
         int exifOrientation = getExifOrientation();
         // Swap height and width if image is rotated 90 or 270 degrees.
         if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
                 || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            mDimensions = new Point(options.outHeight, options.outWidth);
+            mDimensions = new Point(metadata.getHeight(), metadata.getWidth());
         } else {
-            mDimensions = new Point(options.outWidth, options.outHeight);
+            mDimensions = new Point(metadata.getWidth(), metadata.getHeight());
         }
 
         return mDimensions;
     }
 
+    /**
+     * Returns the header information (raw dimensions, EXIF orientation and MIME type) of the asset,
+     * reading it from the shared {@link AssetMetadataCache} when another instance for the same
+     * source already did so. Should only be called off the main UI thread.
+     *
+     * @return the metadata or null if the underlying input stream couldn't be opened or its bounds
+     *         couldn't be decoded.
+     */
+    @WorkerThread
+    @Nullable
+    public AssetMetadata getMetadata() {
+        if (mMetadata != null) {
+            return mMetadata;
+        }
+        String cacheKey = getMetadataCacheKey();
+        AssetMetadata metadata = cacheKey != null ? AssetMetadataCache.get(cacheKey) : null;
+        if (metadata == null) {
+            metadata = readMetadata();
+            if (metadata != null && cacheKey != null) {
+                AssetMetadataCache.put(cacheKey, metadata);
+            }
+        }
+        mMetadata = metadata;
+        return metadata;
+    }
+
+    /**
+     * Returns a key identifying the current content of this asset's source in the shared
+     * {@link AssetMetadataCache}, or null if metadata shouldn't be shared with other instances.
+     * Should only be called off the main UI thread.
+     */
+    @WorkerThread
+    @Nullable
+    protected String getMetadataCacheKey() {
+        return null;
+    }
+
+    /**
+     * Returns whether {@link #getMetadata()} should parse the EXIF orientation of the asset.
+     * Assets returning false are always treated as {@link ExifInterface#ORIENTATION_NORMAL}.
+     */
+    protected boolean readsExifOrientation() {
+        return false;
+    }
+
+    /**
+     * Reads the bounds, MIME type and, if needed, the EXIF orientation with a single open of the
+     * underlying input stream.
+     */
+    @Nullable
+    private AssetMetadata readMetadata() {
+        InputStream inputStream = openInputStream();
+        // Input stream may be null if there was an error opening it.
+        if (inputStream == null) {
+            return null;
+        }
+        BufferedInputStream headerStream = new BufferedInputStream(inputStream, HEADER_BUFFER_SIZE);
+        try {
+            headerStream.mark(HEADER_MARK_LIMIT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(headerStream, null, options);
+            // Not cached, so that a source which isn't an image (yet) is read again next time.
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.w(TAG, "Unable to decode the image's bounds");
+                return null;
+            }
+
+            int exifOrientation = ExifInterface.ORIENTATION_NORMAL;
+            if (readsExifOrientation()) {
+                exifOrientation = readExifOrientation(headerStream);
+            }
+            return new AssetMetadata(options.outWidth, options.outHeight, exifOrientation,
+                    options.outMimeType);
+        } finally {
+            closeInputStream(headerStream, "There was an error closing the input stream used to "
+                    + "read the image's metadata");
+        }
+    }
+
+    /**
+     * Reads the EXIF orientation from the already buffered header if possible, falling back to
+     * opening the input stream a second time if the EXIF block lies beyond the buffered bytes.
+     */
+    private int readExifOrientation(BufferedInputStream headerStream) {
+        try {
+            headerStream.reset();
+            return new ExifInterfaceCompat(headerStream).getAttributeInt(
+                    ExifInterfaceCompat.TAG_ORIENTATION,
+                    ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            // The mark was invalidated, so the bounds decode read past the buffered header.
+        }
+        try (InputStream inputStream = openInputStream()) {
+            if (inputStream != null) {
+                return new ExifInterfaceCompat(inputStream).getAttributeInt(
+                        ExifInterfaceCompat.TAG_ORIENTATION,
+                        ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read EXIF orientation", e);
+        }
+        return ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+    }
+
     /**
      * Returns a BitmapRegionDecoder for the asset.
      */
@@ -334,6 +563,10 @@ public abstract class StreamableAsset extends Asset {
         return brd;
     }
 
+    private static boolean isCanceled(@Nullable CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+
     /**
      * Closes the provided InputStream and if there was an error, logs the provided error message.
      */
@@ -345,6 +578,43 @@ public abstract class StreamableAsset extends Asset {
         }
     }
 
+    /**
+     * InputStream which fails every read once the given {@link CancellationSignal} is canceled, so
+     * that {@link BitmapFactory#decodeStream} stops pulling bytes for a decode nobody waits for.
+     */
+    private static final class CancellableInputStream extends FilterInputStream {
+        private final CancellationSignal mCancellationSignal;
+
+        CancellableInputStream(InputStream in, CancellationSignal cancellationSignal) {
+            super(in);
+            mCancellationSignal = cancellationSignal;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throwIfCanceled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throwIfCanceled();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throwIfCanceled();
+            return super.skip(n);
+        }
+
+        private void throwIfCanceled() throws IOException {
+            if (mCancellationSignal.isCanceled()) {
+                throw new InterruptedIOException("Decode canceled");
+            }
+        }
+    }
+
     /**
      * Interface for receiving unmodified input streams of the underlying asset without any
      * downscaling or other decoding options.
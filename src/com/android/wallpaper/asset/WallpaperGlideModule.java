@@ -53,7 +53,7 @@ public class WallpaperGlideModule implements GlideModule {
         registry.append(ResourceAsset.class, InputStream.class, new ResourceAssetLoaderFactory());
         registry.append(SystemStaticAsset.class, InputStream.class,
                 new SystemStaticAssetLoaderFactory());
-        registry.append(LiveWallpaperThumbAsset.class, Drawable.class,
+        registry.append(LiveWallpaperThumbAsset.class, InputStream.class,
                 new LiveWallpaperThumbAssetLoaderFactory());
         registry.append(CurrentWallpaperAsset.class, InputStream.class,
                 new CurrentWallpaperAssetLoaderFactory());
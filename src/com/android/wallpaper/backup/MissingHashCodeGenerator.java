@@ -21,6 +21,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 
+import com.android.wallpaper.asset.BitmapUtils;
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.WallpaperPreferences;
@@ -54,9 +55,14 @@ public class MissingHashCodeGenerator extends BroadcastReceiver {
         Injector injector = InjectorProvider.getInjector();
         WallpaperPreferences wallpaperPreferences = injector.getPreferences(context);
         // Delegate the longer-running work of generating missing hash codes to a JobScheduler job if
-        // there's no hash codes saved.
-        if (wallpaperPreferences.getHomeWallpaperHashCode() != 0
-                && wallpaperPreferences.getLockWallpaperHashCode() != 0) {
+        // there's no hash codes saved, or they were saved in an older format.
+        long homeHashCode = wallpaperPreferences.getHomeWallpaperHashCode();
+        long lockHashCode = wallpaperPreferences.getLockWallpaperHashCode();
+        if (homeHashCode != 0 && lockHashCode != 0
+                && wallpaperPreferences.getHomeWallpaperHashCodeVersion()
+                        == BitmapUtils.HASH_CODE_VERSION
+                && wallpaperPreferences.getLockWallpaperHashCodeVersion()
+                        == BitmapUtils.HASH_CODE_VERSION) {
             return;
         }
 
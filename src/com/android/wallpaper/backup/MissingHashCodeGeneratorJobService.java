@@ -23,10 +23,6 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
@@ -37,11 +33,10 @@ import com.android.wallpaper.asset.BitmapUtils;
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.JobSchedulerJobIds;
+import com.android.wallpaper.module.WallpaperFingerprinter;
 import com.android.wallpaper.module.WallpaperPreferences;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * {@link android.app.job.JobScheduler} job for generating missing hash codes for static wallpapers
@@ -81,75 +76,51 @@ public class MissingHashCodeGeneratorJobService extends JobService {
             public void run() {
                 Injector injector = InjectorProvider.getInjector();
                 WallpaperPreferences wallpaperPreferences = injector.getPreferences(context);
+                WallpaperFingerprinter fingerprinter = WallpaperFingerprinter.getInstance(context);
 
                 boolean isLiveWallpaperSet = wallpaperManager.getWallpaperInfo() != null;
 
                 // Generate and set a home wallpaper hash code if there's no live wallpaper set
-                // and no hash code stored already for the home wallpaper.
-                if (!isLiveWallpaperSet && wallpaperPreferences.getHomeWallpaperHashCode() == 0) {
-                    wallpaperManager.forgetLoadedWallpaper();
-
-                    Drawable wallpaperDrawable = wallpaperManager.getDrawable();
-                    // No work to do if the drawable returned is null due to an underlying
+                // and no hash code of the current format stored already for the home wallpaper.
+                if (!isLiveWallpaperSet && !hasCurrentHomeHashCode(wallpaperPreferences)) {
+                    long homeBitmapHash = fingerprinter.getHashCode(WallpaperManager.FLAG_SYSTEM);
+                    // No work to do if the wallpaper couldn't be read due to an underlying
                     // platform issue -- being extra defensive with this check due to instability
                     // and variability of underlying platform.
-                    if (wallpaperDrawable == null) {
+                    if (homeBitmapHash == 0) {
+                        mWorkerThread = null;
                         jobFinished(jobParameters, false /* needsReschedule */);
                         return;
                     }
 
-                    Bitmap bitmap = ((BitmapDrawable) wallpaperDrawable).getBitmap();
-                    long homeBitmapHash = BitmapUtils.generateHashCode(bitmap);
-
                     wallpaperPreferences.setHomeWallpaperHashCode(homeBitmapHash);
                 }
 
-                // Generate and set a lock wallpaper hash code if there's none saved.
-                if (wallpaperPreferences.getLockWallpaperHashCode() == 0) {
-                    ParcelFileDescriptor parcelFd = wallpaperManager.getWallpaperFile(
-                            WallpaperManager.FLAG_LOCK);
-                    boolean isLockWallpaperSet = parcelFd != null;
-
+                // Generate and set a lock wallpaper hash code if there's none of the current format
+                // saved.
+                if (!hasCurrentLockHashCode(wallpaperPreferences)) {
                     // Copy the home wallpaper's hash code to lock if there's no distinct lock
-                    // wallpaper set.
-                    if (!isLockWallpaperSet) {
-                        wallpaperPreferences.setLockWallpaperHashCode(
-                                wallpaperPreferences.getHomeWallpaperHashCode());
-                        mWorkerThread = null;
-                        jobFinished(jobParameters, false /* needsReschedule */);
-                        return;
-                    }
-
-                    // Otherwise, generate and set the distinct lock wallpaper image's hash code.
-                    Bitmap lockBitmap = null;
-                    InputStream fileStream = null;
-                    try {
-                        fileStream = new FileInputStream(parcelFd.getFileDescriptor());
-                        lockBitmap = BitmapFactory.decodeStream(fileStream);
-                        parcelFd.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, "IO exception when closing the file descriptor.", e);
-                    } finally {
-                        if (fileStream != null) {
-                            try {
-                                fileStream.close();
-                            } catch (IOException e) {
-                                Log.e(TAG,
-                                        "IO exception when closing input stream for lock screen "
-                                                + "wallpaper.",
-                                        e);
-                            }
+                    // wallpaper set, otherwise use the distinct lock wallpaper image's hash code.
+                    if (!hasLockWallpaperFile(wallpaperManager)) {
+                        // Only copy a hash code of the current format, since the copy is saved as
+                        // one.
+                        if (hasCurrentHomeHashCode(wallpaperPreferences)) {
+                            wallpaperPreferences.setLockWallpaperHashCode(
+                                    wallpaperPreferences.getHomeWallpaperHashCode());
+                        }
+                    } else {
+                        long lockBitmapHash = fingerprinter.getHashCode(
+                                WallpaperManager.FLAG_LOCK);
+                        // Leave the hash code missing if the distinct lock wallpaper couldn't be
+                        // read, so that the next run tries again.
+                        if (lockBitmapHash != 0) {
+                            wallpaperPreferences.setLockWallpaperHashCode(lockBitmapHash);
                         }
                     }
-
-                    if (lockBitmap != null) {
-                        wallpaperPreferences.setLockWallpaperHashCode(
-                                BitmapUtils.generateHashCode(lockBitmap));
-                    }
-                    mWorkerThread = null;
-
-                    jobFinished(jobParameters, false /* needsReschedule */);
                 }
+                mWorkerThread = null;
+
+                jobFinished(jobParameters, false /* needsReschedule */);
             }
         });
 
@@ -159,6 +130,34 @@ public class MissingHashCodeGeneratorJobService extends JobService {
         return true;
     }
 
+    /** Returns whether a home hash code of the current format is saved. */
+    private static boolean hasCurrentHomeHashCode(WallpaperPreferences wallpaperPreferences) {
+        return wallpaperPreferences.getHomeWallpaperHashCode() != 0
+                && wallpaperPreferences.getHomeWallpaperHashCodeVersion()
+                        == BitmapUtils.HASH_CODE_VERSION;
+    }
+
+    /** Returns whether a lock hash code of the current format is saved. */
+    private static boolean hasCurrentLockHashCode(WallpaperPreferences wallpaperPreferences) {
+        return wallpaperPreferences.getLockWallpaperHashCode() != 0
+                && wallpaperPreferences.getLockWallpaperHashCodeVersion()
+                        == BitmapUtils.HASH_CODE_VERSION;
+    }
+
+    /**
+     * Returns whether a distinct lock wallpaper file is set, which getWallpaperFile only returns
+     * when the lock screen isn't showing the home wallpaper.
+     */
+    private static boolean hasLockWallpaperFile(WallpaperManager wallpaperManager) {
+        try (ParcelFileDescriptor lockFile = wallpaperManager.getWallpaperFile(
+                WallpaperManager.FLAG_LOCK)) {
+            return lockFile != null;
+        } catch (IOException e) {
+            Log.e(TAG, "IO exception when closing the lock wallpaper file descriptor.", e);
+            return true;
+        }
+    }
+
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
         // This job has no special execution parameters (i.e., network capability, device idle or
@@ -1,116 +1,161 @@
 package com.android.wallpaper.dailywallpaper;
 
 import android.app.WallpaperManager;
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
-import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
-import android.provider.MediaStore;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.util.Log;
 
-import org.json.JSONObject;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import com.android.wallpaper.asset.BitmapUtils;
+import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.util.WallpaperCropUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Sets Bing's image of the day as the wallpaper, whenever it changed since it was last set.
+ */
 public class BingWallpaper {
 
-    private static final String IMAGE_API_URL = "https://www.bing.com/HPImageArchive.aspx?format=js&idx=0&n=1";
-    private static final String IMAGE_NAME = "bing_daily.jpg";
-    private final Context context;
+    private static final String TAG = "BingWallpaper";
+
+    @VisibleForTesting
+    static final String DEFAULT_ENDPOINT_URL =
+            "https://www.bing.com/HPImageArchive.aspx?format=js&idx=0&n=1";
+    private static final String DIRECTORY_NAME = "bing_daily";
+
+    /** Runs one refresh at a time, they share the files of the image of the day. */
+    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
+
+    private final Context mAppContext;
+    private final DailyImageFetcher mFetcher;
 
     public BingWallpaper(Context context) {
-        this.context = context;
+        this(context, DEFAULT_ENDPOINT_URL);
     }
 
-    // Public method to initiate setting Bing's daily wallpaper
-    public void setDailyBingWallpaper() {
-        new DownloadWallpaperTask().execute(IMAGE_API_URL);
+    /**
+     * @param endpointUrl URL of the JSON that describes the image of the day, e.g. a local stand-in
+     *                    for Bing's in tests.
+     */
+    @VisibleForTesting
+    BingWallpaper(Context context, String endpointUrl) {
+        mAppContext = context.getApplicationContext();
+        try {
+            mFetcher = new DailyImageFetcher(new URL(endpointUrl),
+                    new File(mAppContext.getFilesDir(), DIRECTORY_NAME));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid endpoint URL " + endpointUrl, e);
+        }
     }
 
-    // AsyncTask for downloading and setting the wallpaper
-    private class DownloadWallpaperTask extends AsyncTask<String, Void, Uri> {
+    /** Sets Bing's daily wallpaper in the background. */
+    public void setDailyBingWallpaper() {
+        setDailyBingWallpaper(/* onDone= */ null);
+    }
 
-        @Override
-        protected Uri doInBackground(String... urls) {
+    /**
+     * Sets Bing's daily wallpaper in the background.
+     *
+     * @param onDone run on the background thread once done, whether or not the wallpaper changed.
+     */
+    public void setDailyBingWallpaper(@Nullable Runnable onDone) {
+        sExecutorService.execute(() -> {
             try {
-                JSONObject json = fetchJsonFromUrl(urls[0]);
-                String imageUrl = extractImageUrlFromJson(json);
-                return downloadImageToMediaStore(imageUrl);
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
+                refresh();
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Couldn't set Bing's daily wallpaper", e);
+            } finally {
+                if (onDone != null) {
+                    onDone.run();
+                }
             }
-        }
+        });
+    }
 
-        @Override
-        protected void onPostExecute(Uri imageUri) {
-            if (imageUri != null) {
-                setWallpaperFromUri(imageUri);
-            }
+    /**
+     * Fetches the image of the day and sets it as the wallpaper, unless it was already set. The
+     * image is only recorded as set once the wallpaper manager accepted it, so that a failed decode
+     * or set is retried by the next refresh.
+     *
+     * @return true if the wallpaper was set.
+     */
+    @WorkerThread
+    @VisibleForTesting
+    boolean refresh() throws IOException {
+        File imageFile = mFetcher.fetch();
+        if (imageFile == null) {
+            return false;
         }
+        Point maxDisplaySize = InjectorProvider.getInjector().getDisplayUtils(mAppContext)
+                .getMaxDisplaysDimension();
+        Bitmap bitmap = decodeForDisplay(imageFile, maxDisplaySize);
+        WallpaperManager.getInstance(mAppContext).setBitmap(bitmap, /* visibleCropHint= */ null,
+                /* allowBackup= */ true);
+        mFetcher.markApplied();
+        return true;
+    }
 
-        // Fetches JSON from the given URL
-        private JSONObject fetchJsonFromUrl(String urlString) throws Exception {
-            HttpURLConnection conn = (HttpURLConnection) new URL(urlString).openConnection();
-            conn.setRequestMethod("GET");
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-                StringBuilder content = new StringBuilder();
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    content.append(inputLine);
-                }
-                return new JSONObject(content.toString());
-            } finally {
-                conn.disconnect();
-            }
+    /**
+     * Decodes the center of the given image that has the aspect ratio of the given display size,
+     * scaled down to cover the display size if it is larger.
+     */
+    @VisibleForTesting
+    static Bitmap decodeForDisplay(File imageFile, Point displaySize) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imageFile.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Couldn't decode " + imageFile);
         }
+        Point imageSize = new Point(options.outWidth, options.outHeight);
 
-        // Extracts the image URL from the JSON object
-        private String extractImageUrlFromJson(JSONObject json) throws Exception {
-            return "https://www.bing.com" + json.getJSONArray("images")
-                    .getJSONObject(0).getString("url");
-        }
+        // The largest crop of the image with the aspect ratio of the display.
+        float scale = Math.max(displaySize.x / (float) imageSize.x,
+                displaySize.y / (float) imageSize.y);
+        Point cropSize = new Point(
+                Math.min(imageSize.x, Math.round(displaySize.x / scale)),
+                Math.min(imageSize.y, Math.round(displaySize.y / scale)));
+        Point cropPosition = WallpaperCropUtils.calculateCenterPosition(imageSize, cropSize,
+                /* alignStart= */ false, /* isRtl= */ false);
+        Rect cropRect = new Rect(cropPosition.x, cropPosition.y, cropPosition.x + cropSize.x,
+                cropPosition.y + cropSize.y);
 
-        // Downloads the image to the MediaStore
-        private Uri downloadImageToMediaStore(String imageUrl) throws Exception {
-            ContentValues values = new ContentValues();
-            values.put(MediaStore.Images.Media.DISPLAY_NAME, IMAGE_NAME);
-            values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-            values.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/BingWallpapers");
-
-            ContentResolver resolver = context.getContentResolver();
-            Uri imageUri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-            if (imageUri != null) {
-                try (InputStream in = new URL(imageUrl).openStream();
-                     OutputStream out = resolver.openOutputStream(imageUri)) {
-                    byte[] buffer = new byte[1024];
-                    int bytesRead;
-                    while ((bytesRead = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, bytesRead);
-                    }
-                } catch (Exception e) {
-                    resolver.delete(imageUri, null, null); // Remove partial file if error
-                    throw e;
-                }
-            }
-            return imageUri;
+        // Never scaled up, a smaller image is only cropped.
+        Point targetSize = scale < 1f ? displaySize : cropSize;
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inSampleSize = BitmapUtils.calculateInSampleSize(cropSize.x, cropSize.y,
+                targetSize.x, targetSize.y);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imageFile.getPath());
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(cropRect, decodeOptions);
+        } finally {
+            decoder.recycle();
         }
-
-        // Sets the downloaded image as the wallpaper
-        private void setWallpaperFromUri(Uri imageUri) {
-            WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
-            try (InputStream imageStream = context.getContentResolver().openInputStream(imageUri)) {
-                wallpaperManager.setStream(imageStream);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (bitmap == null) {
+            throw new IOException("Couldn't decode " + imageFile);
+        }
+        if (bitmap.getWidth() == targetSize.x && bitmap.getHeight() == targetSize.y) {
+            return bitmap;
+        }
+        Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, targetSize.x, targetSize.y,
+                /* filter= */ true);
+        if (scaledBitmap != bitmap) {
+            bitmap.recycle();
         }
+        return scaledBitmap;
     }
 }
@@ -7,7 +7,9 @@ import android.content.Intent;
 public class BingWallpaperReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
+        // Keeps the process alive until the wallpaper is fetched and set.
+        PendingResult broadcastResult = goAsync();
         BingWallpaper bingWallpaper = new BingWallpaper(context);
-        bingWallpaper.setDailyBingWallpaper();
+        bingWallpaper.setDailyBingWallpaper(broadcastResult::finish);
     }
 }
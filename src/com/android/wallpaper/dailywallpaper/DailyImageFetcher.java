@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.dailywallpaper;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fetches the image of the day described by a JSON endpoint, downloading it only when it changed.
+ * <p>
+ * The validators of the last endpoint response and image download are kept on disk, so that the
+ * endpoint is queried with a conditional request and an image that was already downloaded in full
+ * isn't requested again. A download that was interrupted is resumed with a range request, as long
+ * as the image didn't change on the server in the meantime. An image keeps being returned until
+ * {@link #markApplied()} records that it was put to use, so that a failure to use it after the
+ * download is retried by the next fetch.
+ * <p>
+ * Not thread safe, fetches for the same directory must not run concurrently.
+ */
+class DailyImageFetcher {
+
+    private static final String TAG = "DailyImageFetcher";
+
+    private static final String METADATA_FILE_NAME = "metadata.json";
+    private static final String IMAGE_FILE_NAME = "image";
+    private static final String PARTIAL_IMAGE_FILE_NAME = "image.partial";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT_MILLIS = 15_000;
+
+    private static final String KEY_ENDPOINT_ETAG = "endpoint_etag";
+    private static final String KEY_ENDPOINT_LAST_MODIFIED = "endpoint_last_modified";
+    private static final String KEY_IMAGE_URL = "image_url";
+    private static final String KEY_IMAGE_ETAG = "image_etag";
+    private static final String KEY_IMAGE_LAST_MODIFIED = "image_last_modified";
+    private static final String KEY_IMAGE_COMPLETE = "image_complete";
+    private static final String KEY_IMAGE_APPLIED = "image_applied";
+
+    private final URL mEndpointUrl;
+    private final File mDirectory;
+    private final AtomicFile mMetadataFile;
+
+    /**
+     * @param endpointUrl URL of the JSON that describes the image of the day, image URLs in it are
+     *                    resolved against it.
+     * @param directory   where the image and what is known about it are kept.
+     */
+    DailyImageFetcher(URL endpointUrl, File directory) {
+        mEndpointUrl = endpointUrl;
+        mDirectory = directory;
+        mMetadataFile = new AtomicFile(new File(directory, METADATA_FILE_NAME));
+    }
+
+    /**
+     * Fetches the image of the day.
+     *
+     * @return the file holding the image if it wasn't marked as applied since it changed, or null
+     * if it was.
+     */
+    @WorkerThread
+    @Nullable
+    File fetch() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Couldn't create " + mDirectory);
+        }
+        Metadata metadata = readMetadata();
+        String imageUrl = fetchImageUrl(metadata);
+        File imageFile = new File(mDirectory, IMAGE_FILE_NAME);
+        if (imageUrl.equals(metadata.mImageUrl) && metadata.mImageComplete
+                && imageFile.exists()) {
+            writeMetadata(metadata);
+            return metadata.mImageApplied ? null : imageFile;
+        }
+        if (!imageUrl.equals(metadata.mImageUrl)) {
+            metadata.mImageUrl = imageUrl;
+            metadata.mImageEtag = null;
+            metadata.mImageLastModified = null;
+            metadata.mImageComplete = false;
+            metadata.mImageApplied = false;
+            new File(mDirectory, PARTIAL_IMAGE_FILE_NAME).delete();
+        }
+        downloadImage(metadata, imageFile, /* allowResume= */ true);
+        return imageFile;
+    }
+
+    /**
+     * Records that the image last returned by {@link #fetch()} was put to use, so that it isn't
+     * returned again until it changes.
+     */
+    @WorkerThread
+    void markApplied() throws IOException {
+        Metadata metadata = readMetadata();
+        if (metadata.mImageComplete) {
+            metadata.mImageApplied = true;
+            writeMetadata(metadata);
+        }
+    }
+
+    /** Returns the URL of the current image, querying the endpoint only if it changed. */
+    private String fetchImageUrl(Metadata metadata) throws IOException {
+        HttpURLConnection connection = openConnection(mEndpointUrl);
+        try {
+            if (metadata.mImageUrl != null) {
+                setIfPresent(connection, "If-None-Match", metadata.mEndpointEtag);
+                setIfPresent(connection, "If-Modified-Since", metadata.mEndpointLastModified);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return metadata.mImageUrl;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected endpoint response " + responseCode);
+            }
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(readFully(in), StandardCharsets.UTF_8);
+            }
+            String path;
+            try {
+                path = new JSONObject(body).getJSONArray("images").getJSONObject(0)
+                        .getString("url");
+            } catch (JSONException e) {
+                throw new IOException("Malformed endpoint response", e);
+            }
+            metadata.mEndpointEtag = connection.getHeaderField("ETag");
+            metadata.mEndpointLastModified = connection.getHeaderField("Last-Modified");
+            return new URL(mEndpointUrl, path).toString();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void downloadImage(Metadata metadata, File imageFile, boolean allowResume)
+            throws IOException {
+        File partialFile = new File(mDirectory, PARTIAL_IMAGE_FILE_NAME);
+        String validator = metadata.mImageEtag != null
+                ? metadata.mImageEtag : metadata.mImageLastModified;
+        long offset = allowResume && validator != null ? partialFile.length() : 0;
+
+        HttpURLConnection connection = openConnection(new URL(metadata.mImageUrl));
+        try {
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                // Sends the whole image instead if it changed since the partial download.
+                connection.setRequestProperty("If-Range", validator);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == 416 /* Range Not Satisfiable */) {
+                connection.disconnect();
+                partialFile.delete();
+                downloadImage(metadata, imageFile, /* allowResume= */ false);
+                return;
+            }
+            boolean append = responseCode == HttpURLConnection.HTTP_PARTIAL;
+            if (!append && responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected image response " + responseCode);
+            }
+            if (!append) {
+                offset = 0;
+                metadata.mImageEtag = connection.getHeaderField("ETag");
+                metadata.mImageLastModified = connection.getHeaderField("Last-Modified");
+                metadata.mImageComplete = false;
+                metadata.mImageApplied = false;
+                // Saved ahead of the download, so that it can be resumed if interrupted.
+                writeMetadata(metadata);
+            }
+
+            long expectedLength = connection.getContentLengthLong();
+            long copiedLength;
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(partialFile, append)) {
+                copiedLength = copy(in, out);
+            }
+            if (expectedLength >= 0 && copiedLength != expectedLength) {
+                throw new IOException("Image download interrupted at " + (offset + copiedLength)
+                        + " bytes");
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        if (!partialFile.renameTo(imageFile)) {
+            throw new IOException("Couldn't move " + partialFile + " to " + imageFile);
+        }
+        metadata.mImageComplete = true;
+        writeMetadata(metadata);
+    }
+
+    private static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static void setIfPresent(HttpURLConnection connection, String header,
+            @Nullable String value) {
+        if (value != null) {
+            connection.setRequestProperty(header, value);
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(in, out);
+        return out.toByteArray();
+    }
+
+    private Metadata readMetadata() {
+        Metadata metadata = new Metadata();
+        try (FileInputStream in = mMetadataFile.openRead()) {
+            JSONObject json = new JSONObject(new String(readFully(in), StandardCharsets.UTF_8));
+            metadata.mEndpointEtag = json.optString(KEY_ENDPOINT_ETAG, null);
+            metadata.mEndpointLastModified = json.optString(KEY_ENDPOINT_LAST_MODIFIED, null);
+            metadata.mImageUrl = json.optString(KEY_IMAGE_URL, null);
+            metadata.mImageEtag = json.optString(KEY_IMAGE_ETAG, null);
+            metadata.mImageLastModified = json.optString(KEY_IMAGE_LAST_MODIFIED, null);
+            metadata.mImageComplete = json.optBoolean(KEY_IMAGE_COMPLETE, false);
+            metadata.mImageApplied = json.optBoolean(KEY_IMAGE_APPLIED, false);
+        } catch (FileNotFoundException e) {
+            // Nothing was fetched yet.
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Couldn't read daily image metadata, starting over", e);
+            return new Metadata();
+        }
+        return metadata;
+    }
+
+    private void writeMetadata(Metadata metadata) throws IOException {
+        JSONObject json = new JSONObject();
+        try {
+            json.putOpt(KEY_ENDPOINT_ETAG, metadata.mEndpointEtag);
+            json.putOpt(KEY_ENDPOINT_LAST_MODIFIED, metadata.mEndpointLastModified);
+            json.putOpt(KEY_IMAGE_URL, metadata.mImageUrl);
+            json.putOpt(KEY_IMAGE_ETAG, metadata.mImageEtag);
+            json.putOpt(KEY_IMAGE_LAST_MODIFIED, metadata.mImageLastModified);
+            json.put(KEY_IMAGE_COMPLETE, metadata.mImageComplete);
+            json.put(KEY_IMAGE_APPLIED, metadata.mImageApplied);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        FileOutputStream out = mMetadataFile.startWrite();
+        try {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            mMetadataFile.finishWrite(out);
+        } catch (IOException e) {
+            mMetadataFile.failWrite(out);
+            throw e;
+        }
+    }
+
+    /** What is known about the last endpoint response and image download. */
+    private static class Metadata {
+        @Nullable
+        String mEndpointEtag;
+        @Nullable
+        String mEndpointLastModified;
+        @Nullable
+        String mImageUrl;
+        @Nullable
+        String mImageEtag;
+        @Nullable
+        String mImageLastModified;
+        /** Whether the image file holds the whole image at {@link #mImageUrl}. */
+        boolean mImageComplete;
+        /** Whether the complete image was put to use, see {@link #markApplied()}. */
+        boolean mImageApplied;
+    }
+}
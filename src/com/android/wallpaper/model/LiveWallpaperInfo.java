@@ -36,6 +36,7 @@ import com.android.wallpaper.R;
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.LiveWallpaperThumbAsset;
 import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.module.LiveWallpaperCatalog;
 import com.android.wallpaper.module.LiveWallpaperInfoFactory;
 import com.android.wallpaper.util.ActivityUtils;
 
@@ -129,7 +130,8 @@ public class LiveWallpaperInfo extends WallpaperInfo {
         }
         android.app.WallpaperInfo wallpaperInfo;
         try {
-            wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfos.get(0));
+            wallpaperInfo = LiveWallpaperCatalog.getInstance(context).getWallpaperInfo(context,
+                    resolveInfos.get(0));
         } catch (XmlPullParserException | IOException e) {
             Log.w(TAG, "Skipping wallpaper " + resolveInfos.get(0).serviceInfo, e);
             return null;
@@ -202,7 +204,8 @@ public class LiveWallpaperInfo extends WallpaperInfo {
             ResolveInfo resolveInfo = resolveInfos.get(i);
             android.app.WallpaperInfo wallpaperInfo;
             try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
+                wallpaperInfo = LiveWallpaperCatalog.getInstance(context).getWallpaperInfo(context,
+                        resolveInfo);
             } catch (XmlPullParserException | IOException e) {
                 Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
                 continue;
@@ -245,7 +248,8 @@ public class LiveWallpaperInfo extends WallpaperInfo {
 
             android.app.WallpaperInfo wallpaperInfo;
             try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
+                wallpaperInfo = LiveWallpaperCatalog.getInstance(context).getWallpaperInfo(context,
+                        resolveInfo);
             } catch (XmlPullParserException e) {
                 Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
                 continue;
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.SharedPreferences
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener
+
+/**
+ * [SharedPreferences] which can hold back writes made during a transaction and write them all at
+ * once when it ends, so that a batch of edits rewrites the underlying file only once.
+ *
+ * Transactions are confined to the thread that started them: on that thread, reads see the pending
+ * edits right away, while other threads keep reading and writing the underlying preferences
+ * directly. Transactions may nest; only the outermost one writes. [SharedPreferences.Editor.commit]
+ * inside a transaction is deferred as well, and makes the outermost transaction commit
+ * synchronously instead of applying.
+ *
+ * A transaction whose block throws discards the edits made within it, so that a failure halfway
+ * through a batch doesn't persist half of it. Edits of an enclosing transaction are kept.
+ */
+class BatchingSharedPreferences(private val delegate: SharedPreferences) : SharedPreferences {
+
+    private val transaction = ThreadLocal<Transaction?>()
+
+    /** Runs [block] in a transaction on the calling thread, discarding its edits if it throws. */
+    fun <T> runInTransaction(block: () -> T): T {
+        val outer = transaction.get()
+        val current = outer ?: Transaction().also { transaction.set(it) }
+        val savepoint = current.savepoint()
+        current.depth++
+        try {
+            return block()
+        } catch (e: Throwable) {
+            current.rollBackTo(savepoint)
+            throw e
+        } finally {
+            if (--current.depth == 0) {
+                transaction.set(null)
+                current.writeTo(delegate)
+            }
+        }
+    }
+
+    override fun getAll(): Map<String, *> {
+        val current = transaction.get() ?: return delegate.all
+        val all = if (current.cleared) HashMap() else HashMap<String, Any?>(delegate.all)
+        current.changes.forEach { (key, value) ->
+            if (value === REMOVED) all.remove(key) else all[key] = value
+        }
+        return all
+    }
+
+    override fun getString(key: String, defValue: String?): String? =
+        read(key, defValue) { delegate.getString(key, defValue) }
+
+    override fun getStringSet(key: String, defValues: Set<String>?): Set<String>? =
+        read(key, defValues) { delegate.getStringSet(key, defValues) }
+
+    override fun getInt(key: String, defValue: Int): Int =
+        read(key, defValue) { delegate.getInt(key, defValue) }
+
+    override fun getLong(key: String, defValue: Long): Long =
+        read(key, defValue) { delegate.getLong(key, defValue) }
+
+    override fun getFloat(key: String, defValue: Float): Float =
+        read(key, defValue) { delegate.getFloat(key, defValue) }
+
+    override fun getBoolean(key: String, defValue: Boolean): Boolean =
+        read(key, defValue) { delegate.getBoolean(key, defValue) }
+
+    override fun contains(key: String): Boolean {
+        val current = transaction.get() ?: return delegate.contains(key)
+        val value = current.changes[key]
+        return when {
+            value === REMOVED -> false
+            value != null -> true
+            else -> !current.cleared && delegate.contains(key)
+        }
+    }
+
+    override fun edit(): SharedPreferences.Editor =
+        transaction.get()?.let { BatchingEditor(it) } ?: delegate.edit()
+
+    override fun registerOnSharedPreferenceChangeListener(
+        listener: OnSharedPreferenceChangeListener
+    ) {
+        delegate.registerOnSharedPreferenceChangeListener(listener)
+    }
+
+    override fun unregisterOnSharedPreferenceChangeListener(
+        listener: OnSharedPreferenceChangeListener
+    ) {
+        delegate.unregisterOnSharedPreferenceChangeListener(listener)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> read(key: String, defValue: T, fromDelegate: () -> T): T {
+        val current = transaction.get() ?: return fromDelegate()
+        val value = current.changes[key]
+        return when {
+            value === REMOVED -> defValue
+            // Mirrors SharedPreferences, which throws ClassCastException on a type mismatch.
+            value != null -> value as T
+            current.cleared -> defValue
+            else -> fromDelegate()
+        }
+    }
+
+    private class Transaction {
+        var depth = 0
+        var cleared = false
+        var commitRequested = false
+        val changes = LinkedHashMap<String, Any>()
+
+        fun savepoint() = Savepoint(cleared, commitRequested, LinkedHashMap(changes))
+
+        fun rollBackTo(savepoint: Savepoint) {
+            cleared = savepoint.cleared
+            commitRequested = savepoint.commitRequested
+            changes.clear()
+            changes.putAll(savepoint.changes)
+        }
+
+        fun writeTo(preferences: SharedPreferences) {
+            if (!cleared && changes.isEmpty()) {
+                return
+            }
+            val editor = preferences.edit()
+            if (cleared) {
+                editor.clear()
+            }
+            changes.forEach { (key, value) ->
+                @Suppress("UNCHECKED_CAST")
+                when (value) {
+                    REMOVED -> editor.remove(key)
+                    is String -> editor.putString(key, value)
+                    is Set<*> -> editor.putStringSet(key, value as Set<String>)
+                    is Int -> editor.putInt(key, value)
+                    is Long -> editor.putLong(key, value)
+                    is Float -> editor.putFloat(key, value)
+                    is Boolean -> editor.putBoolean(key, value)
+                }
+            }
+            if (commitRequested) editor.commit() else editor.apply()
+        }
+    }
+
+    /** The state of a [Transaction] when a transaction, possibly nested, started. */
+    private class Savepoint(
+        val cleared: Boolean,
+        val commitRequested: Boolean,
+        val changes: Map<String, Any>,
+    )
+
+    /** Collects edits and merges them into the transaction on apply or commit. */
+    private class BatchingEditor(private val transaction: Transaction) : SharedPreferences.Editor {
+        private val changes = LinkedHashMap<String, Any>()
+        private var clear = false
+
+        // As with SharedPreferences, a null value is the same as removing the key.
+        override fun putString(key: String, value: String?) = put(key, value)
+
+        override fun putStringSet(key: String, values: Set<String>?) = put(key, values?.toSet())
+
+        override fun putInt(key: String, value: Int) = put(key, value)
+
+        override fun putLong(key: String, value: Long) = put(key, value)
+
+        override fun putFloat(key: String, value: Float) = put(key, value)
+
+        override fun putBoolean(key: String, value: Boolean) = put(key, value)
+
+        override fun remove(key: String) = put(key, null)
+
+        override fun clear(): SharedPreferences.Editor {
+            clear = true
+            return this
+        }
+
+        override fun commit(): Boolean {
+            apply()
+            transaction.commitRequested = true
+            return true
+        }
+
+        override fun apply() {
+            // Clearing happens before this editor's own changes, whatever the call order.
+            if (clear) {
+                transaction.cleared = true
+                transaction.changes.clear()
+            }
+            transaction.changes.putAll(changes)
+        }
+
+        private fun put(key: String, value: Any?): SharedPreferences.Editor {
+            changes[key] = value ?: REMOVED
+            return this
+        }
+    }
+
+    private companion object {
+        /** Marks a key removed in the transaction, whatever the underlying preferences hold. */
+        val REMOVED = Any()
+    }
+}
@@ -21,10 +21,15 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 import android.util.Xml;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.XmlRes;
 
 import com.android.wallpaper.R;
@@ -42,6 +47,7 @@ import com.android.wallpaper.model.ThirdPartyLiveWallpaperCategory;
 import com.android.wallpaper.model.WallpaperCategory;
 import com.android.wallpaper.model.WallpaperInfo;
 import com.android.wallpaper.module.NetworkStatusNotifier.NetworkStatus;
+import com.android.wallpaper.monitor.PerformanceMonitor;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -54,6 +60,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -75,12 +87,18 @@ public class DefaultCategoryProvider implements CategoryProvider {
     private static final int PRIORITY_THIRD_PARTY = 400;
     public static final int CREATIVE_CATEGORY_PRIORITY = 1;
 
-    protected static List<Category> sSystemCategories;
+    protected static volatile List<Category> sSystemCategories;
 
     protected final Context mAppContext;
     protected ArrayList<Category> mCategories;
     protected boolean mFetchedCategories;
 
+    // Receivers of the fetch in progress, or null if there is none. Fetches don't overlap, since
+    // each would add its categories to mCategories.
+    private List<CategoryReceiver> mFetchingReceivers;
+    // Receivers of a forced refresh that starts once the fetch in progress is done, or null.
+    private List<CategoryReceiver> mRefreshReceivers;
+
     private NetworkStatusNotifier mNetworkStatusNotifier;
     // The network status of the last fetch from the server.
     @NetworkStatus
@@ -96,6 +114,18 @@ public class DefaultCategoryProvider implements CategoryProvider {
 
     @Override
     public void fetchCategories(CategoryReceiver receiver, boolean forceRefresh) {
+        if (mFetchingReceivers != null) {
+            if (forceRefresh || mRefreshReceivers != null) {
+                if (mRefreshReceivers == null) {
+                    mRefreshReceivers = new ArrayList<>();
+                }
+                mRefreshReceivers.add(receiver);
+            } else {
+                joinFetch(receiver);
+            }
+            return;
+        }
+
         if (!forceRefresh && mFetchedCategories) {
             for (Category category : mCategories) {
                 receiver.onCategoryReceived(category);
@@ -107,9 +137,55 @@ public class DefaultCategoryProvider implements CategoryProvider {
             mFetchedCategories = false;
         }
 
+        List<CategoryReceiver> receivers = new ArrayList<>();
+        receivers.add(receiver);
+        startFetch(receivers, forceRefresh);
+    }
+
+    private void startFetch(List<CategoryReceiver> receivers, boolean forceRefresh) {
+        mFetchingReceivers = receivers;
         mNetworkStatus = mNetworkStatusNotifier.getNetworkStatus();
         mLocale = getLocale();
-        doFetch(receiver, forceRefresh);
+        doFetch(new CategoryReceiver() {
+            @Override
+            public void onCategoryReceived(Category category) {
+                // Receivers may join while this runs, after being given the categories so far.
+                for (int i = 0; i < receivers.size(); i++) {
+                    receivers.get(i).onCategoryReceived(category);
+                }
+            }
+
+            @Override
+            public void doneFetchingCategories() {
+                mFetchingReceivers = null;
+                List<CategoryReceiver> refreshReceivers = mRefreshReceivers;
+                mRefreshReceivers = null;
+                for (int i = 0; i < receivers.size(); i++) {
+                    receivers.get(i).doneFetchingCategories();
+                }
+                if (refreshReceivers == null) {
+                    return;
+                }
+                if (mFetchingReceivers != null) {
+                    // A receiver has already started a forced refresh.
+                    for (CategoryReceiver receiver : refreshReceivers) {
+                        joinFetch(receiver);
+                    }
+                } else {
+                    mCategories.clear();
+                    mFetchedCategories = false;
+                    startFetch(refreshReceivers, /* forceRefresh= */ true);
+                }
+            }
+        }, forceRefresh);
+    }
+
+    /** Adds the given receiver to the fetch in progress, giving it the categories so far. */
+    private void joinFetch(CategoryReceiver receiver) {
+        for (Category category : mCategories) {
+            receiver.onCategoryReceived(category);
+        }
+        mFetchingReceivers.add(receiver);
     }
 
     @Override
@@ -146,8 +222,11 @@ public class DefaultCategoryProvider implements CategoryProvider {
     public boolean resetIfNeeded() {
         if (mNetworkStatus != mNetworkStatusNotifier.getNetworkStatus()
                 || mLocale != getLocale()) {
-            mCategories.clear();
-            mFetchedCategories = false;
+            // Categories of a fetch in progress are cleared by the forced refresh queued after it.
+            if (mFetchingReceivers == null) {
+                mCategories.clear();
+                mFetchedCategories = false;
+            }
             return true;
         }
         return false;
@@ -194,17 +273,31 @@ public class DefaultCategoryProvider implements CategoryProvider {
             @Override
             public void onCategoryReceived(Category category) {
                 receiver.onCategoryReceived(category);
-                mCategories.add(category);
+                // Sources finish in any order, keep categories sorted by priority, then by
+                // arrival for equal priorities.
+                int index = mCategories.size();
+                while (index > 0
+                        && mCategories.get(index - 1).getPriority() > category.getPriority()) {
+                    index--;
+                }
+                mCategories.add(index, category);
             }
 
             @Override
             public void doneFetchingCategories() {
-                receiver.doneFetchingCategories();
+                // Set first, receivers may read the categories once done.
                 mFetchedCategories = true;
+                receiver.doneFetchingCategories();
             }
         };
 
-        new FetchCategoriesTask(delegatingReceiver, mAppContext).execute();
+        createFetchCategoriesTask(delegatingReceiver).execute();
+    }
+
+    /** Returns a task fetching every category for the given receiver, which isn't started yet. */
+    @VisibleForTesting
+    protected FetchCategoriesTask createFetchCategoriesTask(CategoryReceiver receiver) {
+        return new FetchCategoriesTask(receiver, mAppContext);
     }
 
     private Locale getLocale() {
@@ -212,65 +305,146 @@ public class DefaultCategoryProvider implements CategoryProvider {
     }
 
     /**
-     * AsyncTask subclass used for fetching all the categories and pushing them one at a time to
-     * the receiver.
+     * Fetches all the categories and pushes them one at a time to the receiver on the main thread.
+     *
+     * <p>Each source of categories (my photos, partner system categories, on-device wallpapers,
+     * live wallpapers and third party apps) is fetched in parallel on a small shared pool, and its
+     * categories are pushed as soon as that source is done, whatever the state of the others.
+     * Receivers order categories by priority themselves.
      */
-    protected static class FetchCategoriesTask extends AsyncTask<Void, Category, Void> {
+    protected static class FetchCategoriesTask {
+        private static final int MAX_PARALLEL_SOURCES =
+                Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        private static final int KEEP_ALIVE_SECONDS = 30;
+
+        private static ThreadPoolExecutor sExecutor;
+
         protected final CategoryReceiver mReceiver;
-        private PartnerProvider mPartnerProvider;
         protected final Context mAppContext;
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        // Live wallpapers are filtered with the ones already shown in system categories.
+        private final CountDownLatch mSystemCategoriesFetched = new CountDownLatch(1);
+        private final AtomicInteger mPendingSources = new AtomicInteger();
+        private PartnerProvider mPartnerProvider;
 
         public FetchCategoriesTask(CategoryReceiver receiver, Context context) {
             mReceiver = receiver;
             mAppContext = context.getApplicationContext();
         }
 
-        @Override
-        protected Void doInBackground(Void... voids) {
-            mPartnerProvider = InjectorProvider.getInjector().getPartnerProvider(
-                    mAppContext);
-
-            // "My photos" wallpapers
-            publishProgress(getMyPhotosCategory(mAppContext));
-
-            publishDeviceCategories();
+        private static synchronized Executor getExecutor() {
+            if (sExecutor == null) {
+                sExecutor = new ThreadPoolExecutor(MAX_PARALLEL_SOURCES, MAX_PARALLEL_SOURCES,
+                        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                        runnable -> new Thread(() -> {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }, "FetchCategories"));
+                sExecutor.allowCoreThreadTimeOut(true);
+            }
+            return sExecutor;
+        }
 
+        /** Starts fetching; must be called on the main thread. */
+        public void execute() {
+            mPendingSources.set(5);
+            // Sources are queued in priority order, which the pool starts them in.
+            runSource("my_photos", () -> publishProgress(getMyPhotosCategory(mAppContext)));
+            runSource("system", () -> {
+                try {
+                    publishDeviceCategories();
+                } finally {
+                    mSystemCategoriesFetched.countDown();
+                }
+            });
             // Legacy On-device wallpapers. Only show if on mobile.
-            publishProgress(getOnDeviceCategory());
-
-            // Live wallpapers -- if the device supports them.
-            if (mAppContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LIVE_WALLPAPER)) {
-                List<WallpaperInfo> liveWallpapers = LiveWallpaperInfo.getAll(
-                        mAppContext, getExcludedLiveWallpaperPackageNames());
-                if (liveWallpapers.size() > 0) {
-                    publishProgress(
-                            new ThirdPartyLiveWallpaperCategory(
-                                    mAppContext.getString(R.string.live_wallpapers_category_title),
-                                    mAppContext.getString(R.string.live_wallpaper_collection_id),
-                                    liveWallpapers,
-                                    PRIORITY_LIVE,
-                                    getExcludedLiveWallpaperPackageNames()));
+            runSource("on_device", () -> publishProgress(getOnDeviceCategory()));
+            runSource("live", this::publishLiveWallpaperCategory);
+            runSource("third_party", () -> {
+                List<ThirdPartyAppCategory> thirdPartyApps = ThirdPartyAppCategory.getAll(
+                        mAppContext, PRIORITY_THIRD_PARTY, getExcludedThirdPartyPackageNames());
+                publishProgress(thirdPartyApps.toArray(new Category[0]));
+            });
+        }
+
+        private void runSource(String name, Runnable source) {
+            getExecutor().execute(() -> {
+                long startTime = SystemClock.elapsedRealtime();
+                Trace.beginSection("FetchCategories:" + name);
+                try {
+                    source.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to fetch " + name + " categories", e);
+                } finally {
+                    Trace.endSection();
+                    onSourceFetched(name, SystemClock.elapsedRealtime() - startTime);
+                    // Posted after every category of the source, so it is delivered last.
+                    if (mPendingSources.decrementAndGet() == 0) {
+                        mMainHandler.post(this::onPostExecute);
+                    }
                 }
+            });
+        }
+
+        /** Called on a background thread once a source of categories has been fetched. */
+        protected void onSourceFetched(String source, long elapsedMillis) {
+            Log.d(TAG, "Fetched " + source + " categories in " + elapsedMillis + " ms");
+            PerformanceMonitor monitor = InjectorProvider.getInjector().getPerformanceMonitor();
+            if (monitor != null) {
+                monitor.recordCategoryFetch(source, elapsedMillis);
             }
+        }
+
+        /** Pushes the given categories to the receiver on the main thread. */
+        protected final void publishProgress(Category... categories) {
+            mMainHandler.post(() -> onProgressUpdate(categories));
+        }
 
-            // Third party apps.
-            List<ThirdPartyAppCategory> thirdPartyApps = ThirdPartyAppCategory.getAll(
-                    mAppContext, PRIORITY_THIRD_PARTY, getExcludedThirdPartyPackageNames());
-            for (ThirdPartyAppCategory thirdPartyApp : thirdPartyApps) {
-                publishProgress(thirdPartyApp);
+        private synchronized PartnerProvider getPartnerProvider() {
+            if (mPartnerProvider == null) {
+                mPartnerProvider = InjectorProvider.getInjector().getPartnerProvider(mAppContext);
             }
+            return mPartnerProvider;
+        }
 
-            return null;
+        /**
+         * Publishes the live wallpapers category -- if the device supports them. Live wallpapers
+         * are listed while system categories are still being fetched, and only filtered once
+         * those are known.
+         */
+        private void publishLiveWallpaperCategory() {
+            if (!mAppContext.getPackageManager().hasSystemFeature(
+                    PackageManager.FEATURE_LIVE_WALLPAPER)) {
+                return;
+            }
+            List<WallpaperInfo> liveWallpapers = LiveWallpaperInfo.getAll(mAppContext, null);
+            try {
+                mSystemCategoriesFetched.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Set<String> excludedPackageNames = getExcludedLiveWallpaperPackageNames();
+            liveWallpapers.removeIf(wallpaper -> excludedPackageNames.contains(
+                    ((LiveWallpaperInfo) wallpaper).getWallpaperComponent().getPackageName()));
+            if (liveWallpapers.size() > 0) {
+                publishProgress(
+                        new ThirdPartyLiveWallpaperCategory(
+                                mAppContext.getString(R.string.live_wallpapers_category_title),
+                                mAppContext.getString(R.string.live_wallpaper_collection_id),
+                                liveWallpapers,
+                                PRIORITY_LIVE,
+                                excludedPackageNames));
+            }
         }
 
         /**
          * Publishes the device categories.
          */
         private void publishDeviceCategories() {
-            if (sSystemCategories != null) {
-                for (int i = 0; i < sSystemCategories.size(); i++) {
-                    publishProgress(sSystemCategories.get(i));
-                }
+            List<Category> systemCategories = sSystemCategories;
+            if (systemCategories != null) {
+                publishProgress(systemCategories.toArray(new Category[0]));
                 return;
             }
             sSystemCategories = getSystemCategories();
@@ -307,8 +481,9 @@ public class DefaultCategoryProvider implements CategoryProvider {
         }
 
         protected List<Category> getSystemCategories() {
-            Resources partnerRes = mPartnerProvider.getResources();
-            String packageName = mPartnerProvider.getPackageName();
+            PartnerProvider partnerProvider = getPartnerProvider();
+            Resources partnerRes = partnerProvider.getResources();
+            String packageName = partnerProvider.getPackageName();
             List<Category> categories = new ArrayList<>();
             if (partnerRes == null || packageName == null) {
                 return categories;
@@ -332,7 +507,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
                             && WallpaperCategory.TAG_NAME.equals(parser.getName())) {
 
                         WallpaperCategory.Builder categoryBuilder =
-                                new WallpaperCategory.Builder(mPartnerProvider.getResources(),
+                                new WallpaperCategory.Builder(partnerProvider.getResources(),
                                         Xml.asAttributeSet(parser));
                         categoryBuilder.setPriorityIfEmpty(PRIORITY_SYSTEM + priorityTracker++);
                         final int categoryDepth = parser.getDepth();
@@ -343,7 +518,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
                                 WallpaperInfo wallpaper = null;
                                 if (SystemStaticWallpaperInfo.TAG_NAME.equals(parser.getName())) {
                                     wallpaper = SystemStaticWallpaperInfo
-                                            .fromAttributeSet(mPartnerProvider.getPackageName(),
+                                            .fromAttributeSet(partnerProvider.getPackageName(),
                                                     categoryBuilder.getId(),
                                                     Xml.asAttributeSet(parser));
 
@@ -376,7 +551,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
         protected Category getOnDeviceCategory() {
             List<WallpaperInfo> onDeviceWallpapers = new ArrayList<>();
 
-            if (!mPartnerProvider.shouldHideDefaultWallpaper()) {
+            if (!getPartnerProvider().shouldHideDefaultWallpaper()) {
                 DefaultWallpaperInfo defaultWallpaperInfo = new DefaultWallpaperInfo();
                 onDeviceWallpapers.add(defaultWallpaperInfo);
             }
@@ -400,10 +575,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
                     PRIORITY_ON_DEVICE);
         }
 
-        @Override
         protected void onProgressUpdate(Category... values) {
-            super.onProgressUpdate(values);
-
             for (int i = 0; i < values.length; i++) {
                 Category category = values[i];
                 if (category != null) {
@@ -412,8 +584,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
             }
         }
 
-        @Override
-        protected void onPostExecute(Void unused) {
+        protected void onPostExecute() {
             mReceiver.doneFetchingCategories();
         }
     }
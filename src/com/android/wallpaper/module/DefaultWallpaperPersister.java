@@ -24,7 +24,6 @@ import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.PointF;
@@ -32,6 +31,7 @@ import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.AsyncTask;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.Display;
@@ -42,19 +42,21 @@ import androidx.annotation.Nullable;
 
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.Asset.BitmapReceiver;
+import com.android.wallpaper.asset.AssetMetadataCache.AssetMetadata;
+import com.android.wallpaper.asset.BitmapStreamEncoder;
+import com.android.wallpaper.asset.BitmapStreamEncoder.HeapSampler;
 import com.android.wallpaper.asset.BitmapUtils;
 import com.android.wallpaper.asset.StreamableAsset;
 import com.android.wallpaper.asset.StreamableAsset.StreamReceiver;
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata;
 import com.android.wallpaper.model.WallpaperInfo;
 import com.android.wallpaper.module.BitmapCropper.Callback;
+import com.android.wallpaper.monitor.PerformanceMonitor;
 import com.android.wallpaper.util.BitmapTransformer;
 import com.android.wallpaper.util.DisplayUtils;
 import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -67,7 +69,6 @@ import java.util.Map;
  */
 public class DefaultWallpaperPersister implements WallpaperPersister {
 
-    private static final int DEFAULT_COMPRESS_QUALITY = 100;
     private static final String TAG = "WallpaperPersister";
 
     private final Context mAppContext;
@@ -118,7 +119,7 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                     callback.onError(null /* throwable */);
                     return;
                 }
-                setIndividualWallpaper(wallpaper, bitmap, cropRect, destination, callback);
+                setIndividualWallpaper(wallpaper, bitmap, cropRect, destination, asset, callback);
             });
             return;
         }
@@ -151,16 +152,19 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                         callback.onError(null /* throwable */);
                         return;
                     }
-                    setIndividualWallpaper(wallpaper, bitmap, null, destination, callback);
+                    setIndividualWallpaper(wallpaper, bitmap, null, destination, asset,
+                            callback);
                 }
             });
             return;
         }
 
+        long cropStartTime = SystemClock.elapsedRealtime();
         mBitmapCropper.cropAndScaleBitmap(asset, scale, cropRect, false, new Callback() {
             @Override
             public void onBitmapCropped(Bitmap croppedBitmap) {
-                setIndividualWallpaper(wallpaper, croppedBitmap, destination, callback);
+                recordPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_CROP, cropStartTime);
+                setIndividualWallpaper(wallpaper, croppedBitmap, destination, asset, callback);
             }
 
             @Override
@@ -176,19 +180,23 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
      * @param wallpaper     Wallpaper model object.
      * @param croppedBitmap Bitmap representing the individual wallpaper image.
      * @param destination   The destination - where to set the wallpaper to.
+     * @param sourceAsset   The asset the bitmap was decoded from, whose format is kept if the
+     *                      bitmap has to be encoded again.
      * @param callback      Called once the wallpaper was set or if an error occurred.
      */
     private void setIndividualWallpaper(WallpaperInfo wallpaper, Bitmap croppedBitmap,
-            @Destination int destination, SetWallpaperCallback callback) {
-        SetWallpaperTask setWallpaperTask =
-                new SetWallpaperTask(wallpaper, croppedBitmap, null, destination, callback);
-        setWallpaperTask.execute();
+            @Destination int destination, @Nullable Asset sourceAsset,
+            SetWallpaperCallback callback) {
+        setIndividualWallpaper(wallpaper, croppedBitmap, null, destination, sourceAsset,
+                callback);
     }
 
     private void setIndividualWallpaper(WallpaperInfo wallpaper, Bitmap fullBitmap, Rect cropHint,
-            @Destination int destination, SetWallpaperCallback callback) {
+            @Destination int destination, @Nullable Asset sourceAsset,
+            SetWallpaperCallback callback) {
         SetWallpaperTask setWallpaperTask =
                 new SetWallpaperTask(wallpaper, fullBitmap, cropHint, destination, callback);
+        setWallpaperTask.setSourceAsset(sourceAsset);
         setWallpaperTask.execute();
     }
 
@@ -247,48 +255,51 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             int wallpaperId,
             String remoteId,
             @Destination int destination) {
-        if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
-
-            // Persist wallpaper IDs if the rotating wallpaper component
-            mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
+        mWallpaperPreferences.runInTransaction(() -> {
+            if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
 
-            // Only copy over wallpaper ID to lock wallpaper if no explicit lock wallpaper is set
-            // (so metadata isn't lost if a user explicitly sets a home-only wallpaper).
+                // Persist wallpaper IDs if the rotating wallpaper component
+                mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
 
-            mWallpaperPreferences.setHomeWallpaperAttributions(attributions);
-            mWallpaperPreferences.setHomeWallpaperActionUrl(actionUrl);
-            mWallpaperPreferences.setHomeWallpaperCollectionId(collectionId);
-            mWallpaperPreferences.setHomeWallpaperRemoteId(remoteId);
-        }
+                // Only copy over wallpaper ID to lock wallpaper if no explicit lock wallpaper is
+                // set (so metadata isn't lost if a user explicitly sets a home-only wallpaper).
 
-        // Set metadata to lock screen also when the rotating wallpaper so if user sets a home
-        // screen-only wallpaper later, these attributions will still be available.
-        if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH
-                || !isSeparateLockScreenWallpaperSet()) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockWallpaperManagerId(wallpaperId);
-            mWallpaperPreferences.setLockWallpaperAttributions(attributions);
-            mWallpaperPreferences.setLockWallpaperActionUrl(actionUrl);
-            mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
-            mWallpaperPreferences.setLockWallpaperRemoteId(remoteId);
-        }
+                mWallpaperPreferences.setHomeWallpaperAttributions(attributions);
+                mWallpaperPreferences.setHomeWallpaperActionUrl(actionUrl);
+                mWallpaperPreferences.setHomeWallpaperCollectionId(collectionId);
+                mWallpaperPreferences.setHomeWallpaperRemoteId(remoteId);
+            }
 
+            // Set metadata to lock screen also when the rotating wallpaper so if user sets a home
+            // screen-only wallpaper later, these attributions will still be available.
+            if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH
+                    || !isSeparateLockScreenWallpaperSet()) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockWallpaperManagerId(wallpaperId);
+                mWallpaperPreferences.setLockWallpaperAttributions(attributions);
+                mWallpaperPreferences.setLockWallpaperActionUrl(actionUrl);
+                mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
+                mWallpaperPreferences.setLockWallpaperRemoteId(remoteId);
+            }
+        });
         return true;
     }
 
     @Override
     public boolean saveStaticWallpaperToPreferences(@Destination int destination,
             @NonNull StaticWallpaperPrefMetadata metadata) {
-        if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
-            mWallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata);
-        }
+        mWallpaperPreferences.runInTransaction(() -> {
+            if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
+                mWallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata);
+            }
 
-        if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata);
-        }
+            if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata);
+            }
+        });
         return true;
     }
 
@@ -367,12 +378,24 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public int setBitmapToWallpaperManager(Bitmap wallpaperBitmap, Rect cropHint,
             boolean allowBackup, int whichWallpaper) {
-        ByteArrayOutputStream tmpOut = new ByteArrayOutputStream();
-        if (wallpaperBitmap.compress(CompressFormat.PNG, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
-            try {
-                byte[] outByteArray = tmpOut.toByteArray();
+        return setBitmapToWallpaperManager(wallpaperBitmap, cropHint, allowBackup, whichWallpaper,
+                /* sourceMimeType= */ null);
+    }
+
+    /**
+     * Sets a wallpaper bitmap to the {@link WallpaperManager}, encoding it in the format of the
+     * image it was decoded from when that format is known and can represent the bitmap.
+     */
+    private int setBitmapToWallpaperManager(Bitmap wallpaperBitmap, Rect cropHint,
+            boolean allowBackup, int whichWallpaper, @Nullable String sourceMimeType) {
+        // Encode through a temporary file rather than a byte array so the encoded image never
+        // sits on the heap next to the bitmap.
+        InputStream encodedStream = BitmapStreamEncoder.encode(mAppContext, wallpaperBitmap,
+                sourceMimeType);
+        if (encodedStream != null) {
+            try (InputStream inputStream = encodedStream) {
                 return mWallpaperManager.setStream(
-                        new ByteArrayInputStream(outByteArray),
+                        inputStream,
                         cropHint /* visibleCropHint */,
                         allowBackup,
                         whichWallpaper);
@@ -398,11 +421,16 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public int setStreamToWallpaperManager(InputStream inputStream, @Nullable Rect cropHint,
             boolean allowBackup, int whichWallpaper) {
+        HeapSampler heapSampler = new HeapSampler();
+        long startTime = SystemClock.elapsedRealtime();
         try {
             return mWallpaperManager.setStream(inputStream, cropHint, allowBackup,
                     whichWallpaper);
         } catch (IOException e) {
             return 0;
+        } finally {
+            BitmapStreamEncoder.recordStreamThrough(SystemClock.elapsedRealtime() - startTime,
+                    heapSampler);
         }
     }
 
@@ -454,30 +482,42 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             @Destination int destination) {
         android.app.WallpaperInfo component = wallpaperInfo.getWallpaperComponent();
 
-        if (destination == WallpaperPersister.DEST_HOME_SCREEN
-                || destination == WallpaperPersister.DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
-            mWallpaperPreferences.setHomeWallpaperServiceName(component.getServiceName());
-            mWallpaperPreferences.setHomeWallpaperEffects(effects);
-            mWallpaperPreferences.setHomeWallpaperCollectionId(
-                    wallpaperInfo.getCollectionId(mAppContext));
-
-            // Disable rotation wallpaper when setting live wallpaper to home screen
-            // Daily rotation rotates both home and lock screen wallpaper when lock screen is not
-            // set; otherwise daily rotation only rotates home screen while lock screen wallpaper
-            // stays as what it's set to.
-            mWallpaperPreferences.setWallpaperPresentationMode(
-                    WallpaperPreferences.PRESENTATION_MODE_STATIC);
-            mWallpaperPreferences.clearDailyRotations();
-        }
+        mWallpaperPreferences.runInTransaction(() -> {
+            if (destination == WallpaperPersister.DEST_HOME_SCREEN
+                    || destination == WallpaperPersister.DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
+                mWallpaperPreferences.setHomeWallpaperServiceName(component.getServiceName());
+                mWallpaperPreferences.setHomeWallpaperEffects(effects);
+                mWallpaperPreferences.setHomeWallpaperCollectionId(
+                        wallpaperInfo.getCollectionId(mAppContext));
 
-        if (destination == WallpaperPersister.DEST_LOCK_SCREEN
-                || destination == WallpaperPersister.DEST_BOTH) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockWallpaperServiceName(component.getServiceName());
-            mWallpaperPreferences.setLockWallpaperEffects(effects);
-            mWallpaperPreferences.setLockWallpaperCollectionId(
-                    wallpaperInfo.getCollectionId(mAppContext));
+                // Disable rotation wallpaper when setting live wallpaper to home screen
+                // Daily rotation rotates both home and lock screen wallpaper when lock screen is
+                // not set; otherwise daily rotation only rotates home screen while lock screen
+                // wallpaper stays as what it's set to.
+                mWallpaperPreferences.setWallpaperPresentationMode(
+                        WallpaperPreferences.PRESENTATION_MODE_STATIC);
+                mWallpaperPreferences.clearDailyRotations();
+            }
+
+            if (destination == WallpaperPersister.DEST_LOCK_SCREEN
+                    || destination == WallpaperPersister.DEST_BOTH) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockWallpaperServiceName(component.getServiceName());
+                mWallpaperPreferences.setLockWallpaperEffects(effects);
+                mWallpaperPreferences.setLockWallpaperCollectionId(
+                        wallpaperInfo.getCollectionId(mAppContext));
+            }
+        });
+    }
+
+    /** Records the time spent since the given start time in the given phase. */
+    private static void recordPhase(@PerformanceMonitor.SetWallpaperPhase int phase,
+            long startTime) {
+        Injector injector = InjectorProvider.getInjector();
+        PerformanceMonitor monitor = injector != null ? injector.getPerformanceMonitor() : null;
+        if (monitor != null) {
+            monitor.recordSetWallpaperPhase(phase, SystemClock.elapsedRealtime() - startTime);
         }
     }
 
@@ -500,6 +540,8 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
         private Point mFillSize;
         @Nullable
         private Point mStretchSize;
+        @Nullable
+        private Asset mSourceAsset;
 
         SetWallpaperTask(WallpaperInfo wallpaper, Bitmap bitmap, Rect cropHint,
                 @Destination int destination, WallpaperPersister.SetWallpaperCallback callback) {
@@ -533,6 +575,11 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             mFillSize = fillSize;
         }
 
+        /** Sets the asset the bitmap was decoded from, so that its format can be kept. */
+        void setSourceAsset(@Nullable Asset sourceAsset) {
+            mSourceAsset = sourceAsset;
+        }
+
         void setStretchSize(Point stretchSize) {
             if (mFillSize != null) {
                 throw new IllegalArgumentException(
@@ -560,19 +607,28 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             final int wallpaperId;
             if (mBitmap != null) {
                 // Apply fill or stretch transformations on mBitmap if necessary.
-                if (mFillSize != null) {
-                    mBitmap = BitmapTransformer.applyFillTransformation(mBitmap, mFillSize);
-                }
-                if (mStretchSize != null) {
-                    mBitmap = Bitmap.createScaledBitmap(mBitmap, mStretchSize.x, mStretchSize.y,
-                            true);
+                if (mFillSize != null || mStretchSize != null) {
+                    long transformStartTime = SystemClock.elapsedRealtime();
+                    if (mFillSize != null) {
+                        mBitmap = BitmapTransformer.applyFillTransformation(mBitmap, mFillSize);
+                    }
+                    if (mStretchSize != null) {
+                        mBitmap = Bitmap.createScaledBitmap(mBitmap, mStretchSize.x,
+                                mStretchSize.y, true);
+                    }
+                    recordPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_TRANSFORM,
+                            transformStartTime);
                 }
 
+                long applyStartTime = SystemClock.elapsedRealtime();
                 wallpaperId = setBitmapToWallpaperManager(mBitmap, mCropHint, allowBackup,
-                        whichWallpaper);
+                        whichWallpaper, getSourceMimeType());
+                recordPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_APPLY, applyStartTime);
             } else if (mInputStream != null) {
+                long applyStartTime = SystemClock.elapsedRealtime();
                 wallpaperId = setStreamToWallpaperManager(mInputStream, mCropHint,
                         allowBackup, whichWallpaper);
+                recordPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_APPLY, applyStartTime);
             } else {
                 Log.e(TAG,
                         "Both the wallpaper bitmap and input stream are null so we're unable "
@@ -581,28 +637,35 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             }
 
             if (wallpaperId > 0) {
-                if (mDestination == DEST_HOME_SCREEN
-                        && mWallpaperPreferences.getWallpaperPresentationMode()
-                        == WallpaperPreferences.PRESENTATION_MODE_ROTATING
-                        && !wasLockWallpaperSet) {
-                    copyRotatingWallpaperToLock();
-                }
+                final int setWallpaperId = wallpaperId;
+                long metadataStartTime = SystemClock.elapsedRealtime();
+                // Record all the metadata of the new wallpaper in a single write.
+                mWallpaperPreferences.runInTransaction(() -> {
+                    if (mDestination == DEST_HOME_SCREEN
+                            && mWallpaperPreferences.getWallpaperPresentationMode()
+                            == WallpaperPreferences.PRESENTATION_MODE_ROTATING
+                            && !wasLockWallpaperSet) {
+                        copyRotatingWallpaperToLock();
+                    }
 
-                if (mIsRefactorSettingWallpaper) {
-                    if (mBitmap == null) {
-                        mWallpaperManager.forgetLoadedWallpaper();
-                        mBitmap = ((BitmapDrawable) mWallpaperManager
-                                .getDrawable(WallpaperPersister.destinationToFlags(mDestination)))
-                                .getBitmap();
+                    if (mIsRefactorSettingWallpaper) {
+                        if (mBitmap == null) {
+                            mWallpaperManager.forgetLoadedWallpaper();
+                            mBitmap = ((BitmapDrawable) mWallpaperManager
+                                    .getDrawable(
+                                            WallpaperPersister.destinationToFlags(mDestination)))
+                                    .getBitmap();
+                        }
+                        setStaticWallpaperMetadataToPreferences(
+                                mDestination,
+                                setWallpaperId,
+                                BitmapUtils.generateHashCode(mBitmap),
+                                WallpaperColors.fromBitmap(mBitmap));
+                    } else {
+                        setImageWallpaperMetadata(mDestination, setWallpaperId);
                     }
-                    setStaticWallpaperMetadataToPreferences(
-                            mDestination,
-                            wallpaperId,
-                            BitmapUtils.generateHashCode(mBitmap),
-                            WallpaperColors.fromBitmap(mBitmap));
-                } else {
-                    setImageWallpaperMetadata(mDestination, wallpaperId);
-                }
+                });
+                recordPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_METADATA, metadataStartTime);
 
                 return true;
             } else {
@@ -610,6 +673,16 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             }
         }
 
+        /** Returns the MIME type of the source asset, if it's known. */
+        @Nullable
+        private String getSourceMimeType() {
+            if (!(mSourceAsset instanceof StreamableAsset)) {
+                return null;
+            }
+            AssetMetadata metadata = ((StreamableAsset) mSourceAsset).getMetadata();
+            return metadata != null ? metadata.getMimeType() : null;
+        }
+
         @Override
         protected void onPostExecute(Boolean isSuccess) {
             if (mInputStream != null) {
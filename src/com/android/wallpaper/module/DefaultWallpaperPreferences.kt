@@ -25,7 +25,10 @@ import android.graphics.Bitmap
 import android.graphics.Color
 import android.graphics.Point
 import android.graphics.Rect
+import android.util.Base64
 import android.util.Log
+import androidx.annotation.GuardedBy
+import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
@@ -38,6 +41,8 @@ import com.android.wallpaper.module.WallpaperPreferences.PresentationMode
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
+import com.android.wallpaper.util.LongRingBuffer
+import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.Calendar
 import java.util.Locale
@@ -45,12 +50,34 @@ import java.util.TimeZone
 import org.json.JSONArray
 import org.json.JSONException
 
-/** Default implementation that writes to and reads from SharedPreferences. */
+/**
+ * Default implementation that writes to and reads from SharedPreferences.
+ *
+ * The device-specific metadata of each destination is kept as one [WallpaperDestinationRecord] per
+ * destination. Both preferences files support [runInTransaction], which callers use to turn a whole
+ * set wallpaper operation into a single write per file.
+ */
 open class DefaultWallpaperPreferences(private val context: Context) : WallpaperPreferences {
-    protected val sharedPrefs: SharedPreferences =
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-    protected val noBackupPrefs: SharedPreferences =
-        context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE)
+    private val batchingSharedPrefs =
+        BatchingSharedPreferences(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE))
+    private val batchingNoBackupPrefs =
+        BatchingSharedPreferences(
+            context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE)
+        )
+    protected val sharedPrefs: SharedPreferences = batchingSharedPrefs
+    protected val noBackupPrefs: SharedPreferences = batchingNoBackupPrefs
+
+    private val recordLock = Any()
+    /** Last parsed record of each destination along with the value it was parsed from. */
+    @GuardedBy("recordLock")
+    private val parsedRecords = HashMap<String, Pair<String, WallpaperDestinationRecord>>()
+
+    private val rotationHistoryLock = Any()
+    /** Last decoded rotation history along with the stored value it was decoded from. */
+    @GuardedBy("rotationHistoryLock")
+    private var decodedRotationHistory: Pair<String?, LongRingBuffer>? = null
+
+    private val colorsStore = WallpaperColorsStore.getInstance(context)
 
     private val backupManager = BackupManager(context)
     private val sharedPrefsChangedListener = OnSharedPreferenceChangeListener { _, _ ->
@@ -58,8 +85,12 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     }
 
     init {
-        if (noBackupPrefs.all.isEmpty() && sharedPrefs.all.isNotEmpty()) {
-            upgradePrefs()
+        runInTransaction {
+            if (noBackupPrefs.all.isEmpty() && sharedPrefs.all.isNotEmpty()) {
+                upgradePrefs()
+            }
+            migrateDestinationRecords()
+            migrateDailyRotationTimestamps()
         }
         // Register a prefs changed listener so that all prefs changes trigger a backup event.
         sharedPrefs.registerOnSharedPreferenceChangeListener(sharedPrefsChangedListener)
@@ -188,6 +219,113 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         noBackupEditor.apply()
     }
 
+    /**
+     * Move the per-field [NoBackupKeys] of each destination, written by previous versions of the
+     * app, into a single [WallpaperDestinationRecord] per destination.
+     */
+    private fun migrateDestinationRecords() {
+        migrateDestinationRecord(
+            NoBackupKeys.KEY_HOME_WALLPAPER_RECORD,
+            NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID,
+            NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID,
+            NoBackupKeys.KEY_HOME_WALLPAPER_RECENTS_KEY,
+            NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME,
+            NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS,
+            NoBackupKeys.KEY_HOME_WALLPAPER_BASE_IMAGE_URL,
+            NoBackupKeys.KEY_HOME_WALLPAPER_BACKING_FILE,
+        )
+        migrateDestinationRecord(
+            NoBackupKeys.KEY_LOCK_WALLPAPER_RECORD,
+            NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID,
+            NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID,
+            NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY,
+            NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME,
+            NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS,
+            NoBackupKeys.KEY_LOCK_WALLPAPER_BACKING_FILE,
+        )
+    }
+
+    /** The base image URL and backing file keys are obsolete and only removed. */
+    private fun migrateDestinationRecord(
+        recordKey: String,
+        managerIdKey: String,
+        remoteIdKey: String,
+        recentsKeyKey: String,
+        serviceNameKey: String,
+        effectsKey: String,
+        vararg obsoleteKeys: String,
+    ) {
+        val legacyKeys =
+            listOf(managerIdKey, remoteIdKey, recentsKeyKey, serviceNameKey, effectsKey) +
+                obsoleteKeys
+        if (legacyKeys.none { noBackupPrefs.contains(it) }) {
+            return
+        }
+        // A record written since takes precedence over leftover keys.
+        if (!noBackupPrefs.contains(recordKey)) {
+            putRecord(
+                recordKey,
+                WallpaperDestinationRecord(
+                    managerId = noBackupPrefs.getInt(managerIdKey, 0),
+                    remoteId = noBackupPrefs.getString(remoteIdKey, null),
+                    recentsKey = noBackupPrefs.getString(recentsKeyKey, null),
+                    serviceName = noBackupPrefs.getString(serviceNameKey, null),
+                    effects = noBackupPrefs.getString(effectsKey, null),
+                )
+            )
+        }
+        val editor = noBackupPrefs.edit()
+        legacyKeys.forEach { editor.remove(it) }
+        editor.apply()
+    }
+
+    override fun runInTransaction(block: Runnable) {
+        batchingSharedPrefs.runInTransaction {
+            batchingNoBackupPrefs.runInTransaction { block.run() }
+        }
+    }
+
+    private fun getRecord(recordKey: String): WallpaperDestinationRecord {
+        val json =
+            noBackupPrefs.getString(recordKey, null) ?: return WallpaperDestinationRecord.EMPTY
+        synchronized(recordLock) {
+            val parsed = parsedRecords[recordKey]
+            if (parsed != null && parsed.first == json) {
+                return parsed.second
+            }
+        }
+        val record = WallpaperDestinationRecord.fromJson(json)
+        synchronized(recordLock) { parsedRecords[recordKey] = Pair(json, record) }
+        return record
+    }
+
+    private fun putRecord(recordKey: String, record: WallpaperDestinationRecord) {
+        if (record == WallpaperDestinationRecord.EMPTY) {
+            noBackupPrefs.edit().remove(recordKey).apply()
+        } else {
+            noBackupPrefs.edit().putString(recordKey, record.toJson()).apply()
+        }
+    }
+
+    private fun updateRecord(
+        recordKey: String,
+        update: (WallpaperDestinationRecord) -> WallpaperDestinationRecord,
+    ) {
+        synchronized(recordLock) { putRecord(recordKey, update(getRecord(recordKey))) }
+    }
+
+    private fun updateHomeRecord(
+        update: (WallpaperDestinationRecord) -> WallpaperDestinationRecord
+    ) = updateRecord(NoBackupKeys.KEY_HOME_WALLPAPER_RECORD, update)
+
+    private fun updateLockRecord(
+        update: (WallpaperDestinationRecord) -> WallpaperDestinationRecord
+    ) = updateRecord(NoBackupKeys.KEY_LOCK_WALLPAPER_RECORD, update)
+
+    private fun getHomeRecord() = getRecord(NoBackupKeys.KEY_HOME_WALLPAPER_RECORD)
+
+    private fun getLockRecord() = getRecord(NoBackupKeys.KEY_LOCK_WALLPAPER_RECORD)
+
     private fun getResIdPersistedByName(key: String, type: String): Int {
         val resName = sharedPrefs.getString(key, null) ?: return 0
         return context.resources.getIdentifier(resName, type, context.packageName)
@@ -272,16 +410,10 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
             .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL)
             .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID)
             .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE)
+            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION)
             .apply()
-        noBackupPrefs
-            .edit()
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_BASE_IMAGE_URL)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_BACKING_FILE)
-            .apply()
+        // The recents key outlives the rest of the metadata.
+        updateHomeRecord { WallpaperDestinationRecord(recentsKey = it.recentsKey) }
     }
 
     override fun setHomeStaticImageWallpaperMetadata(metadata: StaticWallpaperPrefMetadata) {
@@ -319,13 +451,14 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         val hashCode = metadata.hashCode
         if (hashCode != null) {
             sharedEditor.putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode)
+            sharedEditor.putInt(
+                WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION,
+                BitmapUtils.HASH_CODE_VERSION
+            )
         }
         sharedEditor.apply()
 
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.putString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, metadata.remoteId)
-        noBackupEditor.apply()
+        updateHomeRecord { it.copy(managerId = metadata.managerId, remoteId = metadata.remoteId) }
     }
 
     override fun setHomeLiveWallpaperMetadata(metadata: LiveWallpaperPrefMetadata) {
@@ -358,82 +491,75 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         )
         sharedEditor.apply()
 
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, metadata.serviceName)
-        noBackupEditor.putString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, metadata.effectName)
-        noBackupEditor.putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.apply()
+        updateHomeRecord {
+            it.copy(
+                serviceName = metadata.serviceName,
+                effects = metadata.effectName,
+                managerId = metadata.managerId,
+            )
+        }
     }
 
     override fun getHomeWallpaperHashCode(): Long {
         return sharedPrefs.getLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, 0)
     }
 
+    override fun getHomeWallpaperHashCodeVersion(): Int {
+        return sharedPrefs.getInt(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION, 0)
+    }
+
     override fun setHomeWallpaperHashCode(hashCode: Long) {
         sharedPrefs
             .edit()
             .putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode)
+            .putInt(
+                WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION,
+                BitmapUtils.HASH_CODE_VERSION
+            )
             .apply()
     }
 
     override fun getHomeWallpaperServiceName(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, null)
+        return getHomeRecord().serviceName
     }
 
     override fun setHomeWallpaperServiceName(serviceName: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, serviceName)
-            .apply()
+        updateHomeRecord { it.copy(serviceName = serviceName) }
         setFirstWallpaperApplyDateIfNeeded()
     }
 
     override fun getHomeWallpaperManagerId(): Int {
-        return noBackupPrefs.getInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 0)
+        return getHomeRecord().managerId
     }
 
     override fun setHomeWallpaperManagerId(homeWallpaperId: Int) {
-        noBackupPrefs
-            .edit()
-            .putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, homeWallpaperId)
-            .apply()
+        updateHomeRecord { it.copy(managerId = homeWallpaperId) }
     }
 
     override fun getHomeWallpaperRemoteId(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, null)
+        return getHomeRecord().remoteId
     }
 
     override fun setHomeWallpaperRemoteId(wallpaperRemoteId: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, wallpaperRemoteId)
-            .apply()
+        updateHomeRecord { it.copy(remoteId = wallpaperRemoteId) }
         setFirstWallpaperApplyDateIfNeeded()
     }
 
     override fun getHomeWallpaperRecentsKey(): String? {
-        return noBackupPrefs.getString(
-            NoBackupKeys.KEY_HOME_WALLPAPER_RECENTS_KEY,
-            generateRecentsKey(getHomeWallpaperRemoteId(), getHomeWallpaperHashCode())
-        )
+        val record = getHomeRecord()
+        return record.recentsKey ?: generateRecentsKey(record.remoteId, getHomeWallpaperHashCode())
     }
 
     override fun setHomeWallpaperRecentsKey(recentsKey: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_RECENTS_KEY, recentsKey)
-            .apply()
+        updateHomeRecord { it.copy(recentsKey = recentsKey) }
     }
 
     override fun getHomeWallpaperEffects(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, null)
+        return getHomeRecord().effects
     }
 
     override fun setHomeWallpaperEffects(wallpaperEffects: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, wallpaperEffects)
-            .apply()
+        updateHomeRecord { it.copy(effects = wallpaperEffects) }
     }
 
     override fun getLockWallpaperAttributions(): List<String?>? {
@@ -490,15 +616,10 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
             .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL)
             .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID)
             .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE)
+            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION)
             .apply()
-        noBackupPrefs
-            .edit()
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_BACKING_FILE)
-            .apply()
+        // The recents key outlives the rest of the metadata.
+        updateLockRecord { WallpaperDestinationRecord(recentsKey = it.recentsKey) }
     }
 
     override fun setLockStaticImageWallpaperMetadata(metadata: StaticWallpaperPrefMetadata) {
@@ -536,13 +657,14 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         val hashCode = metadata.hashCode
         if (hashCode != null) {
             sharedEditor.putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, hashCode)
+            sharedEditor.putInt(
+                WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION,
+                BitmapUtils.HASH_CODE_VERSION
+            )
         }
         sharedEditor.apply()
 
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.putString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, metadata.remoteId)
-        noBackupEditor.apply()
+        updateLockRecord { it.copy(managerId = metadata.managerId, remoteId = metadata.remoteId) }
     }
 
     override fun setLockLiveWallpaperMetadata(metadata: LiveWallpaperPrefMetadata) {
@@ -575,110 +697,155 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         )
         sharedEditor.apply()
 
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, metadata.serviceName)
-        noBackupEditor.putString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, metadata.effectName)
-        noBackupEditor.putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.apply()
+        updateLockRecord {
+            it.copy(
+                serviceName = metadata.serviceName,
+                effects = metadata.effectName,
+                managerId = metadata.managerId,
+            )
+        }
     }
 
     override fun getLockWallpaperHashCode(): Long {
         return sharedPrefs.getLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, 0)
     }
 
+    override fun getLockWallpaperHashCodeVersion(): Int {
+        return sharedPrefs.getInt(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION, 0)
+    }
+
     override fun setLockWallpaperHashCode(hashCode: Long) {
         sharedPrefs
             .edit()
             .putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, hashCode)
+            .putInt(
+                WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION,
+                BitmapUtils.HASH_CODE_VERSION
+            )
             .apply()
     }
 
     override fun getLockWallpaperServiceName(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, null)
+        return getLockRecord().serviceName
     }
 
     override fun setLockWallpaperServiceName(serviceName: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, serviceName)
-            .apply()
+        updateLockRecord { it.copy(serviceName = serviceName) }
     }
 
     override fun getLockWallpaperManagerId(): Int {
-        return noBackupPrefs.getInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 0)
+        return getLockRecord().managerId
     }
 
     override fun setLockWallpaperManagerId(lockWallpaperId: Int) {
-        noBackupPrefs
-            .edit()
-            .putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, lockWallpaperId)
-            .apply()
+        updateLockRecord { it.copy(managerId = lockWallpaperId) }
     }
 
     override fun getLockWallpaperRemoteId(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, null)
+        return getLockRecord().remoteId
     }
 
     override fun setLockWallpaperRemoteId(wallpaperRemoteId: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, wallpaperRemoteId)
-            .apply()
+        updateLockRecord { it.copy(remoteId = wallpaperRemoteId) }
         setFirstWallpaperApplyDateIfNeeded()
     }
 
     override fun getLockWallpaperRecentsKey(): String? {
-        return noBackupPrefs.getString(
-            NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY,
-            generateRecentsKey(getLockWallpaperRemoteId(), getLockWallpaperHashCode())
-        )
+        val record = getLockRecord()
+        return record.recentsKey ?: generateRecentsKey(record.remoteId, getLockWallpaperHashCode())
     }
 
     override fun setLockWallpaperRecentsKey(recentsKey: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY, recentsKey)
-            .apply()
+        updateLockRecord { it.copy(recentsKey = recentsKey) }
     }
 
     override fun getLockWallpaperEffects(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, null)
+        return getLockRecord().effects
     }
 
     override fun setLockWallpaperEffects(wallpaperEffects: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, wallpaperEffects)
-            .apply()
+        updateLockRecord { it.copy(effects = wallpaperEffects) }
     }
 
     override fun addDailyRotation(timestamp: Long) {
-        val jsonString = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]")
-        try {
-            val jsonArray = JSONArray(jsonString)
-            jsonArray.put(timestamp)
-            noBackupPrefs
-                .edit()
-                .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, jsonArray.toString())
-                .apply()
-        } catch (e: JSONException) {
-            Log.e(TAG, "Failed to add a daily rotation timestamp due to a JSON parse exception")
+        synchronized(rotationHistoryLock) {
+            val history = getRotationHistoryLocked()
+            history.add(timestamp)
+            putRotationHistoryLocked(history)
         }
     }
 
     override fun getLastDailyRotationTimestamp(): Long {
-        val jsonString = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]")
-        return try {
-            val jsonArray = JSONArray(jsonString)
-            if (jsonArray.length() == 0) {
-                -1
-            } else jsonArray.getLong(jsonArray.length() - 1)
-        } catch (e: JSONException) {
-            Log.e(TAG, "Failed to find a daily rotation timestamp due to a JSON parse exception")
-            -1
+        return synchronized(rotationHistoryLock) { getRotationHistoryLocked().lastOrDefault(-1) }
+    }
+
+    override fun getDailyRotationTimestamps(startTimestamp: Long, endTimestamp: Long): LongArray {
+        return synchronized(rotationHistoryLock) {
+            getRotationHistoryLocked().valuesInRange(startTimestamp, endTimestamp)
         }
     }
 
+    /**
+     * Returns the rotation history, decoding it again only if the stored value changed since it
+     * was last decoded. The result must not be modified without storing it right after.
+     */
+    @GuardedBy("rotationHistoryLock")
+    private fun getRotationHistoryLocked(): LongRingBuffer {
+        val encoded = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, null)
+        val decoded = decodedRotationHistory
+        if (decoded != null && decoded.first == encoded) {
+            return decoded.second
+        }
+        val history =
+            encoded?.let {
+                try {
+                    LongRingBuffer.decode(
+                        Base64.decode(it, Base64.NO_WRAP),
+                        MAX_DAILY_ROTATION_HISTORY
+                    )
+                } catch (e: IllegalArgumentException) {
+                    Log.e(TAG, "Failed to decode the daily rotation history", e)
+                    null
+                } catch (e: IOException) {
+                    Log.e(TAG, "Failed to decode the daily rotation history", e)
+                    null
+                }
+            } ?: LongRingBuffer(MAX_DAILY_ROTATION_HISTORY)
+        decodedRotationHistory = Pair(encoded, history)
+        return history
+    }
+
+    @GuardedBy("rotationHistoryLock")
+    private fun putRotationHistoryLocked(history: LongRingBuffer) {
+        val encoded = Base64.encodeToString(history.encode(), Base64.NO_WRAP)
+        noBackupPrefs.edit().putString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, encoded).apply()
+        decodedRotationHistory = Pair(encoded, history)
+    }
+
+    /**
+     * Moves the daily rotation timestamps stored by previous versions of the app as a JSON array
+     * into the rotation history, keeping only the most recent ones.
+     */
+    private fun migrateDailyRotationTimestamps() {
+        val jsonString =
+            noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, null) ?: return
+        synchronized(rotationHistoryLock) {
+            val history = getRotationHistoryLocked()
+            try {
+                val jsonArray = JSONArray(jsonString)
+                val start = maxOf(0, jsonArray.length() - MAX_DAILY_ROTATION_HISTORY)
+                for (i in start until jsonArray.length()) {
+                    history.add(jsonArray.getLong(i))
+                }
+            } catch (e: JSONException) {
+                Log.e(TAG, "Dropping daily rotation timestamps due to a JSON parse exception")
+                history.clear()
+            }
+            putRotationHistoryLocked(history)
+        }
+        noBackupPrefs.edit().remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS).apply()
+    }
+
     override fun getDailyWallpaperEnabledTimestamp(): Long {
         return noBackupPrefs.getLong(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP, -1)
     }
@@ -693,7 +860,7 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     override fun clearDailyRotations() {
         noBackupPrefs
             .edit()
-            .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
+            .remove(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY)
             .remove(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP)
             .apply()
     }
@@ -800,28 +967,21 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         if (storedWallpaperId == null || wallpaperColors == null) {
             return
         }
-        val primaryColor = wallpaperColors.primaryColor
-        var value = java.lang.String(primaryColor.toArgb().toString()) as String
-        val secondaryColor = wallpaperColors.secondaryColor
-        if (secondaryColor != null) {
-            value += "," + secondaryColor.toArgb()
-        }
-        val tertiaryColor = wallpaperColors.tertiaryColor
-        if (tertiaryColor != null) {
-            value += "," + tertiaryColor.toArgb()
-        }
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId, value)
-            .apply()
+        colorsStore.put(storedWallpaperId, /* cropHints= */ null, wallpaperColors)
     }
 
     override fun getWallpaperColors(storedWallpaperId: String): WallpaperColors? {
-        val value =
-            noBackupPrefs.getString(
-                NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId,
-                null
-            )
+        return colorsStore.get(storedWallpaperId, /* cropHints= */ null)
+            ?: migrateLegacyWallpaperColors(storedWallpaperId)
+    }
+
+    /**
+     * Moves colors stored by older versions as comma separated color ints in preferences into the
+     * [WallpaperColorsStore].
+     */
+    private fun migrateLegacyWallpaperColors(storedWallpaperId: String): WallpaperColors? {
+        val key = NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId
+        val value = noBackupPrefs.getString(key, null)
         if (value == null || value.isEmpty()) {
             return null
         }
@@ -835,12 +995,16 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         if (colorStrings.size >= 3) {
             colorTerTiary = Color.valueOf(colorStrings[2].toInt())
         }
-        return WallpaperColors(
-            colorPrimary,
-            colorSecondary,
-            colorTerTiary,
-            WallpaperColors.HINT_FROM_BITMAP
-        )
+        val colors =
+            WallpaperColors(
+                colorPrimary,
+                colorSecondary,
+                colorTerTiary,
+                WallpaperColors.HINT_FROM_BITMAP
+            )
+        colorsStore.put(storedWallpaperId, /* cropHints= */ null, colors)
+        noBackupPrefs.edit().remove(key).apply()
+        return colors
     }
 
     override fun updateDailyWallpaperSet(
@@ -848,24 +1012,26 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         collectionId: String?,
         wallpaperId: String?,
     ) {
-        // Assign wallpaper info by destination.
-        when (destination) {
-            WallpaperPersister.DEST_HOME_SCREEN -> {
-                setHomeWallpaperCollectionId(collectionId!!)
-                setHomeWallpaperRemoteId(wallpaperId)
-            }
-            WallpaperPersister.DEST_LOCK_SCREEN -> {
-                setLockWallpaperCollectionId(collectionId!!)
-                setLockWallpaperRemoteId(wallpaperId!!)
-            }
-            WallpaperPersister.DEST_BOTH -> {
-                setHomeWallpaperCollectionId(collectionId!!)
-                setHomeWallpaperRemoteId(wallpaperId)
-                setLockWallpaperCollectionId(collectionId)
-                setLockWallpaperRemoteId(wallpaperId!!)
+        runInTransaction {
+            // Assign wallpaper info by destination.
+            when (destination) {
+                WallpaperPersister.DEST_HOME_SCREEN -> {
+                    setHomeWallpaperCollectionId(collectionId!!)
+                    setHomeWallpaperRemoteId(wallpaperId)
+                }
+                WallpaperPersister.DEST_LOCK_SCREEN -> {
+                    setLockWallpaperCollectionId(collectionId!!)
+                    setLockWallpaperRemoteId(wallpaperId!!)
+                }
+                WallpaperPersister.DEST_BOTH -> {
+                    setHomeWallpaperCollectionId(collectionId!!)
+                    setHomeWallpaperRemoteId(wallpaperId)
+                    setLockWallpaperCollectionId(collectionId)
+                    setLockWallpaperRemoteId(wallpaperId!!)
+                }
             }
+            setHomeWallpaperEffects(null)
         }
-        setHomeWallpaperEffects(null)
     }
 
     override fun storeLatestWallpaper(
@@ -973,6 +1139,9 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         const val PREFS_NAME = "wallpaper"
         const val NO_BACKUP_PREFS_NAME = "wallpaper-nobackup"
         const val KEY_VALUE_DIVIDER = "="
+
+        /** Number of daily rotations kept, about a year's worth. */
+        private const val MAX_DAILY_ROTATION_HISTORY = 366
         private const val TAG = "DefaultWallpaperPreferences"
     }
 }
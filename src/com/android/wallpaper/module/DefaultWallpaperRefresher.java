@@ -24,15 +24,11 @@ import android.app.WallpaperManager;
 import android.content.ContentProviderClient;
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -46,9 +42,6 @@ import com.android.wallpaper.picker.customization.data.content.WallpaperClient;
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination;
 import com.android.wallpaper.util.DisplayUtils;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -74,6 +67,8 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
 
     private final WallpaperClient mWallpaperClient;
 
+    private final WallpaperFingerprinter mWallpaperFingerprinter;
+
     private final Executor mExecutor = Executors.newCachedThreadPool();
 
 
@@ -88,6 +83,7 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
         mWallpaperStatusChecker = injector.getWallpaperStatusChecker(context);
         mDisplayUtils = injector.getDisplayUtils(mAppContext);
         mWallpaperClient = injector.getWallpaperClient(mAppContext);
+        mWallpaperFingerprinter = WallpaperFingerprinter.getInstance(mAppContext);
 
         // Retrieve WallpaperManager using Context#getSystemService instead of
         // WallpaperManager#getInstance so it can be mocked out in test.
@@ -253,18 +249,7 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
 
         private long getCurrentHomeWallpaperHashCode() {
             if (mCurrentHomeWallpaperHashCode == 0) {
-                BitmapDrawable wallpaperDrawable = (BitmapDrawable) mWallpaperManager.getDrawable();
-                // wallpaperDrawable should always be non-null, unless if there's a error in
-                // WallpaperManager's state, in which case we'll consider the hashcode as unset.
-                Bitmap wallpaperBitmap = wallpaperDrawable != null ? wallpaperDrawable.getBitmap()
-                        : null;
-                mCurrentHomeWallpaperHashCode =
-                        wallpaperBitmap != null ? BitmapUtils.generateHashCode(wallpaperBitmap) : 0;
-
-                // Manually request that WallpaperManager loses its reference to the current
-                // wallpaper bitmap, which can occupy a large memory allocation for the lifetime of
-                // the app.
-                mWallpaperManager.forgetLoadedWallpaper();
+                mCurrentHomeWallpaperHashCode = mWallpaperFingerprinter.getHashCode(FLAG_SYSTEM);
             }
             return mCurrentHomeWallpaperHashCode;
         }
@@ -272,50 +257,13 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
         private long getCurrentLockWallpaperHashCode() {
             if (mCurrentLockWallpaperHashCode == 0
                     && mWallpaperStatusChecker.isLockWallpaperSet()) {
-                Bitmap wallpaperBitmap = getLockWallpaperBitmap();
-                // If isLockWallpaperSet() returned true, wallpaperBitmap should always be
-                // non-null, unless if there's a error in WallpaperManager, in which case we'll
-                // consider the hashcode as unset.
-                mCurrentLockWallpaperHashCode =
-                        wallpaperBitmap != null ? BitmapUtils.generateHashCode(wallpaperBitmap) : 0;
+                // Served from the stored fingerprint unless the lock wallpaper file changed since
+                // it was last hashed, in which case it is decoded once.
+                mCurrentLockWallpaperHashCode = mWallpaperFingerprinter.getHashCode(FLAG_LOCK);
             }
             return mCurrentLockWallpaperHashCode;
         }
 
-        /**
-         * Returns the lock screen wallpaper currently set on the device as a Bitmap, or null if no
-         * lock screen wallpaper is set.
-         */
-        private Bitmap getLockWallpaperBitmap() {
-            Bitmap lockBitmap = null;
-
-            ParcelFileDescriptor pfd = mWallpaperManager.getWallpaperFile(FLAG_LOCK);
-            // getWallpaperFile returns null if the lock screen isn't explicitly set, so need this
-            // check.
-            if (pfd != null) {
-                InputStream fileStream = null;
-                try {
-                    fileStream = new FileInputStream(pfd.getFileDescriptor());
-                    lockBitmap = BitmapFactory.decodeStream(fileStream);
-                    pfd.close();
-                    return lockBitmap;
-                } catch (IOException e) {
-                    Log.e(TAG, "IO exception when closing the file descriptor.");
-                } finally {
-                    if (fileStream != null) {
-                        try {
-                            fileStream.close();
-                        } catch (IOException e) {
-                            Log.e(TAG,
-                                    "IO exception when closing input stream for lock screen WP.");
-                        }
-                    }
-                }
-            }
-
-            return lockBitmap;
-        }
-
         /**
          * Returns whether the image wallpaper set to the system matches the metadata in
          * WallpaperPreferences.
@@ -351,11 +299,14 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
          */
         private boolean isLockScreenImageWallpaperCurrent() {
             // Check for lock wallpaper image same-ness only when there is no stored lock wallpaper
-            // hash code. Otherwise if there is a lock wallpaper hash code stored in
+            // hash code, or it is of an older format that can't be compared with a new one.
+            // Otherwise if there is a lock wallpaper hash code stored in
             // {@link WallpaperPreferences}, then check hash codes.
             long savedLockWallpaperHash = mWallpaperPreferences.getLockWallpaperHashCode();
 
-            if (savedLockWallpaperHash == 0) {
+            if (savedLockWallpaperHash == 0
+                    || mWallpaperPreferences.getLockWallpaperHashCodeVersion()
+                            != BitmapUtils.HASH_CODE_VERSION) {
                 return mWallpaperPreferences.getLockWallpaperManagerId()
                         == mWallpaperManager.getWallpaperId(FLAG_LOCK);
             } else {
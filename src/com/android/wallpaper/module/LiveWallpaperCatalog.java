@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.app.WallpaperInfo;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Parcel;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * On-disk catalog of the {@link WallpaperInfo}s of installed live wallpaper services, so that
+ * listing live wallpapers doesn't parse every service's metadata XML each time.
+ *
+ * <p>Entries are grouped by package and hold the parceled {@link WallpaperInfo}s along with the
+ * package's version code and last update time. A package's entries are checked against the
+ * installed version on every lookup, which is a single package manager query rather than a parse
+ * of every service's XML, and are dropped as soon as they don't match. This catches updates made
+ * at any time, including while the app wasn't running. The whole catalog is dropped whenever the
+ * platform build changes since the parcel layout may.
+ */
+public class LiveWallpaperCatalog {
+
+    private static final String TAG = "LiveWallpaperCatalog";
+    private static final String FILE_NAME = "live_wallpaper_catalog";
+    private static final int MAGIC = 0x4c575043; // "LWPC"
+    private static final int VERSION = 1;
+
+    private static LiveWallpaperCatalog sInstance;
+
+    private final PackageManager mPackageManager;
+    private final AtomicFile mFile;
+    private final Executor mWriteExecutor;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Map<String, PackageEntry> mPackages = new HashMap<>();
+    @GuardedBy("mLock")
+    private boolean mLoaded;
+    @GuardedBy("mLock")
+    private boolean mWriteScheduled;
+
+    /** Returns the process-wide catalog. */
+    public static synchronized LiveWallpaperCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new LiveWallpaperCatalog(appContext.getPackageManager(),
+                    new AtomicFile(new File(appContext.getNoBackupFilesDir(), FILE_NAME)),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    LiveWallpaperCatalog(PackageManager packageManager, AtomicFile file, Executor writeExecutor) {
+        mPackageManager = packageManager;
+        mFile = file;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Returns the {@link WallpaperInfo} of the given live wallpaper service, from the catalog if
+     * it is up to date, and parsed from the service's metadata otherwise.
+     */
+    @WorkerThread
+    public WallpaperInfo getWallpaperInfo(Context context, ResolveInfo resolveInfo)
+            throws XmlPullParserException, IOException {
+        ServiceInfo serviceInfo = resolveInfo.serviceInfo;
+        synchronized (mLock) {
+            PackageEntry entry = getValidEntryLocked(serviceInfo.packageName);
+            byte[] bytes = entry != null ? entry.mServices.get(serviceInfo.name) : null;
+            WallpaperInfo wallpaperInfo = bytes != null ? unparcel(bytes) : null;
+            if (wallpaperInfo != null) {
+                return wallpaperInfo;
+            }
+        }
+
+        WallpaperInfo wallpaperInfo = new WallpaperInfo(context, resolveInfo);
+        byte[] bytes = parcel(wallpaperInfo);
+        synchronized (mLock) {
+            PackageEntry entry = getValidEntryLocked(serviceInfo.packageName);
+            if (entry != null) {
+                entry.mServices.put(serviceInfo.name, bytes);
+                scheduleWriteLocked();
+            }
+        }
+        return wallpaperInfo;
+    }
+
+    /**
+     * Returns a string identifying the installed version of the given package, which changes
+     * whenever the package is updated, or null if it isn't installed.
+     */
+    @WorkerThread
+    @Nullable
+    public String getPackageVersion(String packageName) {
+        synchronized (mLock) {
+            PackageEntry entry = getValidEntryLocked(packageName);
+            return entry != null ? entry.mVersionCode + ":" + entry.mLastUpdateTime : null;
+        }
+    }
+
+    /** Drops everything cataloged for the given package. */
+    public void invalidate(String packageName) {
+        synchronized (mLock) {
+            if (mPackages.remove(packageName) != null) {
+                scheduleWriteLocked();
+            }
+        }
+    }
+
+    /**
+     * Returns the entry of the given package, emptied first if it doesn't match the installed
+     * version, or null if the package isn't installed.
+     */
+    @GuardedBy("mLock")
+    @Nullable
+    private PackageEntry getValidEntryLocked(String packageName) {
+        loadLocked();
+        PackageEntry entry = mPackages.get(packageName);
+        PackageInfo packageInfo;
+        try {
+            packageInfo = mPackageManager.getPackageInfo(packageName, /* flags= */ 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            invalidate(packageName);
+            return null;
+        }
+        if (entry == null || entry.mVersionCode != packageInfo.getLongVersionCode()
+                || entry.mLastUpdateTime != packageInfo.lastUpdateTime) {
+            entry = new PackageEntry(packageInfo.getLongVersionCode(),
+                    packageInfo.lastUpdateTime);
+            mPackages.put(packageName, entry);
+            scheduleWriteLocked();
+        }
+        return entry;
+    }
+
+    @GuardedBy("mLock")
+    private void loadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.getBaseFile().exists()) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION
+                    || !Build.FINGERPRINT.equals(input.readUTF())) {
+                return;
+            }
+            int packageCount = input.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = input.readUTF();
+                PackageEntry entry = new PackageEntry(input.readLong(), input.readLong());
+                int serviceCount = input.readInt();
+                for (int j = 0; j < serviceCount; j++) {
+                    String serviceName = input.readUTF();
+                    byte[] bytes = new byte[input.readInt()];
+                    input.readFully(bytes);
+                    entry.mServices.put(serviceName, bytes);
+                }
+                mPackages.put(packageName, entry);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the live wallpaper catalog", e);
+            mPackages.clear();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleWriteLocked() {
+        if (mWriteScheduled) {
+            return;
+        }
+        mWriteScheduled = true;
+        // Writes are coalesced: a single write picks up every change made before it runs.
+        mWriteExecutor.execute(this::write);
+    }
+
+    private void write() {
+        Map<String, PackageEntry> snapshot = new HashMap<>();
+        synchronized (mLock) {
+            mWriteScheduled = false;
+            for (Map.Entry<String, PackageEntry> entry : mPackages.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        FileOutputStream stream;
+        try {
+            stream = mFile.startWrite();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the live wallpaper catalog", e);
+            return;
+        }
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(Build.FINGERPRINT);
+            output.writeInt(snapshot.size());
+            for (Map.Entry<String, PackageEntry> packageEntry : snapshot.entrySet()) {
+                PackageEntry entry = packageEntry.getValue();
+                output.writeUTF(packageEntry.getKey());
+                output.writeLong(entry.mVersionCode);
+                output.writeLong(entry.mLastUpdateTime);
+                output.writeInt(entry.mServices.size());
+                for (Map.Entry<String, byte[]> service : entry.mServices.entrySet()) {
+                    output.writeUTF(service.getKey());
+                    output.writeInt(service.getValue().length);
+                    output.write(service.getValue());
+                }
+            }
+            output.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write the live wallpaper catalog", e);
+            mFile.failWrite(stream);
+        }
+    }
+
+    private static byte[] parcel(WallpaperInfo wallpaperInfo) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            wallpaperInfo.writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Nullable
+    private static WallpaperInfo unparcel(byte[] bytes) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return WallpaperInfo.CREATOR.createFromParcel(parcel);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to read a cataloged live wallpaper", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Parceled {@link WallpaperInfo}s of one package, keyed by service class name. */
+    private static class PackageEntry {
+        final long mVersionCode;
+        final long mLastUpdateTime;
+        final Map<String, byte[]> mServices = new HashMap<>();
+
+        PackageEntry(long versionCode, long lastUpdateTime) {
+            mVersionCode = versionCode;
+            mLastUpdateTime = lastUpdateTime;
+        }
+
+        PackageEntry copy() {
+            PackageEntry copy = new PackageEntry(mVersionCode, mLastUpdateTime);
+            copy.mServices.putAll(mServices);
+            return copy;
+        }
+    }
+}
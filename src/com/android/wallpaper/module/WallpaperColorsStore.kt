@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.app.WallpaperColors
+import android.content.Context
+import android.graphics.Color
+import android.graphics.Point
+import android.graphics.Rect
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+/**
+ * Persistent store of extracted [WallpaperColors], keyed by wallpaper id and the crop hints (per
+ * display size) the colors were extracted with.
+ *
+ * Entries live in a single binary file holding the three main colors and the color hints of each
+ * entry as explicit fields, so that the file stays readable across platform updates. The store is
+ * bounded by its encoded size and evicts the least recently used entries first. The file is
+ * rewritten off the calling thread after each change.
+ */
+class WallpaperColorsStore
+@VisibleForTesting
+internal constructor(
+    private val file: AtomicFile,
+    private val writeExecutor: Executor,
+    private val maxBytes: Int = MAX_BYTES,
+) {
+    private val lock = Any()
+
+    @GuardedBy("lock") private val entries = LinkedHashMap<String, ByteArray>(16, 0.75f, true)
+    @GuardedBy("lock") private var sizeBytes = 0
+    @GuardedBy("lock") private var loaded = false
+    @GuardedBy("lock") private var writeScheduled = false
+
+    /**
+     * Returns the colors stored for the wallpaper with the given crop hints, or null if there are
+     * none. Null crop hints stand for the whole, uncropped wallpaper.
+     */
+    @WorkerThread
+    fun get(wallpaperId: String, cropHints: Map<Point, Rect>?): WallpaperColors? {
+        val bytes = synchronized(lock) { loadedEntries()[createKey(wallpaperId, cropHints)] }
+        return bytes?.let { decode(it) }
+    }
+
+    /** Stores the colors of the wallpaper with the given crop hints. */
+    fun put(wallpaperId: String, cropHints: Map<Point, Rect>?, colors: WallpaperColors) {
+        val bytes = encode(colors)
+        val key = createKey(wallpaperId, cropHints)
+        synchronized(lock) {
+            val previous = loadedEntries().put(key, bytes)
+            sizeBytes += entrySize(key, bytes) - (previous?.let { entrySize(key, it) } ?: 0)
+            trimToSize()
+            scheduleWrite()
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun loadedEntries(): LinkedHashMap<String, ByteArray> {
+        if (!loaded) {
+            loaded = true
+            read()
+            trimToSize()
+        }
+        return entries
+    }
+
+    @GuardedBy("lock")
+    private fun trimToSize() {
+        val iterator = entries.entries.iterator()
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            val eldest = iterator.next()
+            sizeBytes -= entrySize(eldest.key, eldest.value)
+            iterator.remove()
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun scheduleWrite() {
+        if (writeScheduled) {
+            return
+        }
+        writeScheduled = true
+        // Writes are coalesced: a single write picks up every change made before it runs.
+        writeExecutor.execute { write() }
+    }
+
+    @GuardedBy("lock")
+    private fun read() {
+        if (!file.baseFile.exists()) {
+            return
+        }
+        try {
+            DataInputStream(file.openRead().buffered()).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    return
+                }
+                // Entries are written from least to most recently used.
+                repeat(input.readInt()) {
+                    val key = input.readUTF()
+                    val bytes = ByteArray(input.readInt())
+                    input.readFully(bytes)
+                    entries[key] = bytes
+                    sizeBytes += entrySize(key, bytes)
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to read stored wallpaper colors", e)
+            entries.clear()
+            sizeBytes = 0
+        }
+    }
+
+    private fun write() {
+        val snapshot =
+            synchronized(lock) {
+                writeScheduled = false
+                entries.entries.map { it.key to it.value }
+            }
+        val stream =
+            try {
+                file.startWrite()
+            } catch (e: IOException) {
+                Log.w(TAG, "Unable to write wallpaper colors", e)
+                return
+            }
+        try {
+            val output = DataOutputStream(stream.buffered())
+            output.writeInt(MAGIC)
+            output.writeInt(VERSION)
+            output.writeInt(snapshot.size)
+            for ((key, bytes) in snapshot) {
+                output.writeUTF(key)
+                output.writeInt(bytes.size)
+                output.write(bytes)
+            }
+            output.flush()
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to write wallpaper colors", e)
+            file.failWrite(stream)
+        }
+    }
+
+    companion object {
+        private const val TAG = "WallpaperColorsStore"
+        private const val FILE_NAME = "wallpaper_colors"
+        private const val MAGIC = 0x57434f4c // "WCOL"
+        /** Version 1 stored parceled colors, which are dropped on read. */
+        private const val VERSION = 2
+
+        /** Cap on the encoded size of all entries, a few hundred wallpapers' worth of colors. */
+        private const val MAX_BYTES = 128 * 1024
+
+        @Volatile private var instance: WallpaperColorsStore? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): WallpaperColorsStore =
+            instance
+                ?: synchronized(this) {
+                    instance
+                        ?: WallpaperColorsStore(
+                                AtomicFile(
+                                    File(context.applicationContext.noBackupFilesDir, FILE_NAME)
+                                ),
+                                Executors.newSingleThreadExecutor(),
+                            )
+                            .also { instance = it }
+                }
+
+        /** Crop hints are sorted by display size so that equal maps always give the same key. */
+        @VisibleForTesting
+        internal fun createKey(wallpaperId: String, cropHints: Map<Point, Rect>?): String =
+            buildString {
+                append(wallpaperId)
+                cropHints
+                    ?.entries
+                    ?.sortedWith(compareBy({ it.key.x }, { it.key.y }))
+                    ?.forEach { (size, crop) ->
+                        append('|').append(size.x).append('x').append(size.y)
+                        append(':').append(crop.flattenToString())
+                    }
+            }
+
+        private fun entrySize(key: String, bytes: ByteArray) = key.length * 2 + bytes.size
+
+        private fun encode(colors: WallpaperColors): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { output ->
+                output.writeInt(colors.primaryColor.toArgb())
+                output.writeOptionalColor(colors.secondaryColor)
+                output.writeOptionalColor(colors.tertiaryColor)
+                output.writeInt(colors.colorHints)
+            }
+            return bytes.toByteArray()
+        }
+
+        private fun decode(bytes: ByteArray): WallpaperColors? =
+            try {
+                DataInputStream(bytes.inputStream()).use { input ->
+                    WallpaperColors(
+                        Color.valueOf(input.readInt()),
+                        input.readOptionalColor(),
+                        input.readOptionalColor(),
+                        input.readInt(),
+                    )
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Unable to read stored wallpaper colors", e)
+                null
+            }
+
+        private fun DataOutputStream.writeOptionalColor(color: Color?) {
+            writeBoolean(color != null)
+            if (color != null) {
+                writeInt(color.toArgb())
+            }
+        }
+
+        private fun DataInputStream.readOptionalColor(): Color? =
+            if (readBoolean()) Color.valueOf(readInt()) else null
+    }
+}
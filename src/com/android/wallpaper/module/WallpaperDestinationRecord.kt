@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.util.Log
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * Device-specific metadata of the wallpaper set to one destination, which is not backed up. The
+ * whole record is persisted as a single preference value, so updating several of its fields is a
+ * single write and readers never see a half-updated record.
+ */
+internal data class WallpaperDestinationRecord(
+    val managerId: Int = 0,
+    val remoteId: String? = null,
+    val recentsKey: String? = null,
+    val serviceName: String? = null,
+    val effects: String? = null,
+) {
+
+    fun toJson(): String =
+        JSONObject()
+            .put(KEY_VERSION, VERSION)
+            .put(KEY_MANAGER_ID, managerId)
+            .putOpt(KEY_REMOTE_ID, remoteId)
+            .putOpt(KEY_RECENTS_KEY, recentsKey)
+            .putOpt(KEY_SERVICE_NAME, serviceName)
+            .putOpt(KEY_EFFECTS, effects)
+            .toString()
+
+    companion object {
+        private const val TAG = "WallpaperDestinationRecord"
+
+        /**
+         * Bumped whenever fields change meaning. [fromJson] drops records of any other version, and
+         * is where migrations from older versions go.
+         */
+        const val VERSION = 1
+
+        private const val KEY_VERSION = "version"
+        private const val KEY_MANAGER_ID = "managerId"
+        private const val KEY_REMOTE_ID = "remoteId"
+        private const val KEY_RECENTS_KEY = "recentsKey"
+        private const val KEY_SERVICE_NAME = "serviceName"
+        private const val KEY_EFFECTS = "effects"
+
+        val EMPTY = WallpaperDestinationRecord()
+
+        fun fromJson(json: String): WallpaperDestinationRecord =
+            try {
+                val jsonObject = JSONObject(json)
+                val version = jsonObject.optInt(KEY_VERSION, 0)
+                if (version != VERSION) {
+                    // The fields may mean something else, e.g. after a downgrade of the app.
+                    Log.w(TAG, "Dropping wallpaper destination record of version $version")
+                    EMPTY
+                } else {
+                    WallpaperDestinationRecord(
+                        managerId = jsonObject.optInt(KEY_MANAGER_ID, 0),
+                        remoteId = jsonObject.optStringOrNull(KEY_REMOTE_ID),
+                        recentsKey = jsonObject.optStringOrNull(KEY_RECENTS_KEY),
+                        serviceName = jsonObject.optStringOrNull(KEY_SERVICE_NAME),
+                        effects = jsonObject.optStringOrNull(KEY_EFFECTS),
+                    )
+                }
+            } catch (e: JSONException) {
+                Log.e(TAG, "Unable to parse wallpaper destination record", e)
+                EMPTY
+            }
+
+        private fun JSONObject.optStringOrNull(name: String): String? =
+            if (has(name) && !isNull(name)) getString(name) else null
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import static android.app.WallpaperManager.FLAG_LOCK;
+
+import android.annotation.SuppressLint;
+import android.app.WallpaperManager;
+import android.app.WallpaperManager.SetWallpaperFlags;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.wallpaper.asset.BitmapUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Provides the {@link BitmapUtils#generateHashCode(Bitmap)} of the current static wallpapers
+ * without decoding them every time it is needed.
+ *
+ * <p>Each result is persisted along with the wallpaper's WallpaperManager id and the size and
+ * modification time of its file, and is served from there as long as those still match. When they
+ * don't, a cheap content hash of the compressed file bytes is checked next, so re-setting the same
+ * image doesn't need a decode either. Only a wallpaper whose bytes actually changed is decoded, and
+ * only once.
+ *
+ * <p>Hash codes are still computed from decoded pixels since they are compared against the ones
+ * saved when setting the wallpaper and against backed up values. For the same reason each
+ * destination is decoded the way it was before fingerprints were stored: the home wallpaper through
+ * {@link WallpaperManager#getDrawable()}, the lock wallpaper from its file. The home wallpaper file
+ * only keys the stored hash code.
+ */
+@SuppressLint("ServiceCast")
+public class WallpaperFingerprinter {
+
+    private static final String TAG = "WallpaperFingerprinter";
+    private static final String PREFS_NAME = "wallpaper-fingerprints";
+
+    private static final String KEY_MANAGER_ID = "_manager_id";
+    private static final String KEY_FILE_SIZE = "_file_size";
+    private static final String KEY_FILE_MTIME = "_file_mtime";
+    private static final String KEY_CONTENT_HASH = "_content_hash";
+    private static final String KEY_HASH_CODE = "_hash_code";
+    private static final String KEY_HASH_CODE_VERSION = "_hash_code_version";
+
+    /** Stand-in file stats for the built-in default wallpaper, which has no backing file. */
+    private static final long NO_FILE = -1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static WallpaperFingerprinter sInstance;
+
+    private final WallpaperManager mWallpaperManager;
+    private final SharedPreferences mPrefs;
+    private final Object mHomeLock = new Object();
+    private final Object mLockLock = new Object();
+
+    /** Returns the process-wide instance. */
+    public static synchronized WallpaperFingerprinter getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new WallpaperFingerprinter(
+                    (WallpaperManager) appContext.getSystemService(Context.WALLPAPER_SERVICE),
+                    appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    WallpaperFingerprinter(WallpaperManager wallpaperManager, SharedPreferences prefs) {
+        mWallpaperManager = wallpaperManager;
+        mPrefs = prefs;
+    }
+
+    /**
+     * Returns the hash code of the static wallpaper currently set to the given destination, or 0 if
+     * there is none or it couldn't be read. Concurrent calls for the same destination wait for a
+     * single computation. Should not be called from the main thread.
+     */
+    @WorkerThread
+    public long getHashCode(@SetWallpaperFlags int which) {
+        synchronized (which == FLAG_LOCK ? mLockLock : mHomeLock) {
+            return computeHashCodeLocked(which);
+        }
+    }
+
+    private long computeHashCodeLocked(@SetWallpaperFlags int which) {
+        String prefix = which == FLAG_LOCK ? "lock" : "home";
+        int managerId = mWallpaperManager.getWallpaperId(which);
+
+        ParcelFileDescriptor pfd = mWallpaperManager.getWallpaperFile(which);
+        if (pfd == null) {
+            // Without a distinct lock file the lock screen shows the home wallpaper, while a home
+            // wallpaper without a file is the built-in default, which is only available decoded.
+            return which == FLAG_LOCK ? 0 : getDefaultWallpaperHashCode(prefix, managerId);
+        }
+
+        try (ParcelFileDescriptor closeable = pfd) {
+            StructStat stat = Os.fstat(pfd.getFileDescriptor());
+            if (isStored(prefix, managerId, stat.st_size, stat.st_mtime)) {
+                return mPrefs.getLong(prefix + KEY_HASH_CODE, 0);
+            }
+
+            FileInputStream fileStream = new FileInputStream(pfd.getFileDescriptor());
+            long contentHash = hashContent(fileStream);
+            long hashCode;
+            if (mPrefs.getLong(prefix + KEY_CONTENT_HASH, 0) == contentHash
+                    && hasCurrentHashCode(prefix)) {
+                hashCode = mPrefs.getLong(prefix + KEY_HASH_CODE, 0);
+            } else if (which == FLAG_LOCK) {
+                fileStream.getChannel().position(0);
+                Bitmap bitmap = BitmapFactory.decodeFileDescriptor(pfd.getFileDescriptor());
+                if (bitmap == null) {
+                    return 0;
+                }
+                hashCode = BitmapUtils.generateHashCode(bitmap);
+                bitmap.recycle();
+            } else {
+                hashCode = hashHomeDrawable();
+                if (hashCode == 0) {
+                    return 0;
+                }
+            }
+            store(prefix, managerId, stat.st_size, stat.st_mtime, contentHash, hashCode);
+            return hashCode;
+        } catch (ErrnoException | IOException e) {
+            Log.e(TAG, "Unable to fingerprint wallpaper file for destination " + which, e);
+            return 0;
+        }
+    }
+
+    private long getDefaultWallpaperHashCode(String prefix, int managerId) {
+        if (isStored(prefix, managerId, NO_FILE, NO_FILE)) {
+            return mPrefs.getLong(prefix + KEY_HASH_CODE, 0);
+        }
+        long hashCode = hashHomeDrawable();
+        if (hashCode != 0) {
+            store(prefix, managerId, NO_FILE, NO_FILE, /* contentHash= */ 0, hashCode);
+        }
+        return hashCode;
+    }
+
+    /** Returns the hash code of the home wallpaper as decoded by WallpaperManager, or 0. */
+    private long hashHomeDrawable() {
+        Drawable drawable = mWallpaperManager.getDrawable();
+        Bitmap bitmap = drawable instanceof BitmapDrawable
+                ? ((BitmapDrawable) drawable).getBitmap() : null;
+        long hashCode = bitmap != null ? BitmapUtils.generateHashCode(bitmap) : 0;
+        // Don't keep the decoded wallpaper around for the lifetime of the app.
+        mWallpaperManager.forgetLoadedWallpaper();
+        return hashCode;
+    }
+
+    private boolean isStored(String prefix, int managerId, long fileSize, long fileMtime) {
+        // Hash codes of an older format are computed again rather than served.
+        return hasCurrentHashCode(prefix)
+                && mPrefs.getInt(prefix + KEY_MANAGER_ID, 0) == managerId
+                && mPrefs.getLong(prefix + KEY_FILE_SIZE, NO_FILE) == fileSize
+                && mPrefs.getLong(prefix + KEY_FILE_MTIME, NO_FILE) == fileMtime;
+    }
+
+    private boolean hasCurrentHashCode(String prefix) {
+        return mPrefs.getLong(prefix + KEY_HASH_CODE, 0) != 0
+                && mPrefs.getInt(prefix + KEY_HASH_CODE_VERSION, 0)
+                        == BitmapUtils.HASH_CODE_VERSION;
+    }
+
+    private void store(String prefix, int managerId, long fileSize, long fileMtime,
+            long contentHash, long hashCode) {
+        mPrefs.edit()
+                .putInt(prefix + KEY_MANAGER_ID, managerId)
+                .putLong(prefix + KEY_FILE_SIZE, fileSize)
+                .putLong(prefix + KEY_FILE_MTIME, fileMtime)
+                .putLong(prefix + KEY_CONTENT_HASH, contentHash)
+                .putLong(prefix + KEY_HASH_CODE, hashCode)
+                .putInt(prefix + KEY_HASH_CODE_VERSION, BitmapUtils.HASH_CODE_VERSION)
+                .apply();
+    }
+
+    /** 64-bit FNV-1a hash of the stream's bytes, which only tells whether the bytes changed. */
+    @VisibleForTesting
+    static long hashContent(InputStream stream) throws IOException {
+        long hash = FNV_OFFSET_BASIS;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                hash ^= buffer[i] & 0xff;
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+}
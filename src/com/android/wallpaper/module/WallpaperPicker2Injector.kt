@@ -35,6 +35,7 @@ import com.android.wallpaper.model.InlinePreviewIntentFactory
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.WallpaperInfo
 import com.android.wallpaper.module.logging.UserEventLogger
+import com.android.wallpaper.monitor.MetricsPerformanceMonitor
 import com.android.wallpaper.monitor.PerformanceMonitor
 import com.android.wallpaper.network.Requester
 import com.android.wallpaper.picker.CustomizationPickerActivity
@@ -44,6 +45,7 @@ import com.android.wallpaper.picker.MyPhotosStarter
 import com.android.wallpaper.picker.PreviewActivity
 import com.android.wallpaper.picker.PreviewFragment
 import com.android.wallpaper.picker.ViewOnlyPreviewActivity
+import com.android.wallpaper.picker.customization.data.content.RecentThumbnailDiskCache
 import com.android.wallpaper.picker.customization.data.content.WallpaperClient
 import com.android.wallpaper.picker.customization.data.content.WallpaperClientImpl
 import com.android.wallpaper.picker.customization.data.repository.WallpaperColorsRepository
@@ -206,12 +208,7 @@ constructor(
 
     @Synchronized
     override fun getPerformanceMonitor(): PerformanceMonitor? {
-
-        return performanceMonitor
-            ?: PerformanceMonitor {
-                    /** No Op */
-                }
-                .also { performanceMonitor = it }
+        return performanceMonitor ?: MetricsPerformanceMonitor().also { performanceMonitor = it }
     }
 
     override fun getPreviewFragment(
@@ -317,6 +314,7 @@ constructor(
                             client = getWallpaperClient(context),
                             wallpaperPreferences = getPreferences(context = appContext),
                             backgroundDispatcher = bgDispatcher,
+                            thumbnailDiskCache = RecentThumbnailDiskCache(appContext),
                         ),
                 )
                 .also { wallpaperInteractor = it }
@@ -333,6 +331,7 @@ constructor(
                     context = appContext,
                     wallpaperManager = WallpaperManager.getInstance(appContext),
                     wallpaperPreferences = getPreferences(appContext),
+                    backgroundScope = CoroutineScope(bgDispatcher),
                 )
                 .also { wallpaperClient = it }
     }
@@ -27,12 +27,16 @@ public class WallpaperPreferenceKeys {
     public static final String KEY_HOME_WALLPAPER_ACTION_URL = "home_wallpaper_action_url";
     public static final String KEY_HOME_WALLPAPER_COLLECTION_ID = "home_wallpaper_collection_id";
     public static final String KEY_HOME_WALLPAPER_HASH_CODE = "home_wallpaper_hash_code";
+    public static final String KEY_HOME_WALLPAPER_HASH_CODE_VERSION =
+            "home_wallpaper_hash_code_version";
 
     public static final String KEY_LOCK_WALLPAPER_ATTRIB_1 = "lock_wallpaper_attribution_line_1";
     public static final String KEY_LOCK_WALLPAPER_ATTRIB_2 = "lock_wallpaper_attribution_line_2";
     public static final String KEY_LOCK_WALLPAPER_ATTRIB_3 = "lock_wallpaper_attribution_line_3";
     public static final String KEY_LOCK_WALLPAPER_ACTION_URL = "lock_wallpaper_action_url";
     public static final String KEY_LOCK_WALLPAPER_HASH_CODE = "lock_wallpaper_hash_code";
+    public static final String KEY_LOCK_WALLPAPER_HASH_CODE_VERSION =
+            "lock_wallpaper_hash_code_version";
     public static final String KEY_LOCK_WALLPAPER_COLLECTION_ID = "lock_wallpaper_collection_id";
     public static final String KEY_HAS_SMALL_PREVIEW_TOOLTIP_BEEN_SHOWN =
             "has_small_preview_tooltip_been_shown";
@@ -59,6 +63,7 @@ public class WallpaperPreferenceKeys {
         String KEY_LOCK_WALLPAPER_REMOTE_ID = "lock_wallpaper_remote_id";
         String KEY_LOCK_WALLPAPER_BACKING_FILE = "lock_wallpaper_backing_file";
         String KEY_DAILY_ROTATION_TIMESTAMPS = "daily_rotation_timestamps";
+        String KEY_DAILY_ROTATION_HISTORY = "daily_rotation_history";
         String KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP =
                 "daily_wallpaper_enabled_timestamp";
         String KEY_LAST_DAILY_LOG_TIMESTAMP = "last_daily_log_timestamp";
@@ -80,5 +85,7 @@ public class WallpaperPreferenceKeys {
         String KEY_PREVIEW_WALLPAPER_COLOR_ID = "preview_wallpaper_color_id";
         String KEY_HOME_WALLPAPER_EFFECTS = "home_wallpaper_effects";
         String KEY_LOCK_WALLPAPER_EFFECTS = "lock_wallpaper_effects";
+        String KEY_HOME_WALLPAPER_RECORD = "home_wallpaper_record";
+        String KEY_LOCK_WALLPAPER_RECORD = "lock_wallpaper_record";
     }
 }
@@ -22,6 +22,7 @@ import android.graphics.Point
 import android.graphics.Rect
 import android.text.TextUtils
 import androidx.annotation.IntDef
+import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
@@ -72,7 +73,16 @@ interface WallpaperPreferences {
     /** Returns the home wallpaper's bitmap hash code or 0 if there is none. */
     fun getHomeWallpaperHashCode(): Long
 
-    /** Sets the home wallpaper's bitmap hash code if it is an individual image. */
+    /**
+     * Returns the version of the format the home wallpaper's bitmap hash code was generated in,
+     * or 0 if it was saved before hash codes were versioned. See [BitmapUtils.HASH_CODE_VERSION].
+     */
+    fun getHomeWallpaperHashCodeVersion(): Int
+
+    /**
+     * Sets the home wallpaper's bitmap hash code if it is an individual image. The hash code must
+     * come from the current version of [BitmapUtils.generateHashCode].
+     */
     fun setHomeWallpaperHashCode(hashCode: Long)
 
     /** Gets the home wallpaper's service name, which is present for live wallpapers. */
@@ -146,7 +156,17 @@ interface WallpaperPreferences {
     /** Returns the lock screen wallpaper's bitmap hash code or 0 if there is none. */
     fun getLockWallpaperHashCode(): Long
 
-    /** Sets the lock screen wallpaper's bitmap hash code if it is an individual image. */
+    /**
+     * Returns the version of the format the lock screen wallpaper's bitmap hash code was generated
+     * in, or 0 if it was saved before hash codes were versioned. See
+     * [BitmapUtils.HASH_CODE_VERSION].
+     */
+    fun getLockWallpaperHashCodeVersion(): Int
+
+    /**
+     * Sets the lock screen wallpaper's bitmap hash code if it is an individual image. The hash code
+     * must come from the current version of [BitmapUtils.generateHashCode].
+     */
     fun setLockWallpaperHashCode(hashCode: Long)
 
     /** Gets the lock wallpaper's service name, which is present for live wallpapers. */
@@ -197,6 +217,13 @@ interface WallpaperPreferences {
      */
     fun getLastDailyRotationTimestamp(): Long
 
+    /**
+     * Returns the timestamps of the daily rotations which occurred within [startTimestamp]
+     * inclusive and [endTimestamp] exclusive, oldest first. Only the most recent rotations are
+     * kept, so very old ones may be missing.
+     */
+    fun getDailyRotationTimestamps(startTimestamp: Long, endTimestamp: Long): LongArray
+
     /**
      * Returns the daily wallpaper enabled timestamp in milliseconds since Unix epoch, or -1 if
      * daily wallpaper is not currently enabled.
@@ -308,12 +335,22 @@ interface WallpaperPreferences {
     fun storeWallpaperColors(storedWallpaperId: String?, wallpaperColors: WallpaperColors?)
 
     /**
-     * Returns the wallpaper colors from wallpaper's id.
+     * Returns the wallpaper colors from wallpaper's id. Colors may be read from disk, so this
+     * should be called off the main thread.
      *
      * @param storedWallpaperId wallpaper id.
      */
     fun getWallpaperColors(storedWallpaperId: String): WallpaperColors?
 
+    /**
+     * Runs [block] as a single transaction: the preferences it changes read back as changed right
+     * away, but are only written to disk once it returns, in a single write per preferences file.
+     * Transactions are confined to the calling thread and may nest.
+     */
+    fun runInTransaction(block: Runnable) {
+        block.run()
+    }
+
     /**
      * Update currently set daily wallpaper info.
      *
@@ -385,8 +422,9 @@ interface WallpaperPreferences {
      *
      * @param destination destination where the wallpaper is set to
      * @param wallpaperModel static wallpaper model
-     * @param bitmap full sie bitmap of the static wallpaper
-     * @param cropHints crop hints of the static wallpaper
+     * @param bitmap bitmap of the static wallpaper, which may be downsampled or only cover the crop
+     *   hints
+     * @param cropHints crop hints of the static wallpaper, relative to [bitmap]
      */
     suspend fun addStaticWallpaperToRecentWallpapers(
         destination: WallpaperDestination,
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds, with one bucket per power of two. Recording a
+ * value doesn't allocate, so it is cheap enough for hot paths.
+ * <p>
+ * A bucket i > 0 holds the values in [2^(i-1), 2^i), bucket 0 holds the values below 1 µs.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = Long.SIZE;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /** Records a latency, negative values count as 0. */
+    public void recordMicros(long micros) {
+        long value = Math.max(0L, micros);
+        mBuckets.incrementAndGet(BUCKET_COUNT - Long.numberOfLeadingZeros(value));
+        mTotalMicros.addAndGet(value);
+        long max = mMaxMicros.get();
+        while (value > max && !mMaxMicros.compareAndSet(max, value)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(millis * 1000L);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000L);
+    }
+
+    /**
+     * Returns a copy of the recorded values. Values recorded concurrently may only be partially
+     * reflected, e.g. in the count but not yet in the total.
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new Snapshot(buckets, mTotalMicros.get(), mMaxMicros.get());
+    }
+
+    /** Immutable copy of the values recorded in a {@link LatencyHistogram}. */
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mTotalMicros;
+        private final long mMaxMicros;
+
+        private Snapshot(long[] buckets, long totalMicros, long maxMicros) {
+            mBuckets = buckets;
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            mCount = count;
+            mTotalMicros = totalMicros;
+            mMaxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getTotalMicros() {
+            return mTotalMicros;
+        }
+
+        public long getMaxMicros() {
+            return mMaxMicros;
+        }
+
+        public long getMeanMicros() {
+            return mCount == 0 ? 0 : mTotalMicros / mCount;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, i.e. the upper end of the bucket holding
+         * it, capped at the largest recorded value.
+         *
+         * @param percentile between 0 and 100.
+         */
+        public long getPercentileMicros(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100d));
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return i < Long.SIZE - 1 ? Math.min((1L << i) - 1, mMaxMicros) : mMaxMicros;
+                }
+            }
+            return mMaxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount
+                    + " mean=" + getMeanMicros() + "us"
+                    + " p50=" + getPercentileMicros(50) + "us"
+                    + " p90=" + getPercentileMicros(90) + "us"
+                    + " p99=" + getPercentileMicros(99) + "us"
+                    + " max=" + mMaxMicros + "us";
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.monitor;
+
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link PerformanceMonitor} which keeps the latencies of the app's main operations in
+ * {@link LatencyHistogram}s, the outcomes it counts in counters, and the largest sizes it's told
+ * about in max gauges, for as long as the process lives.
+ * <p>
+ * Recording is lock-free, and doesn't allocate once the histogram of a given asset class or
+ * category source exists. What was recorded is readable through {@link #getHistogram},
+ * {@link #getCounter} and {@link #getMax} by name, e.g. in tests, and is printed by
+ * {@link #dump}.
+ */
+public class MetricsPerformanceMonitor implements PerformanceMonitor {
+
+    public static final String FULL_RES_PREVIEW_LOADED = "full_res_preview_loaded";
+    public static final String BITMAP_CACHE_HIT = "bitmap_cache/hit";
+    public static final String BITMAP_CACHE_MISS = "bitmap_cache/miss";
+    public static final String LIVE_WALLPAPER_BIND = "live_wallpaper/bind";
+    public static final String LIVE_WALLPAPER_FIRST_FRAME = "live_wallpaper/first_frame";
+    public static final String LIVE_WALLPAPER_WARM = "live_wallpaper/warm";
+    public static final String WORKSPACE_PREVIEW_RENDER = "workspace_preview/render";
+    public static final String WORKSPACE_PREVIEW_RENDER_MERGED = "workspace_preview/render_merged";
+    public static final String SET_WALLPAPER_STREAM_THROUGH = "set_wallpaper/stream_through";
+    public static final String SET_WALLPAPER_STREAM_REENCODED = "set_wallpaper/stream_reencoded";
+    public static final String COLOR_EXTRACTION = "color_extraction";
+    public static final String SET_WALLPAPER_STREAM_THROUGH_PEAK_HEAP =
+            "set_wallpaper/stream_through/peak_heap_growth_bytes";
+    public static final String SET_WALLPAPER_STREAM_REENCODED_PEAK_HEAP =
+            "set_wallpaper/stream_reencoded/peak_heap_growth_bytes";
+
+    private static final String ASSET_DECODE_PREFIX = "asset_decode/";
+    private static final String CATEGORY_FETCH_PREFIX = "category_fetch/";
+    private static final String[] SET_WALLPAPER_PHASES =
+            {"set_wallpaper/crop", "set_wallpaper/transform", "set_wallpaper/apply",
+                    "set_wallpaper/metadata"};
+    /** Upper bounds of the decoded sizes, in pixels, that asset decodes are grouped by. */
+    private static final long[] DECODE_SIZE_BOUNDS = {1L << 18, 1L << 20, 1L << 22, 1L << 24};
+    private static final String[] DECODE_SIZE_NAMES = {"256K", "1M", "4M", "16M", "max"};
+
+    private final ConcurrentHashMap<Class<?>, LatencyHistogram[]> mAssetDecodes =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mCategoryFetches =
+            new ConcurrentHashMap<>();
+    private final LatencyHistogram[] mSetWallpaperPhases =
+            newHistograms(SET_WALLPAPER_PHASES.length);
+    private final LatencyHistogram mLiveWallpaperBind = new LatencyHistogram();
+    private final LatencyHistogram mLiveWallpaperFirstFrame = new LatencyHistogram();
+    private final LatencyHistogram mWorkspacePreviewRender = new LatencyHistogram();
+    private final LatencyHistogram mWorkspacePreviewRenderMerged = new LatencyHistogram();
+    private final LatencyHistogram mSetWallpaperStreamThrough = new LatencyHistogram();
+    private final LatencyHistogram mSetWallpaperStreamReencoded = new LatencyHistogram();
+    private final LatencyHistogram mColorExtraction = new LatencyHistogram();
+
+    private final LongAdder mFullResPreviewLoaded = new LongAdder();
+    private final LongAdder mBitmapCacheHits = new LongAdder();
+    private final LongAdder mBitmapCacheMisses = new LongAdder();
+    private final LongAdder mLiveWallpaperWarm = new LongAdder();
+
+    private final AtomicLong mSetWallpaperStreamThroughPeakHeap = new AtomicLong();
+    private final AtomicLong mSetWallpaperStreamReencodedPeakHeap = new AtomicLong();
+
+    @Override
+    public void recordFullResPreviewLoadedMemorySnapshot() {
+        mFullResPreviewLoaded.increment();
+    }
+
+    @Override
+    public void recordSetWallpaperStream(boolean reencoded, long durationMillis,
+            long peakHeapGrowthBytes) {
+        (reencoded ? mSetWallpaperStreamReencoded : mSetWallpaperStreamThrough)
+                .recordMillis(durationMillis);
+        (reencoded ? mSetWallpaperStreamReencodedPeakHeap : mSetWallpaperStreamThroughPeakHeap)
+                .accumulateAndGet(peakHeapGrowthBytes, Math::max);
+    }
+
+    @Override
+    public void recordWorkspacePreviewRender(long latencyMillis, boolean merged) {
+        (merged ? mWorkspacePreviewRenderMerged : mWorkspacePreviewRender)
+                .recordMillis(latencyMillis);
+    }
+
+    @Override
+    public void recordLiveWallpaperEngineConnect(String engineKey, long bindMillis,
+            long firstFrameMillis, boolean warm) {
+        if (warm) {
+            mLiveWallpaperWarm.increment();
+            return;
+        }
+        mLiveWallpaperBind.recordMillis(bindMillis);
+        mLiveWallpaperFirstFrame.recordMillis(firstFrameMillis);
+    }
+
+    @Override
+    public void recordAssetDecode(Class<?> assetClass, int width, int height,
+            long durationNanos) {
+        LatencyHistogram[] histograms = mAssetDecodes.get(assetClass);
+        if (histograms == null) {
+            histograms = mAssetDecodes.computeIfAbsent(assetClass,
+                    key -> newHistograms(DECODE_SIZE_NAMES.length));
+        }
+        histograms[getDecodeSizeIndex((long) width * height)].recordNanos(durationNanos);
+    }
+
+    @Override
+    public void recordBitmapCacheLookup(boolean hit) {
+        (hit ? mBitmapCacheHits : mBitmapCacheMisses).increment();
+    }
+
+    @Override
+    public void recordCategoryFetch(String source, long durationMillis) {
+        LatencyHistogram histogram = mCategoryFetches.get(source);
+        if (histogram == null) {
+            histogram = mCategoryFetches.computeIfAbsent(source, key -> new LatencyHistogram());
+        }
+        histogram.recordMillis(durationMillis);
+    }
+
+    @Override
+    public void recordSetWallpaperPhase(@SetWallpaperPhase int phase, long durationMillis) {
+        mSetWallpaperPhases[phase].recordMillis(durationMillis);
+    }
+
+    @Override
+    public void recordColorExtraction(long durationNanos) {
+        mColorExtraction.recordNanos(durationNanos);
+    }
+
+    /**
+     * Returns the values recorded under the given histogram name, e.g.
+     * {@link #COLOR_EXTRACTION}, {@code "asset_decode/ContentUriAsset/4M"} or
+     * {@code "category_fetch/live"}, or null if nothing was ever recorded under it.
+     */
+    @Nullable
+    public LatencyHistogram.Snapshot getHistogram(String name) {
+        LatencyHistogram histogram = getHistograms().get(name);
+        return histogram != null ? histogram.snapshot() : null;
+    }
+
+    /** Returns the count recorded under the given counter name, e.g. {@link #BITMAP_CACHE_HIT}. */
+    public long getCounter(String name) {
+        LongAdder counter = getCounters().get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Returns the largest value recorded under the given max gauge name, e.g.
+     * {@link #SET_WALLPAPER_STREAM_REENCODED_PEAK_HEAP}, or 0 if there is none.
+     */
+    public long getMax(String name) {
+        AtomicLong max = getMaxGauges().get(name);
+        return max != null ? max.get() : 0;
+    }
+
+    @Override
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Performance metrics:");
+        for (Map.Entry<String, LongAdder> entry : getCounters().entrySet()) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": ");
+            writer.println(entry.getValue().sum());
+        }
+        for (Map.Entry<String, AtomicLong> entry : getMaxGauges().entrySet()) {
+            long max = entry.getValue().get();
+            if (max == 0) {
+                continue;
+            }
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": max=");
+            writer.println(max);
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": ");
+            writer.println(snapshot);
+        }
+    }
+
+    /** Returns the histograms by name, sorted so that dumps are stable. */
+    private TreeMap<String, LatencyHistogram> getHistograms() {
+        TreeMap<String, LatencyHistogram> histograms = new TreeMap<>();
+        for (Map.Entry<Class<?>, LatencyHistogram[]> entry : mAssetDecodes.entrySet()) {
+            String prefix = ASSET_DECODE_PREFIX + entry.getKey().getSimpleName() + "/";
+            for (int i = 0; i < DECODE_SIZE_NAMES.length; i++) {
+                histograms.put(prefix + DECODE_SIZE_NAMES[i], entry.getValue()[i]);
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : mCategoryFetches.entrySet()) {
+            histograms.put(CATEGORY_FETCH_PREFIX + entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < SET_WALLPAPER_PHASES.length; i++) {
+            histograms.put(SET_WALLPAPER_PHASES[i], mSetWallpaperPhases[i]);
+        }
+        histograms.put(LIVE_WALLPAPER_BIND, mLiveWallpaperBind);
+        histograms.put(LIVE_WALLPAPER_FIRST_FRAME, mLiveWallpaperFirstFrame);
+        histograms.put(WORKSPACE_PREVIEW_RENDER, mWorkspacePreviewRender);
+        histograms.put(WORKSPACE_PREVIEW_RENDER_MERGED, mWorkspacePreviewRenderMerged);
+        histograms.put(SET_WALLPAPER_STREAM_THROUGH, mSetWallpaperStreamThrough);
+        histograms.put(SET_WALLPAPER_STREAM_REENCODED, mSetWallpaperStreamReencoded);
+        histograms.put(COLOR_EXTRACTION, mColorExtraction);
+        return histograms;
+    }
+
+    private TreeMap<String, LongAdder> getCounters() {
+        TreeMap<String, LongAdder> counters = new TreeMap<>();
+        counters.put(FULL_RES_PREVIEW_LOADED, mFullResPreviewLoaded);
+        counters.put(BITMAP_CACHE_HIT, mBitmapCacheHits);
+        counters.put(BITMAP_CACHE_MISS, mBitmapCacheMisses);
+        counters.put(LIVE_WALLPAPER_WARM, mLiveWallpaperWarm);
+        return counters;
+    }
+
+    private TreeMap<String, AtomicLong> getMaxGauges() {
+        TreeMap<String, AtomicLong> maxGauges = new TreeMap<>();
+        maxGauges.put(SET_WALLPAPER_STREAM_THROUGH_PEAK_HEAP, mSetWallpaperStreamThroughPeakHeap);
+        maxGauges.put(SET_WALLPAPER_STREAM_REENCODED_PEAK_HEAP,
+                mSetWallpaperStreamReencodedPeakHeap);
+        return maxGauges;
+    }
+
+    private static int getDecodeSizeIndex(long pixels) {
+        for (int i = 0; i < DECODE_SIZE_BOUNDS.length; i++) {
+            if (pixels <= DECODE_SIZE_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return DECODE_SIZE_BOUNDS.length;
+    }
+
+    private static LatencyHistogram[] newHistograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
@@ -15,6 +15,9 @@
  */
 package com.android.wallpaper.monitor;
 
+import androidx.annotation.IntDef;
+
+import java.io.PrintWriter;
 
 /**
  * Interface for classes that monitor the application's performance in terms of memory usage, crash
@@ -22,9 +25,119 @@ package com.android.wallpaper.monitor;
  */
 public interface PerformanceMonitor {
 
+    /** Cropping and scaling the asset into the bitmap to set. */
+    int SET_WALLPAPER_PHASE_CROP = 0;
+    /** Applying the fill or stretch transformation requested for the bitmap. */
+    int SET_WALLPAPER_PHASE_TRANSFORM = 1;
+    /** Handing the bitmap or stream to WallpaperManager, including encoding it. */
+    int SET_WALLPAPER_PHASE_APPLY = 2;
+    /** Storing the metadata of the new wallpaper, including its hash and colors. */
+    int SET_WALLPAPER_PHASE_METADATA = 3;
+
+    /** Phases of setting a static wallpaper, see {@link #recordSetWallpaperPhase}. */
+    @IntDef({
+            SET_WALLPAPER_PHASE_CROP,
+            SET_WALLPAPER_PHASE_TRANSFORM,
+            SET_WALLPAPER_PHASE_APPLY,
+            SET_WALLPAPER_PHASE_METADATA,
+    })
+    @interface SetWallpaperPhase {
+    }
+
     /**
      * Takes a memory snapshot of the app and should be called when the wallpaper image has completely
      * loaded in a full-window preview.
      */
     void recordFullResPreviewLoadedMemorySnapshot();
+
+    /**
+     * Records the cost of producing the stream handed to WallpaperManager when setting a static
+     * wallpaper.
+     *
+     * @param reencoded           true if the wallpaper bitmap had to be encoded again, false if the
+     *                            original encoded bytes were streamed through.
+     * @param durationMillis      time spent producing the stream.
+     * @param peakHeapGrowthBytes highest growth of the Java and native heaps while doing so.
+     */
+    default void recordSetWallpaperStream(boolean reencoded, long durationMillis,
+            long peakHeapGrowthBytes) {
+    }
+
+    /**
+     * Records how long a request to render a workspace preview took, from the request until its
+     * result was handed back on the main thread.
+     *
+     * @param latencyMillis end-to-end latency of the request.
+     * @param merged        true if the request shared the provider call of an identical earlier
+     *                      request rather than making its own.
+     */
+    default void recordWorkspacePreviewRender(long latencyMillis, boolean merged) {
+    }
+
+    /**
+     * Records how long a live wallpaper engine took to become visible in a preview.
+     *
+     * @param engineKey        identifies the engine by wallpaper service and display size.
+     * @param bindMillis       time until the wallpaper service was bound.
+     * @param firstFrameMillis time until the engine had shown its first frame.
+     * @param warm             true if an engine kept warm was reused, in which case both times
+     *                         are 0.
+     */
+    default void recordLiveWallpaperEngineConnect(String engineKey, long bindMillis,
+            long firstFrameMillis, boolean warm) {
+    }
+
+    /**
+     * Records how long an asset took to decode a bitmap.
+     *
+     * @param assetClass    class of the asset that decoded it.
+     * @param width         width of the decoded bitmap.
+     * @param height        height of the decoded bitmap.
+     * @param durationNanos time spent decoding it.
+     */
+    default void recordAssetDecode(Class<?> assetClass, int width, int height,
+            long durationNanos) {
+    }
+
+    /**
+     * Records a lookup of a decoded bitmap in the shared bitmap cache.
+     *
+     * @param hit true if the bitmap was cached, false if it had to be decoded.
+     */
+    default void recordBitmapCacheLookup(boolean hit) {
+    }
+
+    /**
+     * Records how long a source of wallpaper categories took to fetch its categories.
+     *
+     * @param source         name of the source, e.g. "live" or "third_party".
+     * @param durationMillis time spent fetching them.
+     */
+    default void recordCategoryFetch(String source, long durationMillis) {
+    }
+
+    /**
+     * Records how long a phase of setting a static wallpaper took.
+     *
+     * @param phase          the phase that completed.
+     * @param durationMillis time spent in it.
+     */
+    default void recordSetWallpaperPhase(@SetWallpaperPhase int phase, long durationMillis) {
+    }
+
+    /**
+     * Records how long the colors of a wallpaper bitmap took to extract.
+     *
+     * @param durationNanos time spent extracting them, excluding the time queued.
+     */
+    default void recordColorExtraction(long durationNanos) {
+    }
+
+    /**
+     * Prints what was recorded so far in a human readable form, for {@code dumpsys}.
+     *
+     * @param prefix prepended to every line.
+     */
+    default void dump(String prefix, PrintWriter writer) {
+    }
 }
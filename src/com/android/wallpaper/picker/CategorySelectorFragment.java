@@ -57,6 +57,9 @@ import com.android.wallpaper.model.CategoryProvider;
 import com.android.wallpaper.model.LiveWallpaperInfo;
 import com.android.wallpaper.model.WallpaperInfo;
 import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.picker.common.list.ui.OffsetListUpdateCallback;
+import com.android.wallpaper.picker.common.list.ui.PickerListModel;
+import com.android.wallpaper.picker.common.list.ui.ThumbnailPrefetcher;
 import com.android.wallpaper.util.DeepLinkUtils;
 import com.android.wallpaper.util.DisplayMetricsRetriever;
 import com.android.wallpaper.util.ResourceUtils;
@@ -134,8 +137,14 @@ public class CategorySelectorFragment extends AppbarFragment {
     private ProgressBar mLoadingIndicator;
     private ArrayList<Category> mCreativeCategories = new ArrayList<>();
     private boolean mIsFeaturedCollectionAvailable;
-    private boolean mIsCreativeCategoryCollectionAvailable;
     private boolean mIsCreativeWallpaperEnabled = false;
+    /**
+     * Rows shown by the grid, built from {@link #mCategories}: categories, preceded by a
+     * {@link CreativeCategoryGroup} when creative categories are shown grouped.
+     */
+    private final PickerListModel<Object> mRowModel = new PickerListModel<>(TAG,
+            CategorySelectorFragment::getRowId, CategorySelectorFragment::isRowContentTheSame);
+    private ThumbnailPrefetcher mThumbnailPrefetcher;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -144,9 +153,9 @@ public class CategorySelectorFragment extends AppbarFragment {
         mIsCreativeWallpaperEnabled = InjectorProvider.getInjector()
             .getFlags().isAIWallpaperEnabled(requireContext());
         if (mIsCreativeWallpaperEnabled) {
-            mGroupedCategoryAdapter = new GroupedCategoryAdapter(mCategories);
+            mGroupedCategoryAdapter = new GroupedCategoryAdapter();
         } else {
-            mAdapter = new CategoryAdapter(mCategories);
+            mAdapter = new CategoryAdapter();
         }
     }
 
@@ -180,6 +189,10 @@ public class CategorySelectorFragment extends AppbarFragment {
             mImageGrid.setLayoutManager(gridLayoutManager);
         }
 
+        mThumbnailPrefetcher = new ThumbnailPrefetcher(requireContext(),
+                this::getPrefetchThumbnail, this::getPrefetchTileSize);
+        mThumbnailPrefetcher.attach(mImageGrid);
+
         mLoadingIndicator = view.findViewById(R.id.loading_indicator);
         mLoadingIndicator.setVisibility(View.VISIBLE);
         mImageGrid.setVisibility(View.INVISIBLE);
@@ -213,10 +226,42 @@ public class CategorySelectorFragment extends AppbarFragment {
 
     @Override
     public void onDestroyView() {
+        mThumbnailPrefetcher.detach();
         getCategorySelectorFragmentHost().cleanUp();
         super.onDestroyView();
     }
 
+    /**
+     * Returns the thumbnail of the category tile at the given adapter position, if any, for
+     * {@link ThumbnailPrefetcher}.
+     */
+    @Nullable
+    private Asset getPrefetchThumbnail(int position) {
+        int rowIndex = position - NUM_NON_CATEGORY_VIEW_HOLDERS;
+        List<Object> rows = mRowModel.getItems();
+        if (rowIndex < 0 || rowIndex >= rows.size() || !(rows.get(rowIndex) instanceof Category)) {
+            return null;
+        }
+        Category category = (Category) rows.get(rowIndex);
+        return category.getThumbnail(requireContext().getApplicationContext());
+    }
+
+    /**
+     * Returns the size of the thumbnail of the tile at the given adapter position if it's a
+     * regular category tile, whose thumbnail fills a {@link #mTileSizePx} card.
+     */
+    @Nullable
+    private Point getPrefetchTileSize(int position) {
+        RecyclerView.Adapter<?> adapter = mImageGrid.getAdapter();
+        if (adapter == null || position >= adapter.getItemCount()) {
+            return null;
+        }
+        int categoryViewType = mIsCreativeWallpaperEnabled
+                ? GroupedCategoryAdapter.ITEM_VIEW_TYPE_CATEGORY
+                : CategoryAdapter.ITEM_VIEW_TYPE_CATEGORY;
+        return adapter.getItemViewType(position) == categoryViewType ? mTileSizePx : null;
+    }
+
     /**
      * Inserts the given category into the categories list in priority order.
      */
@@ -246,8 +291,6 @@ public class CategorySelectorFragment extends AppbarFragment {
             mCategories.add(index, category);
         } else {
             if (loading && !mAwaitingCategories) {
-                mAdapter.notifyItemChanged(getNumColumns());
-                mAdapter.notifyItemInserted(getNumColumns());
                 mAwaitingCategories = true;
             }
             // Not add existing category to category list
@@ -264,12 +307,8 @@ public class CategorySelectorFragment extends AppbarFragment {
             }
 
             mCategories.add(index, category);
-            if (mAdapter != null) {
-                // Offset the index because of the static metadata element
-                // at beginning of RecyclerView.
-                mAdapter.notifyItemInserted(index + NUM_NON_CATEGORY_VIEW_HOLDERS);
-            }
         }
+        submitRows();
     }
 
     void removeCategory(Category category) {
@@ -281,9 +320,8 @@ public class CategorySelectorFragment extends AppbarFragment {
                 if (indexCreativeCategory >= 0) {
                     mCreativeCategories.remove(indexCreativeCategory);
                 }
-            } else {
-                mAdapter.notifyItemRemoved(index + NUM_NON_CATEGORY_VIEW_HOLDERS);
             }
+            submitRows();
         }
     }
 
@@ -296,19 +334,19 @@ public class CategorySelectorFragment extends AppbarFragment {
                 if (indexCreativeCategory >= 0) {
                     mCreativeCategories.set(indexCreativeCategory, category);
                 }
-            } else {
-                mAdapter.notifyItemChanged(index + NUM_NON_CATEGORY_VIEW_HOLDERS);
             }
+            submitRows();
         }
     }
 
+    /**
+     * Clears the categories list. The grid keeps showing the previous categories until new ones are
+     * added, so that a refresh only rebinds the tiles that changed.
+     */
     void clearCategories() {
         mCategories.clear();
         if (mIsCreativeWallpaperEnabled) {
             mCreativeCategories.clear();
-            mGroupedCategoryAdapter.notifyDataSetChanged();
-        } else {
-            mAdapter.notifyDataSetChanged();
         }
     }
 
@@ -316,12 +354,16 @@ public class CategorySelectorFragment extends AppbarFragment {
      * Notifies that no further categories are expected.
      */
     void doneFetchingCategories() {
-        notifyDataSetChanged();
-        mLoadingIndicator.setVisibility(View.INVISIBLE);
-        mImageGrid.setVisibility(View.VISIBLE);
         mAwaitingCategories = false;
+        boolean wasFeaturedCollectionAvailable = mIsFeaturedCollectionAvailable;
         mIsFeaturedCollectionAvailable = mCategoryProvider.isFeaturedCollectionAvailable();
-        mIsCreativeCategoryCollectionAvailable = mCategoryProvider.isCreativeCategoryAvailable();
+        submitRows();
+        if (mIsFeaturedCollectionAvailable != wasFeaturedCollectionAvailable) {
+            // The featured tiles use their own view type.
+            notifyDataSetChanged();
+        }
+        mLoadingIndicator.setVisibility(View.INVISIBLE);
+        mImageGrid.setVisibility(View.VISIBLE);
     }
 
     void notifyDataSetChanged() {
@@ -332,6 +374,40 @@ public class CategorySelectorFragment extends AppbarFragment {
         }
     }
 
+    /** Shows the current categories, unless more are being fetched to be shown together. */
+    private void submitRows() {
+        if (mAwaitingCategories) {
+            return;
+        }
+        List<Object> rows = new ArrayList<>();
+        if (mIsCreativeWallpaperEnabled && !mCreativeCategories.isEmpty()) {
+            rows.add(new CreativeCategoryGroup(new ArrayList<>(mCreativeCategories)));
+            for (Category category : mCategories) {
+                if (!mCreativeCategories.contains(category)) {
+                    rows.add(category);
+                }
+            }
+        } else {
+            rows.addAll(mCategories);
+        }
+        mRowModel.submit(rows, new OffsetListUpdateCallback(
+                () -> mIsCreativeWallpaperEnabled ? mGroupedCategoryAdapter : mAdapter,
+                () -> NUM_NON_CATEGORY_VIEW_HOLDERS));
+    }
+
+    private static Object getRowId(Object row) {
+        return row instanceof Category ? ((Category) row).getCollectionId() : row.getClass();
+    }
+
+    private static boolean isRowContentTheSame(Object oldRow, Object newRow) {
+        if (oldRow instanceof CreativeCategoryGroup && newRow instanceof CreativeCategoryGroup) {
+            return ((CreativeCategoryGroup) oldRow).mCategories.equals(
+                    ((CreativeCategoryGroup) newRow).mCategories);
+        }
+        // Categories are rebound whenever replaced since they don't compare their content.
+        return oldRow == newRow;
+    }
+
     private int getNumColumns() {
         Activity activity = getActivity();
         return activity == null ? 1 : SizeCalculator.getNumCategoryColumns(activity);
@@ -694,10 +770,8 @@ public class CategorySelectorFragment extends AppbarFragment {
         private static final int ITEM_VIEW_TYPE_MY_PHOTOS = 1;
         private static final int ITEM_VIEW_TYPE_FEATURED_CATEGORY = 2;
         private static final int ITEM_VIEW_TYPE_CATEGORY = 3;
-        private List<Category> mCategories;
 
-        private CategoryAdapter(List<Category> categories) {
-            mCategories = categories;
+        private CategoryAdapter() {
         }
 
         @Override
@@ -746,7 +820,8 @@ public class CategorySelectorFragment extends AppbarFragment {
                 case ITEM_VIEW_TYPE_CATEGORY:
                     // Offset position to get category index to account for the non-category view
                     // holders.
-                    Category category = mCategories.get(position - NUM_NON_CATEGORY_VIEW_HOLDERS);
+                    Category category = (Category) mRowModel.getItems().get(
+                            position - NUM_NON_CATEGORY_VIEW_HOLDERS);
                     ((CategoryHolder) holder).bindCategory(category);
                     break;
                 default:
@@ -757,9 +832,7 @@ public class CategorySelectorFragment extends AppbarFragment {
         @Override
         public int getItemCount() {
             // Add to size of categories to account for the metadata related views.
-            int size = mCategories.size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
-
-            return size;
+            return mRowModel.getItems().size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
         }
 
         @Override
@@ -797,15 +870,14 @@ public class CategorySelectorFragment extends AppbarFragment {
         private static final int ITEM_VIEW_TYPE_MY_PHOTOS = 1;
         private static final int ITEM_VIEW_TYPE_CREATIVE_CATEGORY = 2;
         private static final int ITEM_VIEW_TYPE_CATEGORY = 3;
-        private List<Category> mCategories;
 
-        private GroupedCategoryAdapter(List<Category> categories) {
-            mCategories = categories;
+        private GroupedCategoryAdapter() {
         }
 
         @Override
         public int getItemViewType(int position) {
-            if (mCategories.stream().anyMatch(Category::supportsUserCreatedWallpapers)) {
+            List<Object> rows = mRowModel.getItems();
+            if (!rows.isEmpty() && rows.get(0) instanceof CreativeCategoryGroup) {
                 if (position == CREATIVE_CATEGORY_ROW_INDEX) {
                     return ITEM_VIEW_TYPE_CREATIVE_CATEGORY;
                 }
@@ -832,7 +904,9 @@ public class CategorySelectorFragment extends AppbarFragment {
                 case ITEM_VIEW_TYPE_CREATIVE_CATEGORY:
                     view = layoutInflater.inflate(R.layout.creative_wallpaper,
                             parent, /* attachToRoot= */ false);
-                    return new GroupCategoryHolder(view, mCreativeCategories.size());
+                    return new GroupCategoryHolder(view,
+                            ((CreativeCategoryGroup) mRowModel.getItems().get(
+                                    CREATIVE_CATEGORY_ROW_INDEX)).mCategories.size());
                 case ITEM_VIEW_TYPE_CATEGORY:
                     view = layoutInflater.inflate(R.layout.grid_item_category,
                             parent, /* attachToRoot= */ false);
@@ -848,25 +922,18 @@ public class CategorySelectorFragment extends AppbarFragment {
             int viewType = getItemViewType(position);
             switch (viewType) {
                 case ITEM_VIEW_TYPE_CREATIVE_CATEGORY:
-                    ((GroupCategoryHolder) holder).bindCategory(mCreativeCategories);
+                    ((GroupCategoryHolder) holder).bindCategory(
+                            ((CreativeCategoryGroup) mRowModel.getItems().get(
+                                    position - NUM_NON_CATEGORY_VIEW_HOLDERS)).mCategories);
                     break;
                 case ITEM_VIEW_TYPE_MY_PHOTOS:
                     holder.setIsRecyclable(false);
                 case ITEM_VIEW_TYPE_CATEGORY:
                     // Offset position to get category index to account for the non-category view
                     // holders.
-                    if (mIsCreativeCategoryCollectionAvailable) {
-                        int numCreativeCategories = mCreativeCategories.size();
-                        int positionRelativeToCreativeCategory = position + numCreativeCategories
-                                - 1;
-                        Category category = mCategories.get(
-                                positionRelativeToCreativeCategory - NUM_NON_CATEGORY_VIEW_HOLDERS);
-                        ((CategoryHolder) holder).bindCategory(category);
-                    } else {
-                        Category category = mCategories.get(position
-                                - NUM_NON_CATEGORY_VIEW_HOLDERS);
-                        ((CategoryHolder) holder).bindCategory(category);
-                    }
+                    Category category = (Category) mRowModel.getItems().get(
+                            position - NUM_NON_CATEGORY_VIEW_HOLDERS);
+                    ((CategoryHolder) holder).bindCategory(category);
                     break;
                 default:
                     Log.e(TAG, "Unsupported viewType " + viewType + " in CategoryAdapter");
@@ -875,15 +942,9 @@ public class CategorySelectorFragment extends AppbarFragment {
 
         @Override
         public int getItemCount() {
-            // Add to size of categories to account for the metadata related views.
-            int size = mCategories.size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
-            // This is done to make sure all CreativeCategories are accounted for
-            // in one single block, therefore subtracted the size of CreativeCategories
-            // from total count
-            if (mCreativeCategories.size() >= 2) {
-                size = size - (mCreativeCategories.size() - 1);
-            }
-            return size;
+            // Add to size of categories to account for the metadata related views. All
+            // CreativeCategories are shown in one single row.
+            return mRowModel.getItems().size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
         }
 
         @Override
@@ -1006,6 +1067,15 @@ public class CategorySelectorFragment extends AppbarFragment {
         }
     }
 
+    /** Row showing all creative categories together. */
+    private static final class CreativeCategoryGroup {
+        private final ArrayList<Category> mCategories;
+
+        private CreativeCategoryGroup(ArrayList<Category> categories) {
+            mCategories = categories;
+        }
+    }
+
     @Override
     protected int getToolbarTextColor() {
         return ContextCompat.getColor(requireContext(), R.color.system_on_surface);
@@ -52,6 +52,7 @@ import com.android.wallpaper.module.MultiPanesChecker;
 import com.android.wallpaper.module.NetworkStatusNotifier;
 import com.android.wallpaper.module.NetworkStatusNotifier.NetworkStatus;
 import com.android.wallpaper.module.logging.UserEventLogger;
+import com.android.wallpaper.monitor.PerformanceMonitor;
 import com.android.wallpaper.picker.AppbarFragment.AppbarFragmentHost;
 import com.android.wallpaper.picker.CategorySelectorFragment.CategorySelectorFragmentHost;
 import com.android.wallpaper.picker.MyPhotosStarter.PermissionChangedListener;
@@ -65,6 +66,9 @@ import com.android.wallpaper.widget.BottomActionBar.BottomActionBarHost;
 
 import dagger.hilt.android.AndroidEntryPoint;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  *  Main Activity allowing containing view sections for the user to switch between the different
  *  Fragments providing customization options.
@@ -400,6 +404,17 @@ public class CustomizationPickerActivity extends Hilt_CustomizationPickerActivit
         return !isSUWMode(this);
     }
 
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd,
+            @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        // Available through "adb shell dumpsys activity <package>".
+        PerformanceMonitor monitor = InjectorProvider.getInjector().getPerformanceMonitor();
+        if (monitor != null) {
+            monitor.dump(prefix, writer);
+        }
+    }
+
     @Override
     public void onConfigurationChanged(@NonNull Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -27,6 +27,7 @@ import static com.google.android.material.bottomsheet.BottomSheetBehavior.STATE_
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.app.Activity;
+import android.app.WallpaperColors;
 import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.res.Resources;
@@ -59,6 +60,7 @@ import androidx.annotation.VisibleForTesting;
 import com.android.wallpaper.R;
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.CurrentWallpaperAsset;
+import com.android.wallpaper.asset.StreamableAsset;
 import com.android.wallpaper.model.SetWallpaperViewModel;
 import com.android.wallpaper.model.WallpaperInfo.ColorInfo;
 import com.android.wallpaper.module.BitmapCropper;
@@ -203,6 +205,9 @@ public class ImagePreviewFragment extends PreviewFragment {
         if (mFullResImageView != null) {
             mFullResImageView.recycle();
         }
+        if (mWallpaperAsset instanceof StreamableAsset) {
+            ((StreamableAsset) mWallpaperAsset).releaseRegionDecoders();
+        }
         mWallpaperSurfaceCallback.cleanUp();
         super.onDestroy();
     }
@@ -252,14 +257,28 @@ public class ImagePreviewFragment extends PreviewFragment {
         }
 
         final String storedWallpaperId = mWallpaper.getStoredWallpaperId(getContext());
-        final boolean isWallpaperColorCached =
-                storedWallpaperId != null && mWallpaperPreferences.getWallpaperColors(
-                        storedWallpaperId) != null;
+        // Stored colors are read from disk, so look them up once off the main thread.
+        sExecutor.execute(() -> {
+            WallpaperColors cachedColors = storedWallpaperId != null
+                    ? mWallpaperPreferences.getWallpaperColors(storedWallpaperId) : null;
+            Handler.getMain().post(() -> initFullResView(cachedColors));
+        });
+    }
+
+    /**
+     * Continues {@link #initFullResView()} once the stored colors of the wallpaper, if any, were
+     * loaded.
+     */
+    private synchronized void initFullResView(@Nullable WallpaperColors cachedColors) {
+        if (getActivity() == null || mFullResImageView == null
+                || mFullResImageView.isImageLoaded()) {
+            return;
+        }
+
+        final boolean isWallpaperColorCached = cachedColors != null;
         if (isWallpaperColorCached) {
             // Post-execute onWallpaperColorsChanged() to avoid UI blocking from the call
-            Handler.getMain().post(() -> onWallpaperColorsChanged(
-                    mWallpaperPreferences.getWallpaperColors(
-                            mWallpaper.getStoredWallpaperId(getContext()))));
+            Handler.getMain().post(() -> onWallpaperColorsChanged(cachedColors));
         }
 
         // Minimum scale will only be respected under this scale type.
@@ -294,7 +313,7 @@ public class ImagePreviewFragment extends PreviewFragment {
                     if (!isWallpaperColorCached) {
                         mFullResImageView.setAlpha(0);
                         // If not cached, delay the cross fade until the colors extracted
-                        extractColorFromBitmap(pageBitmap, true);
+                        extractColorFromBitmap(pageBitmap, /* cropRect= */ null, true);
                     } else {
                         onSurfaceReady();
                     }
@@ -302,9 +321,9 @@ public class ImagePreviewFragment extends PreviewFragment {
     }
 
     /**
-     * Recalculate the color from a new crop of the wallpaper. Note that we do not cache the
-     * extracted. We only cache the color the first time we extract from the wallpaper as its
-     * original size.
+     * Recalculate the color from a new crop of the wallpaper. Note that we do not persist the
+     * extracted colors, they are only kept in memory per crop. We only persist the color the first
+     * time we extract from the wallpaper as its original size.
      */
     private void recalculateColors() {
         Context context = getContext();
@@ -312,12 +331,13 @@ public class ImagePreviewFragment extends PreviewFragment {
             return;
         }
 
+        Rect cropRect = calculateCropRect(context, /* cropExtraWidth= */ true);
         mBitmapCropper.cropAndScaleBitmap(mWallpaperAsset, mFullResImageView.getScale(),
-                calculateCropRect(context, /* cropExtraWidth= */ true), /* adjustForRtl= */ false,
+                cropRect, /* adjustForRtl= */ false,
                 new BitmapCropper.Callback() {
                     @Override
                     public void onBitmapCropped(Bitmap croppedBitmap) {
-                        extractColorFromBitmap(croppedBitmap, false);
+                        extractColorFromBitmap(croppedBitmap, cropRect, false);
                     }
 
                     @Override
@@ -327,13 +347,17 @@ public class ImagePreviewFragment extends PreviewFragment {
                 });
     }
 
-    private void extractColorFromBitmap(Bitmap croppedBitmap, boolean cacheColor) {
+    private void extractColorFromBitmap(Bitmap croppedBitmap, @Nullable Rect cropRect,
+            boolean cacheColor) {
         Context context = getContext();
         if (context == null) {
             return;
         }
 
-        mWallpaperColorsExtractor.extractWallpaperColors(croppedBitmap,
+        String storedWallpaperId = mWallpaper.getStoredWallpaperId(context);
+        WallpaperColorsExtractor.CacheKey cacheKey = storedWallpaperId != null
+                ? new WallpaperColorsExtractor.CacheKey(storedWallpaperId, cropRect) : null;
+        mWallpaperColorsExtractor.extractWallpaperColors(croppedBitmap, cacheKey,
                 colors -> {
                     if (mFullResImageView.getAlpha() == 0) {
                         onSurfaceReady();
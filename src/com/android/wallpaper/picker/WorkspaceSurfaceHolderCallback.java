@@ -29,8 +29,6 @@ import androidx.annotation.Nullable;
 import com.android.wallpaper.util.PreviewUtils;
 import com.android.wallpaper.util.SurfaceViewUtils;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-
 /** A surface holder callback that renders user's workspace on the passed in surface view. */
 public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
 
@@ -53,7 +51,6 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
     private final SurfaceView mWorkspaceSurface;
     private final PreviewUtils mPreviewUtils;
     private final boolean mShouldUseWallpaperColors;
-    private final AtomicBoolean mRequestPending = new AtomicBoolean(false);
 
     private WallpaperColors mWallpaperColors;
     private boolean mHideBottomRow;
@@ -62,8 +59,8 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
     private Message mCallback;
     private Message mDelayedMessage;
     private WorkspaceRenderListener mListener;
-
-    private boolean mNeedsToCleanUp;
+    /** The latest request for a preview, until its result arrives. */
+    @Nullable private PreviewUtils.PendingRender mPendingRender;
     @Nullable private final Bundle mExtras;
 
     private int mWidth = -1;
@@ -157,9 +154,9 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
         if ((mShouldUseWallpaperColors && !mIsWallpaperColorsReady) || mLastSurface == null) {
             return;
         }
-        mRequestPending.set(true);
-        requestPreview(mWorkspaceSurface, (result) -> {
-            mRequestPending.set(false);
+        PreviewUtils.PendingRender previousRender = mPendingRender;
+        mPendingRender = requestPreview(mWorkspaceSurface, (result) -> {
+            mPendingRender = null;
             if (result != null && mLastSurface != null) {
                 mWorkspaceSurface.setChildSurfacePackage(
                         SurfaceViewUtils.getSurfacePackage(result));
@@ -172,13 +169,16 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
                     }
                     mDelayedMessage = null;
                 }
-                if (mNeedsToCleanUp) {
-                    cleanUp();
-                } else if (mListener != null) {
+                if (mListener != null) {
                     mListener.onWorkspaceRendered();
                 }
             }
         });
+        // The previous request is outdated. Cancelling it only after the new one was made lets the
+        // new one share its provider call if their options are the same.
+        if (previousRender != null) {
+            previousRender.cancel();
+        }
     }
 
     @Override
@@ -221,16 +221,16 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
         if (mCallback != null) {
             try {
                 mCallback.replyTo.send(mCallback);
-                mNeedsToCleanUp = false;
             } catch (RemoteException e) {
                 Log.w(TAG, "Couldn't call cleanup on workspace preview", e);
             } finally {
                 mCallback = null;
             }
-        } else {
-            if (mRequestPending.get()) {
-                mNeedsToCleanUp = true;
-            }
+        }
+        if (mPendingRender != null) {
+            // The scheduler cleans up the preview on the renderer side if it still arrives.
+            mPendingRender.cancel();
+            mPendingRender = null;
         }
     }
 
@@ -238,19 +238,20 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
         mLastSurface = null;
     }
 
-    protected void requestPreview(SurfaceView workspaceSurface,
+    @Nullable
+    protected PreviewUtils.PendingRender requestPreview(SurfaceView workspaceSurface,
             PreviewUtils.WorkspacePreviewCallback callback) {
         if (workspaceSurface.getDisplay() == null) {
             Log.w(TAG,
                     "No display ID, avoiding asking for workspace preview, lest WallpaperPicker "
                             + "crash");
-            return;
+            return null;
         }
         Bundle request = SurfaceViewUtils.createSurfaceViewRequest(workspaceSurface, mExtras);
         if (mWallpaperColors != null) {
             request.putParcelable(KEY_WALLPAPER_COLORS, mWallpaperColors);
         }
         request.putBoolean(KEY_HIDE_BOTTOM_ROW, mHideBottomRow);
-        mPreviewUtils.renderPreview(request, callback);
+        return mPreviewUtils.renderPreview(request, callback);
     }
 }
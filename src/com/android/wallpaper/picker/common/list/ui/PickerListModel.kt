@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.common.list.ui
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.annotation.MainThread
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import androidx.recyclerview.widget.RecyclerView
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.withContext
+
+/**
+ * Items shown by a picker grid, which are replaced as a whole and notified to the adapter as the
+ * smallest set of changes, so that only the tiles that changed are rebound.
+ *
+ * Items are matched across lists by the id returned by [getItemId], which must be stable for a
+ * given item, and are only rebound if [areContentsTheSame] returns false for them. [items] is only
+ * ever changed on the main thread.
+ */
+class PickerListModel<T : Any>(
+    private val tag: String,
+    private val getItemId: (T) -> Any,
+    private val areContentsTheSame: (T, T) -> Boolean,
+) {
+
+    /** Items currently shown. */
+    var items: List<T> = emptyList()
+        private set
+
+    /** Incremented on every change, so that a list built for an outdated change is dropped. */
+    private var generation = 0
+
+    /**
+     * Builds the new list with [build] and diffs it against the current one on
+     * [backgroundDispatcher], then shows it and dispatches the changes to [callback].
+     *
+     * @return false if the list was dropped because another one was submitted meanwhile.
+     */
+    @MainThread
+    suspend fun update(
+        backgroundDispatcher: CoroutineDispatcher,
+        callback: ListUpdateCallback,
+        build: () -> List<T>,
+    ): Boolean {
+        val currentGeneration = ++generation
+        val oldItems = items
+        val (newItems, diffResult) =
+            withContext(backgroundDispatcher) {
+                val startTime = SystemClock.elapsedRealtime()
+                val newItems = build()
+                val buildTime = SystemClock.elapsedRealtime()
+                val diffResult = calculateDiff(oldItems, newItems)
+                Log.d(
+                    tag,
+                    "Built ${newItems.size} items in ${buildTime - startTime} ms, diffed in " +
+                        "${SystemClock.elapsedRealtime() - buildTime} ms"
+                )
+                newItems to diffResult
+            }
+        if (currentGeneration != generation) {
+            return false
+        }
+        items = newItems
+        diffResult.dispatchUpdatesTo(callback)
+        return true
+    }
+
+    /**
+     * Shows [newItems] right away and dispatches the changes to [callback]. Only meant for short
+     * lists, since the diff is computed on the calling thread.
+     */
+    @MainThread
+    fun submit(newItems: List<T>, callback: ListUpdateCallback) {
+        generation++
+        val snapshot = newItems.toList()
+        val diffResult = calculateDiff(items, snapshot)
+        items = snapshot
+        diffResult.dispatchUpdatesTo(callback)
+    }
+
+    private fun calculateDiff(oldItems: List<T>, newItems: List<T>): DiffUtil.DiffResult =
+        DiffUtil.calculateDiff(
+            object : DiffUtil.Callback() {
+                override fun getOldListSize(): Int = oldItems.size
+
+                override fun getNewListSize(): Int = newItems.size
+
+                override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
+                    getItemId(oldItems[oldItemPosition]) == getItemId(newItems[newItemPosition])
+
+                override fun areContentsTheSame(
+                    oldItemPosition: Int,
+                    newItemPosition: Int
+                ): Boolean =
+                    areContentsTheSame(oldItems[oldItemPosition], newItems[newItemPosition])
+            },
+            /* detectMoves= */ false,
+        )
+}
+
+/**
+ * Dispatches list changes to the adapter returned by [adapter] at the time of the change, if any,
+ * shifted by the number of rows the adapter shows ahead of the list.
+ */
+class OffsetListUpdateCallback(
+    private val adapter: () -> RecyclerView.Adapter<*>?,
+    private val offset: () -> Int,
+) : ListUpdateCallback {
+
+    override fun onInserted(position: Int, count: Int) {
+        adapter()?.notifyItemRangeInserted(position + offset(), count)
+    }
+
+    override fun onRemoved(position: Int, count: Int) {
+        adapter()?.notifyItemRangeRemoved(position + offset(), count)
+    }
+
+    override fun onMoved(fromPosition: Int, toPosition: Int) {
+        adapter()?.notifyItemMoved(fromPosition + offset(), toPosition + offset())
+    }
+
+    override fun onChanged(position: Int, count: Int, payload: Any?) {
+        adapter()?.notifyItemRangeChanged(position + offset(), count, payload)
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.common.list.ui
+
+import android.app.ActivityManager
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.graphics.Point
+import android.graphics.drawable.Drawable
+import android.os.SystemClock
+import android.util.SparseArray
+import androidx.annotation.MainThread
+import androidx.core.util.forEach
+import androidx.recyclerview.widget.GridLayoutManager
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.android.wallpaper.asset.Asset
+import com.bumptech.glide.Glide
+import com.bumptech.glide.request.target.Target
+import kotlin.math.abs
+import kotlin.math.ceil
+
+/**
+ * Loads the thumbnails of the tiles a picker grid is about to show into Glide's memory cache, so
+ * that they show right away when bound instead of their placeholder.
+ *
+ * The tiles ahead of the visible ones in the scroll direction are prefetched, more of them the
+ * faster the grid scrolls, and prefetches for tiles that left that range are cancelled. Fewer tiles
+ * are prefetched on low RAM devices and once the system reports memory pressure, and prefetching
+ * stops altogether when memory is critically low.
+ *
+ * @param getThumbnail returns the thumbnail shown by the tile at the given adapter position, if
+ *   any.
+ * @param getTileSize returns the size the thumbnail of the tile at the given adapter position is
+ *   shown at, or null if it shouldn't be prefetched. It must match the size of the ImageView the
+ *   thumbnail is loaded into, since that's part of the memory cache key.
+ */
+@MainThread
+class ThumbnailPrefetcher(
+    context: Context,
+    private val getThumbnail: (position: Int) -> Asset?,
+    private val getTileSize: (position: Int) -> Point?,
+) : RecyclerView.OnScrollListener(), ComponentCallbacks2 {
+
+    private val appContext = context.applicationContext
+
+    /** Prefetches in flight or done, by adapter position. */
+    private val targets = SparseArray<Target<Drawable>>()
+    private var recyclerView: RecyclerView? = null
+
+    private val defaultMaxRowsAhead =
+        if (appContext.getSystemService(ActivityManager::class.java)?.isLowRamDevice == true) {
+            LOW_RAM_MAX_ROWS_AHEAD
+        } else {
+            MAX_ROWS_AHEAD
+        }
+    private var maxRowsAhead = defaultMaxRowsAhead
+    /** Scroll speed in pixels per millisecond, smoothed over the last few scroll events. */
+    private var speed = 0f
+    private var lastScrollTime = 0L
+    private var isScrollingForward = true
+
+    /** Starts prefetching for the given grid, until [detach] is called. */
+    fun attach(recyclerView: RecyclerView) {
+        detach()
+        this.recyclerView = recyclerView
+        maxRowsAhead = defaultMaxRowsAhead
+        recyclerView.addOnScrollListener(this)
+        appContext.registerComponentCallbacks(this)
+    }
+
+    /** Stops prefetching and cancels the prefetches in flight. */
+    fun detach() {
+        val recyclerView = recyclerView ?: return
+        recyclerView.removeOnScrollListener(this)
+        appContext.unregisterComponentCallbacks(this)
+        this.recyclerView = null
+        cancelAll()
+    }
+
+    override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+        val layoutManager = recyclerView.layoutManager as? LinearLayoutManager ?: return
+        val delta = if (layoutManager.orientation == RecyclerView.VERTICAL) dy else dx
+        if (delta == 0) {
+            return
+        }
+        val now = SystemClock.uptimeMillis()
+        val elapsed = (now - lastScrollTime).coerceAtLeast(1L)
+        val instantSpeed = if (elapsed > SPEED_RESET_MS) 0f else abs(delta).toFloat() / elapsed
+        speed = SPEED_SMOOTHING * instantSpeed + (1 - SPEED_SMOOTHING) * speed
+        lastScrollTime = now
+        isScrollingForward = delta > 0
+        updatePrefetches(layoutManager)
+    }
+
+    override fun onScrollStateChanged(recyclerView: RecyclerView, newState: Int) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            speed = 0f
+            val layoutManager = recyclerView.layoutManager as? LinearLayoutManager ?: return
+            updatePrefetches(layoutManager)
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        when {
+            // The grid isn't visible, nothing needs to be prefetched until it is again.
+            level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> cancelAll()
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> onLowMemory()
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> {
+                maxRowsAhead = minOf(maxRowsAhead, 1)
+                val recyclerView = recyclerView ?: return
+                val layoutManager = recyclerView.layoutManager as? LinearLayoutManager ?: return
+                updatePrefetches(layoutManager)
+            }
+        }
+    }
+
+    override fun onLowMemory() {
+        maxRowsAhead = 0
+        cancelAll()
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {}
+
+    private fun updatePrefetches(layoutManager: LinearLayoutManager) {
+        val firstVisible = layoutManager.findFirstVisibleItemPosition()
+        val lastVisible = layoutManager.findLastVisibleItemPosition()
+        val itemCount = layoutManager.itemCount
+        if (firstVisible == RecyclerView.NO_POSITION || maxRowsAhead == 0) {
+            cancelAll()
+            return
+        }
+
+        val rowExtent =
+            layoutManager.findViewByPosition(lastVisible)?.let {
+                if (layoutManager.orientation == RecyclerView.VERTICAL) it.height else it.width
+            }
+                ?: 0
+        val rowsAhead =
+            if (rowExtent > 0) {
+                (1 + ceil(speed * LOOKAHEAD_MS / rowExtent).toInt()).coerceAtMost(maxRowsAhead)
+            } else {
+                1
+            }
+        val tilesPerRow =
+            (layoutManager as? GridLayoutManager)?.let {
+                it.spanCount / it.spanSizeLookup.getSpanSize(lastVisible).coerceAtLeast(1)
+            }
+                ?: 1
+        val tileCount = rowsAhead * tilesPerRow
+        val range =
+            if (isScrollingForward) {
+                (lastVisible + 1)..minOf(lastVisible + tileCount, itemCount - 1)
+            } else {
+                maxOf(firstVisible - tileCount, 0) until firstVisible
+            }
+
+        for (i in targets.size() - 1 downTo 0) {
+            if (targets.keyAt(i) !in range) {
+                Glide.with(appContext).clear(targets.valueAt(i))
+                targets.removeAt(i)
+            }
+        }
+        for (position in range) {
+            if (targets.indexOfKey(position) >= 0) {
+                continue
+            }
+            val tileSize = getTileSize(position) ?: continue
+            val target =
+                getThumbnail(position)?.preloadDrawable(appContext, tileSize.x, tileSize.y)
+                    ?: continue
+            targets.put(position, target)
+        }
+    }
+
+    private fun cancelAll() {
+        targets.forEach { _, target -> Glide.with(appContext).clear(target) }
+        targets.clear()
+    }
+
+    private companion object {
+        /** How far ahead, in time, to prefetch thumbnails at the current scroll speed. */
+        const val LOOKAHEAD_MS = 400f
+        const val MAX_ROWS_AHEAD = 4
+        const val LOW_RAM_MAX_ROWS_AHEAD = 2
+        /** Weight of the latest scroll event in the smoothed scroll speed. */
+        const val SPEED_SMOOTHING = 0.3f
+        /** Scroll events further apart than this start from a standstill. */
+        const val SPEED_RESET_MS = 100L
+    }
+}
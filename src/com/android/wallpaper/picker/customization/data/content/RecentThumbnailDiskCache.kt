@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.wallpaper.picker.customization.data.content
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import java.io.File
+import java.io.IOException
+
+/**
+ * Thumbnails of recent wallpapers kept on disk across processes, so that showing them doesn't need
+ * the recents provider until a wallpaper changes.
+ *
+ * Thumbnails are keyed by wallpaper ID and last update time: storing a thumbnail drops the ones of
+ * older updates of the same wallpaper, and only the [maxEntries] most recently stored are kept.
+ */
+class RecentThumbnailDiskCache
+@VisibleForTesting
+constructor(
+    private val directory: File,
+    private val maxEntries: Int = MAX_ENTRIES,
+) {
+
+    constructor(context: Context) : this(File(context.cacheDir, DIRECTORY_NAME))
+
+    private val lock = Any()
+
+    /** Returns the stored thumbnail of the given wallpaper update, if any. */
+    @WorkerThread
+    fun get(wallpaperId: String, lastUpdatedTimestamp: Long): Bitmap? {
+        val file = getFile(wallpaperId, lastUpdatedTimestamp)
+        synchronized(lock) {
+            if (!file.exists()) {
+                return null
+            }
+            val thumbnail = BitmapFactory.decodeFile(file.path)
+            if (thumbnail == null) {
+                Log.w(TAG, "Dropping unreadable thumbnail ${file.name}")
+                file.delete()
+            }
+            return thumbnail
+        }
+    }
+
+    /**
+     * Stores the thumbnail of the given wallpaper update, replacing older ones of the wallpaper.
+     */
+    @WorkerThread
+    fun put(wallpaperId: String, lastUpdatedTimestamp: Long, thumbnail: Bitmap) {
+        val file = getFile(wallpaperId, lastUpdatedTimestamp)
+        synchronized(lock) {
+            if (!directory.isDirectory && !directory.mkdirs()) {
+                Log.w(TAG, "Unable to create ${directory.path}")
+                return
+            }
+            val atomicFile = AtomicFile(file)
+            val stream =
+                try {
+                    atomicFile.startWrite()
+                } catch (e: IOException) {
+                    Log.w(TAG, "Unable to write thumbnail ${file.name}", e)
+                    return
+                }
+            // Thumbnails are photos shown small, so lossy compression costs nothing visible.
+            if (thumbnail.compress(Bitmap.CompressFormat.WEBP_LOSSY, QUALITY, stream)) {
+                atomicFile.finishWrite(stream)
+            } else {
+                Log.w(TAG, "Unable to compress thumbnail ${file.name}")
+                atomicFile.failWrite(stream)
+                return
+            }
+            trim(wallpaperId, keep = file)
+        }
+    }
+
+    /** Deletes older updates of the given wallpaper and the entries past [maxEntries]. */
+    private fun trim(wallpaperId: String, keep: File) {
+        val prefix = "${Uri.encode(wallpaperId)}-"
+        val files = directory.listFiles()?.filter { it.name.endsWith(EXTENSION) } ?: return
+        files
+            .filter { it != keep && isUpdateOf(it.name, prefix) }
+            .forEach { it.delete() }
+        files
+            .filter { it.exists() }
+            .sortedByDescending { it.lastModified() }
+            .drop(maxEntries)
+            .forEach { it.delete() }
+    }
+
+    private fun getFile(wallpaperId: String, lastUpdatedTimestamp: Long): File =
+        File(directory, "${Uri.encode(wallpaperId)}-$lastUpdatedTimestamp$EXTENSION")
+
+    companion object {
+        private const val TAG = "RecentThumbnailDiskCache"
+        private const val DIRECTORY_NAME = "recent_wallpaper_thumbnails"
+        private const val EXTENSION = ".webp"
+        private const val QUALITY = 90
+        /** Enough for the quick switch options of both the home and lock screen. */
+        private const val MAX_ENTRIES = 12
+
+        /**
+         * Returns whether the file with the given name is a thumbnail of the wallpaper whose file
+         * names start with [prefix], as opposed to one whose ID merely starts the same.
+         */
+        private fun isUpdateOf(fileName: String, prefix: String): Boolean {
+            if (!fileName.startsWith(prefix)) {
+                return false
+            }
+            val timestamp = fileName.substring(prefix.length, fileName.length - EXTENSION.length)
+            return timestamp.isNotEmpty() && timestamp.all { it.isDigit() }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.wallpaper.picker.customization.data.content
+
+import androidx.annotation.GuardedBy
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
+import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
+import java.util.EnumMap
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.shareIn
+
+/**
+ * Serves the recent wallpapers of each destination to every subscriber from a single flow, backed
+ * by a cache that is dropped whenever the recents change.
+ *
+ * Each destination has at most one [load] in flight: change notifications that arrive while it
+ * runs, or within [debounceMillis] of each other, result in a single reload once they settle.
+ *
+ * @param scope where the loads of destinations that have subscribers run.
+ * @param load loads all the recent wallpapers of the given destination, most recent first.
+ */
+@OptIn(FlowPreview::class)
+class RecentWallpapersEngine(
+    private val scope: CoroutineScope,
+    private val load: suspend (WallpaperDestination) -> List<WallpaperModel>,
+    private val debounceMillis: Long = DEBOUNCE_MILLIS,
+) {
+
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private val cache =
+        EnumMap<WallpaperDestination, List<WallpaperModel>>(WallpaperDestination::class.java)
+    /** Incremented on every change, so that a load that started before it isn't cached. */
+    @GuardedBy("lock") private var generation = 0L
+    @GuardedBy("lock")
+    private val flows =
+        EnumMap<WallpaperDestination, SharedFlow<List<WallpaperModel>>>(
+            WallpaperDestination::class.java
+        )
+
+    private val changes =
+        MutableSharedFlow<Unit>(
+            extraBufferCapacity = 1,
+            onBufferOverflow = BufferOverflow.DROP_OLDEST,
+        )
+
+    /** Returns the flow of all the recent wallpapers of the given destination. */
+    fun recentWallpapers(destination: WallpaperDestination): SharedFlow<List<WallpaperModel>> =
+        synchronized(lock) { flows.getOrPut(destination) { createFlow(destination) } }
+
+    /** Drops the cached recents, and reloads them for the current subscribers. */
+    fun onRecentsChanged() {
+        synchronized(lock) {
+            generation++
+            cache.clear()
+        }
+        changes.tryEmit(Unit)
+    }
+
+    private fun createFlow(destination: WallpaperDestination): SharedFlow<List<WallpaperModel>> =
+        merge(flowOf(Unit), changes.debounce(debounceMillis))
+            .conflate()
+            .map { get(destination) }
+            .distinctUntilChanged()
+            .shareIn(
+                scope = scope,
+                // Drop the last value once unsubscribed, it may be outdated by the next subscriber.
+                started = SharingStarted.WhileSubscribed(replayExpirationMillis = 0),
+                replay = 1,
+            )
+
+    private suspend fun get(destination: WallpaperDestination): List<WallpaperModel> {
+        val loadGeneration =
+            synchronized(lock) {
+                cache[destination]?.let {
+                    return it
+                }
+                generation
+            }
+        val recentWallpapers = load(destination)
+        synchronized(lock) {
+            if (generation == loadGeneration) {
+                cache[destination] = recentWallpapers
+            }
+        }
+        return recentWallpapers
+    }
+
+    companion object {
+        /** Providers notify once per changed row, so a single change often comes in a burst. */
+        private const val DEBOUNCE_MILLIS = 100L
+    }
+}
@@ -46,8 +46,8 @@ interface WallpaperClient {
      * @param setWallpaperEntryPoint The entry point where we set the wallpaper from.
      * @param destination The screen to set the wallpaper on.
      * @param wallpaperModel The wallpaper model of the wallpaper.
-     * @param bitmap The bitmap of the static wallpaper. Note that the bitmap should be the
-     *   original, full-size bitmap.
+     * @param bitmap The bitmap of the static wallpaper. It may be downsampled from [wallpaperSize],
+     *   in which case the full resolution crop is decoded from [asset] when it's needed.
      * @param wallpaperSize raw wallpaper size.
      * @param asset wallpaper asset.
      * @param fullPreviewCropModels full preview crop info for each dimension that user has cropped.
@@ -102,6 +102,18 @@ interface WallpaperClient {
         @WallpaperManager.SetWallpaperFlags which: Int
     ): Map<Point, Rect>?
 
-    /** Returns the wallpaper colors for preview a bitmap with a set of crop hints */
-    suspend fun getWallpaperColors(bitmap: Bitmap, cropHints: Map<Point, Rect>?): WallpaperColors?
+    /**
+     * Returns the wallpaper colors for preview a bitmap with a set of crop hints.
+     *
+     * @param wallpaperId identifies the wallpaper the bitmap belongs to, so that colors extracted
+     *   for the same crop hints before can be reused. Null if the wallpaper can't be identified.
+     * @param wallpaperSize the raw size of the wallpaper that [cropHints] are relative to, if the
+     *   bitmap was downsampled from it. Null if the bitmap is at the raw size.
+     */
+    suspend fun getWallpaperColors(
+        bitmap: Bitmap,
+        cropHints: Map<Point, Rect>?,
+        wallpaperId: String?,
+        wallpaperSize: Point? = null,
+    ): WallpaperColors?
 }
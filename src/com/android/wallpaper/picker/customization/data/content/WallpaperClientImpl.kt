@@ -33,22 +33,29 @@ import android.graphics.Color
 import android.graphics.Point
 import android.graphics.Rect
 import android.net.Uri
-import android.os.Looper
+import android.os.ParcelFileDescriptor
+import android.os.SystemClock
 import android.util.Log
 import androidx.exifinterface.media.ExifInterface
 import com.android.app.tracing.TraceUtils.traceAsync
+import com.android.wallpaper.R
 import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.BitmapStreamEncoder
 import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.asset.CurrentWallpaperAsset
+import com.android.wallpaper.asset.DecodePriority
 import com.android.wallpaper.asset.StreamableAsset
+import com.android.wallpaper.asset.decodeBitmapRegion
 import com.android.wallpaper.model.CreativeCategory
 import com.android.wallpaper.model.CreativeWallpaperInfo
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
 import com.android.wallpaper.model.WallpaperInfo
 import com.android.wallpaper.module.InjectorProvider
+import com.android.wallpaper.module.WallpaperColorsStore
 import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
+import com.android.wallpaper.monitor.PerformanceMonitor
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.BOTH
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.Companion.toDestinationInt
@@ -57,21 +64,27 @@ import com.android.wallpaper.picker.customization.shared.model.WallpaperDestinat
 import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
+import com.android.wallpaper.picker.di.modules.BackgroundDispatcher
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
+import com.android.wallpaper.util.CropHintsUtil.coveringRegion
+import com.android.wallpaper.util.CropHintsUtil.displayScale
+import com.android.wallpaper.util.CropHintsUtil.relativeTo
+import com.android.wallpaper.util.CropHintsUtil.scaledTo
 import com.android.wallpaper.util.WallpaperCropUtils
 import com.android.wallpaper.util.converter.WallpaperModelFactory.Companion.getCommonWallpaperData
 import com.android.wallpaper.util.converter.WallpaperModelFactory.Companion.getCreativeWallpaperData
 import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.FileInputStream
 import java.io.IOException
 import java.io.InputStream
-import java.util.EnumMap
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlin.math.ceil
 import kotlinx.coroutines.CancellableContinuation
-import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.callbackFlow
-import kotlinx.coroutines.launch
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.suspendCancellableCoroutine
 
 @Singleton
@@ -81,20 +94,23 @@ constructor(
     @ApplicationContext private val context: Context,
     private val wallpaperManager: WallpaperManager,
     private val wallpaperPreferences: WallpaperPreferences,
+    @BackgroundDispatcher backgroundScope: CoroutineScope,
 ) : WallpaperClient {
 
     private var recentsContentProviderAvailable: Boolean? = null
-    private val cachedRecents: MutableMap<WallpaperDestination, List<WallpaperModel>> =
-        EnumMap(WallpaperDestination::class.java)
+    private val colorsStore = WallpaperColorsStore.getInstance(context)
+    private val recentsEngine =
+        RecentWallpapersEngine(scope = backgroundScope, load = ::loadRecentWallpapers)
 
     init {
         if (areRecentsAvailable()) {
+            // A single observer for the lifetime of the client feeds every recents subscriber.
             context.contentResolver.registerContentObserver(
                 LIST_RECENTS_URI,
                 /* notifyForDescendants= */ true,
                 object : ContentObserver(null) {
                     override fun onChange(selfChange: Boolean) {
-                        cachedRecents.clear()
+                        recentsEngine.onRecentsChanged()
                     }
                 },
             )
@@ -105,40 +121,10 @@ constructor(
         destination: WallpaperDestination,
         limit: Int,
     ): Flow<List<WallpaperModel>> {
-        return callbackFlow {
-            // TODO(b/280891780) Remove this check
-            if (Looper.myLooper() == Looper.getMainLooper()) {
-                throw IllegalStateException("Do not call method recentWallpapers() on main thread")
-            }
-            suspend fun queryAndSend(limit: Int) {
-                send(queryRecentWallpapers(destination = destination, limit = limit))
-            }
-
-            val contentObserver =
-                if (areRecentsAvailable()) {
-                        object : ContentObserver(null) {
-                            override fun onChange(selfChange: Boolean) {
-                                launch { queryAndSend(limit = limit) }
-                            }
-                        }
-                    } else {
-                        null
-                    }
-                    ?.also {
-                        context.contentResolver.registerContentObserver(
-                            LIST_RECENTS_URI,
-                            /* notifyForDescendants= */ true,
-                            it,
-                        )
-                    }
-            queryAndSend(limit = limit)
-
-            awaitClose {
-                if (contentObserver != null) {
-                    context.contentResolver.unregisterContentObserver(contentObserver)
-                }
-            }
-        }
+        return recentsEngine
+            .recentWallpapers(destination)
+            .map { it.take(limit) }
+            .distinctUntilChanged()
     }
 
     override suspend fun setStaticWallpaper(
@@ -163,36 +149,119 @@ constructor(
                 fullPreviewCropModels?.let { cropModels ->
                     cropModels.mapValues { it.value.adjustCropForParallax(wallpaperSize) }
                 } ?: emptyMap()
+            // The preview may only have a downsampled bitmap, which is fine for the metadata but
+            // not for the system, so decode the crops at display resolution if pixels are needed.
+            // The perceptual hash of the metadata doesn't depend on the resolution of the bitmap.
+            val isSetFromStream = asset.isSetFromStream()
+            val source =
+                if (isSetFromStream) {
+                    val bitmapSize = Point(bitmap.width, bitmap.height)
+                    StaticWallpaperSource(
+                        bitmap,
+                        cropHintsWithParallax.scaledTo(bitmapSize, wallpaperSize),
+                    )
+                } else {
+                    recordSetWallpaperPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_CROP) {
+                        asset.decodeFullResSource(bitmap, wallpaperSize, cropHintsWithParallax)
+                    }
+                }
             val managerId =
-                wallpaperManager.setStaticWallpaperToSystem(
-                    asset.getStreamOrFromBitmap(bitmap),
-                    bitmap,
-                    cropHintsWithParallax,
+                recordSetWallpaperPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_APPLY) {
+                    // Closing the stream deletes the temporary file of re-encoded bitmaps.
+                    asset.getStreamOrFromBitmap(source.bitmap).use { inputStream ->
+                        wallpaperManager.setStaticWallpaperToSystem(
+                            inputStream,
+                            // The asset's own stream is at the raw size the hints are relative to.
+                            if (isSetFromStream) cropHintsWithParallax else source.cropHints,
+                            source.bitmap,
+                            source.cropHints,
+                            destination,
+                            asset,
+                        )
+                    }
+                }
+
+            recordSetWallpaperPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_METADATA) {
+                wallpaperPreferences.setStaticWallpaperMetadata(
+                    metadata = wallpaperModel.getMetadata(source.bitmap, managerId),
+                    destination = destination,
+                )
+
+                // Save the static wallpaper to recent wallpapers
+                // TODO(b/309138446): check if we can update recent with all cropHints from WM
+                //  later
+                wallpaperPreferences.addStaticWallpaperToRecentWallpapers(
                     destination,
-                    asset,
+                    wallpaperModel,
+                    source.bitmap,
+                    source.cropHints,
                 )
+            }
+        }
+    }
 
-            wallpaperPreferences.setStaticWallpaperMetadata(
-                metadata = wallpaperModel.getMetadata(bitmap, managerId),
-                destination = destination,
-            )
+    private inline fun <T> recordSetWallpaperPhase(
+        @PerformanceMonitor.SetWallpaperPhase phase: Int,
+        block: () -> T,
+    ): T {
+        val startTime = SystemClock.elapsedRealtime()
+        return block().also {
+            InjectorProvider.getInjector()
+                ?.getPerformanceMonitor()
+                ?.recordSetWallpaperPhase(phase, SystemClock.elapsedRealtime() - startTime)
+        }
+    }
 
-            // Save the static wallpaper to recent wallpapers
-            // TODO(b/309138446): check if we can update recent with all cropHints from WM later
-            wallpaperPreferences.addStaticWallpaperToRecentWallpapers(
-                destination,
-                wallpaperModel,
-                bitmap,
-                cropHintsWithParallax,
+    /** Whether [setStaticWallpaperToSystem] sets this asset from its stream rather than pixels. */
+    private fun Asset.isSetFromStream(): Boolean =
+        this is StreamableAsset &&
+            this !is CurrentWallpaperAsset &&
+            exifOrientation == ExifInterface.ORIENTATION_NORMAL
+
+    /**
+     * Returns the given bitmap if it has enough pixels for every display, or else decodes the
+     * region of the asset that covers every crop hint at the resolution of the largest display,
+     * with the crop hints moved to be relative to the decoded region.
+     */
+    private suspend fun Asset.decodeFullResSource(
+        bitmap: Bitmap,
+        wallpaperSize: Point,
+        cropHints: Map<Point, Rect>,
+    ): StaticWallpaperSource {
+        val bitmapSize = Point(bitmap.width, bitmap.height)
+        val scale = cropHints.displayScale()
+        if (bitmap.width >= wallpaperSize.x * scale && bitmap.height >= wallpaperSize.y * scale) {
+            return StaticWallpaperSource(bitmap, cropHints.scaledTo(bitmapSize, wallpaperSize))
+        }
+        val region = cropHints.coveringRegion(wallpaperSize)
+        val regionBitmap =
+            decodeBitmapRegion(
+                region,
+                ceil(region.width() * scale).toInt(),
+                ceil(region.height() * scale).toInt(),
+                /* shouldAdjustForRtl= */ false,
+                DecodePriority.IMMEDIATE,
             )
+        if (regionBitmap == null) {
+            Log.w(TAG, "Couldn't decode the crops, setting the preview bitmap")
+            return StaticWallpaperSource(bitmap, cropHints.scaledTo(bitmapSize, wallpaperSize))
         }
+        return StaticWallpaperSource(
+            regionBitmap,
+            cropHints.relativeTo(region, Point(regionBitmap.width, regionBitmap.height)),
+        )
     }
 
+    /** The pixels to set as a static wallpaper, and the crop hints relative to them. */
+    private class StaticWallpaperSource(val bitmap: Bitmap, val cropHints: Map<Point, Rect>)
+
     private fun stopWallpaperRotation() {
-        wallpaperPreferences.setWallpaperPresentationMode(
-            WallpaperPreferences.PRESENTATION_MODE_STATIC
-        )
-        wallpaperPreferences.clearDailyRotations()
+        wallpaperPreferences.runInTransaction {
+            wallpaperPreferences.setWallpaperPresentationMode(
+                WallpaperPreferences.PRESENTATION_MODE_STATIC
+            )
+            wallpaperPreferences.clearDailyRotations()
+        }
     }
 
     /**
@@ -202,6 +271,7 @@ constructor(
      */
     private fun WallpaperManager.setStaticWallpaperToSystem(
         inputStream: InputStream?,
+        streamCropHints: Map<Point, Rect>,
         bitmap: Bitmap,
         cropHints: Map<Point, Rect>,
         destination: WallpaperDestination,
@@ -212,7 +282,7 @@ constructor(
         return if (inputStream != null && asset !is CurrentWallpaperAsset) {
             setStreamWithCrops(
                 inputStream,
-                cropHints,
+                streamCropHints,
                 /* allowBackup= */ true,
                 destination.toFlags(),
             )
@@ -250,20 +320,22 @@ constructor(
         metadata: StaticWallpaperPrefMetadata,
         destination: WallpaperDestination
     ) {
-        when (destination) {
-            HOME -> {
-                clearHomeWallpaperMetadata()
-                setHomeStaticImageWallpaperMetadata(metadata)
-            }
-            LOCK -> {
-                clearLockWallpaperMetadata()
-                setLockStaticImageWallpaperMetadata(metadata)
-            }
-            BOTH -> {
-                clearHomeWallpaperMetadata()
-                setHomeStaticImageWallpaperMetadata(metadata)
-                clearLockWallpaperMetadata()
-                setLockStaticImageWallpaperMetadata(metadata)
+        runInTransaction {
+            when (destination) {
+                HOME -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeStaticImageWallpaperMetadata(metadata)
+                }
+                LOCK -> {
+                    clearLockWallpaperMetadata()
+                    setLockStaticImageWallpaperMetadata(metadata)
+                }
+                BOTH -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeStaticImageWallpaperMetadata(metadata)
+                    clearLockWallpaperMetadata()
+                    setLockStaticImageWallpaperMetadata(metadata)
+                }
             }
         }
     }
@@ -391,20 +463,22 @@ constructor(
         metadata: LiveWallpaperPrefMetadata,
         destination: WallpaperDestination
     ) {
-        when (destination) {
-            HOME -> {
-                clearHomeWallpaperMetadata()
-                setHomeLiveWallpaperMetadata(metadata)
-            }
-            LOCK -> {
-                clearLockWallpaperMetadata()
-                setLockLiveWallpaperMetadata(metadata)
-            }
-            BOTH -> {
-                clearHomeWallpaperMetadata()
-                setHomeLiveWallpaperMetadata(metadata)
-                clearLockWallpaperMetadata()
-                setLockLiveWallpaperMetadata(metadata)
+        runInTransaction {
+            when (destination) {
+                HOME -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeLiveWallpaperMetadata(metadata)
+                }
+                LOCK -> {
+                    clearLockWallpaperMetadata()
+                    setLockLiveWallpaperMetadata(metadata)
+                }
+                BOTH -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeLiveWallpaperMetadata(metadata)
+                    clearLockWallpaperMetadata()
+                    setLockLiveWallpaperMetadata(metadata)
+                }
             }
         }
     }
@@ -446,20 +520,14 @@ constructor(
         }
     }
 
-    private suspend fun queryRecentWallpapers(
+    private suspend fun loadRecentWallpapers(
         destination: WallpaperDestination,
-        limit: Int,
     ): List<WallpaperModel> {
-        val recentWallpapers =
-            cachedRecents[destination]
-                ?: if (!areRecentsAvailable()) {
-                    listOf(getCurrentWallpaperFromFactory(destination))
-                } else {
-                    queryAllRecentWallpapers(destination)
-                }
-
-        cachedRecents[destination] = recentWallpapers
-        return recentWallpapers.take(limit)
+        return if (!areRecentsAvailable()) {
+            listOf(getCurrentWallpaperFromFactory(destination))
+        } else {
+            queryAllRecentWallpapers(destination)
+        }
     }
 
     private suspend fun queryAllRecentWallpapers(
@@ -554,7 +622,7 @@ constructor(
                         if (file == null) {
                             Log.e(TAG, "Error getting wallpaper preview: $wallpaperId")
                         } else {
-                            return BitmapFactory.decodeFileDescriptor(file.fileDescriptor)
+                            return decodeThumbnail(file)
                         }
                     }
             } catch (e: IOException) {
@@ -578,6 +646,30 @@ constructor(
         return null
     }
 
+    /**
+     * Decodes a thumbnail from the recents provider at the size of the quick switch options rather
+     * than at the size the provider stored it.
+     */
+    private fun decodeThumbnail(file: ParcelFileDescriptor): Bitmap? {
+        // The file may be a pipe, which can only be read once for both the bounds and the pixels.
+        val bytes = FileInputStream(file.fileDescriptor).readBytes()
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.size, options)
+        val optionSize =
+            context.resources.getDimensionPixelSize(
+                R.dimen.wallpaper_quick_switch_selected_option_height
+            )
+        options.inSampleSize =
+            BitmapUtils.calculateInSampleSize(
+                options.outWidth,
+                options.outHeight,
+                optionSize,
+                optionSize,
+            )
+        options.inJustDecodeBounds = false
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.size, options)
+    }
+
     override fun areRecentsAvailable(): Boolean {
         if (recentsContentProviderAvailable == null) {
             recentsContentProviderAvailable =
@@ -614,9 +706,23 @@ constructor(
 
     override suspend fun getWallpaperColors(
         bitmap: Bitmap,
-        cropHints: Map<Point, Rect>?
+        cropHints: Map<Point, Rect>?,
+        wallpaperId: String?,
+        wallpaperSize: Point?,
     ): WallpaperColors? {
-        return wallpaperManager.getWallpaperColors(bitmap, cropHints)
+        wallpaperId?.let { colorsStore.get(it, cropHints) }?.let {
+            return it
+        }
+        // Colors are keyed by the crop hints of the raw wallpaper, but extracted from the bitmap.
+        val bitmapCropHints =
+            if (wallpaperSize != null) {
+                cropHints?.scaledTo(Point(bitmap.width, bitmap.height), wallpaperSize)
+            } else {
+                cropHints
+            }
+        return wallpaperManager.getWallpaperColors(bitmap, bitmapCropHints)?.also { colors ->
+            wallpaperId?.let { colorsStore.put(it, cropHints, colors) }
+        }
     }
 
     fun WallpaperDestination.asString(): String {
@@ -671,9 +777,16 @@ constructor(
         suspendCancellableCoroutine { k: CancellableContinuation<InputStream?> ->
             if (this is StreamableAsset) {
                 if (exifOrientation != ExifInterface.ORIENTATION_NORMAL) {
-                    k.resumeWith(Result.success(BitmapUtils.bitmapToInputStream(bitmap)))
+                    k.resumeWith(
+                        Result.success(
+                            BitmapStreamEncoder.encode(context, bitmap, metadata?.mimeType)
+                        )
+                    )
                 } else {
-                    fetchInputStream { k.resumeWith(Result.success(it)) }
+                    // Don't leak the stream if the caller went away while it was being opened.
+                    fetchInputStream {
+                        if (k.isActive) k.resumeWith(Result.success(it)) else it?.close()
+                    }
                 }
             } else {
                 k.resumeWith(Result.success(null))
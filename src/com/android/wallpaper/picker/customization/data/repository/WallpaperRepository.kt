@@ -25,12 +25,14 @@ import android.util.LruCache
 import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
+import com.android.wallpaper.picker.customization.data.content.RecentThumbnailDiskCache
 import com.android.wallpaper.picker.customization.data.content.WallpaperClient
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
 import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
+import java.util.concurrent.ConcurrentHashMap
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.Flow
@@ -41,6 +43,7 @@ import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
 /** Encapsulates access to wallpaper-related data. */
@@ -49,24 +52,34 @@ class WallpaperRepository(
     private val client: WallpaperClient,
     private val wallpaperPreferences: WallpaperPreferences,
     private val backgroundDispatcher: CoroutineDispatcher,
+    private val thumbnailDiskCache: RecentThumbnailDiskCache? = null,
 ) {
     val maxOptions = MAX_OPTIONS
 
-    private val thumbnailCache = LruCache<String, Bitmap>(maxOptions)
+    private val thumbnailCache =
+        object : LruCache<String, Bitmap>(THUMBNAIL_CACHE_MAX_BYTES) {
+            override fun sizeOf(key: String, value: Bitmap): Int = value.allocationByteCount
+        }
+
+    private val selectedWallpaperIds =
+        ConcurrentHashMap<WallpaperDestination, StateFlow<String>>()
 
     /** The ID of the currently-selected wallpaper. */
     fun selectedWallpaperId(
         destination: WallpaperDestination,
     ): StateFlow<String> {
-        return client
-            .recentWallpapers(destination = destination, limit = 1)
-            .map { previews -> currentWallpaperKey(destination, previews) }
-            .flowOn(backgroundDispatcher)
-            .stateIn(
-                scope = scope,
-                started = SharingStarted.WhileSubscribed(),
-                initialValue = currentWallpaperKey(destination, null)
-            )
+        // Shared by every caller, all backed by the client's single recents flow.
+        return selectedWallpaperIds.computeIfAbsent(destination) {
+            client
+                .recentWallpapers(destination = destination, limit = 1)
+                .map { previews -> currentWallpaperKey(destination, previews) }
+                .flowOn(backgroundDispatcher)
+                .stateIn(
+                    scope = scope,
+                    started = SharingStarted.WhileSubscribed(),
+                    initialValue = currentWallpaperKey(destination, null)
+                )
+        }
     }
 
     private fun currentWallpaperKey(
@@ -103,7 +116,12 @@ class WallpaperRepository(
             .flowOn(backgroundDispatcher)
     }
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination.
+     *
+     * Thumbnails are looked up in memory, then on disk, and only loaded from the client when
+     * neither has the given update of the wallpaper.
+     */
     suspend fun loadThumbnail(
         wallpaperId: String,
         lastUpdatedTimestamp: Long,
@@ -112,7 +130,14 @@ class WallpaperRepository(
         val cacheKey = "$wallpaperId-$lastUpdatedTimestamp"
         return thumbnailCache[cacheKey]
             ?: withContext(backgroundDispatcher) {
-                val thumbnail = client.loadThumbnail(wallpaperId, destination)
+                val thumbnail =
+                    thumbnailDiskCache?.get(wallpaperId, lastUpdatedTimestamp)
+                        ?: client.loadThumbnail(wallpaperId, destination)?.also {
+                            // Writing it out doesn't need to hold up showing it.
+                            scope.launch(backgroundDispatcher) {
+                                thumbnailDiskCache?.put(wallpaperId, lastUpdatedTimestamp, it)
+                            }
+                        }
                 if (thumbnail != null) {
                     thumbnailCache.put(cacheKey, thumbnail)
                 }
@@ -177,12 +202,21 @@ class WallpaperRepository(
         }
     }
 
-    suspend fun getWallpaperColors(bitmap: Bitmap, cropHints: Map<Point, Rect>?): WallpaperColors? =
-        withContext(backgroundDispatcher) { client.getWallpaperColors(bitmap, cropHints) }
+    suspend fun getWallpaperColors(
+        bitmap: Bitmap,
+        cropHints: Map<Point, Rect>?,
+        wallpaperId: String?,
+        wallpaperSize: Point? = null,
+    ): WallpaperColors? =
+        withContext(backgroundDispatcher) {
+            client.getWallpaperColors(bitmap, cropHints, wallpaperId, wallpaperSize)
+        }
 
     companion object {
         const val DEFAULT_KEY = "default_missing_key"
         /** The maximum number of options to show, including the currently-selected one. */
         private const val MAX_OPTIONS = 5
+        /** Enough for the downsampled thumbnails of the options of both screens. */
+        private const val THUMBNAIL_CACHE_MAX_BYTES = 8 * 1024 * 1024
     }
 }
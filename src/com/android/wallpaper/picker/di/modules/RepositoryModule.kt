@@ -15,12 +15,15 @@
  */
 package com.android.wallpaper.picker.di.modules
 
+import android.content.Context
 import com.android.wallpaper.module.WallpaperPreferences
+import com.android.wallpaper.picker.customization.data.content.RecentThumbnailDiskCache
 import com.android.wallpaper.picker.customization.data.content.WallpaperClient
 import com.android.wallpaper.picker.customization.data.repository.WallpaperRepository
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
+import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.components.SingletonComponent
 import javax.inject.Singleton
 import kotlinx.coroutines.CoroutineDispatcher
@@ -33,6 +36,7 @@ internal object RepositoryModule {
     @Provides
     @Singleton
     fun provideWallpaperRepository(
+        @ApplicationContext appContext: Context,
         @BackgroundDispatcher bgDispatcher: CoroutineDispatcher,
         @MainDispatcher mainScope: CoroutineScope,
         wallpaperPreferences: WallpaperPreferences,
@@ -43,6 +47,7 @@ internal object RepositoryModule {
             wallpaperClient,
             wallpaperPreferences,
             bgDispatcher,
+            RecentThumbnailDiskCache(appContext),
         )
     }
 }
@@ -21,6 +21,7 @@ import android.app.ProgressDialog
 import android.app.WallpaperManager
 import android.app.WallpaperManager.FLAG_LOCK
 import android.app.WallpaperManager.FLAG_SYSTEM
+import android.content.Context
 import android.content.DialogInterface
 import android.content.res.Configuration
 import android.content.res.Resources
@@ -43,6 +44,7 @@ import android.widget.RelativeLayout
 import android.widget.TextView
 import android.widget.Toast
 import androidx.annotation.DrawableRes
+import androidx.annotation.WorkerThread
 import androidx.cardview.widget.CardView
 import androidx.core.content.ContextCompat
 import androidx.core.widget.ContentLoadingProgressBar
@@ -51,6 +53,7 @@ import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.android.wallpaper.R
+import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.model.Category
 import com.android.wallpaper.model.CategoryProvider
 import com.android.wallpaper.model.CategoryReceiver
@@ -60,6 +63,7 @@ import com.android.wallpaper.model.WallpaperInfo
 import com.android.wallpaper.model.WallpaperRotationInitializer
 import com.android.wallpaper.model.WallpaperRotationInitializer.NetworkPreference
 import com.android.wallpaper.module.InjectorProvider
+import com.android.wallpaper.module.LiveWallpaperCatalog
 import com.android.wallpaper.module.PackageStatusNotifier
 import com.android.wallpaper.picker.AppbarFragment
 import com.android.wallpaper.picker.FragmentTransactionChecker
@@ -67,6 +71,9 @@ import com.android.wallpaper.picker.MyPhotosStarter.MyPhotosStarterProvider
 import com.android.wallpaper.picker.RotationStarter
 import com.android.wallpaper.picker.StartRotationDialogFragment
 import com.android.wallpaper.picker.StartRotationErrorDialogFragment
+import com.android.wallpaper.picker.common.list.ui.OffsetListUpdateCallback
+import com.android.wallpaper.picker.common.list.ui.PickerListModel
+import com.android.wallpaper.picker.common.list.ui.ThumbnailPrefetcher
 import com.android.wallpaper.util.ActivityUtils
 import com.android.wallpaper.util.LaunchUtils
 import com.android.wallpaper.util.SizeCalculator
@@ -77,8 +84,10 @@ import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDele
 import com.bumptech.glide.Glide
 import com.bumptech.glide.MemoryCategory
 import java.util.Date
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 /** Displays the Main UI for picking an individual wallpaper image. */
 class IndividualPickerFragment2 :
@@ -120,7 +129,15 @@ class IndividualPickerFragment2 :
     private var adapter: IndividualAdapter? = null
     private var category: WallpaperCategory? = null
     private var wallpaperRotationInitializer: WallpaperRotationInitializer? = null
-    private lateinit var items: MutableList<PickerItem>
+    private val listModel = PickerListModel(TAG, PickerItem::id, PickerItem::isContentTheSame)
+    private val listUpdateCallback =
+        OffsetListUpdateCallback(
+            adapter = { adapter },
+            offset = { if (category?.supportsCustomPhotos() == true) 1 else 0 },
+        )
+    private var thumbnailPrefetcher: ThumbnailPrefetcher? = null
+    /** Size of the thumbnails of the wallpaper tiles, once the grid is set up. */
+    private var tileSizePx: Point? = null
     private var packageStatusNotifier: PackageStatusNotifier? = null
     private var isWallpapersReceived = false
 
@@ -139,16 +156,12 @@ class IndividualPickerFragment2 :
      */
     private var stagedStartRotationErrorDialogFragment: StartRotationErrorDialogFragment? = null
 
-    private var wallpaperManager: WallpaperManager? = null
-
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         val injector = InjectorProvider.getInjector()
         val appContext = requireContext().applicationContext
         mIsCreativeWallpaperEnabled = injector.getFlags().isAIWallpaperEnabled(appContext)
-        wallpaperManager = WallpaperManager.getInstance(appContext)
         packageStatusNotifier = injector.getPackageStatusNotifier(appContext)
-        items = ArrayList()
 
         // Clear Glide's cache if night-mode changed to ensure thumbnails are reloaded
         if (
@@ -185,14 +198,11 @@ class IndividualPickerFragment2 :
     }
 
     private fun fetchWallpapers(forceReload: Boolean) {
-        isCreativeCategory = false
-        items.clear()
         isWallpapersReceived = false
         updateLoading()
-        val context = requireContext()
-        val userCreatedWallpapers = mutableListOf<WallpaperInfo>()
+        val appContext = requireContext().applicationContext
         category?.fetchWallpapers(
-            context.applicationContext,
+            appContext,
             { fetchedWallpapers ->
                 if (getContext() == null) {
                     Log.w(TAG, "Null context!!")
@@ -200,44 +210,24 @@ class IndividualPickerFragment2 :
                 }
                 isWallpapersReceived = true
                 updateLoading()
-                val supportsUserCreated = category?.supportsUserCreatedWallpapers() == true
-                val byGroup = fetchedWallpapers.groupBy { it.getGroupName(context) }.toMutableMap()
-                val appliedWallpaperIds =
-                    getAppliedWallpaperIds().also { this.appliedWallpaperIds = it }
-                val firstEntry = byGroup.keys.firstOrNull()
-                val currentHomeWallpaper: android.app.WallpaperInfo? =
-                    WallpaperManager.getInstance(context).getWallpaperInfo(FLAG_SYSTEM)
-                val currentLockWallpaper: android.app.WallpaperInfo? =
-                    WallpaperManager.getInstance(context).getWallpaperInfo(FLAG_LOCK)
-
-                // Handle first group (templates/items that allow to create a new wallpaper)
-                if (mIsCreativeWallpaperEnabled && firstEntry != null && supportsUserCreated) {
-                    val wallpapers = byGroup.getValue(firstEntry)
-                    isCreativeCategory = true
-
-                    if (wallpapers.size > 1 && !TextUtils.isEmpty(firstEntry)) {
-                        addItemHeader(firstEntry, items.isEmpty())
-                        addTemplates(wallpapers, userCreatedWallpapers)
-                        byGroup.remove(firstEntry)
-                    }
-                }
-
-                // Handle other groups
-                if (byGroup.isNotEmpty()) {
-                    byGroup.forEach { (groupName, wallpapers) ->
-                        if (!TextUtils.isEmpty(groupName)) {
-                            addItemHeader(groupName, items.isEmpty())
+                val category = category
+                var appliedWallpaperIds = this.appliedWallpaperIds
+                lifecycleScope.launch {
+                    val isUpdated =
+                        listModel.update(Dispatchers.IO, listUpdateCallback) {
+                            appliedWallpaperIds = getAppliedWallpaperIds(appContext)
+                            buildItems(appContext, category, fetchedWallpapers, appliedWallpaperIds)
                         }
-                        addWallpaperItems(
-                            wallpapers,
-                            currentHomeWallpaper,
-                            currentLockWallpaper,
-                            appliedWallpaperIds
-                        )
+                    if (!isUpdated) {
+                        return@launch
                     }
+                    isCreativeCategory =
+                        mIsCreativeWallpaperEnabled &&
+                            category?.supportsUserCreatedWallpapers() == true &&
+                            fetchedWallpapers.isNotEmpty()
+                    this@IndividualPickerFragment2.appliedWallpaperIds = appliedWallpaperIds
+                    maybeSetUpImageGrid()
                 }
-                maybeSetUpImageGrid()
-                adapter?.notifyDataSetChanged()
 
                 // Finish activity if no wallpapers are found (on phone)
                 if (fetchedWallpapers.isEmpty()) {
@@ -248,10 +238,59 @@ class IndividualPickerFragment2 :
         )
     }
 
+    /**
+     * Builds the items to show for the given wallpapers. Called on a background thread, since
+     * finding out which wallpapers are applied takes binder calls.
+     */
+    @WorkerThread
+    private fun buildItems(
+        context: Context,
+        category: WallpaperCategory?,
+        fetchedWallpapers: List<WallpaperInfo>,
+        appliedWallpaperIds: Set<String>,
+    ): List<PickerItem> {
+        val items = mutableListOf<PickerItem>()
+        val supportsUserCreated = category?.supportsUserCreatedWallpapers() == true
+        val byGroup = fetchedWallpapers.groupBy { it.getGroupName(context) }.toMutableMap()
+        val firstEntry = byGroup.keys.firstOrNull()
+        val wallpaperManager = WallpaperManager.getInstance(context)
+        val currentHomeWallpaper: android.app.WallpaperInfo? =
+            wallpaperManager.getWallpaperInfo(FLAG_SYSTEM)
+        val currentLockWallpaper: android.app.WallpaperInfo? =
+            wallpaperManager.getWallpaperInfo(FLAG_LOCK)
+
+        // Handle first group (templates/items that allow to create a new wallpaper)
+        if (mIsCreativeWallpaperEnabled && firstEntry != null && supportsUserCreated) {
+            val wallpapers = byGroup.getValue(firstEntry)
+
+            if (wallpapers.size > 1 && !TextUtils.isEmpty(firstEntry)) {
+                addItemHeader(items, firstEntry)
+                items.add(PickerItem.CreativeCollection(wallpapers))
+                byGroup.remove(firstEntry)
+            }
+        }
+
+        // Handle other groups
+        byGroup.forEach { (groupName, wallpapers) ->
+            if (!TextUtils.isEmpty(groupName)) {
+                addItemHeader(items, groupName)
+            }
+            addWallpaperItems(
+                context,
+                items,
+                wallpapers,
+                currentHomeWallpaper,
+                currentLockWallpaper,
+                appliedWallpaperIds
+            )
+        }
+        return items
+    }
+
     // Add item header based on whether it's the first one or not
-    private fun addItemHeader(groupName: String, isFirst: Boolean) {
+    private fun addItemHeader(items: MutableList<PickerItem>, groupName: String) {
         items.add(
-            if (isFirst) {
+            if (items.isEmpty()) {
                 PickerItem.FirstHeaderItem(groupName)
             } else {
                 PickerItem.HeaderItem(groupName)
@@ -259,31 +298,13 @@ class IndividualPickerFragment2 :
         )
     }
 
-    /**
-     * This function iterates through a set of templates, which represent items that users can
-     * select to create new wallpapers. For each template, it creates a PickerItem of type
-     * CreativeCollection.
-     */
-    private fun addTemplates(
-        wallpapers: List<WallpaperInfo>,
-        userCreatedWallpapers: MutableList<WallpaperInfo>
-    ) {
-        wallpapers.map {
-            if (category?.supportsUserCreatedWallpapers() == true) {
-                userCreatedWallpapers.add(it)
-            }
-        }
-
-        if (userCreatedWallpapers.isNotEmpty()) {
-            items.add(PickerItem.CreativeCollection(userCreatedWallpapers))
-        }
-    }
-
     /**
      * This function iterates through a set of wallpaper items, and creates a PickerItem of type
      * WallpaperItem
      */
     private fun addWallpaperItems(
+        context: Context,
+        items: MutableList<PickerItem>,
         wallpapers: List<WallpaperInfo>,
         currentHomeWallpaper: android.app.WallpaperInfo?,
         currentLockWallpaper: android.app.WallpaperInfo?,
@@ -295,7 +316,16 @@ class IndividualPickerFragment2 :
                     if (it is LiveWallpaperInfo)
                         (it.isApplied(currentHomeWallpaper, currentLockWallpaper))
                     else appliedWallpaperIds.contains(it.wallpaperId)
-                PickerItem.WallpaperItem(it, isApplied)
+                val revision =
+                    if (it is LiveWallpaperInfo) {
+                        it.wallpaperComponent?.let { info ->
+                            LiveWallpaperCatalog.getInstance(context)
+                                .getPackageVersion(info.packageName)
+                        }
+                    } else {
+                        null
+                    }
+                PickerItem.WallpaperItem(it, isApplied, revision)
             }
         )
     }
@@ -402,6 +432,14 @@ class IndividualPickerFragment2 :
             setTitle(category?.title)
         }
         imageGrid = view.requireViewById<View>(R.id.wallpaper_grid) as RecyclerView
+        thumbnailPrefetcher =
+            ThumbnailPrefetcher(
+                    requireContext(),
+                    getThumbnail = ::getPrefetchThumbnail,
+                    // Only wallpaper tiles have a thumbnail, which are all the same size.
+                    getTileSize = { tileSizePx },
+                )
+                .also { it.attach(imageGrid) }
         loading = view.requireViewById(R.id.loading_indicator)
         updateLoading()
         maybeSetUpImageGrid()
@@ -483,6 +521,7 @@ class IndividualPickerFragment2 :
             } else {
                 SizeCalculator.getIndividualTileSize(requireActivity())
             }
+        this.tileSizePx = tileSizePx
         setUpImageGrid(tileSizePx, checkNotNull(category))
         imageGrid.setAccessibilityDelegateCompat(
             WallpaperPickerRecyclerViewAccessibilityDelegate(
@@ -493,9 +532,17 @@ class IndividualPickerFragment2 :
         )
     }
 
+    /** Returns the thumbnail of the wallpaper tile at the given adapter position, if any. */
+    private fun getPrefetchThumbnail(position: Int): Asset? {
+        val index = if (category?.supportsCustomPhotos() == true) position - 1 else position
+        val item = listModel.items.getOrNull(index) as? PickerItem.WallpaperItem ?: return null
+        return item.wallpaperInfo.getThumbAsset(requireContext().applicationContext)
+    }
+
     private fun isFewerColumnLayout(): Boolean =
         (!mIsCreativeWallpaperEnabled || category?.supportsUserCreatedWallpapers() == false) &&
-            items.count { it is PickerItem.WallpaperItem } <= MAX_CAPACITY_IN_FEWER_COLUMN_LAYOUT
+            listModel.items.count { it is PickerItem.WallpaperItem } <=
+                MAX_CAPACITY_IN_FEWER_COLUMN_LAYOUT
 
     private fun getGridItemPaddingHorizontal(): Int {
         return if (isFewerColumnLayout()) {
@@ -530,7 +577,7 @@ class IndividualPickerFragment2 :
     private fun setUpImageGrid(tileSizePx: Point, category: Category) {
         adapter =
             IndividualAdapter(
-                items,
+                listModel,
                 category,
                 requireActivity(),
                 tileSizePx,
@@ -546,6 +593,7 @@ class IndividualPickerFragment2 :
         gridLayoutManager.spanSizeLookup =
             object : GridLayoutManager.SpanSizeLookup() {
                 override fun getSpanSize(position: Int): Int {
+                    val items = listModel.items
                     return if (position >= 0 && position < items.size) {
                         when (items[position]) {
                             is PickerItem.CreativeCollection,
@@ -563,7 +611,14 @@ class IndividualPickerFragment2 :
 
     private suspend fun fetchWallpapersIfNeeded() {
         coroutineScope {
-            if (isWallpapersReceived && (shouldReloadWallpapers || isAppliedWallpaperChanged())) {
+            if (!isWallpapersReceived) {
+                return@coroutineScope
+            }
+            val appContext = requireContext().applicationContext
+            if (
+                shouldReloadWallpapers ||
+                    withContext(Dispatchers.IO) { isAppliedWallpaperChanged(appContext) }
+            ) {
                 fetchWallpapers(true)
             }
         }
@@ -597,6 +652,8 @@ class IndividualPickerFragment2 :
     }
 
     override fun onDestroyView() {
+        thumbnailPrefetcher?.detach()
+        thumbnailPrefetcher = null
         super.onDestroyView()
         getIndividualPickerFragmentHost().removeToolbarMenu()
     }
@@ -732,9 +789,11 @@ class IndividualPickerFragment2 :
         startRotationDialogFragment.show(parentFragmentManager, TAG_START_ROTATION_DIALOG)
     }
 
-    private fun getAppliedWallpaperIds(): Set<String> {
-        val prefs = InjectorProvider.getInjector().getPreferences(requireContext())
-        val wallpaperInfo = wallpaperManager?.wallpaperInfo
+    @WorkerThread
+    private fun getAppliedWallpaperIds(context: Context): Set<String> {
+        val prefs = InjectorProvider.getInjector().getPreferences(context)
+        val wallpaperManager = WallpaperManager.getInstance(context)
+        val wallpaperInfo = wallpaperManager.wallpaperInfo
         val appliedWallpaperIds: MutableSet<String> = ArraySet()
         val homeWallpaperId =
             if (wallpaperInfo != null) {
@@ -746,7 +805,7 @@ class IndividualPickerFragment2 :
             appliedWallpaperIds.add(homeWallpaperId)
         }
         val isLockWallpaperApplied =
-            wallpaperManager!!.getWallpaperId(WallpaperManager.FLAG_LOCK) >= 0
+            wallpaperManager.getWallpaperId(WallpaperManager.FLAG_LOCK) >= 0
         val lockWallpaperId = prefs.getLockWallpaperRemoteId()
         if (isLockWallpaperApplied && !lockWallpaperId.isNullOrEmpty()) {
             appliedWallpaperIds.add(lockWallpaperId)
@@ -755,9 +814,10 @@ class IndividualPickerFragment2 :
     }
 
     // TODO(b/277180178): Extract the check to another class for unit testing
-    private fun isAppliedWallpaperChanged(): Boolean {
+    @WorkerThread
+    private fun isAppliedWallpaperChanged(context: Context): Boolean {
         // Reload wallpapers if the current wallpapers have changed
-        getAppliedWallpaperIds().let {
+        getAppliedWallpaperIds(context).let {
             if (appliedWallpaperIds != it) {
                 return true
             }
@@ -766,19 +826,50 @@ class IndividualPickerFragment2 :
     }
 
     sealed class PickerItem(val title: CharSequence = "") {
-        class WallpaperItem(val wallpaperInfo: WallpaperInfo, val isApplied: Boolean) :
-            PickerItem()
+        /** Identifies the item across lists built for successive fetches. */
+        abstract val id: Any
+
+        /** Returns whether the tile of this item shows the same as the one of [other]. */
+        open fun isContentTheSame(other: PickerItem) = javaClass == other.javaClass
+
+        /**
+         * @param revision changes whenever the wallpaper may look different for the same id, such
+         *   as the package version of a live wallpaper.
+         */
+        class WallpaperItem(
+            val wallpaperInfo: WallpaperInfo,
+            val isApplied: Boolean,
+            val revision: String? = null,
+        ) : PickerItem() {
+            override val id: Any = wallpaperInfo.wallpaperId ?: wallpaperInfo
+
+            override fun isContentTheSame(other: PickerItem) =
+                other is WallpaperItem &&
+                    other.wallpaperInfo.javaClass == wallpaperInfo.javaClass &&
+                    other.isApplied == isApplied &&
+                    other.revision == revision
+        }
+
+        class HeaderItem(title: CharSequence) : PickerItem(title) {
+            override val id: Any = "header:$title"
+        }
 
-        class HeaderItem(title: CharSequence) : PickerItem(title)
+        class FirstHeaderItem(title: CharSequence) : PickerItem(title) {
+            override val id: Any = "firstHeader:$title"
+        }
 
-        class FirstHeaderItem(title: CharSequence) : PickerItem(title)
+        class CreativeCollection(val templates: List<WallpaperInfo>) : PickerItem() {
+            override val id: Any = "creativeCollection"
 
-        class CreativeCollection(val templates: List<WallpaperInfo>) : PickerItem()
+            override fun isContentTheSame(other: PickerItem) =
+                other is CreativeCollection &&
+                    other.templates.map { it.wallpaperId } == templates.map { it.wallpaperId }
+        }
     }
 
     /** RecyclerView Adapter subclass for the wallpaper tiles in the RecyclerView. */
     class IndividualAdapter(
-        private val items: List<PickerItem>,
+        private val listModel: PickerListModel<PickerItem>,
         private val category: Category,
         private val activity: Activity,
         private val tileSizePx: Point,
@@ -796,6 +887,9 @@ class IndividualPickerFragment2 :
             const val ITEM_VIEW_TYPE_CREATIVE = 6
         }
 
+        private val items: List<PickerItem>
+            get() = listModel.items
+
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
             return when (viewType) {
                 ITEM_VIEW_TYPE_INDIVIDUAL_WALLPAPER -> createIndividualHolder(parent)
@@ -81,6 +81,11 @@ constructor(
         )
     }
 
-    suspend fun getWallpaperColors(bitmap: Bitmap, cropHints: Map<Point, Rect>?): WallpaperColors? =
-        wallpaperRepository.getWallpaperColors(bitmap, cropHints)
+    suspend fun getWallpaperColors(
+        bitmap: Bitmap,
+        cropHints: Map<Point, Rect>?,
+        wallpaperId: String?,
+        wallpaperSize: Point? = null,
+    ): WallpaperColors? =
+        wallpaperRepository.getWallpaperColors(bitmap, cropHints, wallpaperId, wallpaperSize)
 }
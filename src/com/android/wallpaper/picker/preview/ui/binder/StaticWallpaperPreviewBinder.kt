@@ -30,6 +30,7 @@ import androidx.core.view.isVisible
 import com.android.app.tracing.TraceUtils.trace
 import com.android.wallpaper.picker.preview.shared.model.CropSizeModel
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
+import com.android.wallpaper.picker.preview.ui.util.AssetRegionDecoder.Companion.setTiledImage
 import com.android.wallpaper.picker.preview.ui.util.FullResImageViewUtil
 import com.android.wallpaper.picker.preview.ui.viewmodel.StaticWallpaperPreviewViewModel
 import com.android.wallpaper.util.RtlUtils
@@ -75,8 +76,18 @@ object StaticWallpaperPreviewBinder {
                 viewModel.subsamplingScaleImageViewModel.collect { imageModel ->
                     trace(TAG) {
                         val cropHint = imageModel.fullPreviewCropModels?.get(displaySize)?.cropHint
-                        fullResImageView.setFullResImage(
-                            ImageSource.cachedBitmap(imageModel.rawWallpaperBitmap),
+                        if (imageModel.isTiled) {
+                            fullResImageView.setTiledImage(
+                                imageModel.asset,
+                                imageModel.rawWallpaperSize,
+                                imageModel.wallpaperBitmap,
+                            )
+                        } else {
+                            fullResImageView.setImage(
+                                ImageSource.cachedBitmap(imageModel.wallpaperBitmap)
+                            )
+                        }
+                        fullResImageView.setFullResImageScale(
                             imageModel.rawWallpaperSize,
                             displaySize,
                             cropHint,
@@ -139,16 +150,13 @@ object StaticWallpaperPreviewBinder {
         setPanLimit(SubsamplingScaleImageView.PAN_LIMIT_INSIDE)
     }
 
-    private fun SubsamplingScaleImageView.setFullResImage(
-        imageSource: ImageSource,
+    private fun SubsamplingScaleImageView.setFullResImageScale(
         rawWallpaperSize: Point,
         displaySize: Point,
         cropHint: Rect?,
         isRtl: Boolean,
         isFullScreen: Boolean,
     ) {
-        // Set the full res image
-        setImage(imageSource)
         // Calculate the scale and the center point for the full res image
         doOnLayout {
             FullResImageViewUtil.getScaleAndCenter(
@@ -215,30 +215,33 @@ object WorkspacePreviewBinder {
                     extras,
                 )
             workspaceCallback = suspendCancellableCoroutine { continuation ->
-                previewUtils.renderPreview(
-                    request,
-                    object : PreviewUtils.WorkspacePreviewCallback {
-                        override fun onPreviewRendered(resultBundle: Bundle?) {
-                            if (resultBundle != null) {
-                                SurfaceViewUtils.getSurfacePackage(resultBundle).apply {
-                                    if (this != null) {
-                                        surface.setChildSurfacePackage(this)
-                                    } else {
-                                        Log.w(
-                                            TAG,
-                                            "Result bundle from rendering preview does not contain " +
-                                                "a child surface package."
-                                        )
+                val pendingRender =
+                    previewUtils.renderPreview(
+                        request,
+                        object : PreviewUtils.WorkspacePreviewCallback {
+                            override fun onPreviewRendered(resultBundle: Bundle?) {
+                                if (resultBundle != null) {
+                                    SurfaceViewUtils.getSurfacePackage(resultBundle).apply {
+                                        if (this != null) {
+                                            surface.setChildSurfacePackage(this)
+                                        } else {
+                                            Log.w(
+                                                TAG,
+                                                "Result bundle from rendering preview does " +
+                                                    "not contain a child surface package."
+                                            )
+                                        }
                                     }
+                                    continuation.resume(SurfaceViewUtils.getCallback(resultBundle))
+                                } else {
+                                    Log.w(TAG, "Result bundle from rendering preview is null.")
+                                    continuation.resume(null)
                                 }
-                                continuation.resume(SurfaceViewUtils.getCallback(resultBundle))
-                            } else {
-                                Log.w(TAG, "Result bundle from rendering preview is null.")
-                                continuation.resume(null)
                             }
                         }
-                    }
-                )
+                    )
+                // Drop the render if the surface goes away or the options change before it's done.
+                continuation.invokeOnCancellation { pendingRender.cancel() }
             }
         }
         return workspaceCallback
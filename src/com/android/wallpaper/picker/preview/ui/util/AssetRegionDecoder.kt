@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.picker.preview.ui.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.graphics.Rect
+import android.net.Uri
+import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.DecodePriority
+import com.android.wallpaper.asset.StreamableAsset
+import com.android.wallpaper.asset.decodeBitmapRegion
+import com.davemorrissey.labs.subscaleview.ImageSource
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView
+import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory
+import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder
+import kotlinx.coroutines.runBlocking
+
+/**
+ * Decodes the tiles of a [SubsamplingScaleImageView] from an [Asset], so that the view only ever
+ * holds the regions that are on screen, at the resolution they are shown at.
+ *
+ * Tiles are decoded on the view's own background threads. Tiles of a [StreamableAsset] are
+ * decoded at the sample size the view asks for, in parallel through the asset's pooled region
+ * decoders, which are released when the view recycles the decoder. Other assets go through their
+ * region decode.
+ */
+class AssetRegionDecoder(
+    private val asset: Asset,
+    private val rawSize: Point,
+) : ImageRegionDecoder {
+
+    @Volatile private var isRecycled = false
+
+    override fun init(context: Context, uri: Uri): Point = Point(rawSize)
+
+    override fun decodeRegion(sRect: Rect, sampleSize: Int): Bitmap {
+        check(!isRecycled) { "Decoding a tile after the decoder was recycled" }
+        val region =
+            if (asset is StreamableAsset) {
+                asset.decodeTileBlocking(sRect, sampleSize)
+            } else {
+                runBlocking {
+                    asset.decodeBitmapRegion(
+                        sRect,
+                        sRect.width() / sampleSize,
+                        sRect.height() / sampleSize,
+                        /* shouldAdjustForRtl= */ false,
+                        DecodePriority.IMMEDIATE,
+                    )
+                }
+            }
+        // The view reports it as a tile load error and keeps showing the base layer there.
+        return region ?: throw IllegalStateException("Couldn't decode region $sRect of $asset")
+    }
+
+    override fun isReady(): Boolean = !isRecycled
+
+    override fun recycle() {
+        isRecycled = true
+        (asset as? StreamableAsset)?.releaseRegionDecoders()
+    }
+
+    companion object {
+        /** Any URI works, the decoder reads from the asset and the view never opens it itself. */
+        private val ASSET_URI = Uri.fromParts("wallpaper-asset", "tiles", null)
+
+        /**
+         * Shows [asset] at [rawSize] in the view, tiled through an [AssetRegionDecoder], with
+         * [baseLayer] as the whole image until the tiles are decoded.
+         */
+        fun SubsamplingScaleImageView.setTiledImage(
+            asset: Asset,
+            rawSize: Point,
+            baseLayer: Bitmap,
+        ) {
+            setRegionDecoderFactory(
+                DecoderFactory<AssetRegionDecoder> { AssetRegionDecoder(asset, rawSize) }
+            )
+            setImage(
+                ImageSource.uri(ASSET_URI).dimensions(rawSize.x, rawSize.y).tilingEnabled(),
+                ImageSource.cachedBitmap(baseLayer),
+            )
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.graphics.Rect
 import com.android.wallpaper.picker.preview.ui.util.CropSizeUtil.fitCropRectToLayoutDirection
 import com.android.wallpaper.util.WallpaperCropUtils
 import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView
+import kotlin.math.min
 
 object FullResImageViewUtil {
 
@@ -78,6 +79,14 @@ object FullResImageViewUtil {
 
     fun SubsamplingScaleImageView.getCropRect() = Rect().apply { visibleFileRect(this) }
 
+    /**
+     * Whether the full resolution preview of a wallpaper of [rawSize] should be shown as tiles
+     * over a base layer of [baseLayerSize], rather than decoded whole.
+     */
+    fun shouldTile(supportsTiling: Boolean, rawSize: Point, baseLayerSize: Int): Boolean =
+        // A sampled decode only ends up smaller once both sides are at least twice the target.
+        supportsTiling && min(rawSize.x, rawSize.y) >= 2 * baseLayerSize
+
     data class ScaleAndCenter(
         val minScale: Float,
         val maxScale: Float,
@@ -21,8 +21,11 @@ import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
 
 data class FullResWallpaperViewModel(
-    val rawWallpaperBitmap: Bitmap,
+    /** The whole wallpaper, downsampled to about the screen size if [isTiled]. */
+    val wallpaperBitmap: Bitmap,
     val rawWallpaperSize: Point,
     val asset: Asset,
     val fullPreviewCropModels: Map<Point, FullPreviewCropModel>?,
+    /** Whether the parts of the wallpaper on screen are decoded from [asset] as tiles. */
+    val isTiled: Boolean = false,
 )
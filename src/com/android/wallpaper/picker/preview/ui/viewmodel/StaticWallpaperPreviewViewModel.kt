@@ -22,6 +22,9 @@ import android.graphics.Point
 import android.graphics.Rect
 import androidx.annotation.VisibleForTesting
 import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.DecodePriority
+import com.android.wallpaper.asset.decodeBitmap
+import com.android.wallpaper.asset.decodeRawDimensions
 import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.picker.customization.shared.model.WallpaperColorsModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
@@ -29,12 +32,14 @@ import com.android.wallpaper.picker.di.modules.BackgroundDispatcher
 import com.android.wallpaper.picker.preview.domain.interactor.WallpaperPreviewInteractor
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
 import com.android.wallpaper.picker.preview.ui.WallpaperPreviewActivity
+import com.android.wallpaper.picker.preview.ui.util.FullResImageViewUtil
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.android.scopes.ViewModelScoped
 import javax.inject.Inject
-import kotlinx.coroutines.CancellableContinuation
+import kotlin.math.min
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharingStarted
@@ -43,8 +48,8 @@ import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.mapLatest
 import kotlinx.coroutines.flow.shareIn
-import kotlinx.coroutines.suspendCancellableCoroutine
 
 /** View model for static wallpaper preview used in [WallpaperPreviewActivity] and its fragments */
 @ViewModelScoped
@@ -96,12 +101,15 @@ constructor(
         staticWallpaperModel
             .map { it.staticWallpaperData.asset.getLowResBitmap(context) }
             .flowOn(bgDispatcher)
-    // Asset detail includes the dimensions, bitmap and the asset.
-    private val assetDetail: Flow<Triple<Point, Bitmap?, Asset>?> =
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val assetDetail: Flow<AssetDetail?> =
         interactor.wallpaperModel
             .map { (it as? StaticWallpaperModel)?.staticWallpaperData?.asset }
-            .map { asset ->
-                asset?.decodeRawDimensions()?.let { Triple(it, asset.decodeBitmap(it), asset) }
+            // mapLatest cancels the decode of a wallpaper that is swiped away before it finishes.
+            .mapLatest { asset ->
+                asset?.decodeRawDimensions(DecodePriority.IMMEDIATE)?.let {
+                    decodeAssetDetail(asset, it)
+                }
             }
             .flowOn(bgDispatcher)
             // We only want to decode bitmap every time when wallpaper model is updated, instead of
@@ -113,39 +121,49 @@ constructor(
                 if (assetDetail == null) {
                     null
                 } else {
-                    val (dimensions, bitmap, asset) = assetDetail
-                    bitmap?.let {
-                        FullResWallpaperViewModel(
-                            bitmap,
-                            dimensions,
-                            asset,
-                            cropHintsInfo,
-                        )
-                    }
+                    FullResWallpaperViewModel(
+                        assetDetail.bitmap,
+                        assetDetail.rawSize,
+                        assetDetail.asset,
+                        cropHintsInfo,
+                        assetDetail.isTiled,
+                    )
                 }
             }
             .flowOn(bgDispatcher)
     val subsamplingScaleImageViewModel: Flow<FullResWallpaperViewModel> =
         fullResWallpaperViewModel.filterNotNull()
-    // TODO (b/315856338): cache wallpaper colors in preferences
-    private val storedWallpaperColors: Flow<WallpaperColors?> =
+    // Colors stored for the whole wallpaper, paired with the id of the wallpaper.
+    private val storedWallpaperColors: Flow<Pair<String, WallpaperColors?>> =
         staticWallpaperModel
-            .map { wallpaperPreferences.getWallpaperColors(it.commonWallpaperData.id.uniqueId) }
+            .map {
+                val wallpaperId = it.commonWallpaperData.id.uniqueId
+                wallpaperId to wallpaperPreferences.getWallpaperColors(wallpaperId)
+            }
             .distinctUntilChanged()
+            .flowOn(bgDispatcher)
+    // Colors extracted for a crop are stored by the client, keyed by wallpaper id and crop hints.
     val wallpaperColors: Flow<WallpaperColorsModel> =
         combine(storedWallpaperColors, subsamplingScaleImageViewModel, cropHints) {
-            storedColors,
+            (wallpaperId, storedColors),
             wallpaperViewModel,
             cropHints ->
             WallpaperColorsModel.Loaded(
                 if (cropHints == null) {
                     storedColors
                         ?: interactor.getWallpaperColors(
-                            wallpaperViewModel.rawWallpaperBitmap,
-                            null
+                            wallpaperViewModel.wallpaperBitmap,
+                            null,
+                            wallpaperId,
+                            wallpaperViewModel.rawWallpaperSize,
                         )
                 } else {
-                    interactor.getWallpaperColors(wallpaperViewModel.rawWallpaperBitmap, cropHints)
+                    interactor.getWallpaperColors(
+                        wallpaperViewModel.wallpaperBitmap,
+                        cropHints,
+                        wallpaperId,
+                        wallpaperViewModel.rawWallpaperSize,
+                    )
                 }
             )
         }
@@ -187,19 +205,42 @@ constructor(
         }
     }
 
-    // TODO b/296288298 Create a util class for Bitmap and Asset
-    private suspend fun Asset.decodeRawDimensions(): Point? =
-        suspendCancellableCoroutine { k: CancellableContinuation<Point?> ->
-            val callback = Asset.DimensionsReceiver { k.resumeWith(Result.success(it)) }
-            decodeRawDimensions(null, callback)
-        }
+    /**
+     * Decodes what the full resolution preview of [asset] needs: the whole image at [rawSize] if
+     * it's small or can't be tiled, or else a screen sized base layer to show while the tiles
+     * that are on screen are decoded from the asset.
+     */
+    private suspend fun decodeAssetDetail(asset: Asset, rawSize: Point): AssetDetail? {
+        val baseLayerSize =
+            context.resources.displayMetrics.let { min(it.widthPixels, it.heightPixels) }
+        val isTiled =
+            FullResImageViewUtil.shouldTile(asset.supportsTiling(), rawSize, baseLayerSize)
+        val bitmap =
+            if (isTiled) {
+                asset.decodeBitmap(
+                    baseLayerSize,
+                    baseLayerSize,
+                    /* hardwareBitmapAllowed= */ false,
+                    DecodePriority.IMMEDIATE,
+                )
+            } else {
+                asset.decodeBitmap(
+                    rawSize.x,
+                    rawSize.y,
+                    /* hardwareBitmapAllowed= */ false,
+                    DecodePriority.IMMEDIATE,
+                )
+            }
+        return bitmap?.let { AssetDetail(rawSize, it, asset, isTiled) }
+    }
 
-    // TODO b/296288298 Create a util class functions for Bitmap and Asset
-    private suspend fun Asset.decodeBitmap(dimensions: Point): Bitmap? =
-        suspendCancellableCoroutine { k: CancellableContinuation<Bitmap?> ->
-            val callback = Asset.BitmapReceiver { k.resumeWith(Result.success(it)) }
-            decodeBitmap(dimensions.x, dimensions.y, /* hardwareBitmapAllowed= */ false, callback)
-        }
+    private data class AssetDetail(
+        val rawSize: Point,
+        /** The whole image, downsampled to about the screen size if [isTiled]. */
+        val bitmap: Bitmap,
+        val asset: Asset,
+        val isTiled: Boolean,
+    )
 
     class Factory
     @Inject
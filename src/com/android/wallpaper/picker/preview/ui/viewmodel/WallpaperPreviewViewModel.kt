@@ -332,7 +332,7 @@ constructor(
                                     StyleEnums.SET_WALLPAPER_ENTRY_POINT_WALLPAPER_PREVIEW,
                                 destination = destination,
                                 wallpaperModel = wallpaper,
-                                bitmap = it.rawWallpaperBitmap,
+                                bitmap = it.wallpaperBitmap,
                                 wallpaperSize = it.rawWallpaperSize,
                                 asset = it.asset,
                                 fullPreviewCropModels =
@@ -18,28 +18,103 @@
 package com.android.wallpaper.picker.undo.data.repository
 
 import com.android.wallpaper.picker.undo.shared.model.RestorableSnapshot
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.update
 
-/** Encapsulates application state for the undo system. */
-class UndoRepository {
-    private val snapshotByOwnerId = mutableMapOf<Int, RestorableSnapshot>()
+/**
+ * Encapsulates application state for the undo system.
+ *
+ * Each area keeps the snapshot it started the session with and a bounded history of the snapshots
+ * stored since then, so that changes can be undone one step at a time. Areas are updated
+ * independently of each other and may be updated from any thread.
+ *
+ * @param maxStepsPerOwner the most steps kept for a single area, the oldest are dropped first.
+ * @param maxBytesPerOwner roughly how much memory the steps of a single area may take, the oldest
+ *   are dropped first. The most recent step is always kept.
+ */
+class UndoRepository(
+    private val maxStepsPerOwner: Int = MAX_STEPS_PER_OWNER,
+    private val maxBytesPerOwner: Int = MAX_BYTES_PER_OWNER,
+) {
+    /** Each history is immutable and replaced atomically, so that readers never need a lock. */
+    private val historyByOwnerId = ConcurrentHashMap<Int, History>()
     private val dirtyOwnerIds = MutableStateFlow(emptySet<Int>())
+    /** Orders steps across areas, so that [undo] knows which area changed last. */
+    private val nextSequence = AtomicLong()
 
     /** Whether any area is "dirty" right now (meaning, it could be undone). */
     val isAnythingDirty: Flow<Boolean> =
         dirtyOwnerIds.map { it.isNotEmpty() }.distinctUntilChanged()
 
-    /** Associates the given snapshot with the area with the given owner ID. */
+    /**
+     * Associates the given initial snapshot with the area with the given owner ID, dropping any
+     * steps stored before.
+     */
     fun putSnapshot(ownerId: Int, snapshot: RestorableSnapshot) {
-        snapshotByOwnerId[ownerId] = snapshot
+        historyByOwnerId[ownerId] = History(initial = snapshot)
     }
 
-    /** Returns the latest snapshot for the area with the given owner ID. */
+    /** Returns the initial snapshot for the area with the given owner ID. */
     fun getSnapshot(ownerId: Int): RestorableSnapshot? {
-        return snapshotByOwnerId[ownerId]
+        return historyByOwnerId[ownerId]?.initial
+    }
+
+    /**
+     * Returns the most recently stored snapshot for the area with the given owner ID, or its
+     * initial snapshot if nothing was stored since.
+     */
+    fun getLatestSnapshot(ownerId: Int): RestorableSnapshot? {
+        return historyByOwnerId[ownerId]?.latest
+    }
+
+    /**
+     * Stores the given snapshot as a new step for the area with the given owner ID, and marks the
+     * area as dirty if the snapshot differs from its initial one.
+     *
+     * Storing the same snapshot as the latest one adds no step, since there'd be nothing to undo.
+     */
+    fun pushSnapshot(ownerId: Int, snapshot: RestorableSnapshot) {
+        // Updating the dirty state inside compute() keeps it in order with the history.
+        historyByOwnerId.compute(ownerId) { _, history ->
+            val current = history ?: History(initial = null)
+            if (current.latest == snapshot) {
+                return@compute current
+            }
+            val step = Step(snapshot, nextSequence.incrementAndGet(), estimateSize(snapshot))
+            current.plus(step).trimmed().also { putDirty(ownerId, it.isDirty) }
+        }
+    }
+
+    /**
+     * Drops the latest step of the area with the given owner ID, updating whether the area is
+     * dirty, and returns the snapshot the area should be restored to, or `null` if there was no
+     * step to undo.
+     */
+    fun undo(ownerId: Int): RestorableSnapshot? {
+        var restoreTo: RestorableSnapshot? = null
+        historyByOwnerId.computeIfPresent(ownerId) { _, history ->
+            if (history.steps.isEmpty()) {
+                return@computeIfPresent history
+            }
+            history.minusLatest().also {
+                restoreTo = it.latest
+                putDirty(ownerId, it.isDirty)
+            }
+        }
+        return restoreTo
+    }
+
+    /** Returns the ID of the owner of the area with the most recent step, if any. */
+    fun getLastChangedOwnerId(): Int? {
+        return historyByOwnerId.entries
+            .filter { it.value.steps.isNotEmpty() }
+            .maxByOrNull { it.value.steps.last().sequence }
+            ?.key
     }
 
     /**
@@ -49,11 +124,7 @@ class UndoRepository {
      * does not currently have pending changes that can be undone.
      */
     fun putDirty(ownerId: Int, isDirty: Boolean) {
-        if (isDirty) {
-            dirtyOwnerIds.value = dirtyOwnerIds.value + setOf(ownerId)
-        } else {
-            dirtyOwnerIds.value = dirtyOwnerIds.value - setOf(ownerId)
-        }
+        dirtyOwnerIds.update { if (isDirty) it + ownerId else it - ownerId }
     }
 
     /**
@@ -64,8 +135,62 @@ class UndoRepository {
         return dirtyOwnerIds.value.toSet()
     }
 
-    /** Marks all areas as not dirty (meaning they can't be undone). */
+    /**
+     * Marks all areas as not dirty (meaning they can't be undone), dropping their steps but
+     * keeping their initial snapshots.
+     */
     fun clearAllDirty() {
+        historyByOwnerId.replaceAll { _, history -> History(initial = history.initial) }
         dirtyOwnerIds.value = emptySet()
     }
+
+    private fun History.trimmed(): History {
+        var steps = steps
+        var sizeBytes = sizeBytes
+        while (steps.size > 1 && (steps.size > maxStepsPerOwner || sizeBytes > maxBytesPerOwner)) {
+            sizeBytes -= steps.first().sizeBytes
+            steps = steps.drop(1)
+        }
+        return copy(steps = steps, sizeBytes = sizeBytes)
+    }
+
+    private data class History(
+        /** The snapshot the area started with, `null` if it was stored to before it was known. */
+        val initial: RestorableSnapshot?,
+        /** The stored steps, oldest first. */
+        val steps: List<Step> = emptyList(),
+        val sizeBytes: Int = 0,
+    ) {
+        val latest: RestorableSnapshot?
+            get() = if (steps.isEmpty()) initial else steps.last().snapshot
+
+        val isDirty: Boolean
+            get() = latest != initial
+
+        fun plus(step: Step): History =
+            copy(steps = steps + step, sizeBytes = sizeBytes + step.sizeBytes)
+
+        fun minusLatest(): History =
+            copy(steps = steps.dropLast(1), sizeBytes = sizeBytes - steps.last().sizeBytes)
+    }
+
+    private class Step(
+        val snapshot: RestorableSnapshot,
+        val sequence: Long,
+        val sizeBytes: Int,
+    )
+
+    companion object {
+        private const val MAX_STEPS_PER_OWNER = 20
+        private const val MAX_BYTES_PER_OWNER = 64 * 1024
+        /** A rough per-entry overhead of the map, its entry and the two string objects. */
+        private const val ENTRY_OVERHEAD_BYTES = 64
+
+        /** Estimates the memory taken by the given snapshot, counting UTF-16 chars as 2 bytes. */
+        private fun estimateSize(snapshot: RestorableSnapshot): Int {
+            return snapshot.args.entries.sumOf { (key, value) ->
+                ENTRY_OVERHEAD_BYTES + 2 * (key.length + value.length)
+            }
+        }
+    }
 }
@@ -42,7 +42,7 @@ import kotlinx.coroutines.launch
  * ```
  *    visible to the user.
  * ```
- * 4. Call [revertAll] when the user wishes to revert everything.
+ * 4. Call [undo] to revert the most recent change, or [revertAll] to revert everything.
  */
 class UndoInteractor(
     private val scope: CoroutineScope,
@@ -62,7 +62,7 @@ class UndoInteractor(
                     restorer.setUpSnapshotRestorer(
                         object : SnapshotStore {
                             override fun retrieve(): RestorableSnapshot {
-                                return repository.getSnapshot(ownerId)
+                                return repository.getLatestSnapshot(ownerId)
                                     ?: error(
                                         "No snapshot for this owner ID! Did you call this before" +
                                             " storing a snapshot?"
@@ -70,11 +70,7 @@ class UndoInteractor(
                             }
 
                             override fun store(snapshot: RestorableSnapshot) {
-                                val initialSnapshot = repository.getSnapshot(ownerId)
-                                repository.putDirty(
-                                    ownerId = ownerId,
-                                    isDirty = initialSnapshot != snapshot
-                                )
+                                repository.pushSnapshot(ownerId = ownerId, snapshot = snapshot)
                             }
                         }
                     )
@@ -87,6 +83,21 @@ class UndoInteractor(
         }
     }
 
+    /**
+     * Reverts the most recent change of any area to the snapshot stored before it.
+     *
+     * @return whether there was a change to revert.
+     */
+    fun undo(): Boolean {
+        val ownerId = repository.getLastChangedOwnerId() ?: return false
+        val snapshot = repository.undo(ownerId) ?: return false
+        val restorer = restorerByOwnerId[ownerId]
+        if (restorer != null) {
+            scope.launch { restorer.restoreToSnapshot(snapshot) }
+        }
+        return true
+    }
+
     /** Triggers a revert for all areas. */
     fun revertAll() {
         repository.getAllDirty().forEach { ownerId ->
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.graphics.Point
+import android.graphics.Rect
+import kotlin.math.ceil
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Util for moving crop hints, keyed by display size and relative to the raw wallpaper, onto
+ * bitmaps decoded from only part of the wallpaper or at a lower resolution.
+ */
+object CropHintsUtil {
+
+    /**
+     * Scales crop hints of a wallpaper of [wallpaperSize] to a bitmap of the whole wallpaper of
+     * [bitmapSize].
+     */
+    fun Map<Point, Rect>.scaledTo(bitmapSize: Point, wallpaperSize: Point): Map<Point, Rect> =
+        relativeTo(Rect(0, 0, wallpaperSize.x, wallpaperSize.y), bitmapSize)
+
+    /**
+     * Moves crop hints to be relative to a bitmap of [bitmapSize] decoded from [region] of the
+     * wallpaper, clamping them to the bitmap.
+     */
+    fun Map<Point, Rect>.relativeTo(region: Rect, bitmapSize: Point): Map<Point, Rect> {
+        if (region == Rect(0, 0, bitmapSize.x, bitmapSize.y)) {
+            return this
+        }
+        val scaleX = bitmapSize.x.toFloat() / region.width()
+        val scaleY = bitmapSize.y.toFloat() / region.height()
+        return mapValues { (_, cropHint) ->
+            Rect(
+                max(0, ((cropHint.left - region.left) * scaleX).toInt()),
+                max(0, ((cropHint.top - region.top) * scaleY).toInt()),
+                min(bitmapSize.x, ceil((cropHint.right - region.left) * scaleX).toInt()),
+                min(bitmapSize.y, ceil((cropHint.bottom - region.top) * scaleY).toInt()),
+            )
+        }
+    }
+
+    /**
+     * Returns the region of a wallpaper of [wallpaperSize] that covers every crop hint, or the
+     * whole wallpaper if there are no crop hints within it.
+     */
+    fun Map<Point, Rect>.coveringRegion(wallpaperSize: Point): Rect {
+        val region = Rect()
+        values.forEach { region.union(it) }
+        if (region.isEmpty || !region.intersect(0, 0, wallpaperSize.x, wallpaperSize.y)) {
+            region.set(0, 0, wallpaperSize.x, wallpaperSize.y)
+        }
+        return region
+    }
+
+    /**
+     * Returns the lowest scale, at most 1, at which every crop hint still has at least as many
+     * pixels as the display it's for. Returns 1 if there are no usable crop hints.
+     */
+    fun Map<Point, Rect>.displayScale(): Float {
+        var scale = 0f
+        forEach { (displaySize, cropHint) ->
+            if (!cropHint.isEmpty) {
+                scale =
+                    max(
+                        scale,
+                        max(
+                            displaySize.x.toFloat() / cropHint.width(),
+                            displaySize.y.toFloat() / cropHint.height(),
+                        ),
+                    )
+            }
+        }
+        return if (scale > 0f) min(scale, 1f) else 1f
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+/**
+ * Fixed-capacity buffer of primitive longs which keeps the most recently added values, dropping
+ * the oldest one when full. Adding and reading the last value are O(1).
+ *
+ * Not thread-safe; callers synchronize access themselves.
+ */
+class LongRingBuffer(val capacity: Int) {
+    private val values = LongArray(capacity)
+    private var start = 0
+
+    /** Number of values held, at most [capacity]. */
+    var size = 0
+        private set
+
+    init {
+        require(capacity > 0) { "Capacity must be positive: $capacity" }
+    }
+
+    /** Adds a value, dropping the oldest one if the buffer is full. */
+    fun add(value: Long) {
+        if (size < capacity) {
+            values[(start + size) % capacity] = value
+            size++
+        } else {
+            values[start] = value
+            start = (start + 1) % capacity
+        }
+    }
+
+    /** Returns the value at [index], 0 being the oldest value held. */
+    operator fun get(index: Int): Long {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index $index out of bounds for size $size")
+        }
+        return values[(start + index) % capacity]
+    }
+
+    /** Returns the most recently added value, or [defaultValue] if the buffer is empty. */
+    fun lastOrDefault(defaultValue: Long): Long =
+        if (size == 0) defaultValue else values[(start + size - 1) % capacity]
+
+    /**
+     * Returns the values within [[fromInclusive], [toExclusive]), from oldest to most recently
+     * added.
+     */
+    fun valuesInRange(fromInclusive: Long, toExclusive: Long): LongArray {
+        var count = 0
+        for (i in 0 until size) {
+            if (get(i) in fromInclusive until toExclusive) count++
+        }
+        val result = LongArray(count)
+        var next = 0
+        for (i in 0 until size) {
+            val value = get(i)
+            if (value in fromInclusive until toExclusive) result[next++] = value
+        }
+        return result
+    }
+
+    fun clear() {
+        start = 0
+        size = 0
+    }
+
+    /** Returns all values held, from oldest to most recently added. */
+    fun toLongArray(): LongArray = LongArray(size) { get(it) }
+
+    /**
+     * Encodes the values held as a version byte, the number of values and the oldest value,
+     * followed by the zigzag varint encoded difference of each value with the previous one.
+     * Timestamps a day or so apart take 4 bytes each rather than 8.
+     */
+    fun encode(): ByteArray {
+        val output = ByteArrayOutputStream(2 + size * 5)
+        output.write(FORMAT_VERSION)
+        writeVarLong(output, size.toLong())
+        var previous = 0L
+        for (i in 0 until size) {
+            val value = get(i)
+            writeVarLong(output, zigzag(value - previous))
+            previous = value
+        }
+        return output.toByteArray()
+    }
+
+    companion object {
+        private const val FORMAT_VERSION = 1
+
+        /**
+         * Decodes values written by [encode] into a buffer of the given capacity, which keeps the
+         * most recent ones if there are more.
+         *
+         * @throws IOException if the bytes aren't a valid encoding.
+         */
+        @Throws(IOException::class)
+        fun decode(bytes: ByteArray, capacity: Int): LongRingBuffer {
+            val buffer = LongRingBuffer(capacity)
+            if (bytes.isEmpty() || bytes[0].toInt() != FORMAT_VERSION) {
+                throw IOException("Unsupported ring buffer format")
+            }
+            val position = intArrayOf(1)
+            val count = readVarLong(bytes, position)
+            var previous = 0L
+            for (i in 0 until count) {
+                previous += unzigzag(readVarLong(bytes, position))
+                buffer.add(previous)
+            }
+            return buffer
+        }
+
+        private fun zigzag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+        private fun unzigzag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+        private fun writeVarLong(output: ByteArrayOutputStream, value: Long) {
+            var remaining = value
+            while (remaining and 0x7FL.inv() != 0L) {
+                output.write(((remaining and 0x7F) or 0x80).toInt())
+                remaining = remaining ushr 7
+            }
+            output.write(remaining.toInt())
+        }
+
+        private fun readVarLong(bytes: ByteArray, position: IntArray): Long {
+            var result = 0L
+            var shift = 0
+            while (shift < 64) {
+                if (position[0] >= bytes.size) {
+                    throw IOException("Truncated ring buffer")
+                }
+                val byte = bytes[position[0]++].toInt()
+                result = result or ((byte and 0x7F).toLong() shl shift)
+                if (byte and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+            throw IOException("Malformed varint")
+        }
+    }
+}
@@ -26,7 +26,9 @@ import android.os.Handler
 import android.os.Looper
 import android.os.Message
 import android.text.TextUtils
-import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 
 /** Util class for wallpaper preview. */
 class PreviewUtils(
@@ -40,6 +42,15 @@ class PreviewUtils(
         fun onPreviewRendered(resultBundle: Bundle?)
     }
 
+    /** A request to render a preview, which may still be waiting for the provider. */
+    fun interface PendingRender {
+        /**
+         * Drops the request: its callback won't be called, and the preview is cleaned up on the
+         * renderer side if nothing else requested it.
+         */
+        fun cancel()
+    }
+
     private var providerInfo: ProviderInfo?
 
     constructor(
@@ -80,20 +91,20 @@ class PreviewUtils(
     /**
      * Render preview under the current grid option.
      *
+     * Requests with the same options as one that is still waiting for the provider share its
+     * result, since both are for the same surface.
+     *
      * @param bundle request options to pass on the call.
      * @param callback to receive the results, it will be called on the main thread.
+     * @return the pending request, to cancel it once its result isn't needed anymore.
      */
-    fun renderPreview(bundle: Bundle?, callback: WorkspacePreviewCallback) {
-        EXECUTOR_SERVICE.submit {
-            val result =
-                context.contentResolver.call(
-                    getUri(PREVIEW),
-                    METHOD_GET_PREVIEW,
-                    null,
-                    bundle,
-                )
-            Handler(Looper.getMainLooper()).post { callback.onPreviewRendered(result) }
-        }
+    fun renderPreview(bundle: Bundle?, callback: WorkspacePreviewCallback): PendingRender {
+        val uri = getUri(PREVIEW)
+        return SCHEDULER.schedule(
+            key = listOf(uri, bundle?.toRenderKey()),
+            call = { context.contentResolver.call(uri, METHOD_GET_PREVIEW, null, bundle) },
+            callback = callback,
+        )
     }
 
     /** Cleans up the preview on the renderer side */
@@ -119,7 +130,28 @@ class PreviewUtils(
     companion object {
         private const val PREVIEW = "preview"
         private const val METHOD_GET_PREVIEW = "get_preview"
-        private val EXECUTOR_SERVICE = Executors.newSingleThreadExecutor()
+        /** Home and lock previews of every display size can render at once. */
+        private const val MAX_CONCURRENT_RENDERS = 4
+        private const val IDLE_THREAD_TIMEOUT_SECONDS = 10L
+        private val SCHEDULER =
+            WorkspacePreviewScheduler(
+                ThreadPoolExecutor(
+                        MAX_CONCURRENT_RENDERS,
+                        MAX_CONCURRENT_RENDERS,
+                        IDLE_THREAD_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS,
+                        LinkedBlockingQueue(),
+                    )
+                    .apply { allowCoreThreadTimeOut(true) },
+                Handler(Looper.getMainLooper()),
+            )
+
+        /**
+         * Returns the contents of a request, which are equal for requests of the same surface,
+         * size and options: binders such as the host token are only equal to themselves.
+         */
+        @Suppress("DEPRECATION")
+        private fun Bundle.toRenderKey(): Map<String, Any?> = keySet().associateWith { get(it) }
 
         private fun homeAuthority(context: Context, authorityMetadataKey: String): String? {
             val homeIntent = Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME)
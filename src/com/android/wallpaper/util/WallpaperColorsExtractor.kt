@@ -17,16 +17,26 @@ package com.android.wallpaper.util
 
 import android.app.WallpaperColors
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
-import android.graphics.ColorSpace
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
 import android.os.Handler
-import java.io.ByteArrayOutputStream
+import android.os.SystemClock
+import android.util.LruCache
+import androidx.annotation.VisibleForTesting
+import com.android.wallpaper.module.InjectorProvider
+import java.util.ArrayDeque
 import java.util.concurrent.Executor
 import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.max
+import kotlin.math.sqrt
 
 /**
  * Wallpaper color extractor. Instantiate it with a proper handler. We usually use the main thread
  * handler, so we can change UI accordingly when colors are extracted.
+ *
+ * Colors are extracted from a small sRGB copy of the wallpaper, drawn into a pooled scratch bitmap,
+ * which is the resolution [WallpaperColors.fromBitmap] would downscale to anyway.
  */
 class WallpaperColorsExtractor(
     private val mExecutor: Executor,
@@ -34,40 +44,158 @@ class WallpaperColorsExtractor(
 ) {
     private val mCurrentTaskId = AtomicInteger(0)
 
+    /** Identifies the colors of a wallpaper shown with a given crop. */
+    class CacheKey(private val wallpaperId: String, crop: Rect?) {
+        // Copied since rects are mutable and callers tend to reuse them.
+        private val crop: Rect? = crop?.let { Rect(it) }
+
+        override fun equals(other: Any?): Boolean =
+            other is CacheKey && wallpaperId == other.wallpaperId && crop == other.crop
+
+        override fun hashCode(): Int = 31 * wallpaperId.hashCode() + (crop?.hashCode() ?: 0)
+    }
+
     /**
      * Extracts wallpaper colors. Noticed that when there are consecutive calls, only the results
-     * from the latest call will be posted. This is done by an incremental [mCurrentTaskId] to
-     * identify if a task id is still the latest, right before posting the results.
+     * from the latest call will be posted.
      */
     fun extractWallpaperColors(
         wallpaperBitmap: Bitmap,
         onColorsExtractedListener: OnColorsExtractedListener
     ) {
-        mExecutor.execute {
-            val taskId = mCurrentTaskId.incrementAndGet()
-
-            val tmpOut = ByteArrayOutputStream()
-            var shouldRecycle = false
-            var cropped = wallpaperBitmap
-            if (cropped.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
-                val outByteArray = tmpOut.toByteArray()
-                val options = BitmapFactory.Options()
-                options.inPreferredColorSpace = ColorSpace.get(ColorSpace.Named.SRGB)
-                cropped = BitmapFactory.decodeByteArray(outByteArray, 0, outByteArray.size)
-            }
-            if (cropped.config == Bitmap.Config.HARDWARE) {
-                cropped = cropped.copy(Bitmap.Config.ARGB_8888, false)
-                shouldRecycle = true
+        extractWallpaperColors(wallpaperBitmap, null, onColorsExtractedListener)
+    }
+
+    /**
+     * Extracts wallpaper colors, reusing the colors last extracted for the same [cacheKey] if any.
+     *
+     * Every call supersedes the previous ones: tasks which haven't started yet by then are skipped
+     * entirely, and tasks already running stop at their next step without posting results.
+     */
+    fun extractWallpaperColors(
+        wallpaperBitmap: Bitmap,
+        cacheKey: CacheKey?,
+        onColorsExtractedListener: OnColorsExtractedListener
+    ) {
+        val taskId = mCurrentTaskId.incrementAndGet()
+        val isSuperseded = { taskId != mCurrentTaskId.get() }
+
+        val cachedColors = cacheKey?.let { sColorsCache.get(it) }
+        if (cachedColors != null) {
+            mResultHandler.post {
+                if (!isSuperseded()) {
+                    onColorsExtractedListener.onColorsExtracted(cachedColors)
+                }
             }
-            val colors = WallpaperColors.fromBitmap(cropped)
-            if (shouldRecycle) {
-                cropped.recycle()
+            return
+        }
+
+        mExecutor.execute {
+            if (isSuperseded()) {
+                return@execute
             }
+            val startTime = SystemClock.elapsedRealtimeNanos()
+            val colors = extractColors(wallpaperBitmap, isSuperseded) ?: return@execute
+            InjectorProvider.getInjector()
+                ?.getPerformanceMonitor()
+                ?.recordColorExtraction(SystemClock.elapsedRealtimeNanos() - startTime)
+            cacheKey?.let { sColorsCache.put(it, colors) }
             // This makes sure that the listener only listen to the latest results, when multiple
             // extractWallpaperColors tasks are executed.
-            if (taskId == mCurrentTaskId.get()) {
-                mResultHandler.post { onColorsExtractedListener.onColorsExtracted(colors) }
+            mResultHandler.post {
+                if (!isSuperseded()) {
+                    onColorsExtractedListener.onColorsExtracted(colors)
+                }
+            }
+        }
+    }
+
+    companion object {
+        /** Area [WallpaperColors.fromBitmap] downscales larger bitmaps to before quantizing. */
+        @VisibleForTesting const val MAX_EXTRACTION_AREA = 112 * 112
+
+        private const val MAX_POOLED_SCRATCHES = 2
+        private const val MAX_CACHED_COLORS = 32
+
+        private val sScratchPool = ArrayDeque<Scratch>()
+        private val sColorsCache = LruCache<CacheKey, WallpaperColors>(MAX_CACHED_COLORS)
+
+        /**
+         * Extracts the colors of the given bitmap without copying it at full resolution, unless it
+         * is a hardware bitmap, which can't be drawn in software.
+         *
+         * @param isCanceled checked between steps, returns null as soon as it returns true.
+         */
+        @VisibleForTesting
+        fun extractColors(
+            bitmap: Bitmap,
+            isCanceled: () -> Boolean = { false },
+        ): WallpaperColors? {
+            var source = bitmap
+            if (source.config == Bitmap.Config.HARDWARE) {
+                source = source.copy(Bitmap.Config.ARGB_8888, false) ?: return null
+            }
+            val scratch = acquireScratch()
+            try {
+                if (isCanceled()) {
+                    return null
+                }
+                scratch.draw(source)
+                return if (isCanceled()) null else WallpaperColors.fromBitmap(scratch.bitmap)
+            } finally {
+                releaseScratch(scratch)
+                if (source !== bitmap) {
+                    source.recycle()
+                }
+            }
+        }
+
+        /** Returns the size the given dimensions are scaled to for extraction. */
+        @VisibleForTesting
+        fun calculateExtractionSize(width: Int, height: Int): Pair<Int, Int> {
+            val area = width.toLong() * height
+            if (area <= MAX_EXTRACTION_AREA) {
+                return Pair(width, height)
             }
+            val scale = sqrt(MAX_EXTRACTION_AREA.toDouble() / area)
+            return Pair(max(1, (width * scale).toInt()), max(1, (height * scale).toInt()))
+        }
+
+        private fun acquireScratch(): Scratch =
+            synchronized(sScratchPool) { sScratchPool.pollFirst() } ?: Scratch()
+
+        private fun releaseScratch(scratch: Scratch) {
+            synchronized(sScratchPool) {
+                if (sScratchPool.size < MAX_POOLED_SCRATCHES) {
+                    sScratchPool.addFirst(scratch)
+                    return
+                }
+            }
+            scratch.bitmap.recycle()
+        }
+    }
+
+    /**
+     * An sRGB bitmap large enough for any extraction size, reconfigured to the exact size of each
+     * extraction so that [WallpaperColors.fromBitmap] doesn't need to scale it again.
+     */
+    private class Scratch {
+        val bitmap: Bitmap = Bitmap.createBitmap(MAX_EXTRACTION_AREA, 1, Bitmap.Config.ARGB_8888)
+        private val canvas = Canvas()
+        private val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+        private val srcRect = Rect()
+        private val dstRect = Rect()
+
+        fun draw(source: Bitmap) {
+            val (width, height) = calculateExtractionSize(source.width, source.height)
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888)
+            bitmap.eraseColor(0)
+            canvas.setBitmap(bitmap)
+            srcRect.set(0, 0, source.width, source.height)
+            dstRect.set(0, 0, width, height)
+            // Drawing converts from the source's color space into the scratch's sRGB.
+            canvas.drawBitmap(source, srcRect, dstRect, paint)
+            canvas.setBitmap(null)
         }
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.os.Bundle
+import android.os.Handler
+import android.os.RemoteException
+import android.os.SystemClock
+import android.util.Log
+import androidx.annotation.GuardedBy
+import com.android.wallpaper.module.InjectorProvider
+import java.util.concurrent.Executor
+
+/**
+ * Runs the provider calls that render workspace previews, independent ones in parallel.
+ *
+ * A request with the same key as one whose call hasn't returned yet joins that call instead of
+ * making another one, since the renderer would only build the same preview again. A request
+ * cancelled before its call starts never makes it, and the preview of a call whose requests were
+ * all cancelled is cleaned up on the renderer side as soon as it arrives.
+ */
+internal class WorkspacePreviewScheduler(
+    private val executor: Executor,
+    private val mainHandler: Handler,
+) {
+
+    private val lock = Any()
+    @GuardedBy("lock") private val pendingRenders = HashMap<Any, Render>()
+
+    /**
+     * Schedules a render, which [call]s the provider unless an identical render is pending.
+     *
+     * @param key identifies renders that produce the same preview.
+     * @param callback called on the main thread with the result, unless cancelled first.
+     */
+    fun schedule(
+        key: Any,
+        call: () -> Bundle?,
+        callback: PreviewUtils.WorkspacePreviewCallback,
+    ): PreviewUtils.PendingRender {
+        val request = Request(callback, SystemClock.elapsedRealtime())
+        synchronized(lock) {
+            val pendingRender = pendingRenders[key]
+            if (pendingRender != null) {
+                request.isMerged = true
+                pendingRender.requests.add(request)
+                return PreviewUtils.PendingRender { cancel(pendingRender, request) }
+            }
+            val render = Render(key, call)
+            render.requests.add(request)
+            pendingRenders[key] = render
+            executor.execute(render)
+            return PreviewUtils.PendingRender { cancel(render, request) }
+        }
+    }
+
+    private fun cancel(render: Render, request: Request) {
+        synchronized(lock) {
+            if (render.isDone) {
+                return
+            }
+            if (!render.requests.remove(request) || render.requests.isNotEmpty()) {
+                return
+            }
+            if (!render.isStarted) {
+                // Nobody is waiting for it anymore, skip the call altogether.
+                render.isCancelled = true
+                pendingRenders.remove(render.key)
+            }
+        }
+    }
+
+    private fun deliver(render: Render, result: Bundle?) {
+        val requests = synchronized(lock) { render.requests.toList().also { render.isDone = true } }
+        if (requests.isEmpty()) {
+            cleanUpUnused(result)
+            return
+        }
+        val monitor = InjectorProvider.getInjector()?.getPerformanceMonitor()
+        val now = SystemClock.elapsedRealtime()
+        requests.forEach { request ->
+            monitor?.recordWorkspacePreviewRender(now - request.requestTime, request.isMerged)
+            request.callback.onPreviewRendered(result)
+        }
+    }
+
+    private fun cleanUpUnused(result: Bundle?) {
+        result ?: return
+        SurfaceViewUtils.getSurfacePackage(result)?.release()
+        val callback = SurfaceViewUtils.getCallback(result) ?: return
+        try {
+            // Sending back the callback message asks the renderer to dispose of the preview.
+            callback.replyTo?.send(callback)
+        } catch (e: RemoteException) {
+            Log.w(TAG, "Couldn't clean up an unused workspace preview", e)
+        }
+    }
+
+    private class Request(
+        val callback: PreviewUtils.WorkspacePreviewCallback,
+        val requestTime: Long,
+    ) {
+        /** Whether this request joined a render scheduled by an earlier one. */
+        var isMerged = false
+    }
+
+    private inner class Render(val key: Any, private val call: () -> Bundle?) : Runnable {
+        @GuardedBy("lock") val requests = mutableListOf<Request>()
+        @GuardedBy("lock") var isStarted = false
+        @GuardedBy("lock") var isCancelled = false
+        /** Whether the result was handed out, after which cancelling has no effect. */
+        @GuardedBy("lock") var isDone = false
+
+        override fun run() {
+            synchronized(lock) {
+                if (isCancelled) {
+                    return
+                }
+                isStarted = true
+            }
+            val result =
+                try {
+                    call()
+                } catch (e: RuntimeException) {
+                    Log.w(TAG, "Couldn't render workspace preview", e)
+                    null
+                }
+            synchronized(lock) {
+                // Later requests need a new call, this one's result may already be in use.
+                if (pendingRenders[key] === this) {
+                    pendingRenders.remove(key)
+                }
+            }
+            mainHandler.post { deliver(this, result) }
+        }
+    }
+
+    private companion object {
+        const val TAG = "WorkspacePreviewSched"
+    }
+}
@@ -9,7 +9,10 @@ import android.content.ServiceConnection
 import android.graphics.Matrix
 import android.graphics.Point
 import android.net.Uri
+import android.os.Handler
+import android.os.Looper
 import android.os.RemoteException
+import android.os.SystemClock
 import android.service.wallpaper.IWallpaperEngine
 import android.service.wallpaper.IWallpaperService
 import android.service.wallpaper.WallpaperService
@@ -19,14 +22,14 @@ import android.view.SurfaceControl
 import android.view.SurfaceView
 import com.android.app.tracing.TraceUtils.traceAsync
 import com.android.wallpaper.model.wallpaper.DeviceDisplayType
+import com.android.wallpaper.module.InjectorProvider
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.util.WallpaperConnection
 import com.android.wallpaper.util.WallpaperConnection.WhichPreview
 import java.util.concurrent.ConcurrentHashMap
 import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Deferred
-import kotlinx.coroutines.async
-import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
@@ -35,9 +38,18 @@ object WallpaperConnectionUtils {
 
     const val TAG = "WallpaperConnectionUtils"
 
+    /** Enough for a couple of live wallpapers on both displays of a foldable. */
+    private const val MAX_WARM_ENGINES = 4
+    private const val WARM_ENGINE_IDLE_TIMEOUT_MILLIS = 30_000L
+
     // engineMap and surfaceControlMap are used for disconnecting wallpaper services.
     private val engineMap =
         ConcurrentHashMap<String, Deferred<Pair<ServiceConnection, WallpaperEngineConnection>>>()
+    // Each engine is bound and released under a lock of its own key, so that independent engines,
+    // e.g. the ones previewing a wallpaper on each display, bind their services in parallel.
+    private val engineMutexes = ConcurrentHashMap<String, Mutex>()
+    // Engines put aside by disconnectAllServices, to be reused if their wallpaper comes back.
+    private var warmEngines: WarmEnginePool<WarmEngine>? = null
     // Note that when one wallpaper engine's render is mirrored to a new surface view, we call
     // engine.mirrorSurfaceControl() and will have a new surface control instance.
     private val surfaceControlMap = mutableMapOf<String, MutableList<SurfaceControl>>()
@@ -80,12 +92,16 @@ object WallpaperConnectionUtils {
             }
 
             if (!engineMap.containsKey(engineKey)) {
-                mutex.withLock {
+                getEngineMutex(engineKey).withLock {
                     if (!engineMap.containsKey(engineKey)) {
-                        engineMap[engineKey] = coroutineScope {
-                            async {
-                                initEngine(
+                        val warmEngine = warmEngines?.take(engineKey)
+                        val engine =
+                            warmEngine?.let {
+                                resumeEngine(engineKey, it, whichPreview, listener)
+                            }
+                                ?: initEngine(
                                     context,
+                                    engineKey,
                                     wallpaperModel.getWallpaperServiceIntent(),
                                     engineDisplaySize,
                                     destinationFlag,
@@ -93,8 +109,7 @@ object WallpaperConnectionUtils {
                                     surfaceView,
                                     listener,
                                 )
-                            }
-                        }
+                        engineMap[engineKey] = CompletableDeferred(engine)
                     }
                 }
             }
@@ -121,15 +136,11 @@ object WallpaperConnectionUtils {
         val engineKey = wallpaperModel.liveWallpaperData.systemWallpaperInfo.getKey(displaySize)
 
         traceAsync(TAG, "disconnect") {
-            if (engineMap.containsKey(engineKey)) {
-                mutex.withLock {
-                    engineMap.remove(engineKey)?.await()?.let {
-                        (serviceConnection, engineConnection) ->
-                        engineConnection.engine?.destroy()
-                        engineConnection.removeListener()
-                        context.unbindService(serviceConnection)
-                    }
+            getEngineMutex(engineKey).withLock {
+                engineMap.remove(engineKey)?.await()?.let { (serviceConnection, engineConnection) ->
+                    releaseEngine(context, serviceConnection, engineConnection)
                 }
+                warmEngines?.evict(engineKey)
             }
 
             if (surfaceControlMap.containsKey(engineKey)) {
@@ -159,14 +170,23 @@ object WallpaperConnectionUtils {
      * disconnect the live wallpaper services to have the static wallpapers show up. But we can not
      * clear the surface controls yet, because we will need them to render the live wallpapers again
      * when switching from static to live wallpapers again.
+     *
+     * The engines are hidden and kept warm for a while rather than destroyed, so that switching
+     * back to one of these live wallpapers doesn't need to bind its service again.
      */
     suspend fun disconnectAllServices(context: Context) {
-        engineMap.keys.map { key ->
-            mutex.withLock {
+        val warmEngines = getWarmEngines(context)
+        engineMap.keys.forEach { key ->
+            getEngineMutex(key).withLock {
                 engineMap.remove(key)?.await()?.let { (serviceConnection, engineConnection) ->
-                    engineConnection.engine?.destroy()
-                    engineConnection.removeListener()
-                    context.unbindService(serviceConnection)
+                    if (hideEngine(key, engineConnection)) {
+                        warmEngines.put(
+                            key,
+                            WarmEngine(context, serviceConnection, engineConnection),
+                        )
+                    } else {
+                        releaseEngine(context, serviceConnection, engineConnection)
+                    }
                 }
             }
         }
@@ -221,6 +241,7 @@ object WallpaperConnectionUtils {
 
     private suspend fun initEngine(
         context: Context,
+        engineKey: String,
         wallpaperIntent: Intent,
         displayMetrics: Point,
         destinationFlag: Int,
@@ -228,15 +249,110 @@ object WallpaperConnectionUtils {
         surfaceView: SurfaceView,
         listener: WallpaperEngineConnection.WallpaperEngineConnectionListener?,
     ): Pair<ServiceConnection, WallpaperEngineConnection> {
+        val startTime = SystemClock.elapsedRealtime()
         // Bind service and get service connection and wallpaper service
         val (serviceConnection, wallpaperService) = bindWallpaperService(context, wallpaperIntent)
+        val bindMillis = SystemClock.elapsedRealtime() - startTime
         val engineConnection = WallpaperEngineConnection(displayMetrics, whichPreview)
         listener?.let { engineConnection.setListener(it) }
-        // Attach wallpaper connection to service and get wallpaper engine
+        // Attach wallpaper connection to service and get wallpaper engine, which returns once the
+        // engine has shown its first frame.
         engineConnection.getEngine(wallpaperService, destinationFlag, surfaceView)
+        InjectorProvider.getInjector()
+            ?.getPerformanceMonitor()
+            ?.recordLiveWallpaperEngineConnect(
+                engineKey,
+                bindMillis,
+                SystemClock.elapsedRealtime() - startTime,
+                /* warm= */ false,
+            )
+        return Pair(serviceConnection, engineConnection)
+    }
+
+    /**
+     * Shows a warm engine again for [whichPreview] and hands it to [listener], or releases it and
+     * returns null if its wallpaper service is gone.
+     */
+    private fun resumeEngine(
+        engineKey: String,
+        warmEngine: WarmEngine,
+        whichPreview: WhichPreview,
+        listener: WallpaperEngineConnection.WallpaperEngineConnectionListener?,
+    ): Pair<ServiceConnection, WallpaperEngineConnection>? {
+        val (context, serviceConnection, engineConnection) = warmEngine
+        try {
+            engineConnection.engine ?: return null
+            listener?.let { engineConnection.setListener(it) }
+            engineConnection.resume(whichPreview)
+        } catch (e: RemoteException) {
+            Log.w(TAG, "Warm wallpaper engine is gone, binding it again", e)
+            releaseEngine(context, serviceConnection, engineConnection)
+            return null
+        }
+        InjectorProvider.getInjector()
+            ?.getPerformanceMonitor()
+            ?.recordLiveWallpaperEngineConnect(engineKey, 0L, 0L, /* warm= */ true)
         return Pair(serviceConnection, engineConnection)
     }
 
+    /**
+     * Stops the engine from drawing and hides its mirrored surfaces, returning whether it can be
+     * kept warm.
+     */
+    private suspend fun hideEngine(
+        engineKey: String,
+        engineConnection: WallpaperEngineConnection,
+    ): Boolean {
+        engineConnection.removeListener()
+        try {
+            engineConnection.engine?.setVisibility(false) ?: return false
+        } catch (e: RemoteException) {
+            return false
+        }
+        mutex.withLock {
+            surfaceControlMap[engineKey]?.let { surfaceControls ->
+                SurfaceControl.Transaction().use { t ->
+                    surfaceControls.forEach { t.hide(it) }
+                    t.apply()
+                }
+            }
+        }
+        return true
+    }
+
+    private fun releaseEngine(
+        context: Context,
+        serviceConnection: ServiceConnection,
+        engineConnection: WallpaperEngineConnection,
+    ) {
+        try {
+            engineConnection.engine?.destroy()
+        } catch (e: RemoteException) {
+            Log.w(TAG, "Fail to destroy wallpaper engine", e)
+        }
+        engineConnection.removeListener()
+        context.unbindService(serviceConnection)
+    }
+
+    private fun getEngineMutex(engineKey: String): Mutex =
+        engineMutexes.getOrPut(engineKey) { Mutex() }
+
+    @Synchronized
+    private fun getWarmEngines(context: Context): WarmEnginePool<WarmEngine> =
+        warmEngines
+            ?: WarmEnginePool<WarmEngine>(
+                    maxSize = MAX_WARM_ENGINES,
+                    idleTimeoutMillis = WARM_ENGINE_IDLE_TIMEOUT_MILLIS,
+                    handler = Handler(Looper.getMainLooper()),
+                    release = {
+                        releaseEngine(it.context, it.serviceConnection, it.engineConnection)
+                    },
+                )
+                .also {
+                    context.applicationContext.registerComponentCallbacks(it)
+                    warmEngines = it
+                }
+
     private fun WallpaperInfo.getKey(displaySize: Point? = null): String {
         val keyWithoutSizeInformation = this.packageName.plus(":").plus(this.serviceName)
         return if (displaySize != null) {
@@ -342,6 +458,12 @@ object WallpaperConnectionUtils {
         return values
     }
 
+    private data class WarmEngine(
+        val context: Context,
+        val serviceConnection: ServiceConnection,
+        val engineConnection: WallpaperEngineConnection,
+    )
+
     data class EngineRenderingConfig(
         val enforceSingleEngine: Boolean,
         val deviceDisplayType: DeviceDisplayType,
@@ -23,7 +23,7 @@ import kotlinx.coroutines.suspendCancellableCoroutine
 
 class WallpaperEngineConnection(
     private val displayMetrics: Point,
-    private val whichPreview: WhichPreview,
+    private var whichPreview: WhichPreview,
 ) : IWallpaperConnection.Stub() {
 
     var engine: IWallpaperEngine? = null
@@ -59,6 +59,23 @@ class WallpaperEngineConnection(
         }
     }
 
+    /**
+     * Shows the engine again after it was hidden, sending it the preview size and info it gets when
+     * first attached, since the preview it's resumed for may differ from the one it was hidden in.
+     *
+     * @throws RemoteException if the engine is gone.
+     */
+    fun resume(whichPreview: WhichPreview) {
+        this.whichPreview = whichPreview
+        engine?.apply {
+            setVisibility(true)
+            resizePreview(Rect(0, 0, displayMetrics.x, displayMetrics.y))
+            dispatchWallpaperCommand(this)
+            // The colors were reported to the previous listener, ask for them again.
+            requestWallpaperColors()
+        }
+    }
+
     override fun engineShown(engine: IWallpaperEngine?) {
         if (engine != null) {
             dispatchWallpaperCommand(engine)
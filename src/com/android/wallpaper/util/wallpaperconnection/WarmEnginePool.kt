@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util.wallpaperconnection
+
+import android.content.ComponentCallbacks2
+import android.content.res.Configuration
+import android.os.Handler
+import androidx.annotation.GuardedBy
+
+/**
+ * Keeps the most recently parked engines alive, so that going back to a live wallpaper doesn't
+ * need to bind its service and wait for its first frame again.
+ *
+ * At most [maxSize] engines are kept, the least recently parked one being released first. An
+ * engine that isn't taken back within [idleTimeoutMillis] is released, and so is every engine once
+ * the system runs low on memory.
+ *
+ * @param release called on an evicted engine, never while holding the pool's lock.
+ */
+internal class WarmEnginePool<T : Any>(
+    private val maxSize: Int,
+    private val idleTimeoutMillis: Long,
+    private val handler: Handler,
+    private val release: (T) -> Unit,
+) : ComponentCallbacks2 {
+
+    private val lock = Any()
+    /** In the order they were parked, the least recently parked first. */
+    @GuardedBy("lock") private val entries = LinkedHashMap<String, Entry>()
+
+    /** Parks [engine], releasing whatever engine was already parked under the same [key]. */
+    fun put(key: String, engine: T) {
+        val evicted = mutableListOf<T>()
+        val entry = Entry(engine)
+        synchronized(lock) {
+            entries.remove(key)?.let { evicted.add(remove(it)) }
+            entries[key] = entry
+            val iterator = entries.values.iterator()
+            while (entries.size > maxSize && iterator.hasNext()) {
+                evicted.add(remove(iterator.next()))
+                iterator.remove()
+            }
+        }
+        handler.postDelayed(entry.timeout, idleTimeoutMillis)
+        evicted.forEach(release)
+    }
+
+    /** Removes the engine parked under [key] and hands it back, or returns null if none is. */
+    fun take(key: String): T? = synchronized(lock) { entries.remove(key)?.let(::remove) }
+
+    /** Releases the engine parked under [key], if any. */
+    fun evict(key: String) {
+        take(key)?.let(release)
+    }
+
+    /** Releases every parked engine. */
+    fun evictAll() {
+        val evicted = synchronized(lock) { entries.values.map(::remove).also { entries.clear() } }
+        evicted.forEach(release)
+    }
+
+    val size: Int
+        get() = synchronized(lock) { entries.size }
+
+    override fun onTrimMemory(level: Int) {
+        // Warm engines live in other processes, but their surfaces count against our budget.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            evictAll()
+        }
+    }
+
+    override fun onLowMemory() {
+        evictAll()
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {}
+
+    @GuardedBy("lock")
+    private fun remove(entry: Entry): T {
+        handler.removeCallbacks(entry.timeout)
+        return entry.engine
+    }
+
+    private inner class Entry(val engine: T) {
+        val timeout = Runnable {
+            // Taken back or replaced already if it isn't in the pool anymore.
+            val isParked = synchronized(lock) { entries.values.removeIf { it === this } }
+            if (isParked) {
+                release(engine)
+            }
+        }
+    }
+}
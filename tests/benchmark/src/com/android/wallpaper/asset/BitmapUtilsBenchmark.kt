@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Point
+import android.graphics.Rect
+import android.media.ExifInterface
+import com.android.wallpaper.benchmark.BenchmarkImages
+import com.android.wallpaper.benchmark.BenchmarkRule
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+/**
+ * Benchmarks the bitmap math of [BitmapUtils] and [CropRectRotator]. Runs with native graphics so
+ * that hashing reflects real Skia work.
+ */
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class BitmapUtilsBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun calculateInSampleSize() {
+        assertThat(BitmapUtils.calculateInSampleSize(4000, 3000, 1080, 720)).isEqualTo(2)
+
+        var target = 0
+        benchmarkRule.measure("calculateInSampleSize", OPS_PER_SAMPLE) {
+            // Vary the target so that the loop in calculateInSampleSize runs a varying number of
+            // times, as it does for the different views of the picker.
+            target = (target + 1) % 2048
+            BitmapUtils.calculateInSampleSize(4000, 3000, target + 1, target + 1)
+        }
+    }
+
+    @Test
+    fun generateHashCode_12mp() {
+        val bitmap = BenchmarkImages.createWallpaperBitmap(4000, 3000)
+
+        benchmarkRule.measure("generateHashCode_12mp") { BitmapUtils.generateHashCode(bitmap) }
+    }
+
+    @Test
+    fun generateHashCode_thumbnail() {
+        val bitmap = BenchmarkImages.createWallpaperBitmap(360, 640)
+
+        benchmarkRule.measure("generateHashCode_thumbnail") {
+            BitmapUtils.generateHashCode(bitmap)
+        }
+    }
+
+    @Test
+    fun rotateCropRectForExifOrientation() {
+        val dimensions = Point(4000, 3000)
+        val cropRect = Rect(500, 250, 1580, 2590)
+        assertThat(
+                CropRectRotator.rotateCropRectForExifOrientation(
+                    dimensions,
+                    cropRect,
+                    ExifInterface.ORIENTATION_ROTATE_180,
+                )
+            )
+            .isEqualTo(Rect(2420, 410, 3500, 2750))
+
+        var index = 0
+        benchmarkRule.measure("rotateCropRectForExifOrientation", OPS_PER_SAMPLE) {
+            index = (index + 1) % ORIENTATIONS.size
+            CropRectRotator.rotateCropRectForExifOrientation(
+                dimensions,
+                cropRect,
+                ORIENTATIONS[index],
+            )
+        }
+    }
+
+    private companion object {
+        const val OPS_PER_SAMPLE = 10_000
+        val ORIENTATIONS =
+            intArrayOf(
+                ExifInterface.ORIENTATION_NORMAL,
+                ExifInterface.ORIENTATION_ROTATE_90,
+                ExifInterface.ORIENTATION_ROTATE_180,
+                ExifInterface.ORIENTATION_ROTATE_270,
+            )
+    }
+}
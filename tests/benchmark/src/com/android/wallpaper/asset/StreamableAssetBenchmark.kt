@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Point
+import android.graphics.Rect
+import com.android.wallpaper.benchmark.BenchmarkImages
+import com.android.wallpaper.benchmark.BenchmarkImages.Format
+import com.android.wallpaper.benchmark.BenchmarkRule
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+/**
+ * Benchmarks the blocking decode paths of [StreamableAsset] over 12 MP JPEG, PNG and WebP
+ * wallpapers, through [FileAsset]. Every operation uses a new asset with an empty
+ * [AssetMetadataCache], so that the timings are those of a wallpaper opened for the first time.
+ */
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class StreamableAssetBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule(samples = SAMPLES, warmupSamples = 1)
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private val wallpaper by lazy { BenchmarkImages.createWallpaperBitmap(WIDTH, HEIGHT) }
+
+    @After
+    fun tearDown() {
+        AssetMetadataCache.clear()
+    }
+
+    @Test
+    fun decodeJpeg() {
+        benchmarkDecodePaths(Format.JPEG)
+    }
+
+    @Test
+    fun decodePng() {
+        benchmarkDecodePaths(Format.PNG)
+    }
+
+    @Test
+    fun decodeWebp() {
+        benchmarkDecodePaths(Format.WEBP)
+    }
+
+    private fun benchmarkDecodePaths(format: Format) {
+        val file = BenchmarkImages.writeImage(temporaryFolder.root, wallpaper, format)
+        val name = format.name.lowercase()
+        assertThat(newAsset(file).calculateRawDimensions()).isEqualTo(Point(WIDTH, HEIGHT))
+
+        benchmarkRule.measure("calculateRawDimensions_$name") {
+            newAsset(file).calculateRawDimensions()
+        }
+        benchmarkRule.measure("decodeBitmapBlocking_$name") {
+            newAsset(file)
+                .decodeBitmapBlocking(
+                    TARGET_WIDTH,
+                    TARGET_HEIGHT,
+                    /* useHardwareBitmapIfPossible= */ false,
+                    /* cancellationSignal= */ null,
+                )
+        }
+        benchmarkRule.measure("decodeBitmapRegionBlocking_$name") {
+            newAsset(file)
+                .decodeBitmapRegionBlocking(
+                    CROP_RECT,
+                    TARGET_WIDTH,
+                    TARGET_HEIGHT,
+                    /* isRtl= */ false,
+                    /* cancellationSignal= */ null,
+                )
+        }
+    }
+
+    private fun newAsset(file: File): FileAsset {
+        AssetMetadataCache.clear()
+        return FileAsset(file)
+    }
+
+    private companion object {
+        const val WIDTH = 4000
+        const val HEIGHT = 3000
+        const val TARGET_WIDTH = 1080
+        const val TARGET_HEIGHT = 2340
+        // The part of the wallpaper shown on a portrait handset at the minimum zoom.
+        val CROP_RECT = Rect(1308, 0, 2692, 3000)
+        const val SAMPLES = 5
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.LinearGradient
+import android.graphics.Paint
+import android.graphics.RadialGradient
+import android.graphics.Shader
+import java.io.File
+
+/**
+ * Generates the images used by the benchmarks, so that the corpus doesn't have to be checked in.
+ * Requires Robolectric's native graphics mode.
+ */
+object BenchmarkImages {
+
+    /** Image formats of the decoding corpus, in the order they are benchmarked. */
+    enum class Format(val extension: String, val compressFormat: Bitmap.CompressFormat) {
+        JPEG("jpg", Bitmap.CompressFormat.JPEG),
+        PNG("png", Bitmap.CompressFormat.PNG),
+        WEBP("webp", Bitmap.CompressFormat.WEBP_LOSSY),
+    }
+
+    /**
+     * Creates a bitmap with smooth gradients and hard edges, which compresses like a photo rather
+     * than like a solid color.
+     */
+    fun createWallpaperBitmap(width: Int, height: Int): Bitmap {
+        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(bitmap)
+        val paint = Paint()
+        paint.shader =
+            LinearGradient(
+                0f,
+                0f,
+                width.toFloat(),
+                height.toFloat(),
+                intArrayOf(Color.RED, Color.GREEN, Color.BLUE),
+                null,
+                Shader.TileMode.CLAMP,
+            )
+        canvas.drawPaint(paint)
+        paint.shader =
+            RadialGradient(
+                width / 2f,
+                height / 2f,
+                minOf(width, height) / 8f,
+                Color.WHITE,
+                Color.TRANSPARENT,
+                Shader.TileMode.MIRROR,
+            )
+        canvas.drawPaint(paint)
+        return bitmap
+    }
+
+    /** Writes [bitmap] to [directory] in the given format and returns the file. */
+    fun writeImage(directory: File, bitmap: Bitmap, format: Format): File {
+        val file = File(directory, "wallpaper_${bitmap.width}x${bitmap.height}.${format.extension}")
+        file.outputStream().use { bitmap.compress(format.compressFormat, QUALITY, it) }
+        return file
+    }
+
+    private const val QUALITY = 90
+}
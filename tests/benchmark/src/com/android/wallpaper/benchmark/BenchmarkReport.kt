@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import com.android.wallpaper.benchmark.BenchmarkRule.BenchmarkResult
+import java.io.File
+import org.json.JSONObject
+
+/**
+ * Collects the results of [BenchmarkRule] into a JSON file in the same format as the checked-in
+ * baseline, `baseline/wallpaper_benchmarks.json`, so that a run can be diffed against it and
+ * copied over it when a change is expected to move the numbers:
+ * ```
+ * {
+ *   "version": 1,
+ *   "benchmarks": {
+ *     "WallpaperCropUtilsBenchmark.calculateCropRect": {
+ *       "median_ns": 812, "min_ns": 790, "p90_ns": 901, "samples": 15, "ops_per_sample": 1000
+ *     }
+ *   }
+ * }
+ * ```
+ *
+ * The file is written to the path in the [OUTPUT_PROPERTY] system property, or to the temporary
+ * directory if it isn't set. It's rewritten after every benchmark, merging with what's already
+ * there, so that the results of every test class end up in the same file.
+ *
+ * A benchmark whose median or p90 is more than [REGRESSION_THRESHOLD] slower than its baseline is
+ * reported as a regression. Regressions are logged as warnings, and fail the benchmark when the
+ * [FAIL_ON_REGRESSION_PROPERTY] system property is `true`. Baselines marked `"estimated"` weren't
+ * measured on a reference device, so regressions against them are only ever warnings.
+ */
+object BenchmarkReport {
+
+    const val OUTPUT_PROPERTY = "wallpaper.benchmark.output"
+    const val FAIL_ON_REGRESSION_PROPERTY = "wallpaper.benchmark.failOnRegression"
+    const val FILE_NAME = "wallpaper_benchmarks.json"
+    const val VERSION = 1
+
+    /** How much slower than its baseline a benchmark may get before it is a regression. */
+    const val REGRESSION_THRESHOLD = 0.25
+
+    private const val KEY_VERSION = "version"
+    private const val KEY_ESTIMATED = "estimated"
+    private const val KEY_BENCHMARKS = "benchmarks"
+    private const val KEY_MEDIAN_NS = "median_ns"
+    private const val KEY_MIN_NS = "min_ns"
+    private const val KEY_P90_NS = "p90_ns"
+    private const val KEY_SAMPLES = "samples"
+    private const val KEY_OPS_PER_SAMPLE = "ops_per_sample"
+
+    private val outputFile: File by lazy {
+        System.getProperty(OUTPUT_PROPERTY)?.let { File(it) }
+            ?: File(System.getProperty("java.io.tmpdir"), FILE_NAME)
+    }
+
+    private val baselineReport: JSONObject by lazy {
+        val json =
+            BenchmarkReport::class.java.classLoader?.getResourceAsStream(FILE_NAME)?.use {
+                it.readBytes().toString(Charsets.UTF_8)
+            }
+        json?.let { JSONObject(it) } ?: JSONObject()
+    }
+
+    private val baseline: JSONObject by lazy {
+        baselineReport.optJSONObject(KEY_BENCHMARKS) ?: JSONObject()
+    }
+
+    private val failOnRegression: Boolean by lazy {
+        System.getProperty(FAIL_ON_REGRESSION_PROPERTY).toBoolean() &&
+            !baselineReport.optBoolean(KEY_ESTIMATED)
+    }
+
+    /**
+     * Adds the given result to the output file and logs it next to its baseline, if any.
+     *
+     * @throws AssertionError if the result regressed against its baseline and regressions fail.
+     */
+    @Synchronized
+    fun record(name: String, result: BenchmarkResult) {
+        val report =
+            if (outputFile.exists()) JSONObject(outputFile.readText())
+            else JSONObject().put(KEY_VERSION, VERSION)
+        val benchmarks = report.optJSONObject(KEY_BENCHMARKS) ?: JSONObject()
+        benchmarks.put(
+            name,
+            JSONObject()
+                .put(KEY_MEDIAN_NS, result.medianNanos)
+                .put(KEY_MIN_NS, result.minNanos)
+                .put(KEY_P90_NS, result.p90Nanos)
+                .put(KEY_SAMPLES, result.samples)
+                .put(KEY_OPS_PER_SAMPLE, result.opsPerSample)
+        )
+        report.put(KEY_BENCHMARKS, benchmarks)
+        outputFile.parentFile?.mkdirs()
+        outputFile.writeText(report.toString(2))
+
+        val baselineResult = baseline.optJSONObject(name)
+        val baselineMedian = baselineResult?.optLong(KEY_MEDIAN_NS, 0L) ?: 0L
+        val baselineP90 = baselineResult?.optLong(KEY_P90_NS, 0L) ?: 0L
+        val comparison =
+            if (baselineMedian > 0) {
+                val percent = change(result.medianNanos, baselineMedian) * 100
+                " baseline=${baselineMedian}ns (${"%+.1f".format(percent)}%)"
+            } else {
+                " baseline=none"
+            }
+        println("$name: median=${result.medianNanos}ns p90=${result.p90Nanos}ns$comparison")
+
+        val regressions = buildList {
+            if (change(result.medianNanos, baselineMedian) > REGRESSION_THRESHOLD) {
+                add("median ${result.medianNanos}ns vs ${baselineMedian}ns")
+            }
+            if (change(result.p90Nanos, baselineP90) > REGRESSION_THRESHOLD) {
+                add("p90 ${result.p90Nanos}ns vs ${baselineP90}ns")
+            }
+        }
+        if (regressions.isNotEmpty()) {
+            val message = "$name regressed against its baseline: ${regressions.joinToString()}"
+            if (failOnRegression) {
+                throw AssertionError(message)
+            }
+            System.err.println("WARNING: $message")
+        }
+    }
+
+    /** Returns the relative change from [baselineNanos], or 0 if there is no baseline. */
+    private fun change(nanos: Long, baselineNanos: Long): Double =
+        if (baselineNanos > 0) (nanos - baselineNanos).toDouble() / baselineNanos else 0.0
+}
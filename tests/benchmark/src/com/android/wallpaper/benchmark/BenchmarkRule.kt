@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import org.junit.rules.TestRule
+import org.junit.runner.Description
+import org.junit.runners.model.Statement
+
+/**
+ * Times blocks of code for the benchmarks of this module and adds the results to the
+ * [BenchmarkReport], named after the test class and the given benchmark name.
+ *
+ * Each block is run a few times to warm up class loading and the JIT, then timed over [samples]
+ * samples. Blocks that take less than a microsecond should be run [opsPerSample] times per sample
+ * so that the resolution of [System.nanoTime] doesn't dominate the result. Uses
+ * [System.nanoTime] since Robolectric's SystemClock doesn't advance on its own.
+ */
+class BenchmarkRule(
+    private val samples: Int = DEFAULT_SAMPLES,
+    private val warmupSamples: Int = DEFAULT_WARMUP_SAMPLES,
+) : TestRule {
+
+    private var className: String? = null
+
+    override fun apply(base: Statement, description: Description): Statement {
+        className = description.testClass.simpleName
+        return base
+    }
+
+    /**
+     * Times [block], which should return whatever it computed so that the work can't be optimized
+     * away, and records the time per operation.
+     */
+    fun measure(name: String, opsPerSample: Int = 1, block: () -> Any?): BenchmarkResult {
+        repeat(warmupSamples * opsPerSample) { consume(block()) }
+
+        val nanosPerOp = LongArray(samples)
+        for (i in 0 until samples) {
+            val start = System.nanoTime()
+            repeat(opsPerSample) { consume(block()) }
+            nanosPerOp[i] = (System.nanoTime() - start) / opsPerSample
+        }
+        nanosPerOp.sort()
+
+        val result =
+            BenchmarkResult(
+                medianNanos = nanosPerOp[samples / 2],
+                minNanos = nanosPerOp[0],
+                p90Nanos = nanosPerOp[(samples * 9 / 10).coerceAtMost(samples - 1)],
+                samples = samples,
+                opsPerSample = opsPerSample,
+            )
+        BenchmarkReport.record("${checkNotNull(className)}.$name", result)
+        return result
+    }
+
+    private fun consume(value: Any?) {
+        sink = value
+    }
+
+    /** Timing of a single benchmark, per operation. */
+    data class BenchmarkResult(
+        val medianNanos: Long,
+        val minNanos: Long,
+        val p90Nanos: Long,
+        val samples: Int,
+        val opsPerSample: Int,
+    )
+
+    companion object {
+        const val DEFAULT_SAMPLES = 15
+        const val DEFAULT_WARMUP_SAMPLES = 3
+
+        // Keeps the results of timed blocks reachable, so that the JIT can't drop their work.
+        @Volatile private var sink: Any? = null
+    }
+}
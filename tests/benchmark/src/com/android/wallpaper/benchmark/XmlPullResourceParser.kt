@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import android.content.res.XmlResourceParser
+import android.util.AttributeSet
+import android.util.Xml
+import java.io.StringReader
+import org.xmlpull.v1.XmlPullParser
+
+/**
+ * An [XmlResourceParser] over XML text, so that parsers of partner resources can be benchmarked
+ * on documents generated at runtime rather than compiled into the test APK.
+ *
+ * Attributes are read as text, so resource references have to be written as their numeric ids
+ * (e.g. `src="0x7f080001"`), which is what a compiled parser returns for them.
+ */
+class XmlPullResourceParser private constructor(private val parser: XmlPullParser) :
+    XmlResourceParser, XmlPullParser by parser, AttributeSet by Xml.asAttributeSet(parser) {
+
+    constructor(xml: String) : this(Xml.newPullParser().apply { setInput(StringReader(xml)) })
+
+    override fun getAttributeCount(): Int = parser.attributeCount
+
+    override fun getAttributeName(index: Int): String = parser.getAttributeName(index)
+
+    override fun getAttributeNamespace(index: Int): String = parser.getAttributeNamespace(index)
+
+    override fun getAttributeValue(index: Int): String = parser.getAttributeValue(index)
+
+    override fun getAttributeValue(namespace: String?, name: String?): String? =
+        parser.getAttributeValue(namespace, name)
+
+    override fun getPositionDescription(): String = parser.positionDescription
+
+    override fun close() {}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.undo.data.repository
+
+import com.android.wallpaper.benchmark.BenchmarkRule
+import com.android.wallpaper.testing.snapshot
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Benchmarks [UndoRepository.pushSnapshot] under contention: [COROUTINES] coroutines on the default
+ * dispatcher each push [PUSHES_PER_COROUTINE] snapshots, spread over one or several owners. Times
+ * are for a whole round of pushes, including launching the coroutines.
+ */
+@RunWith(RobolectricTestRunner::class)
+class UndoRepositoryBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun pushSnapshot_oneOwner() {
+        measurePushes("pushSnapshot_oneOwner", owners = 1)
+    }
+
+    @Test
+    fun pushSnapshot_manyOwners() {
+        measurePushes("pushSnapshot_manyOwners", owners = 8)
+    }
+
+    private fun measurePushes(name: String, owners: Int) {
+        val repository = UndoRepository()
+        // Snapshots are created up front, so that only the pushes are timed.
+        val snapshotsByCoroutine =
+            List(COROUTINES) { coroutine ->
+                val ownerId = coroutine % owners
+                List(PUSHES_PER_COROUTINE) { push ->
+                    ownerId to snapshot(ownerId, coroutine * PUSHES_PER_COROUTINE + push)
+                }
+            }
+        val pushAll = {
+            runBlocking {
+                snapshotsByCoroutine
+                    .map { snapshots ->
+                        launch(Dispatchers.Default) {
+                            snapshots.forEach { (ownerId, snapshot) ->
+                                repository.pushSnapshot(ownerId, snapshot)
+                            }
+                        }
+                    }
+                    .joinAll()
+            }
+            repository
+        }
+        pushAll()
+        assertThat(repository.getAllDirty()).containsExactlyElementsIn(0 until owners)
+
+        benchmarkRule.measure(name) { pushAll() }
+    }
+
+    private companion object {
+        const val COROUTINES = 32
+        const val PUSHES_PER_COROUTINE = 50
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.app.WallpaperColors
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import com.android.wallpaper.benchmark.BenchmarkImages
+import com.android.wallpaper.benchmark.BenchmarkRule
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayOutputStream
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+/**
+ * Benchmarks [WallpaperColorsExtractor.extractColors] on a 12 MP wallpaper, next to the compress,
+ * decode and extract path it replaced. Runs with native graphics so that the timings reflect real
+ * Skia work.
+ */
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class WallpaperColorsExtractorBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun extractColors_12mp() {
+        val bitmap = BenchmarkImages.createWallpaperBitmap(4000, 3000)
+        assertThat(WallpaperColorsExtractor.extractColors(bitmap)).isNotNull()
+
+        benchmarkRule.measure("extractColors_12mp") {
+            WallpaperColorsExtractor.extractColors(bitmap)
+        }
+    }
+
+    @Test
+    fun extractColors_previousPath_12mp() {
+        val bitmap = BenchmarkImages.createWallpaperBitmap(4000, 3000)
+
+        benchmarkRule.measure("extractColors_previousPath_12mp") { previousPath(bitmap) }
+    }
+
+    /** The extraction path [WallpaperColorsExtractor] used before working on a scratch bitmap. */
+    private fun previousPath(bitmap: Bitmap): WallpaperColors {
+        val tmpOut = ByteArrayOutputStream()
+        var decoded = bitmap
+        if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
+            val outByteArray = tmpOut.toByteArray()
+            decoded = BitmapFactory.decodeByteArray(outByteArray, 0, outByteArray.size)
+        }
+        return WallpaperColors.fromBitmap(decoded)
+    }
+}
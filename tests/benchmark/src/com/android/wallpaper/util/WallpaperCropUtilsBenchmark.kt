@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.content.Context
+import android.graphics.Point
+import android.graphics.Rect
+import com.android.wallpaper.benchmark.BenchmarkRule
+import com.android.wallpaper.module.InjectorProvider
+import com.android.wallpaper.testing.TestInjector
+import com.google.common.truth.Truth.assertThat
+import dagger.hilt.android.qualifiers.ApplicationContext
+import dagger.hilt.android.testing.HiltAndroidRule
+import dagger.hilt.android.testing.HiltAndroidTest
+import javax.inject.Inject
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Benchmarks the crop math run by the preview and set wallpaper paths for a 12 MP wallpaper on a
+ * handset sized display.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner::class)
+class WallpaperCropUtilsBenchmark {
+
+    @get:Rule(order = 0) var hiltRule = HiltAndroidRule(this)
+    @get:Rule(order = 1) val benchmarkRule = BenchmarkRule()
+
+    @Inject @ApplicationContext lateinit var context: Context
+    @Inject lateinit var testInjector: TestInjector
+
+    @Before
+    fun setUp() {
+        hiltRule.inject()
+        InjectorProvider.setInjector(testInjector)
+    }
+
+    @Test
+    fun calculateCropRect() {
+        val zoom = WallpaperCropUtils.calculateMinZoom(WALLPAPER_SIZE, HOST_SIZE)
+        val visibleRect = WallpaperCropUtils.calculateVisibleRect(WALLPAPER_SIZE, HOST_SIZE)
+
+        val cropRect =
+            WallpaperCropUtils.calculateCropRect(
+                context,
+                HOST_SIZE,
+                CROP_SURFACE_SIZE,
+                WALLPAPER_SIZE,
+                visibleRect,
+                zoom,
+            )
+        assertThat(cropRect.width()).isAtLeast(HOST_SIZE.x)
+        assertThat(cropRect.height()).isAtLeast(HOST_SIZE.y)
+
+        benchmarkRule.measure("calculateCropRect", OPS_PER_SAMPLE) {
+            WallpaperCropUtils.calculateCropRect(
+                context,
+                HOST_SIZE,
+                CROP_SURFACE_SIZE,
+                WALLPAPER_SIZE,
+                visibleRect,
+                zoom,
+            )
+        }
+    }
+
+    @Test
+    fun calculateVisibleRect() {
+        assertThat(WallpaperCropUtils.calculateVisibleRect(WALLPAPER_SIZE, HOST_SIZE).height())
+            .isEqualTo(WALLPAPER_SIZE.y)
+
+        benchmarkRule.measure("calculateVisibleRect", OPS_PER_SAMPLE) {
+            WallpaperCropUtils.calculateVisibleRect(WALLPAPER_SIZE, HOST_SIZE)
+        }
+    }
+
+    @Test
+    fun calculateCenterPosition() {
+        benchmarkRule.measure("calculateCenterPosition", OPS_PER_SAMPLE) {
+            WallpaperCropUtils.calculateCenterPosition(
+                WALLPAPER_SIZE,
+                HOST_SIZE,
+                /* alignStart= */ false,
+                /* isRtl= */ false,
+            )
+        }
+    }
+
+    @Test
+    fun calculateMinZoom() {
+        benchmarkRule.measure("calculateMinZoom", OPS_PER_SAMPLE) {
+            WallpaperCropUtils.calculateMinZoom(WALLPAPER_SIZE, HOST_SIZE)
+        }
+    }
+
+    @Test
+    fun adjustCropRect() {
+        val cropRect = Rect(0, 0, HOST_SIZE.x, HOST_SIZE.y)
+
+        benchmarkRule.measure("adjustCropRect", OPS_PER_SAMPLE) {
+            cropRect.set(0, 0, HOST_SIZE.x, HOST_SIZE.y)
+            WallpaperCropUtils.adjustCropRect(context, cropRect, /* zoomIn= */ true)
+            cropRect
+        }
+    }
+
+    @Test
+    fun fitToSize() {
+        val wallpaperRect = Rect()
+
+        benchmarkRule.measure("fitToSize", OPS_PER_SAMPLE) {
+            wallpaperRect.set(0, 0, WALLPAPER_SIZE.x, WALLPAPER_SIZE.y)
+            WallpaperCropUtils.fitToSize(wallpaperRect, HOST_SIZE.x, HOST_SIZE.y)
+            wallpaperRect
+        }
+    }
+
+    private companion object {
+        val WALLPAPER_SIZE = Point(4000, 3000)
+        val HOST_SIZE = Point(1080, 2340)
+        val CROP_SURFACE_SIZE = Point(2160, 2340)
+        const val OPS_PER_SAMPLE = 10_000
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.content.Context
+import com.android.wallpaper.benchmark.BenchmarkRule
+import com.android.wallpaper.benchmark.XmlPullResourceParser
+import com.android.wallpaper.testing.TestPartnerProvider
+import com.google.common.truth.Truth.assertThat
+import dagger.hilt.android.qualifiers.ApplicationContext
+import dagger.hilt.android.testing.HiltAndroidRule
+import dagger.hilt.android.testing.HiltAndroidTest
+import javax.inject.Inject
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Benchmarks [WallpaperParserImpl.parseSystemCategories] over partner XML files far larger than
+ * the ones shipped by partners today, generated at runtime.
+ */
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner::class)
+class WallpaperParserImplBenchmark {
+
+    @get:Rule(order = 0) var hiltRule = HiltAndroidRule(this)
+    @get:Rule(order = 1) val benchmarkRule = BenchmarkRule()
+
+    @Inject @ApplicationContext lateinit var context: Context
+    @Inject lateinit var partnerProvider: TestPartnerProvider
+    private lateinit var underTest: WallpaperParserImpl
+
+    @Before
+    fun setUp() {
+        hiltRule.inject()
+        partnerProvider.resources = context.resources
+        partnerProvider.packageName = context.packageName
+        underTest = WallpaperParserImpl(context, partnerProvider)
+    }
+
+    @Test
+    fun parseSystemCategories_small() {
+        benchmarkParse("parseSystemCategories_small", categoryCount = 5, wallpapersPerCategory = 10)
+    }
+
+    @Test
+    fun parseSystemCategories_large() {
+        benchmarkParse(
+            "parseSystemCategories_large",
+            categoryCount = 100,
+            wallpapersPerCategory = 50,
+        )
+    }
+
+    private fun benchmarkParse(name: String, categoryCount: Int, wallpapersPerCategory: Int) {
+        val xml = generateWallpapersXml(categoryCount, wallpapersPerCategory)
+        val categories = underTest.parseSystemCategories(XmlPullResourceParser(xml))
+        assertThat(categories).hasSize(categoryCount)
+        assertThat(categories.last().unmodifiableWallpapers).hasSize(wallpapersPerCategory)
+
+        // Creating the parser is part of reading a partner resource, so it's timed too.
+        benchmarkRule.measure(name) { underTest.parseSystemCategories(XmlPullResourceParser(xml)) }
+    }
+
+    /**
+     * Generates a wallpapers.xml in the format of partner stubs, with every category featuring its
+     * last wallpaper so that the whole list is searched for it.
+     */
+    private fun generateWallpapersXml(categoryCount: Int, wallpapersPerCategory: Int): String =
+        buildString {
+            append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<wallpapers>\n")
+            for (category in 0 until categoryCount) {
+                val lastWallpaperId = "wallpaper_${category}_${wallpapersPerCategory - 1}"
+                append("  <category id=\"category_$category\" featured=\"$lastWallpaperId\">\n")
+                for (wallpaper in 0 until wallpapersPerCategory) {
+                    val resId = FIRST_DRAWABLE_RES_ID + category * wallpapersPerCategory + wallpaper
+                    append("    <static-wallpaper id=\"wallpaper_${category}_$wallpaper\"")
+                    append(" src=\"0x${Integer.toHexString(resId)}\"")
+                    append(" thumbnail=\"0x${Integer.toHexString(resId)}\" />\n")
+                }
+                append("  </category>\n")
+            }
+            append("</wallpapers>\n")
+        }
+
+    private companion object {
+        const val FIRST_DRAWABLE_RES_ID = 0x7f080000
+    }
+}
@@ -170,7 +170,9 @@ class FakeWallpaperClient @Inject constructor() : WallpaperClient {
 
     override suspend fun getWallpaperColors(
         bitmap: Bitmap,
-        cropHints: Map<Point, Rect>?
+        cropHints: Map<Point, Rect>?,
+        wallpaperId: String?,
+        wallpaperSize: Point?,
     ): WallpaperColors? {
         return wallpaperColors
     }
@@ -15,14 +15,11 @@
  */
 package com.android.wallpaper.testing;
 
-import com.android.wallpaper.monitor.PerformanceMonitor;
+import com.android.wallpaper.monitor.MetricsPerformanceMonitor;
 
 /**
- * No-op performance monitor for test.
+ * Performance monitor for test, which keeps what was recorded for tests to check through
+ * {@link #getHistogram} and {@link #getCounter}.
  */
-public class TestPerformanceMonitor implements PerformanceMonitor {
-
-    @Override
-    public void recordFullResPreviewLoadedMemorySnapshot() {
-    }
+public class TestPerformanceMonitor extends MetricsPerformanceMonitor {
 }
@@ -20,6 +20,7 @@ import android.graphics.Bitmap
 import android.graphics.Color
 import android.graphics.Point
 import android.graphics.Rect
+import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
@@ -48,6 +49,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     @PresentationMode private var wallpaperPresentationMode: Int
     private var homeScreenAttributions: List<String?>?
     private var homeScreenBitmapHashCode: Long = 0
+    private var homeScreenBitmapHashCodeVersion = 0
     private var homeWallpaperManagerId = 0
     private var homeScreenServiceName: String? = null
     private var lockScreenServiceName: String? = null
@@ -58,6 +60,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     private var homeWallpaperRecentsKey: String? = null
     private var lockScreenAttributions: List<String?>?
     private var lockScreenBitmapHashCode: Long = 0
+    private var lockScreenBitmapHashCodeVersion = 0
     private var lockWallpaperManagerId = 0
     private var lockActionUrl: String? = null
     private var lockCollectionId: String? = null
@@ -134,6 +137,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         homeScreenAttributions = null
         wallpaperPresentationMode = WallpaperPreferences.PRESENTATION_MODE_STATIC
         homeScreenBitmapHashCode = 0
+        homeScreenBitmapHashCodeVersion = 0
         homeScreenServiceName = null
         homeWallpaperManagerId = 0
     }
@@ -150,8 +154,13 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         return homeScreenBitmapHashCode
     }
 
+    override fun getHomeWallpaperHashCodeVersion(): Int {
+        return homeScreenBitmapHashCodeVersion
+    }
+
     override fun setHomeWallpaperHashCode(hashCode: Long) {
         homeScreenBitmapHashCode = hashCode
+        homeScreenBitmapHashCodeVersion = BitmapUtils.HASH_CODE_VERSION
     }
 
     override fun getHomeWallpaperServiceName(): String? {
@@ -223,6 +232,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     override fun clearLockWallpaperMetadata() {
         lockScreenAttributions = null
         lockScreenBitmapHashCode = 0
+        lockScreenBitmapHashCodeVersion = 0
         lockWallpaperManagerId = 0
     }
 
@@ -238,8 +248,13 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         return lockScreenBitmapHashCode
     }
 
+    override fun getLockWallpaperHashCodeVersion(): Int {
+        return lockScreenBitmapHashCodeVersion
+    }
+
     override fun setLockWallpaperHashCode(hashCode: Long) {
         lockScreenBitmapHashCode = hashCode
+        lockScreenBitmapHashCodeVersion = BitmapUtils.HASH_CODE_VERSION
     }
 
     override fun getLockWallpaperServiceName(): String? {
@@ -293,6 +308,10 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         } else dailyRotations[dailyRotations.size - 1]
     }
 
+    override fun getDailyRotationTimestamps(startTimestamp: Long, endTimestamp: Long): LongArray {
+        return dailyRotations.filter { it in startTimestamp until endTimestamp }.toLongArray()
+    }
+
     override fun getDailyWallpaperEnabledTimestamp(): Long {
         return dailyWallpaperEnabledTimestamp
     }
@@ -21,6 +21,7 @@ import android.content.ComponentName
 import android.content.Context
 import android.content.pm.ResolveInfo
 import android.content.pm.ServiceInfo
+import android.os.Parcel
 import org.robolectric.annotation.Implementation
 import org.robolectric.annotation.Implements
 
@@ -36,6 +37,16 @@ class ShadowWallpaperInfo {
         this.resolveInfo = resolveInfo
     }
 
+    @Implementation
+    fun __constructor__(source: Parcel) {
+        resolveInfo = ResolveInfo.CREATOR.createFromParcel(source)
+    }
+
+    @Implementation
+    fun writeToParcel(dest: Parcel, flags: Int) {
+        resolveInfo.writeToParcel(dest, flags)
+    }
+
     @Implementation
     fun getPackageName(): String {
         return resolveInfo.serviceInfo.packageName
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import com.android.wallpaper.asset.AssetDecodeExecutor.PRIORITY_DEFAULT
+import com.android.wallpaper.asset.AssetDecodeExecutor.PRIORITY_IMMEDIATE
+import com.android.wallpaper.asset.AssetDecodeExecutor.PRIORITY_PREFETCH
+import com.google.common.truth.Truth.assertThat
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class AssetDecodeExecutorTest {
+
+    // A single thread, so that queued tasks run one at a time in the order they are taken.
+    private val underTest = AssetDecodeExecutor(/* maxThreads= */ 1)
+    private val ran = Collections.synchronizedList(mutableListOf<String>())
+
+    @Test
+    fun execute_queuedTasks_runByPriority() {
+        val release = CountDownLatch(1)
+        underTest.execute(PRIORITY_DEFAULT) { release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) }
+
+        underTest.execute(PRIORITY_PREFETCH) { ran.add("prefetch") }
+        underTest.execute(PRIORITY_DEFAULT) { ran.add("default") }
+        underTest.execute(PRIORITY_IMMEDIATE) { ran.add("immediate") }
+        release.countDown()
+        awaitIdle()
+
+        assertThat(ran).containsExactly("immediate", "default", "prefetch").inOrder()
+    }
+
+    @Test
+    fun execute_queuedTasksOfSamePriority_runInSubmissionOrder() {
+        val release = CountDownLatch(1)
+        underTest.execute(PRIORITY_DEFAULT) { release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) }
+
+        underTest.execute(PRIORITY_DEFAULT) { ran.add("first") }
+        underTest.execute(PRIORITY_DEFAULT) { ran.add("second") }
+        underTest.execute(PRIORITY_DEFAULT) { ran.add("third") }
+        release.countDown()
+        awaitIdle()
+
+        assertThat(ran).containsExactly("first", "second", "third").inOrder()
+    }
+
+    /** Waits for the tasks queued so far, which all run before a last prefetch task. */
+    private fun awaitIdle() {
+        val idle = CountDownLatch(1)
+        underTest.execute(PRIORITY_PREFETCH) { idle.countDown() }
+        assertThat(idle.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+    }
+
+    private companion object {
+        const val TIMEOUT_SECONDS = 5L
+    }
+}
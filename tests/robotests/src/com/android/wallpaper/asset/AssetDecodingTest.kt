@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.os.CancellationSignal
+import com.google.common.truth.Truth.assertThat
+import java.io.InputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class AssetDecodingTest {
+
+    private val executor = AssetDecodeExecutor.getInstance()
+    private val asset = BlockingAsset()
+
+    @Test
+    fun decodeBitmap_concurrentCallers_shareOneDecode() = runBlocking {
+        val first = async(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+        asset.awaitStarted()
+        val second = async(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+
+        asset.finish.countDown()
+
+        assertThat(first.await()).isSameInstanceAs(asset.bitmap)
+        assertThat(second.await()).isSameInstanceAs(asset.bitmap)
+        assertThat(asset.decodeCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun decodeBitmap_differentSizes_decodeSeparately() = runBlocking {
+        val first = async(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+        val second =
+            async(start = CoroutineStart.UNDISPATCHED) {
+                asset.decodeBitmap(WIDTH * 2, HEIGHT * 2, /* hardwareBitmapAllowed= */ false)
+            }
+
+        asset.finish.countDown()
+        first.await()
+        second.await()
+
+        assertThat(asset.decodeCount.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun decodeBitmap_oneOfTwoCallersCanceled_otherGetsBitmap() = runBlocking {
+        val canceled = launch(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+        asset.awaitStarted()
+        val waiting = async(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+
+        canceled.cancelAndJoin()
+        asset.finish.countDown()
+
+        assertThat(waiting.await()).isSameInstanceAs(asset.bitmap)
+        assertThat(asset.signal!!.isCanceled).isFalse()
+    }
+
+    @Test
+    fun decodeBitmap_everyCallerCanceled_cancelsDecode() = runBlocking {
+        val first = launch(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+        asset.awaitStarted()
+        val second = launch(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+
+        first.cancelAndJoin()
+        second.cancelAndJoin()
+
+        assertThat(asset.signal!!.isCanceled).isTrue()
+        asset.finish.countDown()
+    }
+
+    @Test
+    fun decodeBitmap_canceledBeforeTaskStarts_skipsDecode() = runBlocking {
+        val release = occupyExecutor()
+        val decode = launch(start = CoroutineStart.UNDISPATCHED) { asset.decode() }
+
+        decode.cancelAndJoin()
+        release.countDown()
+        awaitExecutorIdle()
+
+        assertThat(asset.decodeCount.get()).isEqualTo(0)
+    }
+
+    @Test
+    fun decodeBitmap_decodeThrowsError_rethrowsIt() {
+        asset.error = OutOfMemoryError()
+
+        assertThrows(OutOfMemoryError::class.java) { runBlocking { asset.decode() } }
+    }
+
+    /** Blocks every thread of the shared executor until the returned latch is counted down. */
+    private fun occupyExecutor(): CountDownLatch {
+        val threads = executor.maxParallelism
+        val occupied = CountDownLatch(threads)
+        val release = CountDownLatch(1)
+        repeat(threads) {
+            executor.execute(AssetDecodeExecutor.PRIORITY_IMMEDIATE) {
+                occupied.countDown()
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            }
+        }
+        assertThat(occupied.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        return release
+    }
+
+    /**
+     * Waits until every task queued on the shared executor so far has run: once one last prefetch
+     * task runs on each thread at the same time, none of the threads is running anything else.
+     */
+    private fun awaitExecutorIdle() {
+        val threads = executor.maxParallelism
+        val idle = CountDownLatch(threads)
+        repeat(threads) {
+            executor.execute(AssetDecodeExecutor.PRIORITY_PREFETCH) {
+                idle.countDown()
+                idle.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            }
+        }
+        assertThat(idle.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+    }
+
+    private suspend fun Asset.decode(): Bitmap? =
+        decodeBitmap(WIDTH, HEIGHT, /* hardwareBitmapAllowed= */ false)
+
+    /** Asset whose decodes block until [finish] is counted down, and then return [bitmap]. */
+    private class BlockingAsset : StreamableAsset() {
+        val bitmap: Bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        val finish = CountDownLatch(1)
+        val decodeCount = AtomicInteger()
+        @Volatile var signal: CancellationSignal? = null
+        @Volatile var error: Throwable? = null
+        private val started = CountDownLatch(1)
+
+        fun awaitStarted() {
+            assertThat(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        }
+
+        override fun decodeBitmapBlocking(
+            targetWidth: Int,
+            targetHeight: Int,
+            useHardwareBitmapIfPossible: Boolean,
+            cancellationSignal: CancellationSignal?,
+        ): Bitmap? {
+            decodeCount.incrementAndGet()
+            signal = cancellationSignal
+            started.countDown()
+            error?.let { throw it }
+            finish.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            return bitmap
+        }
+
+        override fun openInputStream(): InputStream? = null
+    }
+
+    private companion object {
+        const val WIDTH = 40
+        const val HEIGHT = 30
+        const val TIMEOUT_SECONDS = 5L
+    }
+}
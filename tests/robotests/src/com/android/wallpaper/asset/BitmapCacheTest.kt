@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Rect
+import com.android.wallpaper.testing.TestAsset
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BitmapCacheTest {
+
+    private lateinit var asset: TestAsset
+
+    @Before
+    fun setUp() {
+        asset = TestAsset(Color.RED, false)
+    }
+
+    @Test
+    fun get_regionKeysWithDifferentRects_areDistinct() {
+        val cache = BitmapCache(MAX_BYTES)
+        val left = BitmapCache.Key(asset, 10, 10, false, Rect(0, 0, 10, 10), false)
+        val right = BitmapCache.Key(asset, 10, 10, false, Rect(10, 0, 20, 10), false)
+        val bitmap = createBitmap(10, 10)
+
+        cache.put(left, bitmap)
+
+        assertThat(cache.get(left)).isSameInstanceAs(bitmap)
+        assertThat(cache.get(right)).isNull()
+        assertThat(cache.hitCount).isEqualTo(1)
+        assertThat(cache.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun get_regionKeysWithDifferentRtl_areDistinct() {
+        val cache = BitmapCache(MAX_BYTES)
+        val rect = Rect(0, 0, 10, 10)
+        cache.put(BitmapCache.Key(asset, 10, 10, false, rect, false), createBitmap(10, 10))
+
+        assertThat(cache.get(BitmapCache.Key(asset, 10, 10, true, rect, false))).isNull()
+    }
+
+    @Test
+    fun get_smallerTarget_isDownscaledFromLargerEntry() {
+        val cache = BitmapCache(MAX_BYTES)
+        cache.put(BitmapCache.Key(asset, 100, 50, false), createBitmap(100, 50))
+
+        val derived = cache.get(BitmapCache.Key(asset, 40, 10, false))
+
+        assertThat(derived).isNotNull()
+        assertThat(derived!!.width).isEqualTo(40)
+        assertThat(derived.height).isEqualTo(20)
+        assertThat(cache.derivedHitCount).isEqualTo(1)
+        assertThat(cache.missCount).isEqualTo(0)
+    }
+
+    @Test
+    fun get_targetAtLeastEntrySize_returnsEntryWithoutCountingItTwice() {
+        val cache = BitmapCache(MAX_BYTES)
+        val bitmap = createBitmap(100, 50)
+        cache.put(BitmapCache.Key(asset, 100, 50, false), bitmap)
+
+        assertThat(cache.get(BitmapCache.Key(asset, 100, 10, false))).isSameInstanceAs(bitmap)
+        assertThat(cache.derivedHitCount).isEqualTo(1)
+        assertThat(cache.sizeBytes).isEqualTo(100 * 50 * 4)
+    }
+
+    @Test
+    fun put_overBudget_evictsLeastRecentlyUsedAcrossSizes() {
+        // Room for exactly two 10x10 ARGB_8888 bitmaps.
+        val cache = BitmapCache(2 * 10 * 10 * 4)
+        val fullKey = BitmapCache.Key(asset, 0, 0, true)
+        val smallKey = BitmapCache.Key(asset, 10, 10, true)
+        val otherSmallKey = BitmapCache.Key(TestAsset(Color.BLUE, false), 10, 10, true)
+        cache.put(fullKey, createBitmap(10, 10))
+        cache.put(smallKey, createBitmap(10, 10))
+        cache.get(smallKey)
+
+        cache.put(otherSmallKey, createBitmap(10, 10))
+
+        assertThat(cache.evictionCount).isEqualTo(1)
+        assertThat(cache.get(fullKey)).isNull()
+        assertThat(cache.get(smallKey)).isNotNull()
+        assertThat(cache.get(otherSmallKey)).isNotNull()
+    }
+
+    @Test
+    fun calculateMaxBytes_lowRam_isBoundedButNonZero() {
+        val lowRam = BitmapCache.calculateMaxBytes(/* memoryClassMb= */ 512, /* isLowRam= */ true)
+        val regular = BitmapCache.calculateMaxBytes(/* memoryClassMb= */ 512, /* isLowRam= */ false)
+
+        assertThat(lowRam).isGreaterThan(0)
+        assertThat(lowRam).isAtMost(8 * 1024 * 1024)
+        assertThat(regular).isEqualTo(64 * 1024 * 1024)
+    }
+
+    private fun createBitmap(width: Int, height: Int): Bitmap =
+        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+
+    companion object {
+        private const val MAX_BYTES = 1024 * 1024
+    }
+}
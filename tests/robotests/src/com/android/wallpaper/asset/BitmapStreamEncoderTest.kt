@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Bitmap.CompressFormat
+import android.graphics.BitmapFactory
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class BitmapStreamEncoderTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun chooseFormat_opaqueJpegSource_isJpegAtQuality95() {
+        val format = BitmapStreamEncoder.chooseFormat(createBitmap(hasAlpha = false), "image/jpeg")
+
+        assertThat(format).isEqualTo(CompressFormat.JPEG)
+        assertThat(BitmapStreamEncoder.chooseQuality(format)).isEqualTo(95)
+    }
+
+    @Test
+    fun chooseFormat_jpegSourceWithAlpha_isPng() {
+        assertThat(BitmapStreamEncoder.chooseFormat(createBitmap(hasAlpha = true), "image/jpeg"))
+            .isEqualTo(CompressFormat.PNG)
+    }
+
+    @Test
+    fun chooseFormat_pngOrUnknownSource_isPng() {
+        val bitmap = createBitmap(hasAlpha = false)
+
+        assertThat(BitmapStreamEncoder.chooseFormat(bitmap, "image/png"))
+            .isEqualTo(CompressFormat.PNG)
+        assertThat(BitmapStreamEncoder.chooseFormat(bitmap, null)).isEqualTo(CompressFormat.PNG)
+        assertThat(BitmapStreamEncoder.chooseQuality(CompressFormat.PNG)).isEqualTo(100)
+    }
+
+    @Test
+    fun encode_decodesToSameBitmap() {
+        val bitmap = createBitmap(hasAlpha = true)
+
+        val decoded =
+            BitmapStreamEncoder.encode(context, bitmap, "image/png")!!.use {
+                BitmapFactory.decodeStream(it)
+            }
+
+        assertThat(decoded.width).isEqualTo(WIDTH)
+        assertThat(decoded.height).isEqualTo(HEIGHT)
+        assertThat(decoded.getPixel(WIDTH / 2, HEIGHT / 2)).isEqualTo(COLOR)
+    }
+
+    @Test
+    fun encode_streamClosed_deletesTempFile() {
+        val stream = BitmapStreamEncoder.encode(context, createBitmap(hasAlpha = false), null)!!
+        assertThat(tempFiles()).hasSize(1)
+
+        stream.close()
+
+        assertThat(tempFiles()).isEmpty()
+    }
+
+    @Test
+    fun sweepStaleTempFiles_deletesOnlyTempFiles() {
+        val staleFile = File(context.cacheDir, BitmapStreamEncoder.TEMP_FILE_PREFIX + "123.tmp")
+        staleFile.writeBytes(ByteArray(16))
+        val otherFile = File(context.cacheDir, "other.tmp")
+        otherFile.writeBytes(ByteArray(16))
+
+        BitmapStreamEncoder.sweepStaleTempFiles(context.cacheDir)
+
+        assertThat(staleFile.exists()).isFalse()
+        assertThat(otherFile.exists()).isTrue()
+    }
+
+    private fun tempFiles(): List<File> =
+        context.cacheDir.listFiles()!!.filter {
+            it.name.startsWith(BitmapStreamEncoder.TEMP_FILE_PREFIX)
+        }
+
+    private fun createBitmap(hasAlpha: Boolean): Bitmap {
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(COLOR)
+        bitmap.setHasAlpha(hasAlpha)
+        return bitmap
+    }
+
+    private companion object {
+        const val WIDTH = 64
+        const val HEIGHT = 48
+        const val COLOR = Color.BLUE
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.ComponentName
+import android.graphics.Bitmap
+import android.graphics.Point
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Executor
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class LiveWallpaperThumbnailCacheTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private val directExecutor = Executor { it.run() }
+
+    @Test
+    fun get_afterPut_returnsDimensionsFromNewInstance() {
+        createCache().put(COMPONENT, VERSION, createThumbnail(), Point(400, 800))
+
+        val entry = createCache().get(COMPONENT, VERSION)
+
+        assertThat(entry).isNotNull()
+        assertThat(entry!!.width).isEqualTo(200)
+        assertThat(entry.height).isEqualTo(100)
+        assertThat(entry.rawDimensions).isEqualTo(Point(400, 800))
+    }
+
+    @Test
+    fun get_differentPackageVersion_dropsEntry() {
+        val cache = createCache()
+        val file = cache.put(COMPONENT, VERSION, createThumbnail(), /* rawDimensions= */ null)
+
+        assertThat(cache.get(COMPONENT, "2:2")).isNull()
+        assertThat(cache.get(COMPONENT, VERSION)).isNull()
+        assertThat(file!!.exists()).isFalse()
+    }
+
+    @Test
+    fun put_newPackageVersion_storesThumbnailUnderNewFile() {
+        val cache = createCache()
+        val oldFile = cache.put(COMPONENT, VERSION, createThumbnail(), /* rawDimensions= */ null)
+
+        val newFile = cache.put(COMPONENT, "2:2", createThumbnail(), /* rawDimensions= */ null)
+
+        assertThat(newFile).isNotEqualTo(oldFile)
+        assertThat(cache.getFile(COMPONENT, "2:2")).isEqualTo(newFile)
+    }
+
+    @Test
+    fun getBitmap_returnedBitmapRecycled_stillWritesBucket() {
+        val pendingWrites = mutableListOf<Runnable>()
+        val cache = LiveWallpaperThumbnailCache(temporaryFolder.root) { pendingWrites.add(it) }
+        cache.put(COMPONENT, VERSION, createThumbnail(), /* rawDimensions= */ null)
+
+        cache.getBitmap(COMPONENT, VERSION, 50, 25)!!.recycle()
+        pendingWrites.forEach { it.run() }
+
+        // The full size thumbnail and the quarter size one.
+        assertThat(temporaryFolder.root.listFiles { file -> file.name.endsWith(".png") })
+            .hasLength(2)
+    }
+
+    @Test
+    fun getBucket_returnsSmallestBucketCoveringTarget() {
+        assertThat(LiveWallpaperThumbnailCache.getBucket(800, 400, 0, 0)).isEqualTo(0)
+        assertThat(LiveWallpaperThumbnailCache.getBucket(800, 400, 500, 100)).isEqualTo(0)
+        assertThat(LiveWallpaperThumbnailCache.getBucket(800, 400, 200, 100)).isEqualTo(2)
+        assertThat(LiveWallpaperThumbnailCache.getBucket(800, 400, 10, 10))
+            .isEqualTo(LiveWallpaperThumbnailCache.MAX_BUCKET)
+    }
+
+    private fun createCache() = LiveWallpaperThumbnailCache(temporaryFolder.root, directExecutor)
+
+    private fun createThumbnail() = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888)
+
+    private companion object {
+        val COMPONENT = ComponentName("com.example.wallpaper", "com.example.wallpaper.Service")
+        const val VERSION = "1:1"
+    }
+}
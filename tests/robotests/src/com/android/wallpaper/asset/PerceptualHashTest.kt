@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.LinearGradient
+import android.graphics.Paint
+import android.graphics.Shader
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class PerceptualHashTest {
+
+    @Test
+    fun generateHashCode_blackImage_isNotZero() {
+        // 0 stands for a missing hash code wherever hash codes are saved.
+        val black = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        black.eraseColor(Color.BLACK)
+
+        assertThat(BitmapUtils.generateHashCode(black)).isNotEqualTo(0L)
+    }
+
+    @Test
+    fun generateHashCode_resizedImage_isUnchanged() {
+        // Large enough to be downsampled and hashed in several bands.
+        val hashCode = BitmapUtils.generateHashCode(createGradientBitmap(4000, 3000))
+
+        assertThat(BitmapUtils.generateHashCode(createGradientBitmap(1000, 750)))
+            .isEqualTo(hashCode)
+    }
+
+    @Test
+    fun generateHashCode_differentSolidColors_differ() {
+        val red = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        red.eraseColor(Color.RED)
+        val blue = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        blue.eraseColor(Color.BLUE)
+
+        assertThat(BitmapUtils.generateHashCode(red))
+            .isNotEqualTo(BitmapUtils.generateHashCode(blue))
+    }
+
+    @Test
+    fun generateHashCode_mirroredImage_differs() {
+        assertThat(BitmapUtils.generateHashCode(createGradientBitmap(400, 300, mirrored = true)))
+            .isNotEqualTo(BitmapUtils.generateHashCode(createGradientBitmap(400, 300)))
+    }
+
+    private fun createGradientBitmap(
+        width: Int,
+        height: Int,
+        mirrored: Boolean = false,
+    ): Bitmap {
+        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val colors = intArrayOf(Color.DKGRAY, Color.LTGRAY)
+        if (mirrored) {
+            colors.reverse()
+        }
+        val paint = Paint()
+        paint.shader =
+            LinearGradient(
+                0f,
+                0f,
+                width.toFloat(),
+                height.toFloat(),
+                colors,
+                null,
+                Shader.TileMode.CLAMP,
+            )
+        Canvas(bitmap).drawPaint(paint)
+        return bitmap
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Color
+import android.graphics.Rect
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class RegionDecoderPoolTest {
+
+    private val executor = Executors.newFixedThreadPool(2)
+    private val openedDecoders = mutableListOf<BitmapRegionDecoder>()
+    private val openCount = AtomicInteger()
+    private lateinit var imageBytes: ByteArray
+
+    @Before
+    fun setUp() {
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(Color.GREEN)
+        imageBytes =
+            ByteArrayOutputStream()
+                .also { bitmap.compress(Bitmap.CompressFormat.PNG, 100, it) }
+                .toByteArray()
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun decodeRegion_opensDecodersLazily() {
+        val underTest = RegionDecoderPool(MAX_DECODERS) { openDecoder() }
+        assertThat(openCount.get()).isEqualTo(0)
+
+        underTest.decodeRegion(TILE, BitmapFactory.Options())
+        underTest.decodeRegion(TILE, BitmapFactory.Options())
+
+        // The second decode reuses the idle decoder instead of opening another one.
+        assertThat(openCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun decodeRegion_decodesRegion() {
+        val underTest = RegionDecoderPool(MAX_DECODERS) { openDecoder() }
+
+        val region = underTest.decodeRegion(TILE, BitmapFactory.Options())!!
+
+        assertThat(region.width).isEqualTo(TILE.width())
+        assertThat(region.height).isEqualTo(TILE.height())
+        assertThat(region.getPixel(0, 0)).isEqualTo(Color.GREEN)
+    }
+
+    @Test
+    fun decodeRegion_everyDecoderBusy_waitsForOneToBeReleased() {
+        val opening = CountDownLatch(1)
+        val finishOpening = CountDownLatch(1)
+        val underTest =
+            RegionDecoderPool(/* maxDecoders= */ 1) {
+                opening.countDown()
+                finishOpening.await()
+                openDecoder()
+            }
+        val first =
+            executor.submit<Bitmap?> { underTest.decodeRegion(TILE, BitmapFactory.Options()) }
+        assertThat(opening.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+
+        val second =
+            executor.submit<Bitmap?> { underTest.decodeRegion(TILE, BitmapFactory.Options()) }
+        Thread.sleep(WAIT_MILLIS)
+        assertThat(second.isDone).isFalse()
+
+        finishOpening.countDown()
+        assertThat(first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNotNull()
+        assertThat(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNotNull()
+        assertThat(openCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun recycle_recyclesIdleDecoders() {
+        val underTest = RegionDecoderPool(MAX_DECODERS) { openDecoder() }
+        underTest.decodeRegion(TILE, BitmapFactory.Options())
+
+        underTest.recycle()
+
+        assertThat(openedDecoders.single().isRecycled).isTrue()
+    }
+
+    @Test
+    fun decodeRegion_afterRecycle_returnsNullWithoutOpening() {
+        val underTest = RegionDecoderPool(MAX_DECODERS) { openDecoder() }
+        underTest.recycle()
+
+        assertThat(underTest.decodeRegion(TILE, BitmapFactory.Options())).isNull()
+        assertThat(openCount.get()).isEqualTo(0)
+    }
+
+    @Test
+    fun recycle_wakesWaitingDecodes() {
+        val opening = CountDownLatch(1)
+        val finishOpening = CountDownLatch(1)
+        val underTest =
+            RegionDecoderPool(/* maxDecoders= */ 1) {
+                opening.countDown()
+                finishOpening.await()
+                openDecoder()
+            }
+        val first =
+            executor.submit<Bitmap?> { underTest.decodeRegion(TILE, BitmapFactory.Options()) }
+        assertThat(opening.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        val waiting =
+            executor.submit<Bitmap?> { underTest.decodeRegion(TILE, BitmapFactory.Options()) }
+        Thread.sleep(WAIT_MILLIS)
+
+        underTest.recycle()
+
+        assertThat(waiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isNull()
+        finishOpening.countDown()
+        first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        // The decoder in use when the pool was recycled is recycled once released.
+        assertThat(openedDecoders.single().isRecycled).isTrue()
+    }
+
+    @Suppress("DEPRECATION")
+    @Synchronized
+    private fun openDecoder(): BitmapRegionDecoder {
+        openCount.incrementAndGet()
+        return BitmapRegionDecoder.newInstance(imageBytes, 0, imageBytes.size, false)!!.also {
+            openedDecoders.add(it)
+        }
+    }
+
+    private companion object {
+        const val WIDTH = 200
+        const val HEIGHT = 100
+        const val MAX_DECODERS = 4
+        const val TIMEOUT_SECONDS = 5L
+        const val WAIT_MILLIS = 100L
+        val TILE = Rect(50, 25, 150, 75)
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.Point
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class StreamableAssetTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    @Before
+    fun setUp() {
+        AssetMetadataCache.clear()
+    }
+
+    @Test
+    fun calculateRawDimensions_image_returnsDimensions() {
+        val file = temporaryFolder.newFile("wallpaper.png")
+        file.outputStream().use {
+            Bitmap.createBitmap(40, 30, Bitmap.Config.ARGB_8888)
+                .compress(Bitmap.CompressFormat.PNG, 100, it)
+        }
+
+        assertThat(FileAsset(file).calculateRawDimensions()).isEqualTo(Point(40, 30))
+    }
+
+    @Test
+    fun calculateRawDimensions_notAnImage_returnsNull() {
+        val file = temporaryFolder.newFile("wallpaper.png")
+        file.writeText("not an image")
+
+        assertThat(FileAsset(file).calculateRawDimensions()).isNull()
+        assertThat(FileAsset(file).metadata).isNull()
+    }
+}
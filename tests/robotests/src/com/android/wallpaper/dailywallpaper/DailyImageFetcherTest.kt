@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.dailywallpaper
+
+import com.google.common.truth.Truth.assertThat
+import java.io.IOException
+import java.io.OutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.URL
+import java.util.Collections
+import kotlin.concurrent.thread
+import org.junit.After
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/** Runs [DailyImageFetcher] against a local stand-in for the daily image endpoint. */
+@RunWith(RobolectricTestRunner::class)
+class DailyImageFetcherTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private val serverSocket = ServerSocket(0, 0, InetAddress.getLoopbackAddress())
+    private lateinit var underTest: DailyImageFetcher
+
+    @Volatile private var imagePath = "/image-1.jpg"
+    @Volatile private var imageBytes = ByteArray(100_000) { it.toByte() }
+    /** Number of bytes to send before dropping the next full image download, if any. */
+    @Volatile private var interruptImageAt = -1
+    /** The range header of each image request. */
+    private val imageRequests = Collections.synchronizedList(mutableListOf<String?>())
+
+    @Before
+    fun setUp() {
+        thread(isDaemon = true) {
+            while (!serverSocket.isClosed) {
+                try {
+                    serverSocket.accept().use { serve(it) }
+                } catch (e: IOException) {
+                    // Closed by the test or by the client.
+                }
+            }
+        }
+        underTest =
+            DailyImageFetcher(
+                URL("http://localhost:${serverSocket.localPort}/endpoint"),
+                temporaryFolder.newFolder(),
+            )
+    }
+
+    @After
+    fun tearDown() {
+        serverSocket.close()
+    }
+
+    @Test
+    fun fetch_first_downloadsImage() {
+        val imageFile = underTest.fetch()
+
+        assertThat(imageFile!!.readBytes()).isEqualTo(imageBytes)
+    }
+
+    @Test
+    fun fetch_unchangedAndApplied_doesNotDownloadAgain() {
+        underTest.fetch()
+        underTest.markApplied()
+
+        assertThat(underTest.fetch()).isNull()
+        assertThat(imageRequests).hasSize(1)
+    }
+
+    @Test
+    fun fetch_unchangedButNotApplied_returnsImageWithoutDownloadingAgain() {
+        underTest.fetch()
+
+        val imageFile = underTest.fetch()
+
+        assertThat(imageFile!!.readBytes()).isEqualTo(imageBytes)
+        assertThat(imageRequests).hasSize(1)
+    }
+
+    @Test
+    fun fetch_newImageAfterApplied_downloadsIt() {
+        underTest.fetch()
+        underTest.markApplied()
+        imagePath = "/image-2.jpg"
+        imageBytes = ByteArray(1_000) { 7 }
+
+        val imageFile = underTest.fetch()
+
+        assertThat(imageFile!!.readBytes()).isEqualTo(imageBytes)
+    }
+
+    @Test
+    fun markApplied_afterInterruptedDownload_doesNotSkipTheImage() {
+        interruptImageAt = 30_000
+        assertThrows(IOException::class.java) { underTest.fetch() }
+        underTest.markApplied()
+
+        assertThat(underTest.fetch()).isNotNull()
+    }
+
+    @Test
+    fun fetch_newImage_downloadsIt() {
+        underTest.fetch()
+        imagePath = "/image-2.jpg"
+        imageBytes = ByteArray(1_000) { 7 }
+
+        val imageFile = underTest.fetch()
+
+        assertThat(imageFile!!.readBytes()).isEqualTo(imageBytes)
+    }
+
+    @Test
+    fun fetch_afterInterruptedDownload_resumesIt() {
+        interruptImageAt = 30_000
+        assertThrows(IOException::class.java) { underTest.fetch() }
+
+        val imageFile = underTest.fetch()
+
+        assertThat(imageRequests.last()).isEqualTo("bytes=30000-")
+        assertThat(imageFile!!.readBytes()).isEqualTo(imageBytes)
+    }
+
+    private fun serve(socket: Socket) {
+        val reader = socket.getInputStream().bufferedReader()
+        val path = reader.readLine().split(" ")[1]
+        val headers =
+            generateSequence { reader.readLine() }
+                .takeWhile { it.isNotEmpty() }
+                .associate { it.substringBefore(":").lowercase() to it.substringAfter(":").trim() }
+        val out = socket.getOutputStream()
+        if (path == "/endpoint") {
+            serveEndpoint(headers, out)
+        } else {
+            serveImage(headers, out)
+        }
+        out.flush()
+    }
+
+    private fun serveEndpoint(headers: Map<String, String>, out: OutputStream) {
+        val etag = "\"$imagePath\""
+        if (headers["if-none-match"] == etag) {
+            writeResponse(out, "304 Not Modified", etag, ByteArray(0))
+        } else {
+            val body = """{"images":[{"url":"$imagePath"}]}"""
+            writeResponse(out, "200 OK", etag, body.toByteArray())
+        }
+    }
+
+    private fun serveImage(headers: Map<String, String>, out: OutputStream) {
+        val range = headers["range"]
+        imageRequests.add(range)
+        val etag = "\"${imageBytes.contentHashCode()}\""
+        if (range != null) {
+            val offset = range.removePrefix("bytes=").removeSuffix("-").toInt()
+            val body = imageBytes.copyOfRange(offset, imageBytes.size)
+            writeResponse(out, "206 Partial Content", etag, body)
+        } else if (interruptImageAt >= 0) {
+            writeResponse(out, "200 OK", etag, imageBytes, sentLength = interruptImageAt)
+            interruptImageAt = -1
+        } else {
+            writeResponse(out, "200 OK", etag, imageBytes)
+        }
+    }
+
+    private fun writeResponse(
+        out: OutputStream,
+        status: String,
+        etag: String,
+        body: ByteArray,
+        sentLength: Int = body.size,
+    ) {
+        val head =
+            "HTTP/1.1 $status\r\nETag: $etag\r\nContent-Length: ${body.size}\r\n" +
+                "Connection: close\r\n\r\n"
+        out.write(head.toByteArray())
+        out.write(body, 0, sentLength)
+    }
+}
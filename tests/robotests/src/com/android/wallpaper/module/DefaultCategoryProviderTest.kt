@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import com.android.wallpaper.model.Category
+import com.android.wallpaper.model.CategoryReceiver
+import com.android.wallpaper.model.ImageCategory
+import com.android.wallpaper.testing.TestInjector
+import com.google.common.truth.Truth.assertThat
+import dagger.hilt.android.qualifiers.ApplicationContext
+import dagger.hilt.android.testing.HiltAndroidRule
+import dagger.hilt.android.testing.HiltAndroidTest
+import javax.inject.Inject
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@HiltAndroidTest
+@RunWith(RobolectricTestRunner::class)
+class DefaultCategoryProviderTest {
+
+    @get:Rule var hiltRule = HiltAndroidRule(this)
+
+    @Inject @ApplicationContext lateinit var context: Context
+    @Inject lateinit var testInjector: TestInjector
+
+    // Receivers of the fetch tasks started so far, which the tests push categories to.
+    private val fetches = mutableListOf<CategoryReceiver>()
+    private lateinit var underTest: DefaultCategoryProvider
+
+    @Before
+    fun setUp() {
+        hiltRule.inject()
+        InjectorProvider.setInjector(testInjector)
+        underTest =
+            object : DefaultCategoryProvider(context) {
+                override fun createFetchCategoriesTask(
+                    receiver: CategoryReceiver
+                ): DefaultCategoryProvider.FetchCategoriesTask =
+                    object : DefaultCategoryProvider.FetchCategoriesTask(receiver, context) {
+                        override fun execute() {
+                            fetches.add(receiver)
+                        }
+                    }
+            }
+    }
+
+    @Test
+    fun fetchCategories_sourcesFinishOutOfOrder_keepsCategoriesByPriority() {
+        underTest.fetchCategories(RecordingReceiver(), /* forceRefresh= */ false)
+
+        fetches[0].onCategoryReceived(THIRD_PARTY)
+        fetches[0].onCategoryReceived(SYSTEM_1)
+        fetches[0].onCategoryReceived(MY_PHOTOS)
+        fetches[0].onCategoryReceived(SYSTEM_2)
+        fetches[0].doneFetchingCategories()
+
+        assertThat(categories())
+            .containsExactly(MY_PHOTOS, SYSTEM_1, SYSTEM_2, THIRD_PARTY)
+            .inOrder()
+    }
+
+    @Test
+    fun fetchCategories_duringFetch_joinsIt() {
+        val first = RecordingReceiver()
+        val second = RecordingReceiver()
+        underTest.fetchCategories(first, /* forceRefresh= */ false)
+        fetches[0].onCategoryReceived(SYSTEM_1)
+
+        underTest.fetchCategories(second, /* forceRefresh= */ false)
+        fetches[0].onCategoryReceived(MY_PHOTOS)
+        fetches[0].doneFetchingCategories()
+
+        assertThat(fetches).hasSize(1)
+        assertThat(second.categories).containsExactly(SYSTEM_1, MY_PHOTOS).inOrder()
+        assertThat(second.doneCount).isEqualTo(1)
+        assertThat(first.doneCount).isEqualTo(1)
+        assertThat(categories()).containsExactly(MY_PHOTOS, SYSTEM_1).inOrder()
+    }
+
+    @Test
+    fun fetchCategories_forceRefreshDuringFetch_startsOnceItIsDone() {
+        val first = RecordingReceiver()
+        val refresh = RecordingReceiver()
+        underTest.fetchCategories(first, /* forceRefresh= */ false)
+        fetches[0].onCategoryReceived(SYSTEM_1)
+
+        underTest.fetchCategories(refresh, /* forceRefresh= */ true)
+        assertThat(fetches).hasSize(1)
+        fetches[0].onCategoryReceived(MY_PHOTOS)
+        fetches[0].doneFetchingCategories()
+
+        assertThat(first.categories).containsExactly(SYSTEM_1, MY_PHOTOS).inOrder()
+        assertThat(first.doneCount).isEqualTo(1)
+        assertThat(fetches).hasSize(2)
+        assertThat(underTest.isCategoriesFetched).isFalse()
+
+        fetches[1].onCategoryReceived(SYSTEM_1)
+        fetches[1].onCategoryReceived(MY_PHOTOS)
+        fetches[1].doneFetchingCategories()
+
+        assertThat(refresh.categories).containsExactly(SYSTEM_1, MY_PHOTOS).inOrder()
+        assertThat(refresh.doneCount).isEqualTo(1)
+        assertThat(categories()).containsExactly(MY_PHOTOS, SYSTEM_1).inOrder()
+    }
+
+    @Test
+    fun fetchCategories_fetched_servesCachedCategories() {
+        underTest.fetchCategories(RecordingReceiver(), /* forceRefresh= */ false)
+        fetches[0].onCategoryReceived(SYSTEM_1)
+        fetches[0].doneFetchingCategories()
+        val receiver = RecordingReceiver()
+
+        underTest.fetchCategories(receiver, /* forceRefresh= */ false)
+
+        assertThat(fetches).hasSize(1)
+        assertThat(receiver.categories).containsExactly(SYSTEM_1)
+        assertThat(receiver.doneCount).isEqualTo(1)
+    }
+
+    private fun categories(): List<Category> =
+        (0 until underTest.size).map { underTest.getCategory(it) }
+
+    private class RecordingReceiver : CategoryReceiver {
+        val categories = mutableListOf<Category>()
+        var doneCount = 0
+
+        override fun onCategoryReceived(category: Category) {
+            categories.add(category)
+        }
+
+        override fun doneFetchingCategories() {
+            doneCount++
+        }
+    }
+
+    private companion object {
+        val MY_PHOTOS = ImageCategory("My photos", "my_photos", 1)
+        val SYSTEM_1 = ImageCategory("System 1", "system_1", 100)
+        val SYSTEM_2 = ImageCategory("System 2", "system_2", 100)
+        val THIRD_PARTY = ImageCategory("Third party", "third_party", 400)
+    }
+}
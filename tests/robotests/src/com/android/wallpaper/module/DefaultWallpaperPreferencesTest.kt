@@ -17,10 +17,12 @@ package com.android.wallpaper.module
 
 import android.content.Context
 import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
 import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
 import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
@@ -28,8 +30,9 @@ import org.robolectric.RobolectricTestRunner
 @RunWith(RobolectricTestRunner::class)
 class DefaultWallpaperPreferencesTest {
 
+    private val context: Context = ApplicationProvider.getApplicationContext()
     private val wallpaperPreferences: DefaultWallpaperPreferences =
-        DefaultWallpaperPreferences(ApplicationProvider.getApplicationContext())
+        DefaultWallpaperPreferences(context)
 
     @Test
     fun setHomeStaticImageWallpaperMetadata_metadataShouldBeSavedToPreferences() {
@@ -45,7 +48,7 @@ class DefaultWallpaperPreferencesTest {
         )
 
         val sharedPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+            context.getSharedPreferences(
                 DefaultWallpaperPreferences.PREFS_NAME,
                 Context.MODE_PRIVATE
             )
@@ -63,14 +66,12 @@ class DefaultWallpaperPreferencesTest {
             .isEqualTo("cultural_events")
         assertThat(sharedPref.getLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, 0L))
             .isEqualTo(10013)
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 0)).isEqualTo(3)
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, null))
-            .isEqualTo("ocean")
+        assertThat(wallpaperPreferences.getHomeWallpaperHashCodeVersion())
+            .isEqualTo(BitmapUtils.HASH_CODE_VERSION)
+        // Device-specific metadata is read back through a new instance, from its stored record.
+        val reloadedPreferences = DefaultWallpaperPreferences(context)
+        assertThat(reloadedPreferences.getHomeWallpaperManagerId()).isEqualTo(3)
+        assertThat(reloadedPreferences.getHomeWallpaperRemoteId()).isEqualTo("ocean")
     }
 
     @Test
@@ -87,7 +88,7 @@ class DefaultWallpaperPreferencesTest {
         )
 
         val sharedPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+            context.getSharedPreferences(
                 DefaultWallpaperPreferences.PREFS_NAME,
                 Context.MODE_PRIVATE
             )
@@ -99,16 +100,12 @@ class DefaultWallpaperPreferencesTest {
                 sharedPref.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, null)
             )
             .isEqualTo("living_universe")
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, null))
+        // Device-specific metadata is read back through a new instance, from its stored record.
+        val reloadedPreferences = DefaultWallpaperPreferences(context)
+        assertThat(reloadedPreferences.getHomeWallpaperServiceName())
             .isEqualTo("com.google.pixel.livewallpaper.dioramas.fiji.wallpapers.FijiWallpaper")
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, null))
-            .isEqualTo(null)
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 0)).isEqualTo(2)
+        assertThat(reloadedPreferences.getHomeWallpaperEffects()).isEqualTo(null)
+        assertThat(reloadedPreferences.getHomeWallpaperManagerId()).isEqualTo(2)
     }
 
     @Test
@@ -125,7 +122,7 @@ class DefaultWallpaperPreferencesTest {
         )
 
         val sharedPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+            context.getSharedPreferences(
                 DefaultWallpaperPreferences.PREFS_NAME,
                 Context.MODE_PRIVATE
             )
@@ -143,14 +140,10 @@ class DefaultWallpaperPreferencesTest {
             .isEqualTo("cultural_events")
         assertThat(sharedPref.getLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, 0L))
             .isEqualTo(10013)
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 0)).isEqualTo(3)
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, null))
-            .isEqualTo("ocean")
+        // Device-specific metadata is read back through a new instance, from its stored record.
+        val reloadedPreferences = DefaultWallpaperPreferences(context)
+        assertThat(reloadedPreferences.getLockWallpaperManagerId()).isEqualTo(3)
+        assertThat(reloadedPreferences.getLockWallpaperRemoteId()).isEqualTo("ocean")
     }
 
     @Test
@@ -167,7 +160,7 @@ class DefaultWallpaperPreferencesTest {
         )
 
         val sharedPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+            context.getSharedPreferences(
                 DefaultWallpaperPreferences.PREFS_NAME,
                 Context.MODE_PRIVATE
             )
@@ -179,15 +172,185 @@ class DefaultWallpaperPreferencesTest {
                 sharedPref.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID, null)
             )
             .isEqualTo("living_universe")
+        // Device-specific metadata is read back through a new instance, from its stored record.
+        val reloadedPreferences = DefaultWallpaperPreferences(context)
+        assertThat(reloadedPreferences.getLockWallpaperServiceName())
+            .isEqualTo("com.google.pixel.livewallpaper.dioramas.fiji.wallpapers.FijiWallpaper")
+        assertThat(reloadedPreferences.getLockWallpaperEffects()).isEqualTo(null)
+        assertThat(reloadedPreferences.getLockWallpaperManagerId()).isEqualTo(2)
+    }
+
+    @Test
+    fun runInTransaction_writesOnlyWhenOutermostTransactionEnds() {
+        val sharedPref =
+            context.getSharedPreferences(
+                DefaultWallpaperPreferences.PREFS_NAME,
+                Context.MODE_PRIVATE
+            )
+
+        wallpaperPreferences.runInTransaction {
+            wallpaperPreferences.runInTransaction {
+                wallpaperPreferences.setHomeWallpaperCollectionId("cultural_events")
+                wallpaperPreferences.setHomeWallpaperRemoteId("ocean")
+            }
+            assertThat(wallpaperPreferences.getHomeWallpaperCollectionId())
+                .isEqualTo("cultural_events")
+            assertThat(wallpaperPreferences.getHomeWallpaperRemoteId()).isEqualTo("ocean")
+            assertThat(
+                    sharedPref.getString(
+                        WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID,
+                        null
+                    )
+                )
+                .isNull()
+        }
+
+        assertThat(
+                sharedPref.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, null)
+            )
+            .isEqualTo("cultural_events")
+        assertThat(DefaultWallpaperPreferences(context).getHomeWallpaperRemoteId())
+            .isEqualTo("ocean")
+    }
+
+    @Test
+    fun clearHomeWallpaperMetadata_keepsRecentsKey() {
+        wallpaperPreferences.setHomeWallpaperRecentsKey("recents")
+        wallpaperPreferences.setHomeWallpaperRemoteId("ocean")
+
+        wallpaperPreferences.clearHomeWallpaperMetadata()
+
+        assertThat(wallpaperPreferences.getHomeWallpaperRecentsKey()).isEqualTo("recents")
+        assertThat(wallpaperPreferences.getHomeWallpaperRemoteId()).isNull()
+    }
+
+    @Test
+    fun getLockWallpaperHashCodeVersion_hashCodeSavedBeforeVersioning_isZero() {
+        // As restored from a backup of an older version of the app.
+        context
+            .getSharedPreferences(DefaultWallpaperPreferences.PREFS_NAME, Context.MODE_PRIVATE)
+            .edit()
+            .putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, 0x0123456789abcdefL)
+            .commit()
+
+        assertThat(wallpaperPreferences.getLockWallpaperHashCode()).isEqualTo(0x0123456789abcdefL)
+        assertThat(wallpaperPreferences.getLockWallpaperHashCodeVersion()).isEqualTo(0)
+
+        wallpaperPreferences.setLockWallpaperHashCode(10013L)
+
+        assertThat(wallpaperPreferences.getLockWallpaperHashCodeVersion())
+            .isEqualTo(BitmapUtils.HASH_CODE_VERSION)
+    }
+
+    @Test
+    fun clearLockWallpaperMetadata_clearsHashCodeVersion() {
+        wallpaperPreferences.setLockWallpaperHashCode(10013L)
+
+        wallpaperPreferences.clearLockWallpaperMetadata()
+
+        assertThat(wallpaperPreferences.getLockWallpaperHashCode()).isEqualTo(0)
+        assertThat(wallpaperPreferences.getLockWallpaperHashCodeVersion()).isEqualTo(0)
+    }
+
+    @Test
+    fun init_migratesLegacyNoBackupKeysIntoRecords() {
         val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+            context.getSharedPreferences(
                 DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
                 Context.MODE_PRIVATE
             )
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, null))
-            .isEqualTo("com.google.pixel.livewallpaper.dioramas.fiji.wallpapers.FijiWallpaper")
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, null))
-            .isEqualTo(null)
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 0)).isEqualTo(2)
+        noBackupPref
+            .edit()
+            .putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 7)
+            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, "ocean")
+            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, "effects")
+            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_BACKING_FILE, "file")
+            .commit()
+
+        val migratedPreferences = DefaultWallpaperPreferences(context)
+
+        assertThat(migratedPreferences.getLockWallpaperManagerId()).isEqualTo(7)
+        assertThat(migratedPreferences.getLockWallpaperRemoteId()).isEqualTo("ocean")
+        assertThat(migratedPreferences.getLockWallpaperEffects()).isEqualTo("effects")
+        assertThat(noBackupPref.contains(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID)).isFalse()
+        assertThat(noBackupPref.contains(NoBackupKeys.KEY_LOCK_WALLPAPER_BACKING_FILE)).isFalse()
+        assertThat(noBackupPref.contains(NoBackupKeys.KEY_LOCK_WALLPAPER_RECORD)).isTrue()
+    }
+
+    @Test
+    fun init_migratesDailyRotationTimestampsIntoHistory() {
+        val noBackupPref =
+            context.getSharedPreferences(
+                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
+                Context.MODE_PRIVATE
+            )
+        noBackupPref
+            .edit()
+            .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[100,200,300]")
+            .commit()
+
+        val migratedPreferences = DefaultWallpaperPreferences(context)
+        migratedPreferences.addDailyRotation(400)
+
+        assertThat(migratedPreferences.getLastDailyRotationTimestamp()).isEqualTo(400)
+        assertThat(migratedPreferences.getDailyRotationTimestamps(200, 400))
+            .asList()
+            .containsExactly(200L, 300L)
+            .inOrder()
+        assertThat(noBackupPref.contains(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)).isFalse()
+    }
+
+    @Test
+    fun runInTransaction_blockThrows_discardsItsChanges() {
+        assertThrows(IllegalStateException::class.java) {
+            wallpaperPreferences.runInTransaction {
+                wallpaperPreferences.setHomeWallpaperCollectionId("cultural_events")
+                wallpaperPreferences.setHomeWallpaperRemoteId("ocean")
+                throw IllegalStateException()
+            }
+        }
+
+        val reloadedPreferences = DefaultWallpaperPreferences(context)
+        assertThat(reloadedPreferences.getHomeWallpaperCollectionId()).isNull()
+        assertThat(reloadedPreferences.getHomeWallpaperRemoteId()).isNull()
+    }
+
+    @Test
+    fun runInTransaction_nestedBlockThrows_keepsOuterChanges() {
+        wallpaperPreferences.runInTransaction {
+            wallpaperPreferences.setHomeWallpaperCollectionId("cultural_events")
+            try {
+                wallpaperPreferences.runInTransaction {
+                    wallpaperPreferences.setHomeWallpaperRemoteId("ocean")
+                    throw IllegalStateException()
+                }
+            } catch (e: IllegalStateException) {
+                // Expected, the outer transaction carries on.
+            }
+        }
+
+        val reloadedPreferences = DefaultWallpaperPreferences(context)
+        assertThat(reloadedPreferences.getHomeWallpaperCollectionId()).isEqualTo("cultural_events")
+        assertThat(reloadedPreferences.getHomeWallpaperRemoteId()).isNull()
+    }
+
+    @Test
+    fun getHomeWallpaperRemoteId_recordOfUnknownVersion_isDropped() {
+        context
+            .getSharedPreferences(
+                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
+                Context.MODE_PRIVATE
+            )
+            .edit()
+            .putString(
+                NoBackupKeys.KEY_HOME_WALLPAPER_RECORD,
+                """{"version":2,"managerId":7,"remoteId":"ocean"}""",
+            )
+            .commit()
+
+        val preferences = DefaultWallpaperPreferences(context)
+
+        assertThat(preferences.getHomeWallpaperManagerId()).isEqualTo(0)
+        assertThat(preferences.getHomeWallpaperRemoteId()).isNull()
     }
 }
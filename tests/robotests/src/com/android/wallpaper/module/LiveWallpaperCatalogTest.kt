@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.content.pm.ResolveInfo
+import android.content.pm.ServiceInfo
+import android.util.AtomicFile
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.testing.ShadowWallpaperInfo
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import java.util.concurrent.Executor
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+
+/**
+ * Tests [LiveWallpaperCatalog]. Resolve infos for the same service differ in their split name, so
+ * that a cataloged [android.app.WallpaperInfo] can be told apart from a freshly parsed one.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [ShadowWallpaperInfo::class])
+class LiveWallpaperCatalogTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private lateinit var context: Context
+    private lateinit var file: AtomicFile
+    private lateinit var underTest: LiveWallpaperCatalog
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        file = AtomicFile(File(temporaryFolder.root, "live_wallpaper_catalog"))
+        installPackage(lastUpdateTime = 1)
+        underTest = createCatalog()
+    }
+
+    @Test
+    fun getWallpaperInfo_cataloged_returnsCatalogedInfo() {
+        underTest.getWallpaperInfo(context, resolveInfo("first"))
+
+        val wallpaperInfo = underTest.getWallpaperInfo(context, resolveInfo("second"))
+
+        assertThat(wallpaperInfo.serviceInfo.splitName).isEqualTo("first")
+    }
+
+    @Test
+    fun getWallpaperInfo_afterInvalidate_parsesAgain() {
+        underTest.getWallpaperInfo(context, resolveInfo("first"))
+
+        underTest.invalidate(PACKAGE_NAME)
+        val wallpaperInfo = underTest.getWallpaperInfo(context, resolveInfo("second"))
+
+        assertThat(wallpaperInfo.serviceInfo.splitName).isEqualTo("second")
+    }
+
+    @Test
+    fun getWallpaperInfo_packageUpdated_parsesAgain() {
+        underTest.getWallpaperInfo(context, resolveInfo("first"))
+
+        installPackage(lastUpdateTime = 2)
+        val wallpaperInfo = underTest.getWallpaperInfo(context, resolveInfo("second"))
+
+        assertThat(wallpaperInfo.serviceInfo.splitName).isEqualTo("second")
+    }
+
+    @Test
+    fun getWallpaperInfo_newCatalogOnSameFile_returnsPersistedInfo() {
+        underTest.getWallpaperInfo(context, resolveInfo("first"))
+
+        val wallpaperInfo = createCatalog().getWallpaperInfo(context, resolveInfo("second"))
+
+        assertThat(wallpaperInfo.serviceInfo.splitName).isEqualTo("first")
+    }
+
+    @Test
+    fun getWallpaperInfo_packageUpdatedBeforeNewCatalog_parsesAgain() {
+        underTest.getWallpaperInfo(context, resolveInfo("first"))
+
+        installPackage(lastUpdateTime = 2)
+        val wallpaperInfo = createCatalog().getWallpaperInfo(context, resolveInfo("second"))
+
+        assertThat(wallpaperInfo.serviceInfo.splitName).isEqualTo("second")
+    }
+
+    @Test
+    fun getPackageVersion_changesWithPackageUpdates() {
+        val version = underTest.getPackageVersion(PACKAGE_NAME)
+
+        installPackage(lastUpdateTime = 2)
+
+        assertThat(version).isNotNull()
+        assertThat(underTest.getPackageVersion(PACKAGE_NAME)).isNotEqualTo(version)
+    }
+
+    @Test
+    fun getPackageVersion_notInstalled_returnsNull() {
+        assertThat(underTest.getPackageVersion("com.example.missing")).isNull()
+    }
+
+    /** Writes synchronously, so that a new catalog on the same file sees every change. */
+    private fun createCatalog() =
+        LiveWallpaperCatalog(context.packageManager, file, Executor { it.run() })
+
+    private fun installPackage(lastUpdateTime: Long) {
+        shadowOf(context.packageManager)
+            .installPackage(
+                PackageInfo().apply {
+                    packageName = PACKAGE_NAME
+                    applicationInfo = ApplicationInfo().apply { packageName = PACKAGE_NAME }
+                    this.lastUpdateTime = lastUpdateTime
+                }
+            )
+    }
+
+    private fun resolveInfo(splitName: String) =
+        ResolveInfo().apply {
+            serviceInfo =
+                ServiceInfo().apply {
+                    packageName = PACKAGE_NAME
+                    name = SERVICE_NAME
+                    this.splitName = splitName
+                }
+        }
+
+    private companion object {
+        const val PACKAGE_NAME = "com.example.livewallpaper"
+        const val SERVICE_NAME = "com.example.livewallpaper.ExampleWallpaperService"
+    }
+}
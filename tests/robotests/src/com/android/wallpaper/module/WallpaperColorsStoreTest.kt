@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.app.WallpaperColors
+import android.graphics.Color
+import android.graphics.Point
+import android.graphics.Rect
+import android.util.AtomicFile
+import com.google.common.truth.Truth.assertThat
+import java.io.DataOutputStream
+import java.io.File
+import java.util.concurrent.Executor
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WallpaperColorsStoreTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private val directExecutor = Executor { it.run() }
+
+    @Test
+    fun get_afterPut_returnsColorsFromNewInstance() {
+        val file = File(temporaryFolder.root, "colors")
+        createStore(file).put(WALLPAPER_ID, CROP_HINTS, RED_COLORS)
+
+        val colors = createStore(file).get(WALLPAPER_ID, CROP_HINTS)
+
+        assertThat(colors).isNotNull()
+        assertThat(colors!!.primaryColor).isEqualTo(RED_COLORS.primaryColor)
+        assertThat(colors.secondaryColor).isEqualTo(RED_COLORS.secondaryColor)
+    }
+
+    @Test
+    fun get_afterPut_keepsAllMainColorsAndHints() {
+        val file = File(temporaryFolder.root, "colors")
+        val colors =
+            WallpaperColors(
+                Color.valueOf(Color.RED),
+                Color.valueOf(Color.GREEN),
+                Color.valueOf(Color.BLUE),
+                WallpaperColors.HINT_SUPPORTS_DARK_TEXT,
+            )
+        createStore(file).put(WALLPAPER_ID, CROP_HINTS, colors)
+
+        val stored = createStore(file).get(WALLPAPER_ID, CROP_HINTS)
+
+        assertThat(stored).isEqualTo(colors)
+    }
+
+    @Test
+    fun get_fileOfOtherVersion_returnsNull() {
+        val file = File(temporaryFolder.root, "colors")
+        DataOutputStream(file.outputStream()).use {
+            it.writeInt(0x57434f4c)
+            it.writeInt(1)
+            it.writeInt(1)
+            it.writeUTF(WallpaperColorsStore.createKey(WALLPAPER_ID, CROP_HINTS))
+            it.writeInt(0)
+        }
+
+        assertThat(createStore(file).get(WALLPAPER_ID, CROP_HINTS)).isNull()
+    }
+
+    @Test
+    fun get_differentCropHints_returnsNull() {
+        val store = createStore(File(temporaryFolder.root, "colors"))
+        store.put(WALLPAPER_ID, CROP_HINTS, RED_COLORS)
+
+        assertThat(store.get(WALLPAPER_ID, null)).isNull()
+        assertThat(store.get(WALLPAPER_ID, mapOf(Point(1000, 2000) to Rect(0, 0, 50, 100))))
+            .isNull()
+    }
+
+    @Test
+    fun createKey_sameCropHintsInDifferentOrder_isEqual() {
+        val first = linkedMapOf(Point(1, 2) to Rect(0, 0, 1, 2), Point(3, 4) to Rect(0, 0, 3, 4))
+        val second = linkedMapOf(Point(3, 4) to Rect(0, 0, 3, 4), Point(1, 2) to Rect(0, 0, 1, 2))
+
+        assertThat(WallpaperColorsStore.createKey(WALLPAPER_ID, first))
+            .isEqualTo(WallpaperColorsStore.createKey(WALLPAPER_ID, second))
+    }
+
+    @Test
+    fun put_overSizeCap_evictsLeastRecentlyUsed() {
+        val file = File(temporaryFolder.root, "colors")
+        createStore(file).put("probe", null, RED_COLORS)
+        // The file holds one entry and a small header, so twice its size fits two entries with
+        // keys of the same length but not three.
+        val maxBytes = file.length().toInt() * 2
+        val store = createStore(File(temporaryFolder.root, "bounded"), maxBytes)
+
+        store.put("first", null, RED_COLORS)
+        store.put("secnd", null, RED_COLORS)
+        store.get("first", null)
+        store.put("third", null, RED_COLORS)
+
+        assertThat(store.get("first", null)).isNotNull()
+        assertThat(store.get("secnd", null)).isNull()
+        assertThat(store.get("third", null)).isNotNull()
+    }
+
+    private fun createStore(file: File, maxBytes: Int = Int.MAX_VALUE) =
+        WallpaperColorsStore(AtomicFile(file), directExecutor, maxBytes)
+
+    private companion object {
+        const val WALLPAPER_ID = "wallpaperId"
+        val CROP_HINTS = mapOf(Point(1000, 2000) to Rect(0, 0, 100, 200))
+        val RED_COLORS =
+            WallpaperColors(Color.valueOf(Color.RED), Color.valueOf(Color.GREEN), null)
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.app.WallpaperManager
+import android.app.WallpaperManager.FLAG_LOCK
+import android.app.WallpaperManager.FLAG_SYSTEM
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.drawable.BitmapDrawable
+import android.os.ParcelFileDescriptor
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.asset.BitmapUtils
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayInputStream
+import java.io.File
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class WallpaperFingerprinterTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private lateinit var wallpaperManager: WallpaperManager
+    private lateinit var underTest: WallpaperFingerprinter
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+        wallpaperManager = mock(WallpaperManager::class.java)
+        underTest =
+            WallpaperFingerprinter(
+                wallpaperManager,
+                context.getSharedPreferences("wallpaper-fingerprints-test", Context.MODE_PRIVATE),
+            )
+    }
+
+    @Test
+    fun getHashCode_home_hashesDrawableRatherThanFile() {
+        setWallpaperFile(FLAG_SYSTEM, id = 1, createBitmap(Color.RED))
+        val drawableBitmap = createBitmap(Color.BLUE)
+        doReturn(BitmapDrawable(null, drawableBitmap)).`when`(wallpaperManager).drawable
+
+        assertThat(underTest.getHashCode(FLAG_SYSTEM))
+            .isEqualTo(BitmapUtils.generateHashCode(drawableBitmap))
+    }
+
+    @Test
+    fun getHashCode_homeUnchanged_servesStoredHashCode() {
+        setWallpaperFile(FLAG_SYSTEM, id = 1, createBitmap(Color.RED))
+        doReturn(BitmapDrawable(null, createBitmap(Color.RED))).`when`(wallpaperManager).drawable
+        val hashCode = underTest.getHashCode(FLAG_SYSTEM)
+
+        assertThat(underTest.getHashCode(FLAG_SYSTEM)).isEqualTo(hashCode)
+        verify(wallpaperManager, times(1)).drawable
+    }
+
+    @Test
+    fun getHashCode_homeResetToSameImage_servesStoredHashCode() {
+        val bitmap = createBitmap(Color.RED)
+        setWallpaperFile(FLAG_SYSTEM, id = 1, bitmap)
+        doReturn(BitmapDrawable(null, bitmap)).`when`(wallpaperManager).drawable
+        val hashCode = underTest.getHashCode(FLAG_SYSTEM)
+
+        setWallpaperFile(FLAG_SYSTEM, id = 2, bitmap)
+
+        assertThat(underTest.getHashCode(FLAG_SYSTEM)).isEqualTo(hashCode)
+        verify(wallpaperManager, times(1)).drawable
+    }
+
+    @Test
+    fun getHashCode_noHomeFile_hashesDefaultWallpaper() {
+        val bitmap = createBitmap(Color.GREEN)
+        doReturn(BitmapDrawable(null, bitmap)).`when`(wallpaperManager).drawable
+
+        assertThat(underTest.getHashCode(FLAG_SYSTEM))
+            .isEqualTo(BitmapUtils.generateHashCode(bitmap))
+    }
+
+    @Test
+    fun getHashCode_lock_hashesDecodedFile() {
+        val bitmap = createBitmap(Color.BLUE)
+        setWallpaperFile(FLAG_LOCK, id = 1, bitmap)
+
+        assertThat(underTest.getHashCode(FLAG_LOCK))
+            .isEqualTo(BitmapUtils.generateHashCode(bitmap))
+    }
+
+    @Test
+    fun getHashCode_lockChanged_hashesNewFile() {
+        setWallpaperFile(FLAG_LOCK, id = 1, createBitmap(Color.BLUE))
+        underTest.getHashCode(FLAG_LOCK)
+
+        val bitmap = createBitmap(Color.RED)
+        setWallpaperFile(FLAG_LOCK, id = 2, bitmap)
+
+        assertThat(underTest.getHashCode(FLAG_LOCK))
+            .isEqualTo(BitmapUtils.generateHashCode(bitmap))
+    }
+
+    @Test
+    fun getHashCode_noLockFile_returnsZero() {
+        assertThat(underTest.getHashCode(FLAG_LOCK)).isEqualTo(0)
+    }
+
+    @Test
+    fun getHashCode_lockFileNotAnImage_returnsZero() {
+        val file = temporaryFolder.newFile()
+        file.writeText("not an image")
+        setWallpaperFile(FLAG_LOCK, id = 1, file)
+
+        assertThat(underTest.getHashCode(FLAG_LOCK)).isEqualTo(0)
+    }
+
+    @Test
+    fun hashContent_differentBytes_differs() {
+        assertThat(WallpaperFingerprinter.hashContent(ByteArrayInputStream(byteArrayOf(1, 2))))
+            .isNotEqualTo(
+                WallpaperFingerprinter.hashContent(ByteArrayInputStream(byteArrayOf(2, 1)))
+            )
+    }
+
+    private fun setWallpaperFile(which: Int, id: Int, bitmap: Bitmap) {
+        val file = temporaryFolder.newFile()
+        file.outputStream().use { bitmap.compress(Bitmap.CompressFormat.PNG, 100, it) }
+        setWallpaperFile(which, id, file)
+    }
+
+    private fun setWallpaperFile(which: Int, id: Int, file: File) {
+        doReturn(id).`when`(wallpaperManager).getWallpaperId(which)
+        // Every call opens a new descriptor since the fingerprinter closes the ones it gets.
+        doAnswer { ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY) }
+            .`when`(wallpaperManager)
+            .getWallpaperFile(which)
+    }
+
+    private fun createBitmap(color: Int): Bitmap =
+        Bitmap.createBitmap(40, 30, Bitmap.Config.ARGB_8888).apply { eraseColor(color) }
+}
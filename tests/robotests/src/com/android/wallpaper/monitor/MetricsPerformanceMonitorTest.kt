@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.monitor
+
+import androidx.test.filters.SmallTest
+import com.android.wallpaper.monitor.MetricsPerformanceMonitor.SET_WALLPAPER_STREAM_REENCODED_PEAK_HEAP
+import com.android.wallpaper.monitor.MetricsPerformanceMonitor.SET_WALLPAPER_STREAM_THROUGH_PEAK_HEAP
+import com.google.common.truth.Truth.assertThat
+import java.io.PrintWriter
+import java.io.StringWriter
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@SmallTest
+@RunWith(JUnit4::class)
+class MetricsPerformanceMonitorTest {
+
+    private val underTest = MetricsPerformanceMonitor()
+
+    @Test
+    fun recordAssetDecode_groupsByClassAndSize() {
+        underTest.recordAssetDecode(String::class.java, 1000, 1000, 2_000_000L)
+        underTest.recordAssetDecode(String::class.java, 1000, 1000, 4_000_000L)
+        underTest.recordAssetDecode(String::class.java, 4000, 3000, 9_000_000L)
+
+        val small = underTest.getHistogram("asset_decode/String/1M")!!
+        assertThat(small.count).isEqualTo(2)
+        assertThat(small.totalMicros).isEqualTo(6_000L)
+        assertThat(small.maxMicros).isEqualTo(4_000L)
+        assertThat(underTest.getHistogram("asset_decode/String/16M")!!.count).isEqualTo(1)
+    }
+
+    @Test
+    fun recordBitmapCacheLookup_countsHitsAndMisses() {
+        underTest.recordBitmapCacheLookup(true)
+        underTest.recordBitmapCacheLookup(true)
+        underTest.recordBitmapCacheLookup(false)
+
+        assertThat(underTest.getCounter(MetricsPerformanceMonitor.BITMAP_CACHE_HIT)).isEqualTo(2)
+        assertThat(underTest.getCounter(MetricsPerformanceMonitor.BITMAP_CACHE_MISS)).isEqualTo(1)
+    }
+
+    @Test
+    fun histogram_percentiles_boundedByBucketsAndMax() {
+        repeat(90) { underTest.recordColorExtraction(10_000L) }
+        repeat(10) { underTest.recordColorExtraction(1_000_000L) }
+
+        val snapshot = underTest.getHistogram(MetricsPerformanceMonitor.COLOR_EXTRACTION)!!
+        assertThat(snapshot.count).isEqualTo(100)
+        assertThat(snapshot.getPercentileMicros(50.0)).isIn(10L..15L)
+        assertThat(snapshot.getPercentileMicros(99.0)).isEqualTo(1_000L)
+    }
+
+    @Test
+    fun recordFromManyThreads_countsEveryValue() {
+        val threads =
+            List(8) {
+                Thread { repeat(10_000) { underTest.recordCategoryFetch("live", it % 50L) } }
+            }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertThat(underTest.getHistogram("category_fetch/live")!!.count).isEqualTo(80_000)
+    }
+
+    @Test
+    fun recordSetWallpaperStream_keepsLargestHeapGrowthPerMode() {
+        underTest.recordSetWallpaperStream(true, 300L, 8_000_000L)
+        underTest.recordSetWallpaperStream(true, 200L, 2_000_000L)
+        underTest.recordSetWallpaperStream(false, 50L, 64_000L)
+
+        assertThat(underTest.getMax(SET_WALLPAPER_STREAM_REENCODED_PEAK_HEAP)).isEqualTo(8_000_000L)
+        assertThat(underTest.getMax(SET_WALLPAPER_STREAM_THROUGH_PEAK_HEAP)).isEqualTo(64_000L)
+        val output = StringWriter()
+        PrintWriter(output).use { underTest.dump("", it) }
+        assertThat(output.toString())
+            .contains("set_wallpaper/stream_reencoded/peak_heap_growth_bytes: max=8000000")
+    }
+
+    @Test
+    fun dump_printsRecordedMetricsOnly() {
+        underTest.recordSetWallpaperPhase(PerformanceMonitor.SET_WALLPAPER_PHASE_APPLY, 120L)
+        val output = StringWriter()
+
+        PrintWriter(output).use { underTest.dump("", it) }
+
+        assertThat(output.toString()).contains("set_wallpaper/apply: count=1")
+        assertThat(output.toString()).doesNotContain("set_wallpaper/crop")
+    }
+}
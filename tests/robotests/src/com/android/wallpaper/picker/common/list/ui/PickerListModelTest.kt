@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.common.list.ui
+
+import androidx.recyclerview.widget.ListUpdateCallback
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@OptIn(ExperimentalCoroutinesApi::class)
+@SmallTest
+@RunWith(RobolectricTestRunner::class)
+class PickerListModelTest {
+
+    private val underTest =
+        PickerListModel<Item>(
+            tag = "PickerListModelTest",
+            getItemId = { it.id },
+            areContentsTheSame = { old, new -> old == new },
+        )
+    private val callback = RecordingCallback()
+
+    @Test
+    fun submit_oneItemChanged_onlyNotifiesThatItem() {
+        underTest.submit(listOf(Item("a", 1), Item("b", 1), Item("c", 1)), callback)
+        callback.events.clear()
+
+        underTest.submit(listOf(Item("a", 1), Item("b", 2), Item("c", 1)), callback)
+
+        assertThat(callback.events).containsExactly("changed 1 1")
+        assertThat(underTest.items.map { it.version }).containsExactly(1, 2, 1).inOrder()
+    }
+
+    @Test
+    fun submit_itemRemoved_onlyNotifiesRemoval() {
+        underTest.submit(listOf(Item("a", 1), Item("b", 1), Item("c", 1)), callback)
+        callback.events.clear()
+
+        underTest.submit(listOf(Item("a", 1), Item("c", 1)), callback)
+
+        assertThat(callback.events).containsExactly("removed 1 1")
+    }
+
+    @Test
+    fun update_supersededWhileBuilding_isDropped() = runTest {
+        val dispatcher = StandardTestDispatcher(testScheduler)
+
+        val isUpdated =
+            underTest.update(dispatcher, callback) {
+                // A newer list is submitted while this one is being built.
+                underTest.submit(listOf(Item("b", 1)), callback)
+                listOf(Item("a", 1))
+            }
+
+        assertThat(isUpdated).isFalse()
+        assertThat(underTest.items).containsExactly(Item("b", 1))
+    }
+
+    private data class Item(val id: String, val version: Int)
+
+    private class RecordingCallback : ListUpdateCallback {
+        val events = mutableListOf<String>()
+
+        override fun onInserted(position: Int, count: Int) {
+            events.add("inserted $position $count")
+        }
+
+        override fun onRemoved(position: Int, count: Int) {
+            events.add("removed $position $count")
+        }
+
+        override fun onMoved(fromPosition: Int, toPosition: Int) {
+            events.add("moved $fromPosition $toPosition")
+        }
+
+        override fun onChanged(position: Int, count: Int, payload: Any?) {
+            events.add("changed $position $count")
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.common.list.ui
+
+import android.app.Activity
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.graphics.Point
+import android.graphics.Rect
+import android.graphics.drawable.Drawable
+import android.os.SystemClock
+import android.view.View
+import android.view.View.MeasureSpec
+import android.view.ViewGroup
+import androidx.recyclerview.widget.GridLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.asset.Asset
+import com.bumptech.glide.request.Request
+import com.bumptech.glide.request.target.CustomTarget
+import com.bumptech.glide.request.target.Target
+import com.bumptech.glide.request.transition.Transition
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ThumbnailPrefetcherTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    /** Request of the latest prefetch of each adapter position. */
+    private val requests = mutableMapOf<Int, Request>()
+    private val layoutManager = GridLayoutManager(context, SPAN_COUNT)
+    private lateinit var recyclerView: RecyclerView
+    private lateinit var underTest: ThumbnailPrefetcher
+
+    @Before
+    fun setUp() {
+        recyclerView = RecyclerView(context)
+        recyclerView.layoutManager = layoutManager
+        recyclerView.adapter = TileAdapter()
+        layOut()
+        underTest =
+            ThumbnailPrefetcher(
+                context,
+                getThumbnail = { PrefetchedAsset(it) },
+                getTileSize = { Point(TILE_SIZE, TILE_SIZE) },
+            )
+        underTest.attach(recyclerView)
+        // The first scroll event then starts from a standstill.
+        SystemClock.sleep(1000)
+    }
+
+    @Test
+    fun onScrolled_forward_prefetchesRowBelowVisibleTiles() {
+        // Rows 0 to 4, positions 0 to 14, are visible.
+        underTest.onScrolled(recyclerView, 0, 10)
+
+        assertThat(requests.keys).containsExactly(15, 16, 17)
+    }
+
+    @Test
+    fun onScrolled_backward_prefetchesRowAboveVisibleTiles() {
+        scrollTo(45)
+
+        underTest.onScrolled(recyclerView, 0, -10)
+
+        assertThat(requests.keys).containsExactly(42, 43, 44)
+    }
+
+    @Test
+    fun onScrolled_tilesLeaveRange_cancelsTheirPrefetches() {
+        underTest.onScrolled(recyclerView, 0, 10)
+        val leftRange = (15..17).map { requests.getValue(it) }
+
+        scrollTo(30)
+        underTest.onScrolled(recyclerView, 0, 10)
+
+        leftRange.forEach { verify(it).clear() }
+        assertThat(requests.keys).containsAtLeast(45, 46, 47)
+        (45..47).forEach { verify(requests.getValue(it), never()).clear() }
+    }
+
+    @Test
+    fun onScrolled_fast_prefetchesMoreRows() {
+        underTest.onScrolled(recyclerView, 0, 10)
+        SystemClock.sleep(16)
+
+        underTest.onScrolled(recyclerView, 0, 200)
+
+        assertThat(requests.keys).containsExactlyElementsIn(15..26)
+    }
+
+    @Test
+    fun onTrimMemory_runningLow_cutsBackToOneRow() {
+        underTest.onScrolled(recyclerView, 0, 10)
+        SystemClock.sleep(16)
+        underTest.onScrolled(recyclerView, 0, 200)
+
+        underTest.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+
+        (15..17).forEach { verify(requests.getValue(it), never()).clear() }
+        (18..26).forEach { verify(requests.getValue(it)).clear() }
+    }
+
+    @Test
+    fun onTrimMemory_uiHidden_cancelsEveryPrefetch() {
+        underTest.onScrolled(recyclerView, 0, 10)
+
+        underTest.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+
+        requests.values.forEach { verify(it).clear() }
+    }
+
+    @Test
+    fun onLowMemory_cancelsAndStopsPrefetching() {
+        underTest.onScrolled(recyclerView, 0, 10)
+
+        underTest.onLowMemory()
+
+        requests.values.forEach { verify(it).clear() }
+        requests.clear()
+        underTest.onScrolled(recyclerView, 0, 10)
+        assertThat(requests).isEmpty()
+    }
+
+    private fun scrollTo(position: Int) {
+        layoutManager.scrollToPositionWithOffset(position, 0)
+        layOut()
+    }
+
+    private fun layOut() {
+        recyclerView.measure(
+            MeasureSpec.makeMeasureSpec(SPAN_COUNT * TILE_SIZE, MeasureSpec.EXACTLY),
+            MeasureSpec.makeMeasureSpec(VISIBLE_ROWS * TILE_SIZE, MeasureSpec.EXACTLY),
+        )
+        recyclerView.layout(0, 0, SPAN_COUNT * TILE_SIZE, VISIBLE_ROWS * TILE_SIZE)
+    }
+
+    private class TileAdapter : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) =
+            object :
+                RecyclerView.ViewHolder(
+                    View(parent.context).apply {
+                        layoutParams =
+                            RecyclerView.LayoutParams(
+                                ViewGroup.LayoutParams.MATCH_PARENT,
+                                TILE_SIZE,
+                            )
+                    }
+                ) {}
+
+        override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {}
+
+        override fun getItemCount() = ITEM_COUNT
+    }
+
+    /** Records a mock request for each prefetch of the tile at [position]. */
+    private inner class PrefetchedAsset(private val position: Int) : Asset() {
+        override fun preloadDrawable(context: Context, width: Int, height: Int): Target<Drawable> {
+            val request = mock(Request::class.java)
+            requests[position] = request
+            return RequestTarget(request)
+        }
+
+        override fun decodeBitmap(
+            targetWidth: Int,
+            targetHeight: Int,
+            hardwareBitmapAllowed: Boolean,
+            receiver: Asset.BitmapReceiver,
+        ) {}
+
+        override fun decodeBitmap(receiver: Asset.BitmapReceiver) {}
+
+        override fun decodeBitmapRegion(
+            rect: Rect,
+            targetWidth: Int,
+            targetHeight: Int,
+            shouldAdjustForRtl: Boolean,
+            receiver: Asset.BitmapReceiver,
+        ) {}
+
+        override fun decodeRawDimensions(activity: Activity?, receiver: Asset.DimensionsReceiver) {}
+
+        override fun supportsTiling() = false
+    }
+
+    /** Target of a prefetch, which Glide cancels by clearing its request. */
+    private class RequestTarget(request: Request) : CustomTarget<Drawable>() {
+        init {
+            setRequest(request)
+        }
+
+        override fun onResourceReady(resource: Drawable, transition: Transition<in Drawable>?) {}
+
+        override fun onLoadCleared(placeholder: Drawable?) {}
+    }
+
+    private companion object {
+        const val SPAN_COUNT = 3
+        const val TILE_SIZE = 100
+        const val VISIBLE_ROWS = 5
+        const val ITEM_COUNT = 90
+    }
+}
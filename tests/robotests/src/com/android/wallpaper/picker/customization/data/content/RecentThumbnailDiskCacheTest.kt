@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.wallpaper.picker.customization.data.content
+
+import android.graphics.Bitmap
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@SmallTest
+@RunWith(RobolectricTestRunner::class)
+class RecentThumbnailDiskCacheTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun get_afterPutFromOtherInstance_returnsThumbnail() {
+        RecentThumbnailDiskCache(temporaryFolder.root).put("a", 1L, createThumbnail())
+
+        assertThat(RecentThumbnailDiskCache(temporaryFolder.root).get("a", 1L)).isNotNull()
+    }
+
+    @Test
+    fun put_newerUpdate_dropsOlderUpdateOnly() {
+        val underTest = RecentThumbnailDiskCache(temporaryFolder.root)
+        underTest.put("a", 1L, createThumbnail())
+        underTest.put("a-b", 1L, createThumbnail())
+
+        underTest.put("a", 2L, createThumbnail())
+
+        assertThat(underTest.get("a", 1L)).isNull()
+        assertThat(underTest.get("a", 2L)).isNotNull()
+        assertThat(underTest.get("a-b", 1L)).isNotNull()
+    }
+
+    @Test
+    fun put_pastMaxEntries_dropsOldest() {
+        val underTest = RecentThumbnailDiskCache(temporaryFolder.root, maxEntries = 2)
+        underTest.put("a", 1L, createThumbnail())
+        temporaryFolder.root.listFiles()!!.forEach { it.setLastModified(0L) }
+
+        underTest.put("b", 1L, createThumbnail())
+        underTest.put("c", 1L, createThumbnail())
+
+        assertThat(underTest.get("a", 1L)).isNull()
+        assertThat(underTest.get("b", 1L)).isNotNull()
+        assertThat(underTest.get("c", 1L)).isNotNull()
+    }
+
+    private fun createThumbnail() = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888)
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.wallpaper.picker.customization.data.content
+
+import androidx.test.filters.SmallTest
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
+import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
+import com.android.wallpaper.testing.collectLastValue
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@OptIn(ExperimentalCoroutinesApi::class)
+@SmallTest
+@RunWith(JUnit4::class)
+class RecentWallpapersEngineTest {
+
+    private val testScope = TestScope()
+    private var loadCount = 0
+    private val underTest =
+        RecentWallpapersEngine(
+            scope = testScope.backgroundScope,
+            load = { listOf(createWallpaper("${it.name}-${++loadCount}")) },
+            debounceMillis = DEBOUNCE_MILLIS,
+        )
+
+    @Test
+    fun recentWallpapers_severalSubscribers_loadsOnce() =
+        testScope.runTest {
+            val first = collectLastValue(underTest.recentWallpapers(WallpaperDestination.HOME))
+            val second = collectLastValue(underTest.recentWallpapers(WallpaperDestination.HOME))
+            runCurrent()
+
+            assertThat(first()).containsExactly(createWallpaper("HOME-1"))
+            assertThat(second()).containsExactly(createWallpaper("HOME-1"))
+            assertThat(loadCount).isEqualTo(1)
+        }
+
+    @Test
+    fun onRecentsChanged_burst_reloadsOnceSettled() =
+        testScope.runTest {
+            val recents = collectLastValue(underTest.recentWallpapers(WallpaperDestination.HOME))
+            runCurrent()
+
+            repeat(5) {
+                underTest.onRecentsChanged()
+                advanceTimeBy(DEBOUNCE_MILLIS / 2)
+            }
+            assertThat(recents()).containsExactly(createWallpaper("HOME-1"))
+
+            advanceTimeBy(DEBOUNCE_MILLIS + 1)
+            assertThat(recents()).containsExactly(createWallpaper("HOME-2"))
+            assertThat(loadCount).isEqualTo(2)
+        }
+
+    private fun createWallpaper(id: String) =
+        WallpaperModel(wallpaperId = id, placeholderColor = 0, title = null)
+
+    private companion object {
+        const val DEBOUNCE_MILLIS = 100L
+    }
+}
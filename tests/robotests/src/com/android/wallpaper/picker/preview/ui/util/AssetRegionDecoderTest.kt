@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.preview.ui.util
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Point
+import android.graphics.Rect
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.asset.FileAsset
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class AssetRegionDecoderTest {
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private lateinit var underTest: AssetRegionDecoder
+
+    @Before
+    fun setUp() {
+        // Red on the left half, blue on the right half.
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(Color.RED)
+        Canvas(bitmap).apply {
+            clipRect(WIDTH / 2, 0, WIDTH, HEIGHT)
+            drawColor(Color.BLUE)
+        }
+        val file = temporaryFolder.newFile("wallpaper.png")
+        file.outputStream().use { bitmap.compress(Bitmap.CompressFormat.PNG, 100, it) }
+        underTest = AssetRegionDecoder(FileAsset(file), Point(WIDTH, HEIGHT))
+    }
+
+    @Test
+    fun init_returnsRawSize() {
+        assertThat(underTest.init(ApplicationProvider.getApplicationContext(), Uri.EMPTY))
+            .isEqualTo(Point(WIDTH, HEIGHT))
+    }
+
+    @Test
+    fun decodeRegion_decodesRegionAtOffset() {
+        val tile = underTest.decodeRegion(Rect(WIDTH / 2, 0, WIDTH, HEIGHT / 2), 1)
+
+        assertThat(tile.width).isEqualTo(WIDTH / 2)
+        assertThat(tile.height).isEqualTo(HEIGHT / 2)
+        assertThat(tile.getPixel(0, 0)).isEqualTo(Color.BLUE)
+    }
+
+    @Test
+    fun decodeRegion_sampleSize_decodesSampledTile() {
+        val tile = underTest.decodeRegion(Rect(0, 0, WIDTH / 2, HEIGHT), 2)
+
+        assertThat(tile.width).isEqualTo(WIDTH / 4)
+        assertThat(tile.height).isEqualTo(HEIGHT / 2)
+        assertThat(tile.getPixel(tile.width - 1, 0)).isEqualTo(Color.RED)
+    }
+
+    @Test
+    fun recycle_isNotReadyAndDoesNotDecode() {
+        underTest.recycle()
+
+        assertThat(underTest.isReady).isFalse()
+        assertThrows(IllegalStateException::class.java) {
+            underTest.decodeRegion(Rect(0, 0, WIDTH, HEIGHT), 1)
+        }
+    }
+
+    private companion object {
+        const val WIDTH = 400
+        const val HEIGHT = 300
+    }
+}
@@ -106,4 +106,19 @@ class FullResImageViewUtilTest {
         assertThat(scaleAndCenter.minScale).isEqualTo(8F)
         assertThat(scaleAndCenter.maxScale).isEqualTo(8F)
     }
+
+    @Test
+    fun shouldTile_largeTilingAsset_isTrue() {
+        assertThat(FullResImageViewUtil.shouldTile(true, Point(4000, 3000), 1080)).isTrue()
+    }
+
+    @Test
+    fun shouldTile_lessThanTwiceTheBaseLayer_isFalse() {
+        assertThat(FullResImageViewUtil.shouldTile(true, Point(4000, 2000), 1080)).isFalse()
+    }
+
+    @Test
+    fun shouldTile_assetWithoutTiling_isFalse() {
+        assertThat(FullResImageViewUtil.shouldTile(false, Point(4000, 3000), 1080)).isFalse()
+    }
 }
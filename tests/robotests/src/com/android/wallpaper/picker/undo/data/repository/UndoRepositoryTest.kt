@@ -21,6 +21,8 @@ import androidx.test.filters.SmallTest
 import com.android.wallpaper.testing.collectLastValue
 import com.android.wallpaper.testing.snapshot
 import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.test.runTest
 import org.junit.Before
@@ -77,4 +79,75 @@ class UndoRepositoryTest {
         assertThat(isUndoable()).isFalse()
         assertThat(underTest.getAllDirty()).isEmpty()
     }
+
+    @Test
+    fun `push and undo steps`() {
+        val ownerId = 1
+        underTest.putSnapshot(ownerId, snapshot(ownerId, 0))
+        underTest.pushSnapshot(ownerId, snapshot(ownerId, 1))
+        underTest.pushSnapshot(ownerId, snapshot(ownerId, 2))
+
+        assertThat(underTest.getLatestSnapshot(ownerId)).isEqualTo(snapshot(ownerId, 2))
+        assertThat(underTest.undo(ownerId)).isEqualTo(snapshot(ownerId, 1))
+        assertThat(underTest.getAllDirty()).containsExactly(ownerId)
+        assertThat(underTest.undo(ownerId)).isEqualTo(snapshot(ownerId, 0))
+        assertThat(underTest.getAllDirty()).isEmpty()
+        assertThat(underTest.undo(ownerId)).isNull()
+    }
+
+    @Test
+    fun `push past max steps - drops oldest`() {
+        val ownerId = 1
+        underTest = UndoRepository(maxStepsPerOwner = 2)
+        underTest.putSnapshot(ownerId, snapshot(ownerId, 0))
+        (1..3).forEach { underTest.pushSnapshot(ownerId, snapshot(ownerId, it)) }
+
+        assertThat(underTest.undo(ownerId)).isEqualTo(snapshot(ownerId, 2))
+        assertThat(underTest.undo(ownerId)).isEqualTo(snapshot(ownerId, 0))
+    }
+
+    @Test
+    fun `last changed owner`() {
+        underTest.putSnapshot(1, snapshot(1, 0))
+        underTest.putSnapshot(2, snapshot(2, 0))
+        assertThat(underTest.getLastChangedOwnerId()).isNull()
+
+        underTest.pushSnapshot(2, snapshot(2, 1))
+        underTest.pushSnapshot(1, snapshot(1, 1))
+        assertThat(underTest.getLastChangedOwnerId()).isEqualTo(1)
+
+        underTest.undo(1)
+        assertThat(underTest.getLastChangedOwnerId()).isEqualTo(2)
+    }
+
+    @Test
+    fun `concurrent pushes - keep a bounded history per owner`() {
+        val ownerIds = 1..4
+        val maxSteps = 5
+        underTest = UndoRepository(maxStepsPerOwner = maxSteps)
+        ownerIds.forEach { underTest.putSnapshot(it, snapshot(it, 0)) }
+        val start = CountDownLatch(1)
+
+        // Two threads per owner, so that pushes race both across and within owners.
+        (0 until 2 * ownerIds.count())
+            .map { index ->
+                val ownerId = ownerIds.first + index % ownerIds.count()
+                thread {
+                    start.await()
+                    (1..200).forEach {
+                        underTest.pushSnapshot(ownerId, snapshot(ownerId, index * 1000 + it))
+                    }
+                }
+            }
+            .also { start.countDown() }
+            .forEach { it.join() }
+
+        assertThat(underTest.getAllDirty()).containsExactlyElementsIn(ownerIds.toList())
+        ownerIds.forEach { ownerId ->
+            val undone = generateSequence { underTest.undo(ownerId) }.toList()
+            assertThat(undone).hasSize(maxSteps)
+            assertThat(undone.last()).isEqualTo(snapshot(ownerId, 0))
+        }
+        assertThat(underTest.getAllDirty()).isEmpty()
+    }
 }
@@ -26,6 +26,7 @@ import com.google.common.truth.Truth.assertThat
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.test.StandardTestDispatcher
 import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runCurrent
 import kotlinx.coroutines.test.runTest
 import org.junit.Before
 import org.junit.Test
@@ -79,4 +80,31 @@ class UndoInteractorTest {
             assertThat(FAKE_RESTORERS[2]?.restored).isEqualTo(snapshot(2, 0))
             assertThat(FAKE_RESTORERS[3]?.restored).isNull()
         }
+
+    @Test
+    fun `undo - reverts one step at a time`() =
+        testScope.runTest {
+            val isUndoable = collectLastValue(underTest.isUndoable)
+            underTest.startSession()
+            runCurrent()
+
+            FAKE_RESTORERS[1]?.update(1)
+            FAKE_RESTORERS[2]?.update(1)
+            FAKE_RESTORERS[2]?.update(2)
+
+            assertThat(underTest.undo()).isTrue()
+            runCurrent()
+            assertThat(FAKE_RESTORERS[2]?.restored).isEqualTo(snapshot(2, 1))
+
+            assertThat(underTest.undo()).isTrue()
+            runCurrent()
+            assertThat(FAKE_RESTORERS[2]?.restored).isEqualTo(snapshot(2, 0))
+            assertThat(isUndoable()).isTrue()
+
+            assertThat(underTest.undo()).isTrue()
+            runCurrent()
+            assertThat(FAKE_RESTORERS[1]?.restored).isEqualTo(snapshot(1, 0))
+            assertThat(isUndoable()).isFalse()
+            assertThat(underTest.undo()).isFalse()
+        }
 }
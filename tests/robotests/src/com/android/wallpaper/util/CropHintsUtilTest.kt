@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.graphics.Point
+import android.graphics.Rect
+import com.android.wallpaper.util.CropHintsUtil.coveringRegion
+import com.android.wallpaper.util.CropHintsUtil.displayScale
+import com.android.wallpaper.util.CropHintsUtil.relativeTo
+import com.android.wallpaper.util.CropHintsUtil.scaledTo
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CropHintsUtilTest {
+
+    @Test
+    fun scaledTo_sameSize_isUnchanged() {
+        val cropHints = mapOf(HANDSET to Rect(100, 0, 1180, 2340))
+
+        assertThat(cropHints.scaledTo(WALLPAPER_SIZE, WALLPAPER_SIZE)).isSameInstanceAs(cropHints)
+    }
+
+    @Test
+    fun scaledTo_downsampledBitmap_scalesHints() {
+        val cropHints = mapOf(HANDSET to Rect(400, 200, 2000, 3000))
+
+        assertThat(cropHints.scaledTo(Point(1000, 750), WALLPAPER_SIZE))
+            .isEqualTo(mapOf(HANDSET to Rect(100, 50, 500, 750)))
+    }
+
+    @Test
+    fun relativeTo_region_offsetsAndScalesHints() {
+        val cropHints =
+            mapOf(
+                HANDSET to Rect(1000, 500, 2000, 2500),
+                TABLET to Rect(1500, 1000, 3000, 2000),
+            )
+        val region = cropHints.coveringRegion(WALLPAPER_SIZE)
+
+        assertThat(region).isEqualTo(Rect(1000, 500, 3000, 2500))
+        assertThat(cropHints.relativeTo(region, Point(1000, 1000)))
+            .isEqualTo(
+                mapOf(
+                    HANDSET to Rect(0, 0, 500, 1000),
+                    TABLET to Rect(250, 250, 1000, 750),
+                )
+            )
+    }
+
+    @Test
+    fun coveringRegion_noHints_isWholeWallpaper() {
+        assertThat(emptyMap<Point, Rect>().coveringRegion(WALLPAPER_SIZE))
+            .isEqualTo(Rect(0, 0, WALLPAPER_SIZE.x, WALLPAPER_SIZE.y))
+    }
+
+    @Test
+    fun coveringRegion_hintOutsideWallpaper_isClamped() {
+        assertThat(mapOf(HANDSET to Rect(3000, 2000, 5000, 4000)).coveringRegion(WALLPAPER_SIZE))
+            .isEqualTo(Rect(3000, 2000, 4000, 3000))
+    }
+
+    @Test
+    fun displayScale_hintsLargerThanDisplays_isLargestDisplayRatio() {
+        val cropHints =
+            mapOf(
+                Point(1000, 2000) to Rect(0, 0, 2000, 4000),
+                Point(1500, 1000) to Rect(0, 0, 2000, 2000),
+            )
+
+        assertThat(cropHints.displayScale()).isEqualTo(0.75f)
+    }
+
+    @Test
+    fun displayScale_hintSmallerThanDisplay_isOne() {
+        assertThat(mapOf(HANDSET to Rect(0, 0, 540, 1170)).displayScale()).isEqualTo(1f)
+    }
+
+    @Test
+    fun displayScale_noHints_isOne() {
+        assertThat(emptyMap<Point, Rect>().displayScale()).isEqualTo(1f)
+    }
+
+    private companion object {
+        val WALLPAPER_SIZE = Point(4000, 3000)
+        val HANDSET = Point(1080, 2340)
+        val TABLET = Point(2560, 1600)
+    }
+}
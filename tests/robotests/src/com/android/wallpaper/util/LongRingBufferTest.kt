@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import com.google.common.truth.Truth.assertThat
+import java.io.IOException
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class LongRingBufferTest {
+
+    @Test
+    fun add_overCapacity_dropsOldestValues() {
+        val buffer = LongRingBuffer(3)
+
+        (1L..5L).forEach { buffer.add(it) }
+
+        assertThat(buffer.size).isEqualTo(3)
+        assertThat(buffer.toLongArray()).asList().containsExactly(3L, 4L, 5L).inOrder()
+        assertThat(buffer.lastOrDefault(-1)).isEqualTo(5L)
+    }
+
+    @Test
+    fun lastOrDefault_empty_returnsDefault() {
+        assertThat(LongRingBuffer(3).lastOrDefault(-1)).isEqualTo(-1L)
+    }
+
+    @Test
+    fun valuesInRange_returnsValuesWithinHalfOpenRange() {
+        val buffer = LongRingBuffer(4)
+        listOf(10L, 20L, 30L, 40L, 50L).forEach { buffer.add(it) }
+
+        assertThat(buffer.valuesInRange(20, 40)).asList().containsExactly(20L, 30L).inOrder()
+    }
+
+    @Test
+    fun decode_encodedBuffer_returnsSameValues() {
+        val buffer = LongRingBuffer(3)
+        listOf(1_700_000_000_000L, 1_700_086_400_000L, 1_699_000_000_000L, -5L).forEach {
+            buffer.add(it)
+        }
+
+        val decoded = LongRingBuffer.decode(buffer.encode(), 3)
+
+        assertThat(decoded.toLongArray()).isEqualTo(buffer.toLongArray())
+    }
+
+    @Test
+    fun decode_smallerCapacity_keepsMostRecentValues() {
+        val buffer = LongRingBuffer(5)
+        (1L..5L).forEach { buffer.add(it) }
+
+        val decoded = LongRingBuffer.decode(buffer.encode(), 2)
+
+        assertThat(decoded.toLongArray()).asList().containsExactly(4L, 5L).inOrder()
+    }
+
+    @Test
+    fun decode_truncatedBytes_throws() {
+        val buffer = LongRingBuffer(2)
+        buffer.add(1_700_000_000_000L)
+        val encoded = buffer.encode()
+
+        assertThrows(IOException::class.java) {
+            LongRingBuffer.decode(encoded.copyOf(encoded.size - 1), 2)
+        }
+    }
+}
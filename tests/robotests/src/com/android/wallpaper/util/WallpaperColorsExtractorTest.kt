@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.app.WallpaperColors
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Color
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayOutputStream
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+
+/**
+ * Checks that [WallpaperColorsExtractor.extractColors] agrees with the previous compress, decode
+ * and extract path. Runs with native graphics so that the extraction does real Skia work.
+ */
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class WallpaperColorsExtractorTest {
+
+    @Test
+    fun calculateExtractionSize_keepsAspectRatioWithinMaxArea() {
+        val (width, height) = WallpaperColorsExtractor.calculateExtractionSize(4000, 3000)
+
+        assertThat(width * height).isAtMost(WallpaperColorsExtractor.MAX_EXTRACTION_AREA)
+        assertThat(width.toFloat() / height).isWithin(0.05f).of(4f / 3f)
+    }
+
+    @Test
+    fun calculateExtractionSize_smallBitmap_isUnchanged() {
+        assertThat(WallpaperColorsExtractor.calculateExtractionSize(100, 50))
+            .isEqualTo(Pair(100, 50))
+    }
+
+    @Test
+    fun extractColors_solidWallpaper_matchesPreviousPath() {
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(Color.BLUE)
+
+        val colors = WallpaperColorsExtractor.extractColors(bitmap)
+
+        assertThat(colors).isNotNull()
+        assertThat(colors!!.primaryColor.toArgb())
+            .isEqualTo(previousPath(bitmap).primaryColor.toArgb())
+    }
+
+    @Test
+    fun extractColors_canceled_returnsNull() {
+        val bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+
+        assertThat(WallpaperColorsExtractor.extractColors(bitmap) { true }).isNull()
+    }
+
+    /** The extraction path [WallpaperColorsExtractor] used before working on a scratch bitmap. */
+    private fun previousPath(bitmap: Bitmap): WallpaperColors {
+        val tmpOut = ByteArrayOutputStream()
+        var decoded = bitmap
+        if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
+            val outByteArray = tmpOut.toByteArray()
+            decoded = BitmapFactory.decodeByteArray(outByteArray, 0, outByteArray.size)
+        }
+        return WallpaperColors.fromBitmap(decoded)
+    }
+
+    private companion object {
+        const val WIDTH = 4000
+        const val HEIGHT = 3000
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Executor
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@SmallTest
+@RunWith(RobolectricTestRunner::class)
+class WorkspacePreviewSchedulerTest {
+
+    private val queuedRenders = mutableListOf<Runnable>()
+    private val underTest =
+        WorkspacePreviewScheduler(
+            Executor { queuedRenders.add(it) },
+            Handler(Looper.getMainLooper()),
+        )
+    private var callCount = 0
+    private val results = mutableListOf<String>()
+
+    @Test
+    fun schedule_sameKeyWhilePending_sharesCall() {
+        underTest.schedule(KEY, ::call, callback("first"))
+        underTest.schedule(KEY, ::call, callback("second"))
+
+        runRenders()
+
+        assertThat(callCount).isEqualTo(1)
+        assertThat(results).containsExactly("first", "second").inOrder()
+    }
+
+    @Test
+    fun schedule_differentKeys_callsForEach() {
+        underTest.schedule(KEY, ::call, callback("home"))
+        underTest.schedule("other", ::call, callback("lock"))
+
+        runRenders()
+
+        assertThat(callCount).isEqualTo(2)
+    }
+
+    @Test
+    fun cancel_beforeCallStarts_skipsCall() {
+        val pendingRender = underTest.schedule(KEY, ::call, callback("first"))
+
+        pendingRender.cancel()
+        runRenders()
+
+        assertThat(callCount).isEqualTo(0)
+        assertThat(results).isEmpty()
+    }
+
+    @Test
+    fun cancel_oneOfMergedRequests_stillDeliversToTheOther() {
+        val pendingRender = underTest.schedule(KEY, ::call, callback("first"))
+        underTest.schedule(KEY, ::call, callback("second"))
+
+        pendingRender.cancel()
+        runRenders()
+
+        assertThat(callCount).isEqualTo(1)
+        assertThat(results).containsExactly("second")
+    }
+
+    private fun callback(name: String) =
+        object : PreviewUtils.WorkspacePreviewCallback {
+            override fun onPreviewRendered(resultBundle: Bundle?) {
+                results.add(name)
+            }
+        }
+
+    private fun call(): Bundle? {
+        callCount++
+        return null
+    }
+
+    private fun runRenders() {
+        queuedRenders.toList().forEach { it.run() }
+        queuedRenders.clear()
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private companion object {
+        const val KEY = "home"
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util.wallpaperconnection
+
+import android.content.ComponentCallbacks2
+import android.os.Handler
+import android.os.Looper
+import androidx.test.filters.SmallTest
+import com.google.common.truth.Truth.assertThat
+import java.time.Duration
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@SmallTest
+@RunWith(RobolectricTestRunner::class)
+class WarmEnginePoolTest {
+
+    private val released = mutableListOf<String>()
+    private val underTest =
+        WarmEnginePool<String>(
+            maxSize = 2,
+            idleTimeoutMillis = IDLE_TIMEOUT_MILLIS,
+            handler = Handler(Looper.getMainLooper()),
+            release = { released.add(it) },
+        )
+
+    @Test
+    fun take_parkedEngine_returnsItWithoutReleasing() {
+        underTest.put("a", "engineA")
+
+        assertThat(underTest.take("a")).isEqualTo("engineA")
+        assertThat(underTest.take("a")).isNull()
+        assertThat(released).isEmpty()
+    }
+
+    @Test
+    fun put_pastMaxSize_releasesLeastRecentlyParked() {
+        underTest.put("a", "engineA")
+        underTest.put("b", "engineB")
+        underTest.put("c", "engineC")
+
+        assertThat(released).containsExactly("engineA")
+        assertThat(underTest.take("b")).isEqualTo("engineB")
+        assertThat(underTest.take("c")).isEqualTo("engineC")
+    }
+
+    @Test
+    fun put_sameKey_releasesPreviousEngine() {
+        underTest.put("a", "engineA")
+        underTest.put("a", "engineA2")
+
+        assertThat(released).containsExactly("engineA")
+        assertThat(underTest.take("a")).isEqualTo("engineA2")
+    }
+
+    @Test
+    fun idleTimeout_releasesEngine() {
+        underTest.put("a", "engineA")
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(IDLE_TIMEOUT_MILLIS))
+
+        assertThat(released).containsExactly("engineA")
+        assertThat(underTest.size).isEqualTo(0)
+    }
+
+    @Test
+    fun idleTimeout_afterTaken_doesNotRelease() {
+        underTest.put("a", "engineA")
+        underTest.take("a")
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(IDLE_TIMEOUT_MILLIS))
+
+        assertThat(released).isEmpty()
+    }
+
+    @Test
+    fun onTrimMemory_runningLow_releasesAll() {
+        underTest.put("a", "engineA")
+        underTest.put("b", "engineB")
+
+        underTest.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+
+        assertThat(released).containsExactly("engineA", "engineB")
+        assertThat(underTest.size).isEqualTo(0)
+    }
+
+    private companion object {
+        const val IDLE_TIMEOUT_MILLIS = 1_000L
+    }
+}